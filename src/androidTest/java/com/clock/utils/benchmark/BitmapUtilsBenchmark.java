@@ -0,0 +1,160 @@
+package com.clock.utils.benchmark;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.clock.utils.bitmap.BitmapUtils;
+import com.clock.utils.text.StringUtils;
+
+import java.io.File;
+import java.util.Random;
+
+/**
+ * 在真机上运行的BitmapUtils基准测试，图片数据按照{@link ImageCorpus}的尺寸现场生成
+ * <p/>
+ * 运行方式：gradle connectedAndroidTest，结果输出到logcat的BitmapUtilsBenchmark标签下
+ */
+public class BitmapUtilsBenchmark extends AndroidTestCase {
+
+    private final static String TAG = "BitmapUtilsBenchmark";
+    private final static int REQUEST_WIDTH = 480;
+    private final static int REQUEST_HEIGHT = 800;
+
+    private File mCorpusFolder;
+    private File mOutputFolder;
+    private String[] mImagePaths;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCorpusFolder = new File(getContext().getCacheDir(), "benchmark_corpus");
+        mOutputFolder = new File(getContext().getCacheDir(), "benchmark_output");
+        mCorpusFolder.mkdirs();
+        mOutputFolder.mkdirs();
+        mImagePaths = new String[ImageCorpus.SIZES.length];
+        for (int i = 0; i < ImageCorpus.SIZES.length; i++) {
+            int width = ImageCorpus.SIZES[i][0];
+            int height = ImageCorpus.SIZES[i][1];
+            File imageFile = new File(mCorpusFolder, ImageCorpus.describe(width, height) + BitmapUtils.JPG_SUFFIX);
+            if (!imageFile.exists()) {
+                Bitmap bitmap = createTestBitmap(width, height);
+                BitmapUtils.saveToFile(bitmap, mCorpusFolder, ImageCorpus.describe(width, height), Bitmap.CompressFormat.JPEG, 90);
+                bitmap.recycle();
+            }
+            mImagePaths[i] = imageFile.getAbsolutePath();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] outputFiles = mOutputFolder.listFiles();
+        if (outputFiles != null) {
+            for (File file : outputFiles) {
+                file.delete();
+            }
+        }
+        super.tearDown();
+    }
+
+    public void testDecodeBitmapFromFile() throws Exception {
+        for (final String imagePath : mImagePaths) {
+            report(Benchmark.run("decodeBitmapFromFile " + new File(imagePath).getName(), 3, 20, 1, new Benchmark.Operation() {
+                @Override
+                public Object run(int iteration) {
+                    Bitmap bitmap = BitmapUtils.decodeBitmapFromFile(imagePath, REQUEST_WIDTH, REQUEST_HEIGHT);
+                    int width = bitmap.getWidth();
+                    bitmap.recycle();
+                    return width;
+                }
+            }));
+        }
+    }
+
+    public void testCalculateInSampleSize() throws Exception {
+        final BitmapFactory.Options[] options = new BitmapFactory.Options[mImagePaths.length];
+        for (int i = 0; i < mImagePaths.length; i++) {
+            options[i] = new BitmapFactory.Options();
+            options[i].inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(mImagePaths[i], options[i]);
+        }
+        report(Benchmark.run("calculateInSampleSize", 100, 500, 100, new Benchmark.Operation() {
+            @Override
+            public Object run(int iteration) {
+                return BitmapUtils.calculateInSampleSize(options[iteration % options.length], REQUEST_WIDTH, REQUEST_HEIGHT);
+            }
+        }));
+    }
+
+    public void testRotateBitmapByDegree() throws Exception {
+        final Bitmap source = BitmapUtils.decodeBitmapFromFile(mImagePaths[3], REQUEST_WIDTH, REQUEST_HEIGHT);
+        report(Benchmark.run("rotateBitmapByDegree " + source.getWidth() + "x" + source.getHeight(), 5, 50, 1, new Benchmark.Operation() {
+            @Override
+            public Object run(int iteration) {
+                Bitmap copy = source.copy(source.getConfig(), true);
+                Bitmap rotated = BitmapUtils.rotateBitmapByDegree(copy, 90);
+                int width = rotated.getWidth();
+                rotated.recycle();
+                return width;
+            }
+        }));
+        source.recycle();
+    }
+
+    public void testSaveToFile() throws Exception {
+        final Bitmap source = BitmapUtils.decodeBitmapFromFile(mImagePaths[3], REQUEST_WIDTH, REQUEST_HEIGHT);
+        report(Benchmark.run("saveToFile " + source.getWidth() + "x" + source.getHeight(), 3, 30, 1, new Benchmark.Operation() {
+            @Override
+            public Object run(int iteration) {
+                return BitmapUtils.saveToFile(source, mOutputFolder, "save_" + iteration);
+            }
+        }));
+        source.recycle();
+    }
+
+    public void testMd5() throws Exception {
+        final String[] keys = new String[256];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = mImagePaths[i % mImagePaths.length] + "#" + i + "#" + REQUEST_WIDTH + "x" + REQUEST_HEIGHT;
+        }
+        report(Benchmark.run("StringUtils.md5", 100, 500, 100, new Benchmark.Operation() {
+            @Override
+            public Object run(int iteration) {
+                return StringUtils.md5(keys[iteration & (keys.length - 1)]);
+            }
+        }));
+    }
+
+    private static void report(Benchmark.Result result) {
+        Log.i(TAG, result.toString());
+        assertTrue(result.opsPerSecond > 0);
+    }
+
+    /**
+     * 生成带渐变和噪点的测试图片，避免纯色图片被JPEG压缩得过小而失去代表性
+     *
+     * @param width
+     * @param height
+     * @return
+     */
+    private static Bitmap createTestBitmap(int width, int height) {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint();
+        paint.setShader(new LinearGradient(0, 0, width, height, Color.RED, Color.BLUE, Shader.TileMode.CLAMP));
+        canvas.drawRect(0, 0, width, height, paint);
+        paint.setShader(null);
+        Random random = new Random(width * 31 + height);
+        for (int i = 0; i < 2000; i++) {
+            paint.setColor(random.nextInt() | 0xFF000000);
+            canvas.drawCircle(random.nextInt(width), random.nextInt(height), 4 + random.nextInt(40), paint);
+        }
+        return bitmap;
+    }
+}
@@ -0,0 +1,174 @@
+package com.clock.utils.benchmark;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * 简单的微基准测试工具，同时用于JVM单元测试（src/test）和真机测试（src/androidTest）
+ * <p/>
+ * 每个样本连续执行opsPerSample次操作，记录平均每次操作的耗时，最后统计吞吐量、耗时分位数以及每次操作分配的内存。
+ * 内存分配在JVM上通过ThreadMXBean统计，在Android上通过Debug.getThreadAllocSize统计，都不可用时为-1
+ * <p/>
+ * Created by Clock on 2016/3/8.
+ */
+public class Benchmark {
+
+    /**
+     * 防止JIT把没有使用结果的操作优化掉
+     */
+    private static volatile int sSink;
+
+    private static Method sJvmAllocatedBytesMethod;
+    private static Object sJvmThreadMXBean;
+    private static Method sAndroidAllocSizeMethod;
+    private static boolean sAllocationCounterInitialized = false;
+
+    private Benchmark() {
+    }
+
+    /**
+     * 执行一项基准测试
+     *
+     * @param name          测试名称
+     * @param warmupSamples 预热的样本数，不计入结果
+     * @param samples       统计的样本数
+     * @param opsPerSample  每个样本执行的操作次数，单次操作很快时应该调大，减少计时本身的误差
+     * @param operation     被测的操作
+     * @return
+     * @throws Exception 被测操作抛出的异常
+     */
+    public static Result run(String name, int warmupSamples, int samples, int opsPerSample, Operation operation) throws Exception {
+        int iteration = 0;
+        for (int i = 0; i < warmupSamples; i++) {
+            for (int j = 0; j < opsPerSample; j++) {
+                consume(operation.run(iteration++));
+            }
+        }
+        long[] sampleNanos = new long[samples];
+        long allocatedBefore = getThreadAllocatedBytes();
+        long startTime = System.nanoTime();
+        for (int i = 0; i < samples; i++) {
+            long sampleStart = System.nanoTime();
+            for (int j = 0; j < opsPerSample; j++) {
+                consume(operation.run(iteration++));
+            }
+            sampleNanos[i] = (System.nanoTime() - sampleStart) / opsPerSample;
+        }
+        long totalNanos = System.nanoTime() - startTime;
+        long allocatedAfter = getThreadAllocatedBytes();
+        long totalOps = (long) samples * opsPerSample;
+        long allocatedPerOp = allocatedBefore < 0 || allocatedAfter < 0 ? -1 : (allocatedAfter - allocatedBefore) / totalOps;
+        Arrays.sort(sampleNanos);
+        return new Result(name, totalOps, totalOps * 1000000000d / totalNanos,
+                percentile(sampleNanos, 0.5), percentile(sampleNanos, 0.9), percentile(sampleNanos, 0.99),
+                sampleNanos[sampleNanos.length - 1], allocatedPerOp);
+    }
+
+    private static long percentile(long[] sortedValues, double percentile) {
+        int index = (int) Math.ceil(percentile * sortedValues.length) - 1;
+        return sortedValues[Math.max(0, Math.min(index, sortedValues.length - 1))];
+    }
+
+    private static void consume(Object result) {
+        if (result != null) {
+            sSink ^= System.identityHashCode(result);
+        }
+    }
+
+    /**
+     * 获取当前线程累计分配的内存字节数
+     *
+     * @return 不支持时返回-1
+     */
+    private static synchronized long getThreadAllocatedBytes() {
+        if (!sAllocationCounterInitialized) {
+            sAllocationCounterInitialized = true;
+            initAllocationCounter();
+        }
+        try {
+            if (sJvmAllocatedBytesMethod != null) {
+                return (Long) sJvmAllocatedBytesMethod.invoke(sJvmThreadMXBean, Thread.currentThread().getId());
+            }
+            if (sAndroidAllocSizeMethod != null) {
+                return ((Integer) sAndroidAllocSizeMethod.invoke(null)).longValue();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return -1;
+    }
+
+    /**
+     * 通过反射获取内存分配计数器，避免在Android上直接引用java.lang.management
+     */
+    private static void initAllocationCounter() {
+        try {
+            Class<?> factoryClass = Class.forName("java.lang.management.ManagementFactory");
+            Object threadMXBean = factoryClass.getMethod("getThreadMXBean").invoke(null);
+            Class<?> sunThreadMXBeanClass = Class.forName("com.sun.management.ThreadMXBean");
+            if (sunThreadMXBeanClass.isInstance(threadMXBean)) {
+                sJvmThreadMXBean = threadMXBean;
+                sJvmAllocatedBytesMethod = sunThreadMXBeanClass.getMethod("getThreadAllocatedBytes", long.class);
+                return;
+            }
+        } catch (Exception e) {
+            //不是HotSpot虚拟机
+        }
+        try {
+            Class<?> debugClass = Class.forName("android.os.Debug");
+            debugClass.getMethod("startAllocCounting").invoke(null);
+            sAndroidAllocSizeMethod = debugClass.getMethod("getThreadAllocSize");
+        } catch (Exception e) {
+            //不是Android虚拟机
+        }
+    }
+
+    /**
+     * 被测的操作
+     */
+    public static interface Operation {
+        /**
+         * @param iteration 从0开始递增的执行序号，可以用来轮流选取测试数据
+         * @return 操作的结果，会被消费掉防止被优化
+         * @throws Exception
+         */
+        public Object run(int iteration) throws Exception;
+    }
+
+    /**
+     * 基准测试结果，耗时单位为纳秒/次
+     */
+    public static class Result {
+
+        public final String name;
+        public final long operations;
+        public final double opsPerSecond;
+        public final long p50Nanos;
+        public final long p90Nanos;
+        public final long p99Nanos;
+        public final long maxNanos;
+        /**
+         * 每次操作分配的内存字节数，不支持统计时为-1
+         */
+        public final long allocatedBytesPerOp;
+
+        Result(String name, long operations, double opsPerSecond, long p50Nanos, long p90Nanos, long p99Nanos,
+               long maxNanos, long allocatedBytesPerOp) {
+            this.name = name;
+            this.operations = operations;
+            this.opsPerSecond = opsPerSecond;
+            this.p50Nanos = p50Nanos;
+            this.p90Nanos = p90Nanos;
+            this.p99Nanos = p99Nanos;
+            this.maxNanos = maxNanos;
+            this.allocatedBytesPerOp = allocatedBytesPerOp;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%-48s %12.1f ops/s  p50 %10d ns  p90 %10d ns  p99 %10d ns  max %10d ns  alloc %8d B/op",
+                    name, opsPerSecond, p50Nanos, p90Nanos, p99Nanos, maxNanos, allocatedBytesPerOp);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.clock.utils.benchmark;
+
+/**
+ * 基准测试使用的图片尺寸集合，覆盖缩略图、屏幕大小、相机照片、全景图以及竖图等不同尺寸和宽高比
+ * <p/>
+ * Created by Clock on 2016/3/8.
+ */
+public class ImageCorpus {
+
+    /**
+     * {宽, 高}
+     */
+    public final static int[][] SIZES = {
+            {320, 240},
+            {640, 480},
+            {1280, 720},
+            {1080, 1920},
+            {1920, 1080},
+            {3264, 2448},
+            {4000, 3000},
+            {6000, 1500},
+            {1500, 6000},
+    };
+
+    /**
+     * 解码时请求的目标尺寸 {宽, 高}
+     */
+    public final static int[][] REQUEST_SIZES = {
+            {100, 100},
+            {480, 800},
+            {1080, 1920},
+    };
+
+    private ImageCorpus() {
+    }
+
+    /**
+     * @param width
+     * @param height
+     * @return 形如 1920x1080 的描述
+     */
+    public static String describe(int width, int height) {
+        return width + "x" + height;
+    }
+}
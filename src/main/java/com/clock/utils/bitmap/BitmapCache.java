@@ -0,0 +1,392 @@
+package com.clock.utils.bitmap;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.v4.util.LruCache;
+import android.text.TextUtils;
+
+import com.clock.utils.text.StringUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 两级Bitmap缓存：内存LRU + 磁盘缓存
+ * <p/>
+ * 内存级按字节大小限制，磁盘级保存的是已经压缩采样过的结果，缓存的key由图片路径、修改时间以及请求尺寸计算md5得到
+ * <p/>
+ * 从缓存中取出的Bitmap仍然由缓存持有，调用方不能回收（包括recycle()、{@link BitmapUtils#recycleBitmap(Bitmap)}），
+ * 被内存缓存淘汰或移除时，如果配置了{@link BitmapUtils#configBitmapPool(BitmapPool)}，会放回Bitmap池供之后的解码复用，
+ * 所以内存缓存应该足够容纳屏幕上同时显示的图片
+ * <p/>
+ * Created by Clock on 2016/2/20.
+ */
+public class BitmapCache {
+
+    /**
+     * 默认使用八分之一的可用堆内存作为内存缓存
+     */
+    public final static float DEFAULT_MEMORY_PERCENT = 0.125f;
+    /**
+     * 默认磁盘缓存大小 20MB
+     */
+    public final static long DEFAULT_DISK_CACHE_SIZE = 20 * 1024 * 1024;
+
+    private final static int DISK_JPEG_QUALITY = 95;
+    private final static int DISK_BUFFER_SIZE = 8 * 1024;
+
+    private final LruCache<String, Bitmap> mMemoryCache;
+    /**
+     * 磁盘缓存目录，为null时只使用内存缓存
+     */
+    private final File mDiskCacheFolder;
+    private final long mMaxDiskCacheSize;
+    /**
+     * 磁盘缓存文件的访问顺序表，key为文件名，value为文件大小
+     */
+    private final LinkedHashMap<String, Long> mDiskEntries = new LinkedHashMap<String, Long>(32, 0.75f, true);
+    private final Object mDiskLock = new Object();
+    private boolean mDiskEntriesLoaded = false;
+    private long mDiskCacheSize = 0;
+    /**
+     * 临时文件序号，同一个key同时写入时各自使用不同的临时文件
+     */
+    private final AtomicInteger mTempSequence = new AtomicInteger();
+
+    private final AtomicLong mMemoryHitCount = new AtomicLong();
+    private final AtomicLong mDiskHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mMemoryEvictionCount = new AtomicLong();
+    private final AtomicLong mDiskEvictionCount = new AtomicLong();
+
+    /**
+     * @param diskCacheFolder 磁盘缓存目录，传null则只使用内存缓存
+     */
+    public BitmapCache(File diskCacheFolder) {
+        this(diskCacheFolder, DEFAULT_MEMORY_PERCENT, DEFAULT_DISK_CACHE_SIZE);
+    }
+
+    /**
+     * @param diskCacheFolder 磁盘缓存目录，传null则只使用内存缓存
+     * @param memoryPercent   内存缓存占最大堆内存的比例，取值范围(0, 0.8]
+     * @param diskCacheSize   磁盘缓存的最大字节数
+     */
+    public BitmapCache(File diskCacheFolder, float memoryPercent, long diskCacheSize) {
+        this.mMemoryCache = new LruCache<String, Bitmap>(calculateMemoryCacheSize(memoryPercent)) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return BitmapUtils.getBitmapAllocationSize(value);
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                if (evicted) {
+                    mMemoryEvictionCount.incrementAndGet();
+                }
+                if (!BitmapPool.unmarkShared(oldValue) || oldValue == newValue) {
+                    return;//同一个Bitmap重复放入时只抵消多出来的一次标记
+                }
+                //只有缓存自己知道Bitmap什么时候不再被持有，此时才能放回池中；放不进池子的交给GC，不主动回收
+                BitmapPool bitmapPool = BitmapUtils.getBitmapPool();
+                if (bitmapPool != null && BitmapPool.isSupported() && oldValue.isMutable()
+                        && BitmapUtils.getBitmapAllocationSize(oldValue) <= bitmapPool.getMaxSize()) {
+                    bitmapPool.put(oldValue);
+                }
+            }
+        };
+        this.mDiskCacheFolder = diskCacheFolder;
+        this.mMaxDiskCacheSize = diskCacheSize;
+    }
+
+    /**
+     * 根据最大堆内存计算内存缓存的字节数
+     *
+     * @param memoryPercent 占最大堆内存的比例
+     * @return
+     */
+    public static int calculateMemoryCacheSize(float memoryPercent) {
+        if (memoryPercent <= 0 || memoryPercent > 0.8f) {
+            throw new IllegalArgumentException("memoryPercent must be between 0 and 0.8 (inclusive)");
+        }
+        return Math.round(memoryPercent * Runtime.getRuntime().maxMemory());
+    }
+
+    /**
+     * 计算缓存的key
+     *
+     * @param imageFile     图片文件
+     * @param requestWidth  请求的宽度
+     * @param requestHeight 请求的高度
+     * @return
+     */
+    public static String generateKey(File imageFile, int requestWidth, int requestHeight) {
+        return StringUtils.md5(imageFile.getAbsolutePath() + "#" + imageFile.lastModified() + "#" + requestWidth + "x" + requestHeight);
+    }
+
+    /**
+     * 优先从缓存中读取压缩后的Bitmap，缓存不存在时再调用{@link BitmapUtils#decodeBitmapFromFile(String, int, int)}解码并写入缓存
+     *
+     * @param imagePath     图片文件路径
+     * @param requestWidth  压缩到想要的宽度
+     * @param requestHeight 压缩到想要的高度
+     * @return 返回的Bitmap由缓存持有，不能回收
+     */
+    public Bitmap decodeBitmapFromFile(String imagePath, int requestWidth, int requestHeight) {
+        if (TextUtils.isEmpty(imagePath)) {
+            return null;
+        }
+        File imageFile = new File(imagePath);
+        String key = generateKey(imageFile, requestWidth, requestHeight);
+        Bitmap bitmap = get(key);
+        if (bitmap != null) {
+            return bitmap;
+        }
+        bitmap = BitmapUtils.decodeBitmapFromFile(imagePath, requestWidth, requestHeight);
+        if (bitmap != null) {
+            put(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 依次从内存和磁盘中查找缓存，磁盘命中时会回填内存缓存
+     *
+     * @param key
+     * @return 没有命中时返回null，返回的Bitmap仍由缓存持有，不能回收
+     */
+    public Bitmap get(String key) {
+        Bitmap bitmap = mMemoryCache.get(key);
+        if (bitmap != null) {
+            mMemoryHitCount.incrementAndGet();
+            return bitmap;
+        }
+        bitmap = getFromDisk(key);
+        if (bitmap != null) {
+            mDiskHitCount.incrementAndGet();
+            putToMemory(key, bitmap);
+            return bitmap;
+        }
+        mMissCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * 同时写入内存和磁盘缓存
+     *
+     * @param key
+     * @param bitmap
+     */
+    public void put(String key, Bitmap bitmap) {
+        if (TextUtils.isEmpty(key) || bitmap == null) {
+            return;
+        }
+        putToMemory(key, bitmap);
+        putToDisk(key, bitmap);
+    }
+
+    /**
+     * 移除指定key的缓存
+     *
+     * @param key
+     */
+    public void remove(String key) {
+        mMemoryCache.remove(key);
+        if (mDiskCacheFolder == null) {
+            return;
+        }
+        synchronized (mDiskLock) {
+            loadDiskEntriesLocked();
+            Long size = mDiskEntries.remove(key);
+            if (size != null) {
+                mDiskCacheSize -= size;
+                new File(mDiskCacheFolder, key).delete();
+            }
+        }
+    }
+
+    /**
+     * 清空内存缓存
+     */
+    public void clearMemory() {
+        mMemoryCache.evictAll();
+    }
+
+    /**
+     * 清空内存和磁盘缓存
+     */
+    public void clear() {
+        clearMemory();
+        if (mDiskCacheFolder == null) {
+            return;
+        }
+        synchronized (mDiskLock) {
+            loadDiskEntriesLocked();
+            for (String fileName : mDiskEntries.keySet()) {
+                new File(mDiskCacheFolder, fileName).delete();
+            }
+            mDiskEntries.clear();
+            mDiskCacheSize = 0;
+        }
+    }
+
+    public long getMemoryHitCount() {
+        return mMemoryHitCount.get();
+    }
+
+    public long getDiskHitCount() {
+        return mDiskHitCount.get();
+    }
+
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    public long getMemoryEvictionCount() {
+        return mMemoryEvictionCount.get();
+    }
+
+    public long getDiskEvictionCount() {
+        return mDiskEvictionCount.get();
+    }
+
+    /**
+     * @return 内存缓存当前占用的字节数
+     */
+    public int getMemorySize() {
+        return mMemoryCache.size();
+    }
+
+    /**
+     * @return 磁盘缓存当前占用的字节数
+     */
+    public long getDiskSize() {
+        synchronized (mDiskLock) {
+            loadDiskEntriesLocked();
+            return mDiskCacheSize;
+        }
+    }
+
+    private void putToMemory(String key, Bitmap bitmap) {
+        if (BitmapUtils.getBitmapAllocationSize(bitmap) > mMemoryCache.maxSize()) {
+            return;//放入后会被立即淘汰，而调用方还在使用它
+        }
+        BitmapPool.markShared(bitmap);//先标记再放入，淘汰回调中才能正确取消标记
+        mMemoryCache.put(key, bitmap);
+    }
+
+    private Bitmap getFromDisk(String key) {
+        if (mDiskCacheFolder == null) {
+            return null;
+        }
+        File cacheFile = new File(mDiskCacheFolder, key);
+        synchronized (mDiskLock) {
+            loadDiskEntriesLocked();
+            if (mDiskEntries.get(key) == null) {//get会刷新访问顺序
+                return null;
+            }
+        }
+        Bitmap bitmap = BitmapFactory.decodeFile(cacheFile.getAbsolutePath());
+        if (bitmap == null) {//缓存文件已损坏或被外部删除
+            remove(key);
+            return null;
+        }
+        cacheFile.setLastModified(System.currentTimeMillis());//下次重建访问顺序时使用
+        return bitmap;
+    }
+
+    private void putToDisk(String key, Bitmap bitmap) {
+        if (mDiskCacheFolder == null) {
+            return;
+        }
+        if (!mDiskCacheFolder.exists() && !mDiskCacheFolder.mkdirs()) {
+            return;
+        }
+        //加上线程id和序号，相同key并发写入（例如两个线程同时解码同一张图）时不会写进同一个临时文件
+        File tempFile = new File(mDiskCacheFolder, key + "." + Thread.currentThread().getId() + "_" + mTempSequence.incrementAndGet() + ".tmp");
+        File cacheFile = new File(mDiskCacheFolder, key);
+        BufferedOutputStream bos = null;
+        boolean success = false;
+        try {
+            bos = new BufferedOutputStream(new FileOutputStream(tempFile), DISK_BUFFER_SIZE);
+            Bitmap.CompressFormat format = bitmap.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG;
+            success = bitmap.compress(format, DISK_JPEG_QUALITY, bos);
+            bos.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+            success = false;
+        } finally {
+            if (bos != null) {
+                try {
+                    bos.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        if (!success || !tempFile.renameTo(cacheFile)) {
+            tempFile.delete();
+            return;
+        }
+        synchronized (mDiskLock) {
+            loadDiskEntriesLocked();
+            Long oldSize = mDiskEntries.put(key, cacheFile.length());
+            if (oldSize != null) {
+                mDiskCacheSize -= oldSize;
+            }
+            mDiskCacheSize += cacheFile.length();
+            trimDiskLocked();
+        }
+    }
+
+    /**
+     * 首次访问磁盘缓存时，按照最后修改时间重建访问顺序
+     */
+    private void loadDiskEntriesLocked() {
+        if (mDiskEntriesLoaded) {
+            return;
+        }
+        mDiskEntriesLoaded = true;
+        File[] files = mDiskCacheFolder.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (file.getName().endsWith(".tmp")) {//上次写入中断留下的临时文件
+                file.delete();
+                continue;
+            }
+            long size = file.length();
+            mDiskEntries.put(file.getName(), size);
+            mDiskCacheSize += size;
+        }
+        trimDiskLocked();
+    }
+
+    private void trimDiskLocked() {
+        Iterator<Map.Entry<String, Long>> iterator = mDiskEntries.entrySet().iterator();
+        while (mDiskCacheSize > mMaxDiskCacheSize && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            new File(mDiskCacheFolder, eldest.getKey()).delete();
+            mDiskCacheSize -= eldest.getValue();
+            iterator.remove();
+            mDiskEvictionCount.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,453 @@
+package com.clock.utils.bitmap;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.clock.utils.common.BackgroundThreadFactory;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 异步Bitmap解码引擎，封装BitmapUtils的decodeBitmapFrom*系列方法
+ * <p/>
+ * 1.固定大小的解码线程池，线程数等于CPU核数
+ * <p/>
+ * 2.相同key的并发请求只解码一次，结果分发给所有请求方
+ * <p/>
+ * 3.按优先级调度，优先级高的（如当前可见的列表项）先解码
+ * <p/>
+ * 4.同一个tag（如列表项中的ImageView）发起新请求时，自动取消之前的请求
+ * <p/>
+ * Created by Clock on 2016/2/23.
+ */
+public class BitmapDecodeEngine {
+
+    public final static int PRIORITY_LOW = 0;
+    public final static int PRIORITY_NORMAL = 5;
+    public final static int PRIORITY_HIGH = 10;
+
+    private final static int KEEP_ALIVE_SECONDS = 30;
+
+    private static Executor sMainThreadExecutor;
+
+    private final ThreadPoolExecutor mExecutor;
+    /**
+     * 正在排队或解码中的任务，key为解码请求的key
+     */
+    private final Map<String, DecodeJob> mJobs = new HashMap<String, DecodeJob>();
+    /**
+     * tag与其最近一次请求的对应关系，使用弱引用避免泄露View
+     */
+    private final Map<Object, DecodeRequest> mTagRequests = new WeakHashMap<Object, DecodeRequest>();
+    private final AtomicLong mSequence = new AtomicLong();
+    private final long mCreateTime = System.nanoTime();
+    private volatile BitmapCache mBitmapCache;
+
+    private final AtomicLong mSubmitCount = new AtomicLong();
+    private final AtomicLong mMergeCount = new AtomicLong();
+    private final AtomicLong mCancelCount = new AtomicLong();
+    private final AtomicLong mDecodeCount = new AtomicLong();
+    private final AtomicLong mFailureCount = new AtomicLong();
+    private final AtomicLong mDecodeTimeNanos = new AtomicLong();
+    private final AtomicLong mQueueTimeNanos = new AtomicLong();
+
+    public BitmapDecodeEngine() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threadCount 解码线程数
+     */
+    public BitmapDecodeEngine(int threadCount) {
+        threadCount = Math.max(1, threadCount);
+        this.mExecutor = new ThreadPoolExecutor(threadCount, threadCount, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new BackgroundThreadFactory("BitmapDecode"));
+    }
+
+    /**
+     * 配置解码文件时使用的缓存
+     *
+     * @param bitmapCache
+     */
+    public void configBitmapCache(BitmapCache bitmapCache) {
+        this.mBitmapCache = bitmapCache;
+    }
+
+    /**
+     * 在主线程回调的Executor
+     *
+     * @return
+     */
+    public static synchronized Executor mainThreadExecutor() {
+        if (sMainThreadExecutor == null) {
+            final Handler handler = new Handler(Looper.getMainLooper());
+            sMainThreadExecutor = new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    handler.post(command);
+                }
+            };
+        }
+        return sMainThreadExecutor;
+    }
+
+    /**
+     * 异步解码图片文件，见{@link BitmapUtils#decodeBitmapFromFile(String, int, int)}
+     *
+     * @param imagePath        图片文件路径
+     * @param requestWidth     压缩到想要的宽度
+     * @param requestHeight    压缩到想要的高度
+     * @param priority         优先级，数值越大越先解码
+     * @param tag              请求的标识，可以为null，同一个tag发起新请求会取消旧的请求
+     * @param callback         结果回调
+     * @param callbackExecutor 执行回调的Executor，传null则在主线程回调
+     * @return
+     */
+    public DecodeRequest decodeFile(final String imagePath, final int requestWidth, final int requestHeight, int priority,
+                                    Object tag, DecodeCallback callback, Executor callbackExecutor) {
+        String key = "file:" + imagePath + "#" + requestWidth + "x" + requestHeight;
+        return submit(key, new Decoder() {
+            @Override
+            public Bitmap decode() {
+                BitmapCache bitmapCache = mBitmapCache;
+                if (bitmapCache != null) {
+                    return bitmapCache.decodeBitmapFromFile(imagePath, requestWidth, requestHeight);
+                }
+                return BitmapUtils.decodeBitmapFromFile(imagePath, requestWidth, requestHeight);
+            }
+        }, priority, tag, callback, callbackExecutor);
+    }
+
+    /**
+     * 异步解码资源图片，见{@link BitmapUtils#decodeBitmapFromResource(Resources, int, int, int)}
+     *
+     * @param res
+     * @param resId
+     * @param requestWidth
+     * @param requestHeight
+     * @param priority
+     * @param tag
+     * @param callback
+     * @param callbackExecutor
+     * @return
+     */
+    public DecodeRequest decodeResource(final Resources res, final int resId, final int requestWidth, final int requestHeight,
+                                        int priority, Object tag, DecodeCallback callback, Executor callbackExecutor) {
+        String key = "res:" + resId + "#" + requestWidth + "x" + requestHeight;
+        return submit(key, new Decoder() {
+            @Override
+            public Bitmap decode() {
+                return BitmapUtils.decodeBitmapFromResource(res, resId, requestWidth, requestHeight);
+            }
+        }, priority, tag, callback, callbackExecutor);
+    }
+
+    /**
+     * 提交自定义的解码任务
+     *
+     * @param key              解码请求的key，key相同的并发请求只会解码一次
+     * @param decoder          解码器，在解码线程中执行
+     * @param priority         优先级，数值越大越先解码
+     * @param tag              请求的标识，可以为null
+     * @param callback         结果回调
+     * @param callbackExecutor 执行回调的Executor，传null则在主线程回调
+     * @return
+     */
+    public DecodeRequest submit(String key, Decoder decoder, int priority, Object tag,
+                                DecodeCallback callback, Executor callbackExecutor) {
+        if (key == null || decoder == null || callback == null) {
+            throw new IllegalArgumentException("key, decoder and callback must not be null");
+        }
+        DecodeRequest request = new DecodeRequest(key, tag, callback,
+                callbackExecutor != null ? callbackExecutor : mainThreadExecutor());
+        mSubmitCount.incrementAndGet();
+        DecodeRequest staleRequest = null;
+        synchronized (this) {
+            if (tag != null) {
+                staleRequest = mTagRequests.put(tag, request);
+            }
+        }
+        if (staleRequest != null) {//列表项已被复用，之前的请求不再需要
+            staleRequest.cancel();
+        }
+        synchronized (this) {
+            DecodeJob job = mJobs.get(key);
+            if (job != null) {
+                mMergeCount.incrementAndGet();
+                job.mRequests.add(request);
+                request.mJob = job;
+                if (priority > job.mPriority && mExecutor.remove(job)) {//还在排队中，按新的优先级重新排队
+                    job.mPriority = priority;
+                    mExecutor.execute(job);
+                }
+                return request;
+            }
+            job = new DecodeJob(key, decoder, priority, mSequence.getAndIncrement());
+            job.mRequests.add(request);
+            request.mJob = job;
+            mJobs.put(key, job);
+            mExecutor.execute(job);
+        }
+        return request;
+    }
+
+    /**
+     * 取消指定tag的请求
+     *
+     * @param tag
+     */
+    public void cancel(Object tag) {
+        DecodeRequest request;
+        synchronized (this) {
+            request = mTagRequests.remove(tag);
+        }
+        if (request != null) {
+            request.cancel();
+        }
+    }
+
+    /**
+     * 关闭解码引擎，排队中的任务不再执行
+     */
+    public void shutdown() {
+        mExecutor.shutdownNow();
+        synchronized (this) {
+            mJobs.clear();
+            mTagRequests.clear();
+        }
+    }
+
+    /**
+     * @return 排队等待解码的任务数
+     */
+    public int getQueueSize() {
+        return mExecutor.getQueue().size();
+    }
+
+    public long getSubmitCount() {
+        return mSubmitCount.get();
+    }
+
+    /**
+     * @return 与正在进行的相同请求合并的次数
+     */
+    public long getMergeCount() {
+        return mMergeCount.get();
+    }
+
+    public long getCancelCount() {
+        return mCancelCount.get();
+    }
+
+    /**
+     * @return 实际执行解码的次数
+     */
+    public long getDecodeCount() {
+        return mDecodeCount.get();
+    }
+
+    public long getFailureCount() {
+        return mFailureCount.get();
+    }
+
+    /**
+     * @return 平均每次解码的耗时，单位毫秒
+     */
+    public float getAverageDecodeTime() {
+        long count = mDecodeCount.get();
+        return count == 0 ? 0 : mDecodeTimeNanos.get() / 1000000f / count;
+    }
+
+    /**
+     * @return 平均每个任务的排队耗时，单位毫秒
+     */
+    public float getAverageQueueTime() {
+        long count = mDecodeCount.get();
+        return count == 0 ? 0 : mQueueTimeNanos.get() / 1000000f / count;
+    }
+
+    /**
+     * @return 从创建到现在平均每秒解码的图片数
+     */
+    public float getThroughput() {
+        long elapsed = System.nanoTime() - mCreateTime;
+        return elapsed <= 0 ? 0 : mDecodeCount.get() * 1000000000f / elapsed;
+    }
+
+    private void onRequestCancelled(DecodeRequest request) {
+        mCancelCount.incrementAndGet();
+        synchronized (this) {
+            Object tag = request.getTag();
+            if (tag != null && mTagRequests.get(tag) == request) {
+                mTagRequests.remove(tag);
+            }
+            DecodeJob job = request.mJob;
+            if (job == null) {
+                return;
+            }
+            job.mRequests.remove(request);
+            if (job.mRequests.isEmpty() && mExecutor.remove(job)) {//没有请求方了，还没开始解码就直接丢弃
+                mJobs.remove(job.mKey);
+            }
+        }
+    }
+
+    private void onJobFinished(DecodeJob job, final Bitmap bitmap, final Throwable error) {
+        List<DecodeRequest> requests;
+        synchronized (this) {
+            mJobs.remove(job.mKey);
+            requests = new ArrayList<DecodeRequest>(job.mRequests);
+            job.mRequests.clear();
+            for (DecodeRequest request : requests) {
+                Object tag = request.getTag();
+                if (tag != null && mTagRequests.get(tag) == request) {
+                    mTagRequests.remove(tag);
+                }
+            }
+        }
+        for (final DecodeRequest request : requests) {
+            request.mCallbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (request.isCancelled()) {
+                        return;
+                    }
+                    if (bitmap != null) {
+                        request.mCallback.onDecodeSuccess(request.mKey, bitmap);
+                    } else {
+                        request.mCallback.onDecodeFailure(request.mKey, error);
+                    }
+                }
+            });
+        }
+    }
+
+    private class DecodeJob implements Runnable, Comparable<DecodeJob> {
+
+        private final String mKey;
+        private final Decoder mDecoder;
+        private final long mSequence;
+        private final long mSubmitTime = System.nanoTime();
+        private final List<DecodeRequest> mRequests = new ArrayList<DecodeRequest>(1);
+        private volatile int mPriority;
+
+        DecodeJob(String key, Decoder decoder, int priority, long sequence) {
+            this.mKey = key;
+            this.mDecoder = decoder;
+            this.mPriority = priority;
+            this.mSequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            long startTime = System.nanoTime();
+            mQueueTimeNanos.addAndGet(startTime - mSubmitTime);
+            Bitmap bitmap = null;
+            Throwable error = null;
+            try {
+                bitmap = mDecoder.decode();
+            } catch (Throwable e) {//包括OutOfMemoryError
+                error = e;
+            }
+            mDecodeTimeNanos.addAndGet(System.nanoTime() - startTime);
+            mDecodeCount.incrementAndGet();
+            if (bitmap == null) {
+                mFailureCount.incrementAndGet();
+            }
+            onJobFinished(this, bitmap, error);
+        }
+
+        @Override
+        public int compareTo(DecodeJob another) {
+            if (mPriority != another.mPriority) {
+                return mPriority > another.mPriority ? -1 : 1;
+            }
+            return mSequence < another.mSequence ? -1 : (mSequence == another.mSequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * 一次解码请求，可以用来取消请求
+     */
+    public class DecodeRequest {
+
+        private final String mKey;
+        /**
+         * 请求保存在mTagRequests的value中，这里也只能弱引用tag，否则WeakHashMap的key永远不会被回收
+         */
+        private final WeakReference<Object> mTag;
+        private final DecodeCallback mCallback;
+        private final Executor mCallbackExecutor;
+        private volatile boolean mCancelled = false;
+        private DecodeJob mJob;
+
+        DecodeRequest(String key, Object tag, DecodeCallback callback, Executor callbackExecutor) {
+            this.mKey = key;
+            this.mTag = tag != null ? new WeakReference<Object>(tag) : null;
+            this.mCallback = callback;
+            this.mCallbackExecutor = callbackExecutor;
+        }
+
+        public String getKey() {
+            return mKey;
+        }
+
+        /**
+         * @return 请求的tag，没有设置或已经被回收时返回null
+         */
+        Object getTag() {
+            return mTag != null ? mTag.get() : null;
+        }
+
+        /**
+         * 取消请求，取消后不会再收到回调
+         */
+        public void cancel() {
+            if (mCancelled) {
+                return;
+            }
+            mCancelled = true;
+            onRequestCancelled(this);
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+    }
+
+    /**
+     * 解码器，在解码线程中执行
+     */
+    public static interface Decoder {
+        /**
+         * @return 解码失败返回null
+         */
+        public Bitmap decode();
+    }
+
+    /**
+     * 解码结果回调，在请求时指定的Executor中执行
+     */
+    public static interface DecodeCallback {
+
+        public void onDecodeSuccess(String key, Bitmap bitmap);
+
+        /**
+         * @param key
+         * @param error 解码过程中抛出的异常，图片无法解码时为null
+         */
+        public void onDecodeFailure(String key, Throwable error);
+    }
+}
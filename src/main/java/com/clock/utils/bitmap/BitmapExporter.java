@@ -0,0 +1,282 @@
+package com.clock.utils.bitmap;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import com.clock.utils.common.BackgroundThreadFactory;
+import com.clock.utils.file.StorageQuotaManager;
+import com.clock.utils.metrics.Metrics;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Bitmap导出工具，替代同步写文件的BitmapUtils.saveToFile
+ * <p/>
+ * 1.可配置图片格式（JPEG/PNG/WEBP）和压缩质量
+ * <p/>
+ * 2.先写入临时文件再重命名，写入失败或进程被杀不会留下残缺的图片
+ * <p/>
+ * 3.后台队列串行保存，一批图片全部保存完之后才统一通知图库
+ * <p/>
+ * 后台队列在重命名前会把文件同步到存储设备（fsync），在当前线程保存的{@link #export(Bitmap, File, String, Bitmap.CompressFormat, int)}默认不同步，
+ * 避免在主线程中等待磁盘
+ * <p/>
+ * Created by Clock on 2016/3/3.
+ */
+public class BitmapExporter {
+
+    public final static String PNG_SUFFIX = ".png";
+    public final static String WEBP_SUFFIX = ".webp";
+    public final static int DEFAULT_QUALITY = 90;
+    /**
+     * 写文件的缓冲区大小，减少compress过程中的write系统调用次数
+     */
+    private final static int BUFFER_SIZE = 64 * 1024;
+    private final static String TEMP_SUFFIX = ".tmp";
+
+    private final Context mApplicationContext;
+    private final Bitmap.CompressFormat mFormat;
+    private final int mQuality;
+    private final ExecutorService mExecutor;
+    private final Executor mCallbackExecutor;
+    private volatile boolean mDisplayToGallery = false;
+    private volatile OnExportListener mOnExportListener;
+
+    /**
+     * 当前这一批还没保存完的任务数以及已经保存成功的文件，由mPendingLock保护
+     */
+    private int mPendingCount = 0;
+    private final Object mPendingLock = new Object();
+    private List<File> mBatchFiles = new ArrayList<File>();
+
+    /**
+     * 默认保存为质量90的JPEG，在主线程回调
+     *
+     * @param context
+     */
+    public BitmapExporter(Context context) {
+        this(context, Bitmap.CompressFormat.JPEG, DEFAULT_QUALITY, null);
+    }
+
+    /**
+     * @param context
+     * @param format           图片格式，WEBP需要API 14及以上
+     * @param quality          压缩质量0-100，PNG会忽略该值
+     * @param callbackExecutor 执行回调的Executor，传null则在主线程回调
+     */
+    public BitmapExporter(Context context, Bitmap.CompressFormat format, int quality, Executor callbackExecutor) {
+        this.mApplicationContext = context.getApplicationContext();
+        this.mFormat = format;
+        this.mQuality = Math.max(0, Math.min(100, quality));
+        this.mCallbackExecutor = callbackExecutor != null ? callbackExecutor : BitmapDecodeEngine.mainThreadExecutor();
+        this.mExecutor = Executors.newSingleThreadExecutor(new BackgroundThreadFactory("BitmapExporter"));
+    }
+
+    /**
+     * 每一批图片保存完之后是否统一显示到相册
+     *
+     * @param displayToGallery
+     */
+    public void setDisplayToGallery(boolean displayToGallery) {
+        this.mDisplayToGallery = displayToGallery;
+    }
+
+    public void setOnExportListener(OnExportListener listener) {
+        this.mOnExportListener = listener;
+    }
+
+    /**
+     * 加入后台保存队列，保存完之前不要回收或修改这个Bitmap，{@link #shutdown()}之后加入的会直接回调保存失败
+     *
+     * @param bitmap
+     * @param folder   保存的目录
+     * @param fileName 文件名，不包含后缀
+     */
+    public void enqueue(final Bitmap bitmap, final File folder, final String fileName) {
+        synchronized (mPendingLock) {
+            mPendingCount++;
+        }
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    exportPending(bitmap, folder, fileName);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            e.printStackTrace();
+            synchronized (mPendingLock) {
+                mPendingCount--;//没有进入队列，不能算在这一批里
+            }
+            dispatchResult(fileName, null, null);
+        }
+    }
+
+    private void exportPending(Bitmap bitmap, File folder, String fileName) {
+        File file = export(bitmap, folder, fileName, mFormat, mQuality, true);
+        List<File> batchFiles = null;
+        synchronized (mPendingLock) {
+            if (file != null) {
+                mBatchFiles.add(file);
+            }
+            mPendingCount--;
+            if (mPendingCount == 0) {//队列已清空，这一批结束
+                batchFiles = mBatchFiles;
+                mBatchFiles = new ArrayList<File>();
+            }
+        }
+        if (batchFiles != null && mDisplayToGallery && !batchFiles.isEmpty()) {
+            BitmapUtils.displayToGallery(mApplicationContext, batchFiles);
+        }
+        dispatchResult(fileName, file, batchFiles);
+    }
+
+    /**
+     * 停止后台队列，已经在队列中的图片会继续保存完
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    private void dispatchResult(final String fileName, final File file, final List<File> batchFiles) {
+        final OnExportListener listener = mOnExportListener;
+        if (listener == null) {
+            return;
+        }
+        mCallbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (file != null) {
+                    listener.onExportSuccess(file);
+                } else {
+                    listener.onExportFailure(fileName);
+                }
+                if (batchFiles != null) {
+                    listener.onBatchComplete(batchFiles);
+                }
+            }
+        });
+    }
+
+    /**
+     * 在当前线程保存Bitmap，先写入临时文件，成功后再重命名为目标文件，不等待数据同步到存储设备
+     *
+     * @param bitmap
+     * @param folder   保存的目录
+     * @param fileName 文件名，不包含后缀
+     * @param format   图片格式
+     * @param quality  压缩质量0-100
+     * @return 保存成功，返回其对应的File，保存失败则返回null
+     */
+    public static File export(Bitmap bitmap, File folder, String fileName, Bitmap.CompressFormat format, int quality) {
+        return export(bitmap, folder, fileName, format, quality, false);
+    }
+
+    /**
+     * 在当前线程保存Bitmap，先写入临时文件，成功后再重命名为目标文件
+     *
+     * @param bitmap
+     * @param folder   保存的目录
+     * @param fileName 文件名，不包含后缀
+     * @param format   图片格式
+     * @param quality  压缩质量0-100
+     * @param sync     重命名前是否把数据同步到存储设备（fsync），同步可以防止断电后留下空文件，但会阻塞较长时间，不要在主线程中使用
+     * @return 保存成功，返回其对应的File，保存失败则返回null
+     */
+    public static File export(Bitmap bitmap, File folder, String fileName, Bitmap.CompressFormat format, int quality, boolean sync) {
+        if (bitmap == null || bitmap.isRecycled() || folder == null) {
+            return null;
+        }
+        if (!folder.exists() && !folder.mkdirs()) {
+            return null;
+        }
+        long startTime = Metrics.startTimer();
+        File file = new File(folder, fileName + getSuffix(format));
+        File tempFile = null;
+        FileOutputStream fos = null;
+        BufferedOutputStream bos = null;
+        boolean success = false;
+        try {
+            //每次写入使用不同的临时文件，同名的并发导出不会互相覆盖或删除
+            tempFile = File.createTempFile("." + file.getName() + ".", TEMP_SUFFIX, folder);
+            fos = new FileOutputStream(tempFile);
+            bos = new BufferedOutputStream(fos, BUFFER_SIZE);
+            success = bitmap.compress(format, quality, bos);
+            bos.flush();
+            if (sync) {
+                fos.getFD().sync();//确保数据落盘后再重命名
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            success = false;
+        } finally {
+            closeQuietly(bos != null ? bos : fos);
+        }
+        if (success && tempFile.renameTo(file)) {
+            Metrics.recordDuration(Metrics.BITMAP_SAVE_TIME, startTime);
+            StorageQuotaManager.getDefault().notifyFileAdded(file);
+            return file;
+        }
+        if (tempFile != null) {
+            tempFile.delete();
+        }
+        Metrics.increment(Metrics.BITMAP_SAVE_FAILURE);
+        return null;
+    }
+
+    /**
+     * 获取图片格式对应的文件后缀
+     *
+     * @param format
+     * @return
+     */
+    public static String getSuffix(Bitmap.CompressFormat format) {
+        if (format == Bitmap.CompressFormat.PNG) {
+            return PNG_SUFFIX;
+        } else if (format == Bitmap.CompressFormat.JPEG) {
+            return BitmapUtils.JPG_SUFFIX;
+        }
+        return WEBP_SUFFIX;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 导出结果监听，在构造时指定的Executor中回调
+     */
+    public static interface OnExportListener {
+
+        public void onExportSuccess(File file);
+
+        /**
+         * @param fileName 保存失败的文件名
+         */
+        public void onExportFailure(String fileName);
+
+        /**
+         * 队列中的图片全部处理完时回调
+         *
+         * @param files 这一批保存成功的文件
+         */
+        public void onBatchComplete(List<File> files);
+    }
+}
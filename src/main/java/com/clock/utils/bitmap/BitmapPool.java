@@ -0,0 +1,336 @@
+package com.clock.utils.bitmap;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+/**
+ * 可复用的Bitmap池，配合BitmapFactory.Options.inBitmap使用，减少解码时反复申请大块内存造成的GC
+ * <p/>
+ * 池中的Bitmap按照占用字节数分桶，超过容量上限时按照最久未使用的顺序淘汰并回收。
+ * 只在API 11（HONEYCOMB）及以上生效，API 19以下要求复用的Bitmap尺寸完全一致且inSampleSize为1
+ * <p/>
+ * 池中的Bitmap会被下一次解码覆盖像素，所以只接受库自己持有的Bitmap：正在被{@link BitmapCache}缓存的Bitmap不会放入池中，
+ * 缓存中的Bitmap只在被内存缓存淘汰时由缓存自己放回池中
+ * <p/>
+ * Created by Clock on 2016/2/21.
+ */
+public class BitmapPool {
+
+    /**
+     * API 19以上复用比需求大的Bitmap时，最多允许浪费的倍数
+     */
+    private final static int MAX_SIZE_MULTIPLE = 2;
+
+    /**
+     * 正在被BitmapCache持有的Bitmap及其被持有的次数，不能放入池中
+     */
+    private final static Map<Bitmap, Integer> sSharedBitmaps = new WeakHashMap<Bitmap, Integer>();
+
+    private final int mMaxSize;
+    private int mCurrentSize = 0;
+    /**
+     * 按照字节数分桶
+     */
+    private final TreeMap<Integer, LinkedList<Bitmap>> mBuckets = new TreeMap<Integer, LinkedList<Bitmap>>();
+    /**
+     * 放入池中的先后顺序，用于淘汰
+     */
+    private final LinkedList<Bitmap> mLruOrder = new LinkedList<Bitmap>();
+
+    private long mHitCount = 0;
+    private long mMissCount = 0;
+    private long mPutCount = 0;
+    private long mEvictionCount = 0;
+
+    /**
+     * @param maxSize 池子最多持有的字节数
+     */
+    public BitmapPool(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.mMaxSize = maxSize;
+    }
+
+    /**
+     * 当前系统是否支持Bitmap复用
+     *
+     * @return
+     */
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+    }
+
+    /**
+     * 把不再使用的Bitmap放入池中，不满足复用条件的会直接被回收，正在被{@link BitmapCache}缓存的Bitmap既不放入也不回收
+     *
+     * @param bitmap
+     * @return 放入池中返回true，被直接回收或者被忽略返回false
+     */
+    public boolean put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || isShared(bitmap)) {
+            return false;
+        }
+        int size = BitmapUtils.getBitmapAllocationSize(bitmap);
+        if (!isSupported() || !bitmap.isMutable() || size > mMaxSize) {
+            bitmap.recycle();
+            return false;
+        }
+        synchronized (this) {
+            LinkedList<Bitmap> bucket = mBuckets.get(size);
+            if (bucket == null) {
+                bucket = new LinkedList<Bitmap>();
+                mBuckets.put(size, bucket);
+            }
+            bucket.addLast(bitmap);
+            mLruOrder.addLast(bitmap);
+            mCurrentSize += size;
+            mPutCount++;
+            trimToSize(mMaxSize);
+        }
+        return true;
+    }
+
+    /**
+     * 为即将进行的解码寻找可复用的Bitmap，找到时设置好inBitmap和inMutable
+     *
+     * @param options 已经计算好inSampleSize和out*尺寸的解码参数
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public void addInBitmapOptions(BitmapFactory.Options options) {
+        if (!isSupported()) {
+            return;
+        }
+        options.inMutable = true;//只有可变的Bitmap才能放回池中复用
+        Bitmap reusable = getReusable(options);
+        if (reusable != null) {
+            options.inBitmap = reusable;
+        }
+    }
+
+    /**
+     * 按照解码参数取出一个可复用的Bitmap
+     *
+     * @param options 已经计算好inSampleSize和out*尺寸的解码参数
+     * @return 没有合适的Bitmap时返回null
+     */
+    public synchronized Bitmap getReusable(BitmapFactory.Options options) {
+        if (!isSupported() || options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        int sampleSize = Math.max(1, options.inSampleSize);
+        Bitmap.Config config = options.inPreferredConfig != null ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+        Bitmap reusable;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            int width = (options.outWidth + sampleSize - 1) / sampleSize;
+            int height = (options.outHeight + sampleSize - 1) / sampleSize;
+            reusable = pollAtLeast(width * height * getBytesPerPixel(config));
+        } else if (sampleSize == 1 && !isScaled(options)) {
+            reusable = pollExact(options.outWidth, options.outHeight, config);
+        } else {
+            reusable = null;
+        }
+        if (reusable != null) {
+            mHitCount++;
+        } else {
+            mMissCount++;
+        }
+        return reusable;
+    }
+
+    /**
+     * 取出尺寸和像素格式完全一致的Bitmap
+     *
+     * @param width
+     * @param height
+     * @param config
+     * @return 没有合适的Bitmap时返回null
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = pollExact(width, height, config);
+        if (bitmap != null) {
+            mHitCount++;
+        } else {
+            mMissCount++;
+        }
+        return bitmap;
+    }
+
+    /**
+     * 清空池子并回收所有Bitmap
+     */
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * 淘汰最久未使用的Bitmap直到占用的字节数不超过maxSize
+     *
+     * @param maxSize
+     */
+    public synchronized void trimToSize(int maxSize) {
+        while (mCurrentSize > maxSize && !mLruOrder.isEmpty()) {
+            Bitmap eldest = mLruOrder.removeFirst();
+            int size = BitmapUtils.getBitmapAllocationSize(eldest);
+            removeFromBucket(size, eldest);
+            mCurrentSize -= size;
+            mEvictionCount++;
+            eldest.recycle();
+        }
+    }
+
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    public synchronized int getCurrentSize() {
+        return mCurrentSize;
+    }
+
+    /**
+     * @return 成功复用的次数
+     */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return 没有可复用的Bitmap，只能重新申请内存的次数
+     */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized long getPutCount() {
+        return mPutCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * @return 复用率，取值范围[0, 1]
+     */
+    public synchronized float getReuseRate() {
+        long total = mHitCount + mMissCount;
+        return total == 0 ? 0 : (float) mHitCount / total;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private Bitmap pollAtLeast(int byteCount) {
+        Map.Entry<Integer, LinkedList<Bitmap>> entry = mBuckets.ceilingEntry(byteCount);
+        if (entry == null || entry.getKey() > byteCount * MAX_SIZE_MULTIPLE) {
+            return null;
+        }
+        Bitmap bitmap = entry.getValue().removeFirst();
+        if (entry.getValue().isEmpty()) {
+            mBuckets.remove(entry.getKey());
+        }
+        mLruOrder.remove(bitmap);
+        mCurrentSize -= entry.getKey();
+        return bitmap;
+    }
+
+    private Bitmap pollExact(int width, int height, Bitmap.Config config) {
+        int size = width * height * getBytesPerPixel(config);
+        LinkedList<Bitmap> bucket = mBuckets.get(size);
+        if (bucket == null) {
+            return null;
+        }
+        Iterator<Bitmap> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            Bitmap bitmap = iterator.next();
+            if (bitmap.getWidth() == width && bitmap.getHeight() == height && bitmap.getConfig() == config) {
+                iterator.remove();
+                if (bucket.isEmpty()) {
+                    mBuckets.remove(size);
+                }
+                mLruOrder.remove(bitmap);
+                mCurrentSize -= size;
+                return bitmap;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 解码时是否会通过inDensity/inTargetDensity缩放，API 19以下缩放后的尺寸无法复用原尺寸的Bitmap
+     *
+     * @param options
+     * @return
+     */
+    private static boolean isScaled(BitmapFactory.Options options) {
+        return options.inScaled && options.inDensity > 0 && options.inTargetDensity > 0 && options.inDensity != options.inTargetDensity;
+    }
+
+    private void removeFromBucket(int size, Bitmap bitmap) {
+        LinkedList<Bitmap> bucket = mBuckets.get(size);
+        if (bucket != null) {
+            bucket.remove(bitmap);
+            if (bucket.isEmpty()) {
+                mBuckets.remove(size);
+            }
+        }
+    }
+
+    /**
+     * 标记Bitmap正在被缓存持有，标记期间不会被放入池中
+     *
+     * @param bitmap
+     */
+    static void markShared(Bitmap bitmap) {
+        synchronized (sSharedBitmaps) {
+            Integer count = sSharedBitmaps.get(bitmap);
+            sSharedBitmaps.put(bitmap, count == null ? 1 : count + 1);
+        }
+    }
+
+    /**
+     * 取消一次{@link #markShared(Bitmap)}
+     *
+     * @param bitmap
+     * @return 已经没有缓存持有时返回true
+     */
+    static boolean unmarkShared(Bitmap bitmap) {
+        synchronized (sSharedBitmaps) {
+            Integer count = sSharedBitmaps.get(bitmap);
+            if (count == null || count <= 1) {
+                sSharedBitmaps.remove(bitmap);
+                return true;
+            }
+            sSharedBitmaps.put(bitmap, count - 1);
+            return false;
+        }
+    }
+
+    static boolean isShared(Bitmap bitmap) {
+        synchronized (sSharedBitmaps) {
+            return sSharedBitmaps.containsKey(bitmap);
+        }
+    }
+
+    /**
+     * 获取每个像素占用的字节数
+     *
+     * @param config
+     * @return
+     */
+    @SuppressWarnings("deprecation")
+    static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        } else if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        }
+        return 4;
+    }
+}
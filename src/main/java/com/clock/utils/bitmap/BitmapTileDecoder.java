@@ -0,0 +1,352 @@
+package com.clock.utils.bitmap;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.util.LruCache;
+
+import com.clock.utils.common.BackgroundThreadFactory;
+import com.clock.utils.common.RuleUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 超大图片的分块解码器，基于BitmapRegionDecoder实现，需要API 10及以上
+ * <p/>
+ * 只解码当前可见区域对应采样级别的图块，图块按照(采样率, 列, 行)缓存在LRU中，并在后台线程预加载相邻的图块，
+ * 内存占用只与屏幕大小有关，与图片大小无关
+ * <p/>
+ * Created by Clock on 2016/2/27.
+ */
+@TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
+public class BitmapTileDecoder {
+
+    /**
+     * 默认图块边长，单位为采样后的像素
+     */
+    public final static int DEFAULT_TILE_SIZE = 256;
+    /**
+     * 根据屏幕大小计算缓存时，缓存多少屏的图块
+     */
+    private final static int CACHE_SCREEN_COUNT = 3;
+
+    private final BitmapRegionDecoder mRegionDecoder;
+    private final int mImageWidth;
+    private final int mImageHeight;
+    private final int mTileSize;
+    private final LruCache<TileKey, Bitmap> mTileCache;
+    private final ExecutorService mPrefetchExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    /**
+     * 正在预加载的图块，避免重复提交
+     */
+    private final Set<TileKey> mPendingTiles = new HashSet<TileKey>();
+    /**
+     * 解码和回收解码器互斥，避免预加载线程使用已经回收的解码器
+     */
+    private final Object mDecodeLock = new Object();
+    private volatile OnTileLoadListener mOnTileLoadListener;
+    private volatile boolean mRecycled = false;
+
+    /**
+     * 按照屏幕大小计算图块缓存的大小
+     *
+     * @param context
+     * @param imagePath 图片文件路径
+     * @throws IOException 图片格式不支持分块解码时抛出
+     */
+    public BitmapTileDecoder(Context context, String imagePath) throws IOException {
+        this(imagePath, DEFAULT_TILE_SIZE,
+                RuleUtils.getScreenWidth(context) * RuleUtils.getScreenHeight(context) * 4 * CACHE_SCREEN_COUNT);
+    }
+
+    /**
+     * @param imagePath 图片文件路径
+     * @param tileSize  图块边长
+     * @param cacheSize 图块缓存的最大字节数
+     * @throws IOException 图片格式不支持分块解码时抛出
+     */
+    public BitmapTileDecoder(String imagePath, int tileSize, int cacheSize) throws IOException {
+        if (tileSize <= 0 || cacheSize <= 0) {
+            throw new IllegalArgumentException("tileSize and cacheSize must be positive");
+        }
+        this.mRegionDecoder = BitmapRegionDecoder.newInstance(imagePath, false);
+        this.mImageWidth = mRegionDecoder.getWidth();
+        this.mImageHeight = mRegionDecoder.getHeight();
+        this.mTileSize = tileSize;
+        this.mTileCache = new LruCache<TileKey, Bitmap>(cacheSize) {
+            @Override
+            protected int sizeOf(TileKey key, Bitmap value) {
+                return BitmapUtils.getBitmapAllocationSize(value);
+            }
+        };
+        //BitmapRegionDecoder内部是串行解码的，一个预加载线程就足够了
+        this.mPrefetchExecutor = Executors.newSingleThreadExecutor(new BackgroundThreadFactory("BitmapTilePrefetch"));
+    }
+
+    /**
+     * 设置预加载图块完成的监听，在主线程回调，一般在回调中刷新View
+     *
+     * @param listener
+     */
+    public void setOnTileLoadListener(OnTileLoadListener listener) {
+        this.mOnTileLoadListener = listener;
+    }
+
+    public int getImageWidth() {
+        return mImageWidth;
+    }
+
+    public int getImageHeight() {
+        return mImageHeight;
+    }
+
+    /**
+     * 根据显示的缩放比例计算采样率，结果为2的幂
+     *
+     * @param scale 显示尺寸与原图尺寸的比例，如原图4000px显示成1000px为0.25
+     * @return
+     */
+    public static int calculateSampleSize(float scale) {
+        int sampleSize = 1;
+        if (scale <= 0) {
+            return sampleSize;
+        }
+        while (sampleSize * 2 * scale <= 1) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * 获取覆盖指定可见区域的所有图块，缓存中没有的图块会在当前线程同步解码，
+     * 然后在后台预加载可见区域周围一圈的图块
+     *
+     * @param viewport 可见区域，为原图坐标
+     * @param scale    显示尺寸与原图尺寸的比例
+     * @return
+     */
+    public List<Tile> decodeViewport(Rect viewport, float scale) {
+        List<Tile> tiles = new ArrayList<Tile>();
+        if (mRecycled || viewport.isEmpty() || viewport.right <= 0 || viewport.bottom <= 0
+                || viewport.left >= mImageWidth || viewport.top >= mImageHeight) {//可见区域与图片不相交
+            return tiles;
+        }
+        int sampleSize = calculateSampleSize(scale);
+        int tileExtent = mTileSize * sampleSize;//图块在原图中的边长
+        int left = Math.max(0, viewport.left) / tileExtent;
+        int top = Math.max(0, viewport.top) / tileExtent;
+        int right = (Math.min(mImageWidth, viewport.right) - 1) / tileExtent;
+        int bottom = (Math.min(mImageHeight, viewport.bottom) - 1) / tileExtent;
+        for (int row = top; row <= bottom; row++) {
+            for (int col = left; col <= right; col++) {
+                Bitmap bitmap = getTile(sampleSize, col, row);
+                if (bitmap != null) {
+                    tiles.add(new Tile(sampleSize, col, row, getTileRect(sampleSize, col, row), bitmap));
+                }
+            }
+        }
+        int maxCol = (mImageWidth - 1) / tileExtent;
+        int maxRow = (mImageHeight - 1) / tileExtent;
+        for (int row = Math.max(0, top - 1); row <= Math.min(maxRow, bottom + 1); row++) {
+            for (int col = Math.max(0, left - 1); col <= Math.min(maxCol, right + 1); col++) {
+                if (row < top || row > bottom || col < left || col > right) {
+                    prefetchTile(sampleSize, col, row);
+                }
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * 同步获取一个图块，优先从缓存中读取
+     *
+     * @param sampleSize 采样率
+     * @param col        列
+     * @param row        行
+     * @return 解码失败返回null
+     */
+    public Bitmap getTile(int sampleSize, int col, int row) {
+        TileKey key = new TileKey(sampleSize, col, row);
+        Bitmap bitmap = mTileCache.get(key);
+        if (bitmap != null) {
+            return bitmap;
+        }
+        bitmap = decodeTile(key);
+        if (bitmap != null) {
+            mTileCache.put(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 计算图块在原图中的区域
+     *
+     * @param sampleSize
+     * @param col
+     * @param row
+     * @return
+     */
+    public Rect getTileRect(int sampleSize, int col, int row) {
+        int tileExtent = mTileSize * sampleSize;
+        int left = col * tileExtent;
+        int top = row * tileExtent;
+        return new Rect(left, top, Math.min(left + tileExtent, mImageWidth), Math.min(top + tileExtent, mImageHeight));
+    }
+
+    /**
+     * 清空图块缓存，如在内存不足时调用
+     */
+    public void clearCache() {
+        mTileCache.evictAll();
+    }
+
+    /**
+     * 释放解码器和所有图块，之后不能再使用；正在预加载的图块解码完成后才会回收解码器
+     */
+    public void recycle() {
+        mRecycled = true;
+        mPrefetchExecutor.shutdownNow();
+        synchronized (mDecodeLock) {
+            mRegionDecoder.recycle();
+            mTileCache.evictAll();
+        }
+    }
+
+    private void prefetchTile(final int sampleSize, final int col, final int row) {
+        final TileKey key = new TileKey(sampleSize, col, row);
+        if (mTileCache.get(key) != null) {
+            return;
+        }
+        synchronized (mPendingTiles) {
+            if (!mPendingTiles.add(key)) {
+                return;
+            }
+        }
+        mPrefetchExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap bitmap;
+                synchronized (mDecodeLock) {
+                    bitmap = decodeTile(key);
+                    if (bitmap != null) {
+                        mTileCache.put(key, bitmap);//与recycle互斥，回收后不会再放入缓存
+                    }
+                }
+                synchronized (mPendingTiles) {
+                    mPendingTiles.remove(key);
+                }
+                if (bitmap == null) {
+                    return;
+                }
+                final OnTileLoadListener listener = mOnTileLoadListener;
+                if (listener != null) {
+                    final Tile tile = new Tile(sampleSize, col, row, getTileRect(sampleSize, col, row), bitmap);
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!mRecycled) {
+                                listener.onTileLoaded(tile);
+                            }
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    private Bitmap decodeTile(TileKey key) {
+        Rect rect = getTileRect(key.mSampleSize, key.mCol, key.mRow);
+        if (rect.isEmpty()) {
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = key.mSampleSize;
+        synchronized (mDecodeLock) {
+            if (mRecycled) {
+                return null;
+            }
+            try {
+                return mRegionDecoder.decodeRegion(rect, options);
+            } catch (IllegalArgumentException e) {//区域越界
+                e.printStackTrace();
+                return null;
+            }
+        }
+    }
+
+    /**
+     * 图块的缓存key
+     */
+    private static class TileKey {
+
+        private final int mSampleSize;
+        private final int mCol;
+        private final int mRow;
+
+        TileKey(int sampleSize, int col, int row) {
+            this.mSampleSize = sampleSize;
+            this.mCol = col;
+            this.mRow = row;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof TileKey)) {
+                return false;
+            }
+            TileKey other = (TileKey) o;
+            return mSampleSize == other.mSampleSize && mCol == other.mCol && mRow == other.mRow;
+        }
+
+        @Override
+        public int hashCode() {
+            return (mSampleSize * 31 + mCol) * 31 + mRow;
+        }
+    }
+
+    /**
+     * 解码出来的图块
+     */
+    public static class Tile {
+
+        public final int sampleSize;
+        public final int col;
+        public final int row;
+        /**
+         * 图块在原图中的区域
+         */
+        public final Rect rect;
+        public final Bitmap bitmap;
+
+        Tile(int sampleSize, int col, int row, Rect rect, Bitmap bitmap) {
+            this.sampleSize = sampleSize;
+            this.col = col;
+            this.row = row;
+            this.rect = rect;
+            this.bitmap = bitmap;
+        }
+    }
+
+    /**
+     * 预加载图块完成的监听
+     */
+    public static interface OnTileLoadListener {
+        public void onTileLoaded(Tile tile);
+    }
+}
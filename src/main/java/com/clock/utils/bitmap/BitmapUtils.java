@@ -1,5 +1,6 @@
 package com.clock.utils.bitmap;
 
+import android.annotation.TargetApi;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
@@ -9,17 +10,21 @@ import android.graphics.BitmapFactory;
 import android.graphics.Matrix;
 import android.media.ExifInterface;
 import android.net.Uri;
+import android.os.Build;
 import android.provider.MediaStore;
 import android.text.TextUtils;
 import android.util.Log;
 
-import java.io.BufferedOutputStream;
+import com.clock.utils.metrics.Metrics;
+
 import java.io.File;
 import java.io.FileDescriptor;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.text.SimpleDateFormat;
+import java.util.Collection;
 import java.util.Date;
 
 /**
@@ -32,6 +37,61 @@ public class BitmapUtils {
     public final static String JPG_SUFFIX = ".jpg";
     private final static String TIME_FORMAT = "yyyyMMddHHmmss";
 
+    /**
+     * 解码时用于复用的Bitmap池，为null时不复用
+     */
+    private static volatile BitmapPool sBitmapPool;
+
+    /**
+     * 是否输出解码过程的调试日志，关闭时不会拼接日志字符串
+     */
+    private static volatile boolean sDebugLog = false;
+
+    /**
+     * 配置解码时使用的Bitmap池，配置后decodeBitmapFrom*系列方法会尽量复用池中的Bitmap，
+     * 旋转等操作替换下来的旧Bitmap也会放回池中
+     *
+     * @param bitmapPool 传null则关闭复用
+     */
+    public static void configBitmapPool(BitmapPool bitmapPool) {
+        sBitmapPool = bitmapPool;
+    }
+
+    /**
+     * 配置是否输出解码过程的调试日志（请求宽高、原图宽高、采样率），默认关闭
+     *
+     * @param debugLog
+     */
+    public static void configDebugLog(boolean debugLog) {
+        sDebugLog = debugLog;
+    }
+
+    /**
+     * @return 当前配置的Bitmap池，没有配置时返回null
+     */
+    static BitmapPool getBitmapPool() {
+        return sBitmapPool;
+    }
+
+    /**
+     * 回收不再使用的Bitmap，配置了Bitmap池时会优先放回池中以便下次解码复用
+     * <p/>
+     * 正在被{@link BitmapCache}缓存的Bitmap会被忽略，缓存中的Bitmap由缓存自己管理，调用方不能回收
+     *
+     * @param bitmap
+     */
+    public static void recycleBitmap(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || BitmapPool.isShared(bitmap)) {
+            return;
+        }
+        BitmapPool bitmapPool = sBitmapPool;
+        if (bitmapPool != null) {
+            bitmapPool.put(bitmap);
+        } else {
+            bitmap.recycle();
+        }
+    }
+
     /**
      * 显示图片到相册
      *
@@ -45,16 +105,30 @@ public class BitmapUtils {
         String photoPath = photoFile.getAbsolutePath();
         String photoName = photoFile.getName();
         // 其次把文件插入到系统图库
+        long startTime = Metrics.startTimer();
         try {
             ContentResolver contentResolver = context.getContentResolver();
             MediaStore.Images.Media.insertImage(contentResolver, photoPath, photoName, null);
         } catch (FileNotFoundException e) {
             e.printStackTrace();
         }
+        Metrics.recordDuration(Metrics.GALLERY_REGISTER_TIME, startTime);
         // 最后通知图库更新
         context.sendBroadcast(new Intent(Intent.ACTION_MEDIA_SCANNER_SCAN_FILE, Uri.parse("file://" + photoPath)));
     }
 
+    /**
+     * 批量显示图片到相册，只插入元数据并对整批文件发起一次扫描，不会重新解码图片，
+     * 会访问ContentProvider，请在后台线程调用
+     *
+     * @param context
+     * @param photoFiles 要显示的图片文件
+     * @see GalleryRegistrar
+     */
+    public static void displayToGallery(Context context, Collection<File> photoFiles) {
+        GalleryRegistrar.register(context, photoFiles, null, null);
+    }
+
     /**
      * 将Bitmap保存到指定目录下
      *
@@ -72,32 +146,25 @@ public class BitmapUtils {
      *
      * @param bitmap
      * @param folder
-     * @param fileName 指定的文件名包含后缀
+     * @param fileName 指定的文件名，不包含后缀
      * @return 保存成功，返回其对应的File，保存失败则返回null
      */
     public static File saveToFile(Bitmap bitmap, File folder, String fileName) {
-        if (bitmap != null) {
-            if (!folder.exists()) {
-                folder.mkdir();
-            }
-            File file = new File(folder, fileName + JPG_SUFFIX);
-            if (file.exists()) {
-                file.delete();
-            }
-            try {
-                file.createNewFile();
-                BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(file));
-                bitmap.compress(Bitmap.CompressFormat.JPEG, 100, bos);
-                bos.flush();
-                bos.close();
-                return file;
-            } catch (IOException e) {
-                e.printStackTrace();
-                return null;
-            }
-        } else {
-            return null;
-        }
+        return BitmapExporter.export(bitmap, folder, fileName, Bitmap.CompressFormat.JPEG, 100);
+    }
+
+    /**
+     * 将Bitmap按照指定的格式和质量保存到指定目录下，需要在后台批量保存请使用{@link BitmapExporter}
+     *
+     * @param bitmap
+     * @param folder
+     * @param fileName 指定的文件名，不包含后缀
+     * @param format   图片格式
+     * @param quality  压缩质量0-100
+     * @return 保存成功，返回其对应的File，保存失败则返回null
+     */
+    public static File saveToFile(Bitmap bitmap, File folder, String fileName, Bitmap.CompressFormat format, int quality) {
+        return BitmapExporter.export(bitmap, folder, fileName, format, quality);
     }
 
     /**
@@ -131,20 +198,24 @@ public class BitmapUtils {
     }
 
     /**
-     * 将图片按照指定的角度进行旋转
+     * 将图片按照指定的角度进行旋转，生成新图片时原图会通过{@link #recycleBitmap(Bitmap)}回收，
+     * 正在被{@link BitmapCache}缓存的原图保持不变
      *
      * @param bitmap 需要旋转的图片
      * @param degree 指定的旋转角度
      * @return 旋转后的图片
      */
     public static Bitmap rotateBitmapByDegree(Bitmap bitmap, int degree) {
+        if (bitmap == null || degree % 360 == 0) {
+            return bitmap;
+        }
         // 根据旋转角度，生成旋转矩阵
         Matrix matrix = new Matrix();
         matrix.postRotate(degree);
         // 将原始图片按照旋转矩阵进行旋转，并得到新的图片
         Bitmap newBitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
-        if (bitmap != null && !bitmap.isRecycled()) {
-            bitmap.recycle();
+        if (newBitmap != bitmap) {
+            recycleBitmap(bitmap);
         }
         return newBitmap;
     }
@@ -174,38 +245,289 @@ public class BitmapUtils {
      * @return
      */
     public static Bitmap decodeBitmapFromFile(String imagePath, int requestWidth, int requestHeight) {
+        return decodeBitmapFromFile(imagePath, new DecodeOptions(requestWidth, requestHeight).setPreferredConfig(Bitmap.Config.ARGB_8888));
+    }
+
+    /**
+     * 按照解码参数压缩Bitmap的大小，并选择合适的像素格式
+     *
+     * @param imagePath     图片文件路径
+     * @param decodeOptions 解码参数
+     * @return
+     */
+    public static Bitmap decodeBitmapFromFile(String imagePath, DecodeOptions decodeOptions) {
         if (!TextUtils.isEmpty(imagePath)) {
-            Log.i(TAG, "requestWidth: " + requestWidth);
-            Log.i(TAG, "requestHeight: " + requestHeight);
-            if (requestWidth <= 0 || requestHeight <= 0) {
-                Bitmap bitmap = BitmapFactory.decodeFile(imagePath);
+            int requestWidth = decodeOptions.getRequestWidth();
+            int requestHeight = decodeOptions.getRequestHeight();
+            if (sDebugLog) {
+                Log.i(TAG, "requestWidth: " + requestWidth + ", requestHeight: " + requestHeight);
+            }
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            if (!decodeOptions.needSample() && !decodeOptions.isAutoConfig()) {//不需要压缩也不需要判断图片类型，直接解码
+                options.inPreferredConfig = decodeOptions.getPreferredConfig();
+                long startTime = Metrics.startTimer();
+                Bitmap bitmap = BitmapFactory.decodeFile(imagePath, options);
+                recordDecode(startTime, bitmap, 1);
+                decodeOptions.onDecoded(bitmap, 1);
                 return bitmap;
             }
+            boolean hasAlpha = true;
+            ImageHeaderParser.ImageHeader imageHeader = ImageHeaderParser.parse(imagePath);//只读取文件头获得图片宽高
+            if (imageHeader != null) {
+                options.outWidth = imageHeader.getWidth();
+                options.outHeight = imageHeader.getHeight();
+                options.outMimeType = imageHeader.getMimeType();
+                hasAlpha = imageHeader.hasAlpha();
+            } else {//文件头解析不支持的格式
+                options.inJustDecodeBounds = true;//不加载图片到内存，仅获得图片宽高
+                BitmapFactory.decodeFile(imagePath, options);
+            }
+            if (sDebugLog) {
+                Log.i(TAG, "original width: " + options.outWidth + ", original height: " + options.outHeight);
+            }
+            if (decodeOptions.needSample()) {
+                options.inSampleSize = calculateInSampleSize(options, requestWidth, requestHeight); //计算获取新的采样率
+            }
+            if (sDebugLog) {
+                Log.i(TAG, "inSampleSize: " + options.inSampleSize);
+            }
+            options.inPreferredConfig = decodeOptions.resolveConfig(options.outMimeType, hasAlpha);
+            options.inJustDecodeBounds = false;
+            Bitmap bitmap = decodeFile(imagePath, options);
+            decodeOptions.onDecoded(bitmap, options.inSampleSize);
+            return bitmap;
+
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * 精确尺寸解码的缩放方式
+     */
+    public enum ScaleMode {
+        /**
+         * 等比缩放到完整显示在请求的宽高之内，宽或高其中一边与请求的相等
+         */
+        FIT,
+        /**
+         * 等比缩放到铺满请求的宽高，超出的部分居中裁剪掉，宽高都与请求的相等
+         */
+        FILL
+    }
+
+    /**
+     * 解码出精确尺寸的Bitmap
+     * <p/>
+     * 先用2的幂的inSampleSize粗略采样，再通过inDensity/inTargetDensity在解码过程中缩放到目标尺寸，
+     * 不需要解码出大图后再缩放一次。图片比请求的尺寸小时不会放大。原图宽高由{@link ImageHeaderParser}读取，不支持的格式才交给BitmapFactory
+     *
+     * @param imagePath     图片文件路径
+     * @param requestWidth  想要的宽度
+     * @param requestHeight 想要的高度
+     * @param scaleMode     缩放方式
+     * @return 解码失败返回null
+     */
+    public static Bitmap decodeExactBitmapFromFile(String imagePath, int requestWidth, int requestHeight, ScaleMode scaleMode) {
+        if (TextUtils.isEmpty(imagePath)) {
+            return null;
+        }
+        if (requestWidth <= 0 || requestHeight <= 0) {
+            return decodeBitmapFromFile(imagePath, requestWidth, requestHeight);
+        }
+        ImageHeaderParser.ImageHeader imageHeader = ImageHeaderParser.parse(imagePath);
+        if (imageHeader != null) {
+            return decodeExactBitmapFromFile(imagePath, imageHeader.getWidth(), imageHeader.getHeight(), requestWidth, requestHeight, scaleMode);
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(imagePath, options);
+        return decodeExactBitmapFromFile(imagePath, options.outWidth, options.outHeight, requestWidth, requestHeight, scaleMode);
+    }
+
+    /**
+     * 已经知道原图宽高时解码出精确尺寸的Bitmap，不会再读取一次文件头
+     *
+     * @param imagePath     图片文件路径
+     * @param sourceWidth   原图宽度（旋转前）
+     * @param sourceHeight  原图高度（旋转前）
+     * @param requestWidth  想要的宽度，必须大于0
+     * @param requestHeight 想要的高度，必须大于0
+     * @param scaleMode     缩放方式
+     * @return 解码失败返回null
+     * @see #decodeExactBitmapFromFile(String, int, int, ScaleMode)
+     */
+    static Bitmap decodeExactBitmapFromFile(String imagePath, int sourceWidth, int sourceHeight, int requestWidth, int requestHeight, ScaleMode scaleMode) {
+        if (sourceWidth <= 0 || sourceHeight <= 0) {
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.outWidth = sourceWidth;
+        options.outHeight = sourceHeight;
+        float widthScale = (float) requestWidth / sourceWidth;
+        float heightScale = (float) requestHeight / sourceHeight;
+        float scale = scaleMode == ScaleMode.FILL ? Math.max(widthScale, heightScale) : Math.min(widthScale, heightScale);
+        scale = Math.min(scale, 1f);
+        int targetWidth = Math.max(1, Math.round(sourceWidth * scale));
+        int targetHeight = Math.max(1, Math.round(sourceHeight * scale));
+        setExactScaleOptions(options, targetWidth, targetHeight);
+        options.inJustDecodeBounds = false;
+        Bitmap bitmap = decodeFile(imagePath, options);
+        if (bitmap == null) {
+            return null;
+        }
+        //解码后的density等于inTargetDensity，绘制时会按屏幕密度再缩放一次，恢复成和普通解码一样的屏幕密度，裁剪出的Bitmap会沿用
+        bitmap.setDensity(Resources.getSystem().getDisplayMetrics().densityDpi);
+        if (scaleMode != ScaleMode.FILL) {
+            return bitmap;
+        }
+        int cropWidth = Math.min(requestWidth, bitmap.getWidth());
+        int cropHeight = Math.min(requestHeight, bitmap.getHeight());
+        if (cropWidth == bitmap.getWidth() && cropHeight == bitmap.getHeight()) {
+            return bitmap;
+        }
+        Bitmap cropped = Bitmap.createBitmap(bitmap, (bitmap.getWidth() - cropWidth) / 2, (bitmap.getHeight() - cropHeight) / 2, cropWidth, cropHeight);
+        if (cropped != bitmap) {
+            recycleBitmap(bitmap);
+        }
+        return cropped;
+    }
+
+    /**
+     * 设置缩放到目标尺寸的解码参数：inSampleSize取不小于目标尺寸的最大2的幂，剩下的缩放交给inDensity/inTargetDensity
+     * <p/>
+     * 解码出的Bitmap的density会被设置成inTargetDensity，显示前需要重新设置density
+     *
+     * @param options      out*已经包含原图宽高的解码参数
+     * @param targetWidth  目标宽度
+     * @param targetHeight 目标高度
+     */
+    static void setExactScaleOptions(BitmapFactory.Options options, int targetWidth, int targetHeight) {
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= targetWidth && options.outHeight / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+        options.inSampleSize = sampleSize;
+        int sampledWidth = options.outWidth / sampleSize;
+        int sampledHeight = options.outHeight / sampleSize;
+        //按照缩放比例更小的一边计算，保证两边都不小于目标尺寸
+        boolean byWidth = (long) targetWidth * sampledHeight >= (long) targetHeight * sampledWidth;
+        int density = byWidth ? sampledWidth : sampledHeight;
+        int targetDensity = byWidth ? targetWidth : targetHeight;
+        if (density > targetDensity) {
+            options.inScaled = true;
+            options.inDensity = density;
+            options.inTargetDensity = targetDensity;
+        } else {
+            options.inScaled = false;
+        }
+    }
+
+    /**
+     * 按照EXIF中的旋转信息解码出方向正确的Bitmap，整个过程只打开一次文件
+     * <p/>
+     * 先由{@link ImageHeaderParser}读取文件头解析出宽高和旋转角度，再通过同一个文件描述符按采样率解码，最后旋转，
+     * 相当于decodeBitmapFromFile + getBitmapDegree + rotateBitmapByDegree
+     *
+     * @param imagePath     图片文件路径
+     * @param requestWidth  旋转后想要的宽度
+     * @param requestHeight 旋转后想要的高度
+     * @return 解码失败返回null
+     */
+    public static Bitmap decodeUprightBitmapFromFile(String imagePath, int requestWidth, int requestHeight) {
+        if (TextUtils.isEmpty(imagePath)) {
+            return null;
+        }
+        FileInputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(imagePath);
+            FileChannel channel = inputStream.getChannel();
+            FileDescriptor fileDescriptor = inputStream.getFD();
             BitmapFactory.Options options = new BitmapFactory.Options();
-            options.inJustDecodeBounds = true;//不加载图片到内存，仅获得图片宽高
-            BitmapFactory.decodeFile(imagePath, options);
-            Log.i(TAG, "original height: " + options.outHeight);
-            Log.i(TAG, "original width: " + options.outWidth);
-            if (options.outHeight == -1 || options.outWidth == -1) {
+            int degree = 0;
+            ImageHeaderParser.ImageHeader imageHeader = ImageHeaderParser.parse(channel);
+            if (imageHeader != null) {//文件头中已经有宽高，不需要再让BitmapFactory解析一次
+                degree = imageHeader.getDegree();
+                options.outWidth = imageHeader.getWidth();
+                options.outHeight = imageHeader.getHeight();
+            } else {//不支持的格式没有EXIF
+                options.inJustDecodeBounds = true;
+                channel.position(0);
+                BitmapFactory.decodeFileDescriptor(fileDescriptor, null, options);
+            }
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+            if (requestWidth > 0 && requestHeight > 0) {
+                boolean swap = degree == 90 || degree == 270;//旋转前的宽高与请求的宽高是对调的
+                options.inSampleSize = calculateInSampleSize(options, swap ? requestHeight : requestWidth, swap ? requestWidth : requestHeight);
+            }
+            options.inJustDecodeBounds = false;
+            channel.position(0);
+            Bitmap bitmap = decodeFileDescriptor(fileDescriptor, options);
+            return rotateBitmapByDegree(bitmap, degree);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (inputStream != null) {
                 try {
-                    ExifInterface exifInterface = new ExifInterface(imagePath);
-                    int height = exifInterface.getAttributeInt(ExifInterface.TAG_IMAGE_LENGTH, ExifInterface.ORIENTATION_NORMAL);//获取图片的高度
-                    int width = exifInterface.getAttributeInt(ExifInterface.TAG_IMAGE_WIDTH, ExifInterface.ORIENTATION_NORMAL);//获取图片的宽度
-                    Log.i(TAG, "exif height: " + height);
-                    Log.i(TAG, "exif width: " + width);
-                    options.outWidth = width;
-                    options.outHeight = height;
+                    inputStream.close();
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
             }
-            options.inSampleSize = calculateInSampleSize(options, requestWidth, requestHeight); //计算获取新的采样率
-            Log.i(TAG, "inSampleSize: " + options.inSampleSize);
-            options.inJustDecodeBounds = false;
-            return BitmapFactory.decodeFile(imagePath, options);
+        }
+    }
 
-        } else {
-            return null;
+    /**
+     * 只读取一次文件头，同时获取图片的宽高和旋转角度，不解码像素
+     * <p/>
+     * 相当于inJustDecodeBounds + getBitmapDegree，适合批量扫描图片。JPEG、PNG、WebP、GIF由{@link ImageHeaderParser}直接解析，
+     * 其他格式才交给BitmapFactory
+     *
+     * @param imagePath 图片文件路径
+     * @param out       保存结果{宽, 高, 旋转角度}，长度不能小于3
+     * @return 不是图片或者读取失败返回false
+     */
+    public static boolean decodeBoundsAndDegree(String imagePath, int[] out) {
+        if (TextUtils.isEmpty(imagePath)) {
+            return false;
+        }
+        FileInputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(imagePath);
+            FileChannel channel = inputStream.getChannel();
+            ImageHeaderParser.ImageHeader imageHeader = ImageHeaderParser.parse(channel);
+            if (imageHeader != null && imageHeader.getWidth() > 0 && imageHeader.getHeight() > 0) {
+                out[0] = imageHeader.getWidth();
+                out[1] = imageHeader.getHeight();
+                out[2] = imageHeader.getDegree();
+                return true;
+            }
+
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            channel.position(0);
+            BitmapFactory.decodeFileDescriptor(inputStream.getFD(), null, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return false;
+            }
+            out[0] = options.outWidth;
+            out[1] = options.outHeight;
+            out[2] = 0;//不支持的格式没有EXIF
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
         }
     }
 
@@ -220,6 +542,18 @@ public class BitmapUtils {
      * that are equal to or greater than the requested width and height
      */
     public static Bitmap decodeBitmapFromResource(Resources res, int resId, int reqWidth, int reqHeight) {
+        return decodeBitmapFromResource(res, resId, new DecodeOptions(reqWidth, reqHeight).setPreferredConfig(Bitmap.Config.ARGB_8888));
+    }
+
+    /**
+     * 按照解码参数从资源中解码Bitmap，并选择合适的像素格式
+     *
+     * @param res           The resources object containing the image data
+     * @param resId         The resource id of the image data
+     * @param decodeOptions 解码参数
+     * @return
+     */
+    public static Bitmap decodeBitmapFromResource(Resources res, int resId, DecodeOptions decodeOptions) {
 
         // BEGIN_INCLUDE (read_bitmap_dimensions)
         // First decode with inJustDecodeBounds=true to check dimensions
@@ -228,12 +562,17 @@ public class BitmapUtils {
         BitmapFactory.decodeResource(res, resId, options);
 
         // Calculate inSampleSize
-        options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
+        if (decodeOptions.needSample()) {
+            options.inSampleSize = calculateInSampleSize(options, decodeOptions.getRequestWidth(), decodeOptions.getRequestHeight());
+        }
         // END_INCLUDE (read_bitmap_dimensions)
 
         // Decode bitmap with inSampleSize set
+        options.inPreferredConfig = decodeOptions.resolveConfig(options.outMimeType, true);
         options.inJustDecodeBounds = false;
-        return BitmapFactory.decodeResource(res, resId, options);
+        Bitmap bitmap = decodeResource(res, resId, options);
+        decodeOptions.onDecoded(bitmap, options.inSampleSize);
+        return bitmap;
     }
 
     /**
@@ -246,6 +585,17 @@ public class BitmapUtils {
      * that are equal to or greater than the requested width and height
      */
     public static Bitmap decodeBitmapFromDescriptor(FileDescriptor fileDescriptor, int reqWidth, int reqHeight) {
+        return decodeBitmapFromDescriptor(fileDescriptor, new DecodeOptions(reqWidth, reqHeight).setPreferredConfig(Bitmap.Config.ARGB_8888));
+    }
+
+    /**
+     * 按照解码参数从文件描述符中解码Bitmap，并选择合适的像素格式
+     *
+     * @param fileDescriptor The file descriptor to read from
+     * @param decodeOptions  解码参数
+     * @return
+     */
+    public static Bitmap decodeBitmapFromDescriptor(FileDescriptor fileDescriptor, DecodeOptions decodeOptions) {
 
         // First decode with inJustDecodeBounds=true to check dimensions
         final BitmapFactory.Options options = new BitmapFactory.Options();
@@ -253,12 +603,130 @@ public class BitmapUtils {
         BitmapFactory.decodeFileDescriptor(fileDescriptor, null, options);
 
         // Calculate inSampleSize
-        options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
+        if (decodeOptions.needSample()) {
+            options.inSampleSize = calculateInSampleSize(options, decodeOptions.getRequestWidth(), decodeOptions.getRequestHeight());
+        }
 
         // Decode bitmap with inSampleSize set
+        options.inPreferredConfig = decodeOptions.resolveConfig(options.outMimeType, true);
         options.inJustDecodeBounds = false;
 
-        return BitmapFactory.decodeFileDescriptor(fileDescriptor, null, options);
+        Bitmap bitmap = decodeFileDescriptor(fileDescriptor, options);
+        decodeOptions.onDecoded(bitmap, options.inSampleSize);
+        return bitmap;
+    }
+
+    /**
+     * 从Bitmap池中取出可复用的Bitmap设置到解码参数中
+     *
+     * @param options
+     */
+    private static void addInBitmapOptions(BitmapFactory.Options options) {
+        BitmapPool bitmapPool = sBitmapPool;
+        if (bitmapPool != null) {
+            bitmapPool.addInBitmapOptions(options);
+        }
+    }
+
+    /**
+     * 复用Bitmap失败时（如图片格式不支持复用），清除inBitmap并把它放回池中
+     *
+     * @param options
+     * @return 设置过inBitmap返回true，需要重新解码
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static boolean clearInBitmapOptions(BitmapFactory.Options options) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB || options.inBitmap == null) {
+            return false;
+        }
+        recycleBitmap(options.inBitmap);
+        options.inBitmap = null;
+        return true;
+    }
+
+    private static Bitmap decodeFile(String imagePath, BitmapFactory.Options options) {
+        long startTime = Metrics.startTimer();
+        addInBitmapOptions(options);
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeFile(imagePath, options);
+        } catch (IllegalArgumentException e) {
+            if (!clearInBitmapOptions(options)) {
+                throw e;
+            }
+            bitmap = BitmapFactory.decodeFile(imagePath, options);
+        }
+        recordDecode(startTime, bitmap, options.inSampleSize);
+        return bitmap;
+    }
+
+    private static Bitmap decodeResource(Resources res, int resId, BitmapFactory.Options options) {
+        long startTime = Metrics.startTimer();
+        addInBitmapOptions(options);
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeResource(res, resId, options);
+        } catch (IllegalArgumentException e) {
+            if (!clearInBitmapOptions(options)) {
+                throw e;
+            }
+            bitmap = BitmapFactory.decodeResource(res, resId, options);
+        }
+        recordDecode(startTime, bitmap, options.inSampleSize);
+        return bitmap;
+    }
+
+    private static Bitmap decodeFileDescriptor(FileDescriptor fileDescriptor, BitmapFactory.Options options) {
+        long startTime = Metrics.startTimer();
+        addInBitmapOptions(options);
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeFileDescriptor(fileDescriptor, null, options);
+        } catch (IllegalArgumentException e) {
+            if (!clearInBitmapOptions(options)) {
+                throw e;
+            }
+            bitmap = BitmapFactory.decodeFileDescriptor(fileDescriptor, null, options);
+        }
+        recordDecode(startTime, bitmap, options.inSampleSize);
+        return bitmap;
+    }
+
+    /**
+     * 统计开启时记录解码耗时、解码出的字节数和采样率
+     *
+     * @param startTime    {@link Metrics#startTimer()}的返回值
+     * @param bitmap       解码结果
+     * @param inSampleSize
+     */
+    private static void recordDecode(long startTime, Bitmap bitmap, int inSampleSize) {
+        if (startTime == 0) {
+            return;
+        }
+        Metrics.recordDuration(Metrics.BITMAP_DECODE_TIME, startTime);
+        if (bitmap == null) {
+            Metrics.increment(Metrics.BITMAP_DECODE_FAILURE);
+            return;
+        }
+        Metrics.record(Metrics.BITMAP_DECODE_BYTES, getBitmapAllocationSize(bitmap));
+        Metrics.record(Metrics.BITMAP_DECODE_SAMPLE_SIZE, Math.max(1, inSampleSize));
+    }
+
+    /**
+     * 计算Bitmap实际占用的内存字节数，复用过的Bitmap可能比宽高计算出来的大
+     *
+     * @param bitmap
+     * @return
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public static int getBitmapAllocationSize(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return 0;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();//复用时可能比getByteCount大
+        }
+        return bitmap.getRowBytes() * bitmap.getHeight();
     }
 
     /**
@@ -275,10 +743,20 @@ public class BitmapUtils {
      * @return The value to be used for inSampleSize
      */
     public static int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
+        return calculateInSampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
+    }
+
+    /**
+     * 根据原图宽高计算合适的采样率，不依赖BitmapFactory.Options，可以直接在JVM上运行
+     *
+     * @param width     原图宽度
+     * @param height    原图高度
+     * @param reqWidth  The requested width of the resulting bitmap
+     * @param reqHeight The requested height of the resulting bitmap
+     * @return The value to be used for inSampleSize
+     */
+    public static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
         // BEGIN_INCLUDE (calculate_sample_size)
-        // Raw height and width of image
-        final int height = options.outHeight;
-        final int width = options.outWidth;
         int inSampleSize = 1;
 
         if (height > reqHeight || width > reqWidth) {
@@ -298,14 +776,15 @@ public class BitmapUtils {
             // end up being too large to fit comfortably in memory, so we should
             // be more aggressive with sample down the image (=larger inSampleSize).
 
-            long totalPixels = width * height / inSampleSize;
+            // 使用long计算，避免超大图片的宽高相乘溢出；采样后的像素数是除以inSampleSize的平方
+            long totalPixels = (long) width * height / ((long) inSampleSize * inSampleSize);
 
             // Anything more than 2x the requested pixels we'll sample down further
-            final long totalReqPixelsCap = reqWidth * reqHeight * 2;
+            final long totalReqPixelsCap = (long) reqWidth * reqHeight * 2;
 
-            while (totalPixels > totalReqPixelsCap) {
+            while (totalPixels > totalReqPixelsCap && totalReqPixelsCap > 0) {
                 inSampleSize *= 2;
-                totalPixels /= 2;
+                totalPixels /= 4;
             }
         }
         return inSampleSize;
@@ -0,0 +1,131 @@
+package com.clock.utils.bitmap;
+
+import android.graphics.Bitmap;
+
+/**
+ * BitmapUtils解码参数
+ * <p/>
+ * 默认自动选择像素格式：没有透明通道的图片（如JPEG）使用RGB_565，每个像素只占2个字节；
+ * 可能有透明通道的图片使用ARGB_8888。解码完成后可以通过getOut*获取实际使用的像素格式和占用的内存，
+ * 所以每次解码请使用新的DecodeOptions
+ * <p/>
+ * Created by Clock on 2016/3/1.
+ */
+public class DecodeOptions {
+
+    private final static String MIME_TYPE_JPEG = "image/jpeg";
+
+    private final int mRequestWidth;
+    private final int mRequestHeight;
+    /**
+     * 为null时自动选择像素格式
+     */
+    private Bitmap.Config mPreferredConfig;
+
+    private Bitmap.Config mOutConfig;
+    private int mOutSampleSize;
+    private int mOutByteCount;
+
+    /**
+     * @param requestWidth  压缩到想要的宽度，小于等于0时不压缩
+     * @param requestHeight 压缩到想要的高度，小于等于0时不压缩
+     */
+    public DecodeOptions(int requestWidth, int requestHeight) {
+        this.mRequestWidth = requestWidth;
+        this.mRequestHeight = requestHeight;
+    }
+
+    /**
+     * 指定像素格式
+     *
+     * @param preferredConfig 传null则自动选择
+     * @return
+     */
+    public DecodeOptions setPreferredConfig(Bitmap.Config preferredConfig) {
+        this.mPreferredConfig = preferredConfig;
+        return this;
+    }
+
+    public int getRequestWidth() {
+        return mRequestWidth;
+    }
+
+    public int getRequestHeight() {
+        return mRequestHeight;
+    }
+
+    public Bitmap.Config getPreferredConfig() {
+        return mPreferredConfig;
+    }
+
+    /**
+     * @return 是否自动选择像素格式
+     */
+    public boolean isAutoConfig() {
+        return mPreferredConfig == null;
+    }
+
+    /**
+     * 是否需要压缩
+     *
+     * @return
+     */
+    boolean needSample() {
+        return mRequestWidth > 0 && mRequestHeight > 0;
+    }
+
+    /**
+     * 根据图片类型确定像素格式
+     *
+     * @param mimeType 解码获取宽高时得到的outMimeType
+     * @param hasAlpha 图片是否有透明通道，无法确定时传true
+     * @return
+     */
+    Bitmap.Config resolveConfig(String mimeType, boolean hasAlpha) {
+        if (mPreferredConfig != null) {
+            return mPreferredConfig;
+        }
+        if (MIME_TYPE_JPEG.equals(mimeType) || !hasAlpha) {//JPEG不支持透明通道
+            return Bitmap.Config.RGB_565;
+        }
+        return Bitmap.Config.ARGB_8888;
+    }
+
+    /**
+     * 记录解码结果
+     *
+     * @param bitmap
+     * @param sampleSize
+     */
+    void onDecoded(Bitmap bitmap, int sampleSize) {
+        mOutSampleSize = sampleSize;
+        if (bitmap != null) {
+            mOutConfig = bitmap.getConfig();
+            mOutByteCount = BitmapUtils.getBitmapAllocationSize(bitmap);
+        } else {
+            mOutConfig = null;
+            mOutByteCount = 0;
+        }
+    }
+
+    /**
+     * @return 解码出的Bitmap实际使用的像素格式，解码失败时为null
+     */
+    public Bitmap.Config getOutConfig() {
+        return mOutConfig;
+    }
+
+    /**
+     * @return 解码时使用的采样率
+     */
+    public int getOutSampleSize() {
+        return mOutSampleSize;
+    }
+
+    /**
+     * @return 解码出的Bitmap占用的内存字节数，解码失败时为0
+     */
+    public int getOutByteCount() {
+        return mOutByteCount;
+    }
+}
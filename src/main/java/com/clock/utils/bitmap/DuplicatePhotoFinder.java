@@ -0,0 +1,434 @@
+package com.clock.utils.bitmap;
+
+import android.graphics.Bitmap;
+
+import com.clock.utils.common.BackgroundBatch;
+import com.clock.utils.file.FileIndex;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 相似图片查找，用于在图库中找出重复或者几乎相同的照片
+ * <p/>
+ * 1.多个线程并行把每张图片采样解码成{@link PerceptualHash#SAMPLE_SIZE}x{@link PerceptualHash#SAMPLE_SIZE}的灰度图，计算dHash和pHash
+ * <p/>
+ * 2.哈希保存为持久化索引，再次更新时只重新计算大小或修改时间变化了的文件
+ * <p/>
+ * 3.所有哈希放入{@link HashBKTree}，查找相似图片不需要和每一张图片比较
+ * <p/>
+ * Created by Clock on 2016/3/25.
+ */
+public class DuplicatePhotoFinder {
+
+    /**
+     * 默认的相似阈值，dHash和pHash不同的位数之和不超过这个值时认为是相似图片
+     */
+    public final static int DEFAULT_MAX_DISTANCE = 10;
+
+    private final static int INDEX_MAGIC = 0x50485348;//PHSH
+    private final static int INDEX_VERSION = 1;
+
+    private final FileIndex<PhotoHash> mIndex;
+    private final int mThreadCount;
+    private GrayscaleReader mGrayscaleReader = new DefaultGrayscaleReader();
+    private volatile BackgroundBatch mBatch;
+
+    private final List<PhotoHash> mHashes = new ArrayList<PhotoHash>();
+    private final HashBKTree mTree = new HashBKTree();
+
+    /**
+     * @param indexFile 哈希索引文件
+     */
+    public DuplicatePhotoFinder(File indexFile) {
+        this(indexFile, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param indexFile   哈希索引文件
+     * @param threadCount 计算哈希的线程数
+     */
+    public DuplicatePhotoFinder(File indexFile, int threadCount) {
+        this.mIndex = new FileIndex<PhotoHash>(indexFile, INDEX_MAGIC, INDEX_VERSION, new PhotoHashCodec());
+        this.mThreadCount = Math.max(1, threadCount);
+    }
+
+    /**
+     * 配置读取灰度图的方式，默认使用{@link BitmapUtils#decodeUprightBitmapFromFile(String, int, int)}采样解码
+     *
+     * @param grayscaleReader
+     */
+    public void configGrayscaleReader(GrayscaleReader grayscaleReader) {
+        this.mGrayscaleReader = grayscaleReader;
+    }
+
+    /**
+     * 取消正在进行的更新，被取消的更新不会修改索引
+     */
+    public void cancel() {
+        BackgroundBatch batch = mBatch;
+        if (batch != null) {
+            batch.cancel();
+        }
+    }
+
+    /**
+     * 读取上一次保存的索引，不计算哈希
+     *
+     * @return 索引中的图片数
+     */
+    public synchronized int loadIndex() {
+        rebuild(mIndex.read().values());
+        return mHashes.size();
+    }
+
+    /**
+     * 计算一批图片的哈希并更新索引，不在这批图片中的文件会从索引中移除，会阻塞当前线程，不要在主线程中调用
+     *
+     * @param images 图片文件，例如{@link com.clock.utils.file.ImageScanner}的扫描结果
+     * @return 更新结果，被取消时返回null
+     * @throws IOException 索引写入失败
+     */
+    public synchronized UpdateResult update(Collection<File> images) throws IOException {
+        long startTime = System.currentTimeMillis();
+        final Map<String, PhotoHash> previous = mIndex.read();
+        final Map<String, PhotoHash> current = new ConcurrentHashMap<String, PhotoHash>();
+        final AtomicInteger hashedCount = new AtomicInteger();
+        final AtomicInteger failedCount = new AtomicInteger();
+        int reusedCount = 0;
+        List<File> pending = new ArrayList<File>();
+        for (File image : images) {
+            String path = image.getAbsolutePath();
+            PhotoHash photoHash = previous.get(path);
+            if (photoHash != null && photoHash.isUnchanged(image.length(), image.lastModified())) {
+                current.put(path, photoHash);
+                reusedCount++;
+            } else {
+                pending.add(image);
+            }
+        }
+
+        BackgroundBatch batch = new BackgroundBatch("PhotoHash", mThreadCount);
+        mBatch = batch;
+        for (final File image : pending) {
+            batch.execute(new Runnable() {
+                @Override
+                public void run() {
+                    PhotoHash photoHash = computeHash(image);
+                    if (photoHash != null) {
+                        current.put(photoHash.getPath(), photoHash);
+                        hashedCount.incrementAndGet();
+                    } else {
+                        failedCount.incrementAndGet();
+                    }
+                }
+            });
+        }
+        if (!batch.await()) {
+            return null;
+        }
+
+        int removedCount = 0;
+        for (String path : previous.keySet()) {
+            if (!current.containsKey(path)) {
+                removedCount++;
+            }
+        }
+        mIndex.write(current.values());
+        rebuild(current.values());
+        return new UpdateResult(hashedCount.get(), reusedCount, failedCount.get(), removedCount,
+                System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * 查找与指定哈希相似的图片
+     *
+     * @param hash        由{@link PerceptualHash#hash(int[])}计算
+     * @param maxDistance 相似阈值
+     * @return 按距离从近到远排序
+     */
+    public synchronized List<PhotoHash> findSimilar(final long[] hash, int maxDistance) {
+        List<Integer> ids = new ArrayList<Integer>();
+        mTree.search(hash, maxDistance, ids);
+        List<PhotoHash> result = new ArrayList<PhotoHash>(ids.size());
+        for (Integer id : ids) {
+            result.add(mHashes.get(id));
+        }
+        Collections.sort(result, new Comparator<PhotoHash>() {
+            @Override
+            public int compare(PhotoHash lhs, PhotoHash rhs) {
+                int lhsDistance = PerceptualHash.hammingDistance(hash, lhs.mHash);
+                int rhsDistance = PerceptualHash.hammingDistance(hash, rhs.mHash);
+                if (lhsDistance != rhsDistance) {
+                    return lhsDistance < rhsDistance ? -1 : 1;
+                }
+                return lhs.getPath().compareTo(rhs.getPath());
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 把索引中的图片按相似关系分组，相似关系是传递的（A与B相似、B与C相似时三者在同一组）
+     *
+     * @param maxDistance 相似阈值
+     * @return 至少包含两张图片的分组，组内按路径排序
+     */
+    public synchronized List<List<PhotoHash>> findDuplicateGroups(int maxDistance) {
+        int size = mHashes.size();
+        int[] parents = new int[size];
+        for (int i = 0; i < size; i++) {
+            parents[i] = i;
+        }
+        List<Integer> ids = new ArrayList<Integer>();
+        for (int i = 0; i < size; i++) {
+            ids.clear();
+            mTree.search(mHashes.get(i).mHash, maxDistance, ids);
+            for (Integer id : ids) {
+                union(parents, i, id);
+            }
+        }
+        Map<Integer, List<PhotoHash>> groups = new HashMap<Integer, List<PhotoHash>>();
+        for (int i = 0; i < size; i++) {
+            int root = find(parents, i);
+            List<PhotoHash> group = groups.get(root);
+            if (group == null) {
+                group = new ArrayList<PhotoHash>(2);
+                groups.put(root, group);
+            }
+            group.add(mHashes.get(i));
+        }
+        List<List<PhotoHash>> result = new ArrayList<List<PhotoHash>>();
+        Comparator<PhotoHash> pathComparator = new Comparator<PhotoHash>() {
+            @Override
+            public int compare(PhotoHash lhs, PhotoHash rhs) {
+                return lhs.getPath().compareTo(rhs.getPath());
+            }
+        };
+        for (List<PhotoHash> group : groups.values()) {
+            if (group.size() > 1) {
+                Collections.sort(group, pathComparator);
+                result.add(group);
+            }
+        }
+        Collections.sort(result, new Comparator<List<PhotoHash>>() {
+            @Override
+            public int compare(List<PhotoHash> lhs, List<PhotoHash> rhs) {
+                return lhs.get(0).getPath().compareTo(rhs.get(0).getPath());
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return 索引中的图片数
+     */
+    public synchronized int size() {
+        return mHashes.size();
+    }
+
+    /**
+     * 计算单张图片的哈希，不会加入索引
+     *
+     * @param image
+     * @return 读取失败返回null
+     */
+    public PhotoHash computeHash(File image) {
+        int[] gray = new int[PerceptualHash.SAMPLE_SIZE * PerceptualHash.SAMPLE_SIZE];
+        String path = image.getAbsolutePath();
+        long length = image.length();
+        long lastModified = image.lastModified();
+        try {
+            if (!mGrayscaleReader.read(path, gray)) {
+                return null;
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        } catch (OutOfMemoryError e) {
+            e.printStackTrace();
+            return null;
+        }
+        return new PhotoHash(path, length, lastModified, PerceptualHash.hash(gray));
+    }
+
+    private void rebuild(Collection<PhotoHash> hashes) {
+        mHashes.clear();
+        mTree.clear();
+        mHashes.addAll(hashes);
+        for (int i = 0; i < mHashes.size(); i++) {
+            mTree.add(mHashes.get(i).mHash, i);
+        }
+    }
+
+    private static int find(int[] parents, int i) {
+        while (parents[i] != i) {
+            parents[i] = parents[parents[i]];//路径减半
+            i = parents[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parents, int lhs, int rhs) {
+        int lhsRoot = find(parents, lhs);
+        int rhsRoot = find(parents, rhs);
+        if (lhsRoot != rhsRoot) {
+            parents[Math.max(lhsRoot, rhsRoot)] = Math.min(lhsRoot, rhsRoot);
+        }
+    }
+
+    /**
+     * 索引中保存{dHash, pHash}
+     */
+    private static class PhotoHashCodec implements FileIndex.EntryCodec<PhotoHash> {
+
+        @Override
+        public PhotoHash read(DataInputStream inputStream, String path, long size, long lastModified) throws IOException {
+            long[] hash = new long[PerceptualHash.HASH_LONGS];
+            for (int i = 0; i < hash.length; i++) {
+                hash[i] = inputStream.readLong();
+            }
+            return new PhotoHash(path, size, lastModified, hash);
+        }
+
+        @Override
+        public void write(DataOutputStream outputStream, PhotoHash photoHash) throws IOException {
+            for (long value : photoHash.mHash) {
+                outputStream.writeLong(value);
+            }
+        }
+    }
+
+    private static class DefaultGrayscaleReader implements GrayscaleReader {
+        @Override
+        public boolean read(String path, int[] out) {
+            int size = PerceptualHash.SAMPLE_SIZE;
+            Bitmap bitmap = BitmapUtils.decodeUprightBitmapFromFile(path, size * 2, size * 2);
+            if (bitmap == null) {
+                return false;
+            }
+            Bitmap scaled = Bitmap.createScaledBitmap(bitmap, size, size, true);
+            scaled.getPixels(out, 0, size, 0, 0, size, size);
+            if (scaled != bitmap) {
+                scaled.recycle();
+            }
+            BitmapUtils.recycleBitmap(bitmap);
+            PerceptualHash.toGrayscale(out);
+            return true;
+        }
+    }
+
+    /**
+     * 读取方向正确的灰度图，会在多个线程中同时调用
+     */
+    public static interface GrayscaleReader {
+        /**
+         * @param path
+         * @param out  保存{@link PerceptualHash#SAMPLE_SIZE}x{@link PerceptualHash#SAMPLE_SIZE}的0-255亮度，按行存放
+         * @return 不是有效的图片时返回false
+         */
+        public boolean read(String path, int[] out);
+    }
+
+    /**
+     * 一次更新的结果
+     */
+    public static class UpdateResult {
+
+        private final int mHashedCount;
+        private final int mReusedCount;
+        private final int mFailedCount;
+        private final int mRemovedCount;
+        private final long mElapsedTime;
+
+        UpdateResult(int hashedCount, int reusedCount, int failedCount, int removedCount, long elapsedTime) {
+            this.mHashedCount = hashedCount;
+            this.mReusedCount = reusedCount;
+            this.mFailedCount = failedCount;
+            this.mRemovedCount = removedCount;
+            this.mElapsedTime = elapsedTime;
+        }
+
+        /**
+         * @return 本次重新计算了哈希的图片数
+         */
+        public int getHashedCount() {
+            return mHashedCount;
+        }
+
+        /**
+         * @return 直接使用索引中哈希的图片数
+         */
+        public int getReusedCount() {
+            return mReusedCount;
+        }
+
+        /**
+         * @return 无法解码的图片数
+         */
+        public int getFailedCount() {
+            return mFailedCount;
+        }
+
+        /**
+         * @return 从索引中移除的图片数
+         */
+        public int getRemovedCount() {
+            return mRemovedCount;
+        }
+
+        /**
+         * @return 耗时，单位毫秒
+         */
+        public long getElapsedTime() {
+            return mElapsedTime;
+        }
+    }
+
+    /**
+     * 一张图片的感知哈希
+     */
+    public static class PhotoHash extends FileIndex.Entry {
+
+        private final long[] mHash;
+
+        PhotoHash(String path, long size, long lastModified, long[] hash) {
+            super(path, size, lastModified);
+            this.mHash = hash;
+        }
+
+        public long getDHash() {
+            return mHash[0];
+        }
+
+        public long getPHash() {
+            return mHash[1];
+        }
+
+        /**
+         * @return {dHash, pHash}的副本
+         */
+        public long[] getHash() {
+            return mHash.clone();
+        }
+
+        /**
+         * @param other
+         * @return 两张图片哈希不同的位数
+         */
+        public int distanceTo(PhotoHash other) {
+            return PerceptualHash.hammingDistance(mHash, other.mHash);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.clock.utils.bitmap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 从JPEG文件头的APP1(EXIF)段中读取旋转信息，避免为了一个Orientation标签再用ExifInterface打开一次文件
+ * <p/>
+ * JPEG段的遍历由{@link ImageHeaderParser}完成，这里只解析APP1段中的TIFF结构
+ * <p/>
+ * Created by Clock on 2016/2/25.
+ */
+class ExifOrientationParser {
+
+    static final int ORIENTATION_UNDEFINED = 0;
+    static final int ORIENTATION_NORMAL = 1;
+    static final int ORIENTATION_ROTATE_180 = 3;
+    static final int ORIENTATION_ROTATE_90 = 6;
+    static final int ORIENTATION_ROTATE_270 = 8;
+
+    private static final int TAG_ORIENTATION = 0x0112;
+
+    private ExifOrientationParser() {
+    }
+
+    /**
+     * Orientation标签对应的旋转角度
+     *
+     * @param orientation
+     * @return 0、90、180或270
+     */
+    static int toDegree(int orientation) {
+        switch (orientation) {
+            case ORIENTATION_ROTATE_90:
+                return 90;
+            case ORIENTATION_ROTATE_180:
+                return 180;
+            case ORIENTATION_ROTATE_270:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * 在TIFF结构的IFD0中查找Orientation标签
+     *
+     * @param buffer
+     * @param tiffStart TIFF头的起始位置
+     * @param end       APP1段的结束位置
+     * @return
+     */
+    static int parseTiffOrientation(ByteBuffer buffer, int tiffStart, int end) {
+        if (end - tiffStart < 8) {
+            return ORIENTATION_UNDEFINED;
+        }
+        ByteOrder originalOrder = buffer.order();
+        try {
+            int byteOrder = buffer.getShort(tiffStart) & 0xFFFF;
+            if (byteOrder == 0x4949) {//"II"
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+            } else if (byteOrder == 0x4D4D) {//"MM"
+                buffer.order(ByteOrder.BIG_ENDIAN);
+            } else {
+                return ORIENTATION_UNDEFINED;
+            }
+            if (buffer.getShort(tiffStart + 2) != 42) {
+                return ORIENTATION_UNDEFINED;
+            }
+            long ifdOffset = buffer.getInt(tiffStart + 4) & 0xFFFFFFFFL;
+            int ifdStart = tiffStart + (int) Math.min(ifdOffset, Integer.MAX_VALUE - tiffStart);
+            if (ifdStart < tiffStart || ifdStart + 2 > end) {
+                return ORIENTATION_UNDEFINED;
+            }
+            int entryCount = buffer.getShort(ifdStart) & 0xFFFF;
+            for (int i = 0; i < entryCount; i++) {
+                int entry = ifdStart + 2 + i * 12;
+                if (entry + 12 > end) {
+                    break;
+                }
+                if ((buffer.getShort(entry) & 0xFFFF) == TAG_ORIENTATION) {
+                    int orientation = buffer.getShort(entry + 8) & 0xFFFF;//SHORT类型的值直接存放在值字段的前两个字节
+                    return orientation >= ORIENTATION_NORMAL && orientation <= 8 ? orientation : ORIENTATION_UNDEFINED;
+                }
+            }
+            return ORIENTATION_UNDEFINED;
+        } finally {
+            buffer.order(originalOrder);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.clock.utils.bitmap;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.media.MediaScannerConnection;
+import android.net.Uri;
+import android.provider.MediaStore;
+
+import com.clock.utils.metrics.Metrics;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 批量把图片登记到系统图库
+ * <p/>
+ * 与逐个调用MediaStore.Images.Media.insertImage不同，这里只插入元数据而不会重新解码、再保存一份图片和缩略图，
+ * 然后对整批文件只发起一次MediaScannerConnection扫描
+ * <p/>
+ * Created by Clock on 2016/3/5.
+ */
+public class GalleryRegistrar {
+
+    /**
+     * 每次bulkInsert的行数
+     */
+    private final static int BATCH_SIZE = 100;
+    /**
+     * sqlite单条语句的参数上限是999
+     */
+    private final static int QUERY_BATCH_SIZE = 500;
+
+    private GalleryRegistrar() {
+    }
+
+    /**
+     * 把一批图片登记到系统图库，会访问ContentProvider，请在后台线程调用
+     *
+     * @param context
+     * @param photoFiles       要登记的图片文件
+     * @param listener         进度监听，可以为null
+     * @param callbackExecutor 执行回调的Executor，传null则在主线程回调
+     */
+    public static void register(Context context, Collection<File> photoFiles, final OnRegisterListener listener, Executor callbackExecutor) {
+        final Executor executor = callbackExecutor != null ? callbackExecutor : BitmapDecodeEngine.mainThreadExecutor();
+        List<File> files = new ArrayList<File>(photoFiles.size());
+        for (File photoFile : photoFiles) {
+            if (photoFile != null && photoFile.isFile()) {
+                files.add(photoFile);
+            }
+        }
+        final int total = files.size();
+        if (total == 0) {
+            if (listener != null) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onComplete(0);
+                    }
+                });
+            }
+            return;
+        }
+
+        String[] paths = new String[total];
+        String[] mimeTypes = new String[total];
+        for (int i = 0; i < total; i++) {
+            paths[i] = files.get(i).getAbsolutePath();
+            mimeTypes[i] = getMimeType(paths[i]);
+        }
+        long startTime = Metrics.startTimer();
+        insertMetadata(context.getApplicationContext().getContentResolver(), files, paths, mimeTypes);
+        Metrics.recordDuration(Metrics.GALLERY_REGISTER_TIME, startTime);
+
+        final AtomicInteger scannedCount = new AtomicInteger();
+        MediaScannerConnection.scanFile(context.getApplicationContext(), paths, mimeTypes, new MediaScannerConnection.OnScanCompletedListener() {
+            @Override
+            public void onScanCompleted(String path, Uri uri) {
+                final int completed = scannedCount.incrementAndGet();
+                if (listener == null) {
+                    return;
+                }
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onProgress(completed, total);
+                        if (completed == total) {
+                            listener.onComplete(total);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 批量插入图库中还没有的图片的元数据
+     *
+     * @param contentResolver
+     * @param files
+     * @param paths
+     * @param mimeTypes
+     */
+    private static void insertMetadata(ContentResolver contentResolver, List<File> files, String[] paths, String[] mimeTypes) {
+        Set<String> existingPaths = queryExistingPaths(contentResolver, paths);
+        List<ContentValues> batch = new ArrayList<ContentValues>(BATCH_SIZE);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < paths.length; i++) {
+            if (existingPaths.contains(paths[i])) {
+                continue;
+            }
+            File file = files.get(i);
+            String name = file.getName();
+            int dotIndex = name.lastIndexOf('.');
+            ContentValues values = new ContentValues();
+            values.put(MediaStore.Images.Media.DATA, paths[i]);
+            values.put(MediaStore.Images.Media.DISPLAY_NAME, name);
+            values.put(MediaStore.Images.Media.TITLE, dotIndex > 0 ? name.substring(0, dotIndex) : name);
+            values.put(MediaStore.Images.Media.MIME_TYPE, mimeTypes[i]);
+            values.put(MediaStore.Images.Media.SIZE, file.length());
+            values.put(MediaStore.Images.Media.DATE_ADDED, now / 1000);
+            values.put(MediaStore.Images.Media.DATE_MODIFIED, file.lastModified() / 1000);
+            values.put(MediaStore.Images.Media.DATE_TAKEN, file.lastModified());
+            batch.add(values);
+            if (batch.size() == BATCH_SIZE) {
+                bulkInsert(contentResolver, batch);
+            }
+        }
+        bulkInsert(contentResolver, batch);
+    }
+
+    private static void bulkInsert(ContentResolver contentResolver, List<ContentValues> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            contentResolver.bulkInsert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, batch.toArray(new ContentValues[batch.size()]));
+        } catch (RuntimeException e) {//外部存储未挂载等情况，交给后面的扫描处理
+            e.printStackTrace();
+        }
+        batch.clear();
+    }
+
+    /**
+     * 查询已经在图库中的图片路径，避免重复插入
+     *
+     * @param contentResolver
+     * @param paths
+     * @return
+     */
+    private static Set<String> queryExistingPaths(ContentResolver contentResolver, String[] paths) {
+        Set<String> existingPaths = new HashSet<String>();
+        String[] projection = {MediaStore.Images.Media.DATA};
+        for (int start = 0; start < paths.length; start += QUERY_BATCH_SIZE) {
+            int count = Math.min(QUERY_BATCH_SIZE, paths.length - start);
+            StringBuilder selection = new StringBuilder(MediaStore.Images.Media.DATA).append(" IN (");
+            String[] selectionArgs = new String[count];
+            for (int i = 0; i < count; i++) {
+                selection.append(i == 0 ? "?" : ",?");
+                selectionArgs[i] = paths[start + i];
+            }
+            selection.append(')');
+            Cursor cursor = null;
+            try {
+                cursor = contentResolver.query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, projection, selection.toString(), selectionArgs, null);
+                while (cursor != null && cursor.moveToNext()) {
+                    existingPaths.add(cursor.getString(0));
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+        }
+        return existingPaths;
+    }
+
+    /**
+     * 根据文件后缀获取图片的MIME类型
+     *
+     * @param path
+     * @return
+     */
+    static String getMimeType(String path) {
+        String lowerPath = path.toLowerCase(Locale.US);
+        if (lowerPath.endsWith(".png")) {
+            return "image/png";
+        } else if (lowerPath.endsWith(".webp")) {
+            return "image/webp";
+        } else if (lowerPath.endsWith(".gif")) {
+            return "image/gif";
+        } else if (lowerPath.endsWith(".bmp")) {
+            return "image/bmp";
+        }
+        return "image/jpeg";
+    }
+
+    /**
+     * 登记进度监听
+     */
+    public static interface OnRegisterListener {
+
+        /**
+         * @param completed 已经扫描完成的文件数
+         * @param total     总文件数
+         */
+        public void onProgress(int completed, int total);
+
+        /**
+         * @param total 登记的文件总数
+         */
+        public void onComplete(int total);
+    }
+}
@@ -0,0 +1,143 @@
+package com.clock.utils.bitmap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 以汉明距离为度量的BK树，用于查找与给定哈希距离不超过阈值的所有哈希
+ * <p/>
+ * 每个子节点到父节点的距离各不相同，查询距离为d的节点时只需要进入距离在[d - 阈值, d + 阈值]之间的子树，
+ * 阈值较小时每次查询只访问一小部分节点
+ * <p/>
+ * 非线程安全
+ * <p/>
+ * Created by Clock on 2016/3/25.
+ */
+public class HashBKTree {
+
+    private Node mRoot;
+    private int mSize;
+
+    /**
+     * 添加一个哈希，哈希完全相同的id保存在同一个节点中
+     *
+     * @param hash 由{@link PerceptualHash#hash(int[])}计算
+     * @param id   调用方自己的编号，查询时返回
+     */
+    public void add(long[] hash, int id) {
+        mSize++;
+        if (mRoot == null) {
+            mRoot = new Node(hash, id);
+            return;
+        }
+        Node node = mRoot;
+        while (true) {
+            int distance = PerceptualHash.hammingDistance(hash, node.mHash);
+            if (distance == 0) {
+                node.addId(id);
+                return;
+            }
+            Node child = node.getChild(distance);
+            if (child == null) {
+                node.addChild(distance, new Node(hash, id));
+                return;
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * 查找与hash距离不超过maxDistance的所有id
+     *
+     * @param hash
+     * @param maxDistance
+     * @param out         保存结果
+     */
+    public void search(long[] hash, int maxDistance, List<Integer> out) {
+        if (mRoot == null) {
+            return;
+        }
+        List<Node> pending = new ArrayList<Node>();
+        pending.add(mRoot);
+        while (!pending.isEmpty()) {
+            Node node = pending.remove(pending.size() - 1);
+            int distance = PerceptualHash.hammingDistance(hash, node.mHash);
+            if (distance <= maxDistance) {
+                for (int i = 0; i < node.mIdCount; i++) {
+                    out.add(node.mIds[i]);
+                }
+            }
+            int min = distance - maxDistance;
+            int max = distance + maxDistance;
+            for (int i = 0; i < node.mChildCount; i++) {
+                int childDistance = node.mChildDistances[i];
+                if (childDistance >= min && childDistance <= max) {
+                    pending.add(node.mChildren[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 添加过的哈希个数
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public void clear() {
+        mRoot = null;
+        mSize = 0;
+    }
+
+    private static class Node {
+
+        private final long[] mHash;
+        private int[] mIds;
+        private int mIdCount;
+        private int[] mChildDistances;
+        private Node[] mChildren;
+        private int mChildCount;
+
+        Node(long[] hash, int id) {
+            this.mHash = hash;
+            this.mIds = new int[]{id};
+            this.mIdCount = 1;
+        }
+
+        void addId(int id) {
+            if (mIdCount == mIds.length) {
+                int[] ids = new int[mIds.length * 2];
+                System.arraycopy(mIds, 0, ids, 0, mIdCount);
+                mIds = ids;
+            }
+            mIds[mIdCount++] = id;
+        }
+
+        Node getChild(int distance) {
+            for (int i = 0; i < mChildCount; i++) {
+                if (mChildDistances[i] == distance) {
+                    return mChildren[i];
+                }
+            }
+            return null;
+        }
+
+        void addChild(int distance, Node child) {
+            if (mChildren == null) {
+                mChildDistances = new int[4];
+                mChildren = new Node[4];
+            } else if (mChildCount == mChildren.length) {
+                int[] distances = new int[mChildCount * 2];
+                Node[] children = new Node[mChildCount * 2];
+                System.arraycopy(mChildDistances, 0, distances, 0, mChildCount);
+                System.arraycopy(mChildren, 0, children, 0, mChildCount);
+                mChildDistances = distances;
+                mChildren = children;
+            }
+            mChildDistances[mChildCount] = distance;
+            mChildren[mChildCount] = child;
+            mChildCount++;
+        }
+    }
+}
@@ -0,0 +1,463 @@
+package com.clock.utils.bitmap;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 纯Java的图片文件头解析，读取宽高、EXIF旋转信息和是否有透明通道，不需要BitmapFactory和ExifInterface
+ * <p/>
+ * 支持JPEG（SOF、APP1）、PNG（IHDR、tRNS）、WebP（VP8、VP8L、VP8X、EXIF）和GIF，
+ * 只读取文件开头的{@link #HEADER_SIZE}字节到线程复用的缓冲区中；JPEG的SOF段不在这个范围内时（如APP段中有很大的缩略图），
+ * 按段长度跳过已经解析的段，从没有读完的段开始继续读取到同一个缓冲区
+ * <p/>
+ * Created by Clock on 2016/3/24.
+ */
+public class ImageHeaderParser {
+
+    public final static int FORMAT_UNKNOWN = 0;
+    public final static int FORMAT_JPEG = 1;
+    public final static int FORMAT_PNG = 2;
+    public final static int FORMAT_WEBP = 3;
+    public final static int FORMAT_GIF = 4;
+
+    /**
+     * 从文件开头读取的字节数
+     */
+    public final static int HEADER_SIZE = 16 * 1024;
+
+    private final static String[] MIME_TYPES = {null, "image/jpeg", "image/png", "image/webp", "image/gif"};
+
+    private final static int MARKER_SOI = 0xFFD8;
+    private final static int MARKER_APP1 = 0xE1;
+    private final static int MARKER_SOS = 0xDA;
+    private final static int MARKER_EOI = 0xD9;
+    private final static int EXIF_HEADER = 0x45786966;//"Exif"
+
+    private final static long PNG_SIGNATURE = 0x89504E470D0A1A0AL;
+    private final static int PNG_IHDR = 0x49484452;//"IHDR"
+    private final static int PNG_TRNS = 0x74524E53;//"tRNS"
+    private final static int PNG_IDAT = 0x49444154;//"IDAT"
+    private final static int PNG_COLOR_GRAY_ALPHA = 4;
+    private final static int PNG_COLOR_RGBA = 6;
+
+    private final static int RIFF = 0x52494646;//"RIFF"
+    private final static int WEBP = 0x57454250;//"WEBP"
+    private final static int WEBP_VP8 = 0x56503820;//"VP8 "
+    private final static int WEBP_VP8L = 0x5650384C;//"VP8L"
+    private final static int WEBP_VP8X = 0x56503858;//"VP8X"
+    private final static int WEBP_EXIF = 0x45584946;//"EXIF"
+    private final static int WEBP_VP8X_ALPHA = 0x10;
+    private final static int WEBP_VP8X_EXIF = 0x08;
+
+    private final static int GIF = 0x474946;//"GIF"
+
+    /**
+     * 每个线程复用一块读取文件头的缓冲区
+     */
+    private final static ThreadLocal<ByteBuffer> sHeaderBuffer = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(HEADER_SIZE);
+        }
+    };
+
+    private ImageHeaderParser() {
+    }
+
+    /**
+     * 解析图片文件头
+     *
+     * @param imagePath 图片文件路径
+     * @return 不支持的格式或者读取失败返回null
+     */
+    public static ImageHeader parse(String imagePath) {
+        return imagePath == null ? null : parse(new File(imagePath));
+    }
+
+    /**
+     * 解析图片文件头
+     *
+     * @param imageFile 图片文件
+     * @return 不支持的格式或者读取失败返回null
+     */
+    public static ImageHeader parse(File imageFile) {
+        FileInputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(imageFile);
+            return parse(inputStream.getChannel());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * 从文件开头解析图片文件头，只使用指定位置的读取，不会改变channel的position，调用方可以继续使用同一个文件描述符解码
+     *
+     * @param channel 已经打开的图片文件
+     * @return 不支持的格式返回null
+     * @throws IOException
+     */
+    static ImageHeader parse(FileChannel channel) throws IOException {
+        ByteBuffer buffer = sHeaderBuffer.get();
+        if (read(channel, buffer, 0) < HEADER_SIZE || !isJpeg(buffer)) {
+            return parse(buffer);
+        }
+        JpegCursor cursor = new JpegCursor();
+        long position = 0;
+        ImageHeader imageHeader = parseJpeg(buffer, position, cursor);
+        while (imageHeader == null && !cursor.mEnd && cursor.mNext > position) {//SOF段在更后面
+            position = cursor.mNext;
+            if (read(channel, buffer, position) < 4) {
+                break;
+            }
+            imageHeader = parseJpeg(buffer, position, cursor);
+        }
+        return imageHeader;
+    }
+
+    /**
+     * 从文件的指定位置读满缓冲区或者读到文件末尾
+     *
+     * @return 读取到的字节数，buffer的position为0，limit为读取到的字节数
+     */
+    private static int read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) != -1) {
+            //读满缓冲区或者读到文件末尾
+        }
+        buffer.flip();
+        return buffer.limit();
+    }
+
+    /**
+     * 解析图片文件头，不会改变buffer的position和limit
+     *
+     * @param buffer 从文件开头读取的数据，position到limit之间为有效数据
+     * @return 不支持的格式或者数据不完整返回null
+     */
+    public static ImageHeader parse(ByteBuffer buffer) {
+        int start = buffer.position();
+        int end = buffer.limit();
+        if (end - start < 12) {
+            return null;
+        }
+        if (isJpeg(buffer)) {
+            return parseJpeg(buffer, 0, new JpegCursor());
+        }
+        if (end - start >= 8 && buffer.getLong(start) == PNG_SIGNATURE) {
+            return parsePng(buffer, start, end);
+        }
+        if (buffer.getInt(start) == RIFF && buffer.getInt(start + 8) == WEBP) {
+            return parseWebp(buffer, start, end);
+        }
+        if ((buffer.getInt(start) >>> 8) == GIF) {
+            return parseGif(buffer, start, end);
+        }
+        return null;
+    }
+
+    private static boolean isJpeg(ByteBuffer buffer) {
+        return buffer.limit() - buffer.position() >= 2 && (buffer.getShort(buffer.position()) & 0xFFFF) == MARKER_SOI;
+    }
+
+    /**
+     * 从cursor记录的位置开始遍历buffer中的JPEG段
+     *
+     * @param base   buffer的position对应的文件偏移
+     * @param cursor 保存下一个段的文件偏移和已经读到的旋转信息，可以读取后面的数据后继续遍历
+     * @return 找到SOF段时返回结果，否则返回null
+     */
+    private static ImageHeader parseJpeg(ByteBuffer buffer, long base, JpegCursor cursor) {
+        int start = buffer.position();
+        int end = buffer.limit();
+        int offset = start + (int) (cursor.mNext - base);
+        while (offset + 4 <= end) {
+            if ((buffer.get(offset) & 0xFF) != 0xFF) {
+                cursor.mEnd = true;//数据损坏
+                return null;
+            }
+            int marker = buffer.get(offset + 1) & 0xFF;
+            if (marker == 0xFF) {//填充字节
+                offset++;
+                continue;
+            }
+            if (marker == MARKER_SOS || marker == MARKER_EOI) {
+                cursor.mEnd = true;//图像数据之前没有SOF
+                return null;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {//没有长度字段的标记
+                offset += 2;
+                continue;
+            }
+            int segmentLength = buffer.getShort(offset + 2) & 0xFFFF;
+            if (segmentLength < 2) {
+                cursor.mEnd = true;
+                return null;
+            }
+            int segmentStart = offset + 4;
+            int segmentEnd = offset + 2 + segmentLength;
+            if (isStartOfFrame(marker)) {
+                if (segmentStart + 5 > end) {
+                    break;//从这个段开始继续读取
+                }
+                int height = buffer.getShort(segmentStart + 1) & 0xFFFF;
+                int width = buffer.getShort(segmentStart + 3) & 0xFFFF;
+                return new ImageHeader(FORMAT_JPEG, width, height, cursor.mOrientation, false);
+            }
+            if (marker == MARKER_APP1 && cursor.mOrientation == ExifOrientationParser.ORIENTATION_UNDEFINED) {
+                if (segmentEnd > end && offset > start) {
+                    break;//从这个段开始继续读取，比缓冲区还大时只解析读到的部分
+                }
+                int exifEnd = Math.min(segmentEnd, end);
+                if (exifEnd - segmentStart >= 6 && buffer.getInt(segmentStart) == EXIF_HEADER && buffer.getShort(segmentStart + 4) == 0) {
+                    cursor.mOrientation = ExifOrientationParser.parseTiffOrientation(buffer, segmentStart + 6, exifEnd);
+                }
+            }
+            offset = segmentEnd;
+        }
+        cursor.mNext = base + offset - start;
+        return null;
+    }
+
+    /**
+     * SOF0-SOF15，不包括DHT(C4)、JPG(C8)和DAC(CC)
+     */
+    private static boolean isStartOfFrame(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    private static ImageHeader parsePng(ByteBuffer buffer, int start, int end) {
+        if (end - start < 26 || buffer.getInt(start + 12) != PNG_IHDR) {
+            return null;
+        }
+        int width = buffer.getInt(start + 16);
+        int height = buffer.getInt(start + 20);
+        int colorType = buffer.get(start + 25) & 0xFF;
+        boolean hasAlpha = colorType == PNG_COLOR_GRAY_ALPHA || colorType == PNG_COLOR_RGBA;
+        if (!hasAlpha) {//其他颜色类型通过tRNS块表示透明，它必须出现在IDAT之前
+            hasAlpha = true;//没读到IDAT之前无法确定，按有透明通道处理
+            long offset = start + 8;
+            while (offset + 8 <= end) {
+                long length = buffer.getInt((int) offset) & 0xFFFFFFFFL;
+                int type = buffer.getInt((int) offset + 4);
+                if (type == PNG_TRNS) {
+                    break;
+                }
+                if (type == PNG_IDAT) {
+                    hasAlpha = false;
+                    break;
+                }
+                offset += 12 + length;//长度、类型、数据、CRC
+            }
+        }
+        return new ImageHeader(FORMAT_PNG, width, height, ExifOrientationParser.ORIENTATION_UNDEFINED, hasAlpha);
+    }
+
+    private static ImageHeader parseWebp(ByteBuffer buffer, int start, int end) {
+        if (end - start < 30) {
+            return null;
+        }
+        int chunk = buffer.getInt(start + 12);
+        int data = start + 20;
+        if (chunk == WEBP_VP8) {
+            //3字节帧标记 + 起始码9D 01 2A + 14位宽 + 14位高
+            if ((buffer.get(data + 3) & 0xFF) != 0x9D || (buffer.get(data + 4) & 0xFF) != 0x01 || (buffer.get(data + 5) & 0xFF) != 0x2A) {
+                return null;
+            }
+            int width = readLittleEndianShort(buffer, data + 6) & 0x3FFF;
+            int height = readLittleEndianShort(buffer, data + 8) & 0x3FFF;
+            return new ImageHeader(FORMAT_WEBP, width, height, ExifOrientationParser.ORIENTATION_UNDEFINED, false);
+        }
+        if (chunk == WEBP_VP8L) {
+            //签名0x2F + 14位宽-1 + 14位高-1 + 1位透明标记
+            if ((buffer.get(data) & 0xFF) != 0x2F) {
+                return null;
+            }
+            int bits = readLittleEndianInt(buffer, data + 1);
+            int width = (bits & 0x3FFF) + 1;
+            int height = ((bits >>> 14) & 0x3FFF) + 1;
+            boolean hasAlpha = ((bits >>> 28) & 1) != 0;
+            return new ImageHeader(FORMAT_WEBP, width, height, ExifOrientationParser.ORIENTATION_UNDEFINED, hasAlpha);
+        }
+        if (chunk == WEBP_VP8X) {
+            //1字节标记 + 3字节保留 + 24位宽-1 + 24位高-1
+            int flags = buffer.get(data) & 0xFF;
+            int width = readLittleEndianInt24(buffer, data + 4) + 1;
+            int height = readLittleEndianInt24(buffer, data + 7) + 1;
+            int orientation = ExifOrientationParser.ORIENTATION_UNDEFINED;
+            if ((flags & WEBP_VP8X_EXIF) != 0) {
+                orientation = parseWebpExifOrientation(buffer, start, end);
+            }
+            return new ImageHeader(FORMAT_WEBP, width, height, orientation, (flags & WEBP_VP8X_ALPHA) != 0);
+        }
+        return null;
+    }
+
+    /**
+     * 在VP8X格式的块中查找EXIF块，EXIF块通常在图像数据之后，不在读取范围内时返回未定义
+     */
+    private static int parseWebpExifOrientation(ByteBuffer buffer, int start, int end) {
+        long offset = start + 12;
+        while (offset + 8 <= end) {
+            int chunk = buffer.getInt((int) offset);
+            long size = readLittleEndianInt(buffer, (int) offset + 4) & 0xFFFFFFFFL;
+            if (chunk == WEBP_EXIF) {
+                int exifStart = (int) offset + 8;
+                int exifEnd = (int) Math.min(exifStart + size, end);
+                if (exifEnd - exifStart >= 6 && buffer.getInt(exifStart) == EXIF_HEADER && buffer.getShort(exifStart + 4) == 0) {
+                    exifStart += 6;//部分编码器会带上JPEG中的"Exif\0\0"前缀
+                }
+                return ExifOrientationParser.parseTiffOrientation(buffer, exifStart, exifEnd);
+            }
+            offset += 8 + size + (size & 1);//块数据按偶数字节对齐
+        }
+        return ExifOrientationParser.ORIENTATION_UNDEFINED;
+    }
+
+    private static ImageHeader parseGif(ByteBuffer buffer, int start, int end) {
+        if (end - start < 13) {
+            return null;
+        }
+        int width = readLittleEndianShort(buffer, start + 6);
+        int height = readLittleEndianShort(buffer, start + 8);
+        int packed = buffer.get(start + 10) & 0xFF;
+        int offset = start + 13;
+        if ((packed & 0x80) != 0) {//全局颜色表
+            offset += 3 << ((packed & 0x07) + 1);
+        }
+        boolean hasAlpha = true;//没读到第一帧之前无法确定，按有透明通道处理
+        while (offset + 1 < end) {
+            int block = buffer.get(offset) & 0xFF;
+            if (block == 0x2C || block == 0x3B) {//第一帧之前没有透明色
+                hasAlpha = false;
+                break;
+            }
+            if (block != 0x21) {
+                break;
+            }
+            int label = buffer.get(offset + 1) & 0xFF;
+            if (label == 0xF9 && offset + 3 < end) {//图形控制扩展，最低位是透明色标记
+                hasAlpha = (buffer.get(offset + 3) & 0x01) != 0;
+                break;
+            }
+            offset += 2;
+            while (offset < end) {//跳过数据子块
+                int blockSize = buffer.get(offset) & 0xFF;
+                offset += 1 + blockSize;
+                if (blockSize == 0) {
+                    break;
+                }
+            }
+        }
+        return new ImageHeader(FORMAT_GIF, width, height, ExifOrientationParser.ORIENTATION_UNDEFINED, hasAlpha);
+    }
+
+    private static int readLittleEndianShort(ByteBuffer buffer, int index) {
+        return (buffer.get(index) & 0xFF) | (buffer.get(index + 1) & 0xFF) << 8;
+    }
+
+    private static int readLittleEndianInt24(ByteBuffer buffer, int index) {
+        return readLittleEndianShort(buffer, index) | (buffer.get(index + 2) & 0xFF) << 16;
+    }
+
+    private static int readLittleEndianInt(ByteBuffer buffer, int index) {
+        return readLittleEndianInt24(buffer, index) | (buffer.get(index + 3) & 0xFF) << 24;
+    }
+
+    /**
+     * JPEG段的遍历进度
+     */
+    private static class JpegCursor {
+
+        /**
+         * 下一个段的文件偏移，跳过SOI
+         */
+        private long mNext = 2;
+        private int mOrientation = ExifOrientationParser.ORIENTATION_UNDEFINED;
+        /**
+         * 已经确定没有SOF段或者数据损坏
+         */
+        private boolean mEnd = false;
+    }
+
+    /**
+     * 文件头解析结果
+     */
+    public static class ImageHeader {
+
+        private final int mFormat;
+        private final int mWidth;
+        private final int mHeight;
+        private final int mOrientation;
+        private final boolean mHasAlpha;
+
+        ImageHeader(int format, int width, int height, int orientation, boolean hasAlpha) {
+            this.mFormat = format;
+            this.mWidth = width;
+            this.mHeight = height;
+            this.mOrientation = orientation;
+            this.mHasAlpha = hasAlpha;
+        }
+
+        /**
+         * @return {@link #FORMAT_JPEG}、{@link #FORMAT_PNG}、{@link #FORMAT_WEBP}或{@link #FORMAT_GIF}
+         */
+        public int getFormat() {
+            return mFormat;
+        }
+
+        /**
+         * @return 与BitmapFactory.Options.outMimeType一致
+         */
+        public String getMimeType() {
+            return MIME_TYPES[mFormat];
+        }
+
+        /**
+         * @return 存储的宽度，没有按旋转角度对调
+         */
+        public int getWidth() {
+            return mWidth;
+        }
+
+        /**
+         * @return 存储的高度，没有按旋转角度对调
+         */
+        public int getHeight() {
+            return mHeight;
+        }
+
+        /**
+         * @return EXIF中的Orientation值（1-8），没有时为0
+         */
+        public int getOrientation() {
+            return mOrientation;
+        }
+
+        /**
+         * @return 0、90、180或270
+         */
+        public int getDegree() {
+            return ExifOrientationParser.toDegree(mOrientation);
+        }
+
+        /**
+         * @return 是否有透明通道，PNG和GIF在读取范围内无法确定时返回true
+         */
+        public boolean hasAlpha() {
+            return mHasAlpha;
+        }
+    }
+}
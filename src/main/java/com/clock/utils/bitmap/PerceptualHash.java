@@ -0,0 +1,184 @@
+package com.clock.utils.bitmap;
+
+import java.util.Arrays;
+
+/**
+ * 感知哈希，内容相近的图片（缩放、重新压缩、轻微调色）得到的哈希只有少数几位不同
+ * <p/>
+ * 1.dHash：缩小到9x8，比较每行相邻像素的亮度，对缩放和压缩很稳定，计算非常快
+ * <p/>
+ * 2.pHash：对32x32的灰度图做DCT，取左上角8x8的低频系数与中位数比较，对调色和轻微裁剪更稳定
+ * <p/>
+ * 两个哈希各64位，打包成long[]{dHash, pHash}，用两组哈希不同的位数（汉明距离）衡量相似度
+ * <p/>
+ * Created by Clock on 2016/3/25.
+ */
+public class PerceptualHash {
+
+    /**
+     * 计算哈希使用的灰度图边长
+     */
+    public final static int SAMPLE_SIZE = 32;
+    /**
+     * {@link #hash(int[])}返回的long个数
+     */
+    public final static int HASH_LONGS = 2;
+
+    private final static int DCT_SIZE = 8;
+
+    /**
+     * DCT-II的余弦表，COS_TABLE[u][x] = cos((2x + 1) * u * PI / 64)
+     */
+    private final static double[][] COS_TABLE = new double[DCT_SIZE][SAMPLE_SIZE];
+
+    static {
+        for (int u = 0; u < DCT_SIZE; u++) {
+            for (int x = 0; x < SAMPLE_SIZE; x++) {
+                COS_TABLE[u][x] = Math.cos((2 * x + 1) * u * Math.PI / (2 * SAMPLE_SIZE));
+            }
+        }
+    }
+
+    private PerceptualHash() {
+    }
+
+    /**
+     * 把ARGB像素转换为0-255的亮度
+     *
+     * @param pixels 转换结果直接写回这个数组
+     */
+    public static void toGrayscale(int[] pixels) {
+        for (int i = 0; i < pixels.length; i++) {
+            int pixel = pixels[i];
+            int r = (pixel >> 16) & 0xFF;
+            int g = (pixel >> 8) & 0xFF;
+            int b = pixel & 0xFF;
+            pixels[i] = (r * 299 + g * 587 + b * 114) / 1000;
+        }
+    }
+
+    /**
+     * 计算dHash和pHash
+     *
+     * @param gray {@link #SAMPLE_SIZE}x{@link #SAMPLE_SIZE}的灰度图，按行存放
+     * @return {dHash, pHash}
+     */
+    public static long[] hash(int[] gray) {
+        return new long[]{dHash(gray), pHash(gray)};
+    }
+
+    /**
+     * 计算dHash
+     *
+     * @param gray {@link #SAMPLE_SIZE}x{@link #SAMPLE_SIZE}的灰度图，按行存放
+     * @return
+     */
+    public static long dHash(int[] gray) {
+        checkSize(gray);
+        int[] small = resize(gray, SAMPLE_SIZE, SAMPLE_SIZE, 9, 8);
+        long hash = 0;
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                hash <<= 1;
+                if (small[y * 9 + x] < small[y * 9 + x + 1]) {
+                    hash |= 1;
+                }
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * 计算pHash
+     *
+     * @param gray {@link #SAMPLE_SIZE}x{@link #SAMPLE_SIZE}的灰度图，按行存放
+     * @return
+     */
+    public static long pHash(int[] gray) {
+        checkSize(gray);
+        //DCT是可分离的：先对每一行求前8个系数，再对这8列求前8个系数
+        double[] rows = new double[SAMPLE_SIZE * DCT_SIZE];
+        for (int y = 0; y < SAMPLE_SIZE; y++) {
+            for (int u = 0; u < DCT_SIZE; u++) {
+                double sum = 0;
+                double[] cos = COS_TABLE[u];
+                for (int x = 0; x < SAMPLE_SIZE; x++) {
+                    sum += gray[y * SAMPLE_SIZE + x] * cos[x];
+                }
+                rows[y * DCT_SIZE + u] = sum;
+            }
+        }
+        double[] coefficients = new double[DCT_SIZE * DCT_SIZE];
+        for (int v = 0; v < DCT_SIZE; v++) {
+            double[] cos = COS_TABLE[v];
+            for (int u = 0; u < DCT_SIZE; u++) {
+                double sum = 0;
+                for (int y = 0; y < SAMPLE_SIZE; y++) {
+                    sum += rows[y * DCT_SIZE + u] * cos[y];
+                }
+                coefficients[v * DCT_SIZE + u] = sum;
+            }
+        }
+        //直流分量只代表整体亮度，不参与比较
+        double[] sorted = new double[coefficients.length - 1];
+        System.arraycopy(coefficients, 1, sorted, 0, sorted.length);
+        Arrays.sort(sorted);
+        double median = sorted[sorted.length / 2];
+        long hash = 0;
+        for (int i = 0; i < coefficients.length; i++) {
+            hash <<= 1;
+            if (i > 0 && coefficients[i] > median) {
+                hash |= 1;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @return 两个哈希不同的位数
+     */
+    public static int hammingDistance(long lhs, long rhs) {
+        return Long.bitCount(lhs ^ rhs);
+    }
+
+    /**
+     * @return 两组哈希不同的位数之和，长度不同时只比较较短的部分
+     */
+    public static int hammingDistance(long[] lhs, long[] rhs) {
+        int length = Math.min(lhs.length, rhs.length);
+        int distance = 0;
+        for (int i = 0; i < length; i++) {
+            distance += Long.bitCount(lhs[i] ^ rhs[i]);
+        }
+        return distance;
+    }
+
+    /**
+     * 按区域平均缩小灰度图
+     */
+    static int[] resize(int[] src, int srcWidth, int srcHeight, int dstWidth, int dstHeight) {
+        int[] dst = new int[dstWidth * dstHeight];
+        for (int y = 0; y < dstHeight; y++) {
+            int top = y * srcHeight / dstHeight;
+            int bottom = Math.max(top + 1, (y + 1) * srcHeight / dstHeight);
+            for (int x = 0; x < dstWidth; x++) {
+                int left = x * srcWidth / dstWidth;
+                int right = Math.max(left + 1, (x + 1) * srcWidth / dstWidth);
+                int sum = 0;
+                for (int sy = top; sy < bottom; sy++) {
+                    for (int sx = left; sx < right; sx++) {
+                        sum += src[sy * srcWidth + sx];
+                    }
+                }
+                dst[y * dstWidth + x] = sum / ((bottom - top) * (right - left));
+            }
+        }
+        return dst;
+    }
+
+    private static void checkSize(int[] gray) {
+        if (gray == null || gray.length != SAMPLE_SIZE * SAMPLE_SIZE) {
+            throw new IllegalArgumentException("gray must be " + SAMPLE_SIZE + "x" + SAMPLE_SIZE);
+        }
+    }
+}
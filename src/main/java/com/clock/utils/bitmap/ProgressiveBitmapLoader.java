@@ -0,0 +1,464 @@
+package com.clock.utils.bitmap;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ExifInterface;
+import android.util.DisplayMetrics;
+
+import com.clock.utils.common.BackgroundThreadFactory;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 渐进式图片加载，打开大图时先显示预览，再逐步替换成清晰的图片
+ * <p/>
+ * 1.预览：优先使用EXIF中内嵌的缩略图，没有时用很大的inSampleSize解码，几毫秒内就能显示
+ * <p/>
+ * 2.屏幕尺寸：按屏幕大小采样解码，大部分情况下这就是最终结果
+ * <p/>
+ * 3.原图：调用{@link ProgressiveRequest#requestFullQuality()}后才解码（如用户放大图片时），长边不超过{@link #configMaxFullSize(int)}
+ * <p/>
+ * 每个阶段的结果都回调给同一个监听，所有请求的预览阶段优先于其他阶段执行；同一个tag（如显示图片的View）发起新请求时自动取消旧的请求，
+ * 取消时正在进行的解码也会中断。新阶段的Bitmap回调后，上一个阶段的Bitmap由调用方负责回收
+ * <p/>
+ * Created by Clock on 2016/3/22.
+ */
+public class ProgressiveBitmapLoader {
+
+    public final static int STAGE_PREVIEW = 0;
+    public final static int STAGE_SCREEN = 1;
+    public final static int STAGE_FULL = 2;
+
+    /**
+     * 预览图长边的默认像素数
+     */
+    public final static int DEFAULT_PREVIEW_SIZE = 256;
+    /**
+     * 原图长边的默认上限，超过大多数设备的最大纹理尺寸时无法直接绘制
+     */
+    public final static int DEFAULT_MAX_FULL_SIZE = 4096;
+
+    private final static int KEEP_ALIVE_SECONDS = 30;
+    /**
+     * EXIF缩略图与原图宽高比的最大差值，超过说明缩略图带有黑边，不能直接用作预览
+     */
+    private final static float MAX_THUMBNAIL_RATIO_DIFF = 0.05f;
+
+    private final ThreadPoolExecutor mExecutor;
+    /**
+     * tag对应的最新请求，请求只弱引用tag，tag（如View）不再使用后整项会被回收
+     */
+    private final Map<Object, ProgressiveRequest> mTagRequests = new WeakHashMap<Object, ProgressiveRequest>();
+    private final AtomicLong mSequence = new AtomicLong();
+    private final int mScreenLongSide;
+    private final int mScreenShortSide;
+    private volatile int mPreviewSize = DEFAULT_PREVIEW_SIZE;
+    private volatile int mMaxFullSize = DEFAULT_MAX_FULL_SIZE;
+
+    public ProgressiveBitmapLoader(Context context) {
+        this(context, 2);
+    }
+
+    /**
+     * @param context
+     * @param threadCount 解码线程数
+     */
+    public ProgressiveBitmapLoader(Context context, int threadCount) {
+        DisplayMetrics displayMetrics = context.getResources().getDisplayMetrics();
+        this.mScreenLongSide = Math.max(displayMetrics.widthPixels, displayMetrics.heightPixels);
+        this.mScreenShortSide = Math.min(displayMetrics.widthPixels, displayMetrics.heightPixels);
+        threadCount = Math.max(1, threadCount);
+        this.mExecutor = new ThreadPoolExecutor(threadCount, threadCount, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new BackgroundThreadFactory("ProgressiveLoader"));
+    }
+
+    /**
+     * 配置预览图长边的像素数
+     *
+     * @param previewSize
+     */
+    public void configPreviewSize(int previewSize) {
+        this.mPreviewSize = Math.max(1, previewSize);
+    }
+
+    /**
+     * 配置原图阶段长边的上限
+     *
+     * @param maxFullSize
+     */
+    public void configMaxFullSize(int maxFullSize) {
+        this.mMaxFullSize = Math.max(1, maxFullSize);
+    }
+
+    /**
+     * 开始渐进式加载图片文件
+     *
+     * @param imagePath        图片文件路径
+     * @param tag              请求的标识，可以为null，同一个tag发起新请求会取消旧的请求
+     * @param listener         每个阶段的结果回调
+     * @param callbackExecutor 执行回调的Executor，传null则在主线程回调
+     * @return
+     */
+    public ProgressiveRequest load(String imagePath, Object tag, OnStageDecodedListener listener, Executor callbackExecutor) {
+        if (imagePath == null || listener == null) {
+            throw new IllegalArgumentException("imagePath and listener must not be null");
+        }
+        ProgressiveRequest request = new ProgressiveRequest(imagePath, tag, listener,
+                callbackExecutor != null ? callbackExecutor : BitmapDecodeEngine.mainThreadExecutor());
+        ProgressiveRequest staleRequest = null;
+        if (tag != null) {
+            synchronized (mTagRequests) {
+                staleRequest = mTagRequests.put(tag, request);
+            }
+        }
+        if (staleRequest != null) {
+            staleRequest.cancel();
+        }
+        mExecutor.execute(new StageTask(request, STAGE_PREVIEW, mSequence.getAndIncrement()));
+        return request;
+    }
+
+    /**
+     * 取消指定tag的请求
+     *
+     * @param tag
+     */
+    public void cancel(Object tag) {
+        ProgressiveRequest request;
+        synchronized (mTagRequests) {
+            request = mTagRequests.remove(tag);
+        }
+        if (request != null) {
+            request.cancel();
+        }
+    }
+
+    /**
+     * 关闭加载器，排队中的阶段不再执行
+     */
+    public void shutdown() {
+        mExecutor.shutdownNow();
+        synchronized (mTagRequests) {
+            mTagRequests.clear();
+        }
+    }
+
+    private void runStage(ProgressiveRequest request, int stage) {
+        if (stage == STAGE_PREVIEW) {
+            int[] bounds = new int[3];
+            if (!BitmapUtils.decodeBoundsAndDegree(request.mImagePath, bounds)) {
+                deliverFailure(request, stage, null);
+                return;
+            }
+            request.mWidth = bounds[0];
+            request.mHeight = bounds[1];
+            request.mDegree = bounds[2];
+            if (Math.max(request.mWidth, request.mHeight) > mPreviewSize * 2) {//小图直接解码屏幕尺寸，不需要预览
+                Bitmap preview = decodePreview(request);
+                if (preview != null) {
+                    deliver(request, stage, preview, false);
+                }
+            }
+            submitStage(request, STAGE_SCREEN);
+        } else if (stage == STAGE_SCREEN) {
+            boolean landscape = (request.mDegree == 90 || request.mDegree == 270) ? request.mHeight > request.mWidth : request.mWidth > request.mHeight;
+            int requestWidth = landscape ? mScreenLongSide : mScreenShortSide;
+            int requestHeight = landscape ? mScreenShortSide : mScreenLongSide;
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.outWidth = request.mWidth;
+            options.outHeight = request.mHeight;
+            boolean swap = request.mDegree == 90 || request.mDegree == 270;
+            int inSampleSize = BitmapUtils.calculateInSampleSize(options, swap ? requestHeight : requestWidth, swap ? requestWidth : requestHeight);
+            inSampleSize = Math.max(inSampleSize, fullSampleSize(request));
+            Bitmap bitmap = decodeSampled(request, inSampleSize, Bitmap.Config.ARGB_8888);
+            if (bitmap == null) {
+                deliverFailure(request, stage, null);
+                return;
+            }
+            boolean finalStage = inSampleSize <= fullSampleSize(request);
+            deliver(request, stage, BitmapUtils.rotateBitmapByDegree(bitmap, request.mDegree), finalStage);
+            synchronized (request) {
+                request.mScreenDone = true;
+                if (!finalStage && request.mFullRequested && !request.mFullSubmitted) {
+                    request.mFullSubmitted = true;
+                    submitStage(request, STAGE_FULL);
+                }
+            }
+        } else {
+            Bitmap bitmap = decodeSampled(request, fullSampleSize(request), Bitmap.Config.ARGB_8888);
+            if (bitmap == null) {
+                deliverFailure(request, stage, null);
+                return;
+            }
+            deliver(request, stage, BitmapUtils.rotateBitmapByDegree(bitmap, request.mDegree), true);
+        }
+    }
+
+    /**
+     * @param request
+     * @return 长边不超过mMaxFullSize的最小采样率
+     */
+    private int fullSampleSize(ProgressiveRequest request) {
+        int longSide = Math.max(request.mWidth, request.mHeight);
+        int maxFullSize = mMaxFullSize;
+        int inSampleSize = 1;
+        while (longSide / inSampleSize > maxFullSize) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    private Bitmap decodePreview(ProgressiveRequest request) {
+        Bitmap thumbnail = decodeExifThumbnail(request);
+        if (thumbnail != null) {
+            return BitmapUtils.rotateBitmapByDegree(thumbnail, request.mDegree);
+        }
+        int longSide = Math.max(request.mWidth, request.mHeight);
+        int inSampleSize = 1;
+        while (longSide / (inSampleSize * 2) >= mPreviewSize) {
+            inSampleSize *= 2;
+        }
+        Bitmap bitmap = decodeSampled(request, inSampleSize, Bitmap.Config.ARGB_8888);//预览图很小，保留透明通道
+        return BitmapUtils.rotateBitmapByDegree(bitmap, request.mDegree);
+    }
+
+    private Bitmap decodeExifThumbnail(ProgressiveRequest request) {
+        byte[] thumbnailData;
+        try {
+            ExifInterface exifInterface = new ExifInterface(request.mImagePath);
+            if (!exifInterface.hasThumbnail()) {
+                return null;
+            }
+            thumbnailData = exifInterface.getThumbnail();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        if (thumbnailData == null || request.isCancelled()) {
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        Bitmap thumbnail = BitmapFactory.decodeByteArray(thumbnailData, 0, thumbnailData.length, options);
+        if (thumbnail == null) {
+            return null;
+        }
+        float imageRatio = (float) request.mWidth / request.mHeight;
+        float thumbnailRatio = (float) thumbnail.getWidth() / thumbnail.getHeight();
+        if (Math.abs(imageRatio - thumbnailRatio) > MAX_THUMBNAIL_RATIO_DIFF * imageRatio) {
+            thumbnail.recycle();
+            return null;
+        }
+        return thumbnail;
+    }
+
+    /**
+     * 按采样率解码，请求取消时会中断正在进行的解码
+     */
+    private Bitmap decodeSampled(ProgressiveRequest request, int inSampleSize, Bitmap.Config config) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = inSampleSize;
+        options.inPreferredConfig = config;
+        request.mDecodingOptions = options;
+        try {
+            if (request.isCancelled()) {
+                return null;
+            }
+            return BitmapFactory.decodeFile(request.mImagePath, options);
+        } finally {
+            request.mDecodingOptions = null;
+        }
+    }
+
+    private void submitStage(ProgressiveRequest request, int stage) {
+        if (!request.isCancelled() && !mExecutor.isShutdown()) {
+            mExecutor.execute(new StageTask(request, stage, mSequence.getAndIncrement()));
+        }
+    }
+
+    private void deliver(final ProgressiveRequest request, final int stage, final Bitmap bitmap, final boolean finalStage) {
+        if (request.isCancelled()) {
+            BitmapUtils.recycleBitmap(bitmap);
+            return;
+        }
+        if (finalStage) {
+            request.mFinished = true;
+            request.removeTag();
+        }
+        request.mCallbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (request.isCancelled()) {
+                    BitmapUtils.recycleBitmap(bitmap);
+                    return;
+                }
+                request.mListener.onStageDecoded(request.mImagePath, stage, bitmap, finalStage);
+            }
+        });
+    }
+
+    private void deliverFailure(final ProgressiveRequest request, final int stage, final Throwable error) {
+        if (request.isCancelled()) {
+            return;
+        }
+        request.mFinished = true;
+        request.removeTag();
+        request.mCallbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!request.isCancelled()) {
+                    request.mListener.onDecodeFailure(request.mImagePath, stage, error);
+                }
+            }
+        });
+    }
+
+    private class StageTask implements Runnable, Comparable<StageTask> {
+
+        private final ProgressiveRequest mRequest;
+        private final int mStage;
+        private final long mSequence;
+
+        StageTask(ProgressiveRequest request, int stage, long sequence) {
+            this.mRequest = request;
+            this.mStage = stage;
+            this.mSequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            if (mRequest.isCancelled()) {
+                return;
+            }
+            try {
+                runStage(mRequest, mStage);
+            } catch (Throwable e) {//包括OutOfMemoryError，之前阶段的结果仍然可用
+                deliverFailure(mRequest, mStage, e);
+            }
+        }
+
+        @Override
+        public int compareTo(StageTask another) {
+            if (mStage != another.mStage) {
+                return mStage < another.mStage ? -1 : 1;
+            }
+            return mSequence < another.mSequence ? -1 : (mSequence == another.mSequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * 一次渐进式加载请求
+     */
+    public class ProgressiveRequest {
+
+        private final String mImagePath;
+        /**
+         * 弱引用，作为mTagRequests的值时不能强引用它的key，否则屏幕尺寸阶段不是最后阶段时tag永远不会被回收
+         */
+        private final WeakReference<Object> mTag;
+        private final OnStageDecodedListener mListener;
+        private final Executor mCallbackExecutor;
+        private volatile boolean mCancelled = false;
+        private volatile boolean mFinished = false;
+        private volatile BitmapFactory.Options mDecodingOptions;
+
+        private int mWidth;
+        private int mHeight;
+        private int mDegree;
+        private boolean mScreenDone;
+        private boolean mFullRequested;
+        private boolean mFullSubmitted;
+
+        ProgressiveRequest(String imagePath, Object tag, OnStageDecodedListener listener, Executor callbackExecutor) {
+            this.mImagePath = imagePath;
+            this.mTag = tag != null ? new WeakReference<Object>(tag) : null;
+            this.mListener = listener;
+            this.mCallbackExecutor = callbackExecutor;
+        }
+
+        public String getImagePath() {
+            return mImagePath;
+        }
+
+        /**
+         * 请求解码原图，屏幕尺寸阶段已经是原图时不会再解码
+         */
+        public void requestFullQuality() {
+            if (mCancelled) {
+                return;
+            }
+            synchronized (this) {
+                if (mFullRequested) {
+                    return;
+                }
+                mFullRequested = true;
+                if (!mScreenDone || mFinished || mFullSubmitted) {//屏幕尺寸阶段完成后再提交
+                    return;
+                }
+                mFullSubmitted = true;
+            }
+            submitStage(this, STAGE_FULL);
+        }
+
+        /**
+         * 取消请求，正在进行的解码会被中断，取消后不会再收到回调
+         */
+        public void cancel() {
+            if (mCancelled) {
+                return;
+            }
+            mCancelled = true;
+            BitmapFactory.Options options = mDecodingOptions;
+            if (options != null) {
+                options.requestCancelDecode();
+            }
+            removeTag();
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        private void removeTag() {
+            Object tag = mTag != null ? mTag.get() : null;
+            if (tag == null) {
+                return;//tag已经被回收，WeakHashMap会自动清除对应的项
+            }
+            synchronized (mTagRequests) {
+                if (mTagRequests.get(tag) == this) {
+                    mTagRequests.remove(tag);
+                }
+            }
+        }
+    }
+
+    /**
+     * 每个阶段的结果回调，在请求时指定的Executor中执行
+     */
+    public static interface OnStageDecodedListener {
+
+        /**
+         * @param imagePath
+         * @param stage      {@link #STAGE_PREVIEW}、{@link #STAGE_SCREEN}或{@link #STAGE_FULL}
+         * @param bitmap     方向已经按EXIF旋转过
+         * @param finalStage 是否是最后一个阶段，之后不会再回调
+         */
+        public void onStageDecoded(String imagePath, int stage, Bitmap bitmap, boolean finalStage);
+
+        /**
+         * @param imagePath
+         * @param stage     失败的阶段，之前阶段回调的Bitmap仍然可用
+         * @param error     解码过程中抛出的异常，图片无法解码时为null
+         */
+        public void onDecodeFailure(String imagePath, int stage, Throwable error);
+    }
+}
@@ -0,0 +1,386 @@
+package com.clock.utils.bitmap;
+
+import android.graphics.Bitmap;
+
+import com.clock.utils.common.BackgroundThreadFactory;
+import com.clock.utils.text.HashUtils;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 批量生成缩略图的流水线，替代逐张调用decodeBitmapFromFile + saveToFile
+ * <p/>
+ * 1.读取：在调用线程中读取文件头，得到宽高和EXIF旋转角度，不是图片的文件直接跳过
+ * <p/>
+ * 2.解码：采样并通过inDensity直接缩放到缩略图尺寸，再按旋转角度摆正，多个线程并行
+ * <p/>
+ * 3.编码写入：压缩并原子写入输出目录，和解码阶段使用不同的线程池，解码和编码同时进行
+ * <p/>
+ * 内存中同时存在的Bitmap不超过{@link #configMaxBitmapsInMemory(int)}，达到上限时读取阶段会等待，阶段之间的队列长度也因此有上限。
+ * 缩略图文件名由原图路径、大小、修改时间以及缩略图的尺寸、格式、质量和缩放方式决定，已经存在的会跳过，中断后重新执行同一批图片就是断点续传
+ * <p/>
+ * Created by Clock on 2016/3/23.
+ */
+public class ThumbnailBatchPipeline {
+
+    public final static int DEFAULT_THUMBNAIL_SIZE = 256;
+    public final static int DEFAULT_QUALITY = 85;
+
+    private final File mOutputFolder;
+    private final int mThumbnailSize;
+    private int mDecodeThreadCount;
+    private int mEncodeThreadCount;
+    private int mMaxBitmapsInMemory;
+    private Bitmap.CompressFormat mFormat = Bitmap.CompressFormat.JPEG;
+    private int mQuality = DEFAULT_QUALITY;
+    private BitmapUtils.ScaleMode mScaleMode = BitmapUtils.ScaleMode.FILL;
+    private OnBatchProgressListener mProgressListener;
+    private volatile boolean mCanceled = false;
+
+    public ThumbnailBatchPipeline(File outputFolder) {
+        this(outputFolder, DEFAULT_THUMBNAIL_SIZE);
+    }
+
+    /**
+     * @param outputFolder  缩略图输出目录
+     * @param thumbnailSize 缩略图的边长
+     */
+    public ThumbnailBatchPipeline(File outputFolder, int thumbnailSize) {
+        if (outputFolder == null || thumbnailSize <= 0) {
+            throw new IllegalArgumentException("outputFolder must not be null and thumbnailSize must be positive");
+        }
+        this.mOutputFolder = outputFolder;
+        this.mThumbnailSize = thumbnailSize;
+        int processors = Runtime.getRuntime().availableProcessors();
+        configParallelism(Math.max(1, processors - 1), Math.max(1, processors / 2));
+    }
+
+    /**
+     * 配置每个阶段的线程数，默认解码使用CPU核数-1个线程，编码写入使用CPU核数/2个线程
+     *
+     * @param decodeThreadCount
+     * @param encodeThreadCount
+     */
+    public void configParallelism(int decodeThreadCount, int encodeThreadCount) {
+        this.mDecodeThreadCount = Math.max(1, decodeThreadCount);
+        this.mEncodeThreadCount = Math.max(1, encodeThreadCount);
+        this.mMaxBitmapsInMemory = mDecodeThreadCount + mEncodeThreadCount + 2;
+    }
+
+    /**
+     * 配置内存中同时存在的Bitmap数量上限，默认为两个阶段的线程数之和再加2，需要在{@link #configParallelism(int, int)}之后调用
+     *
+     * @param maxBitmapsInMemory
+     */
+    public void configMaxBitmapsInMemory(int maxBitmapsInMemory) {
+        this.mMaxBitmapsInMemory = Math.max(1, maxBitmapsInMemory);
+    }
+
+    /**
+     * 配置输出格式，默认为质量85的JPEG
+     *
+     * @param format
+     * @param quality
+     */
+    public void configFormat(Bitmap.CompressFormat format, int quality) {
+        this.mFormat = format;
+        this.mQuality = quality;
+    }
+
+    /**
+     * 配置缩放方式，默认为{@link BitmapUtils.ScaleMode#FILL}（居中裁剪成正方形）
+     *
+     * @param scaleMode
+     */
+    public void configScaleMode(BitmapUtils.ScaleMode scaleMode) {
+        this.mScaleMode = scaleMode;
+    }
+
+    /**
+     * @param progressListener 在编码线程中回调
+     */
+    public void configProgressListener(OnBatchProgressListener progressListener) {
+        this.mProgressListener = progressListener;
+    }
+
+    /**
+     * 中断正在执行的批次，已经写入的缩略图保留，下次执行时跳过
+     */
+    public void cancel() {
+        mCanceled = true;
+    }
+
+    /**
+     * 获取原图对应的缩略图文件
+     *
+     * @param source
+     * @return
+     */
+    public File getThumbnailFile(File source) {
+        return new File(mOutputFolder, getThumbnailName(source) + BitmapExporter.getSuffix(mFormat));
+    }
+
+    private String getThumbnailName(File source) {
+        return HashUtils.xxHash64Hex(source.getAbsolutePath() + "#" + source.length() + "#" + source.lastModified() + "#" + mThumbnailSize
+                + "#" + mFormat + "#" + mQuality + "#" + mScaleMode);
+    }
+
+    /**
+     * 为一批图片生成缩略图，会阻塞到整批完成，请在后台线程调用
+     * <p/>
+     * 调用线程被中断时按{@link #cancel()}处理，返回前等待已经开始的任务结束，并保留线程的中断状态
+     *
+     * @param sources 原图文件
+     * @return
+     */
+    public BatchResult run(Collection<File> sources) {
+        mCanceled = false;
+        long startTime = System.nanoTime();
+        final int total = sources.size();
+        final int maxBitmaps = mMaxBitmapsInMemory;
+        final Semaphore bitmapPermits = new Semaphore(maxBitmaps);
+        final AtomicInteger generatedCount = new AtomicInteger();
+        final AtomicInteger failedCount = new AtomicInteger();
+        final AtomicInteger completedCount = new AtomicInteger();
+        int skippedCount = 0;
+        boolean interrupted = false;
+
+        final ThreadPoolExecutor decodeExecutor = newExecutor(mDecodeThreadCount, "ThumbnailDecode");
+        final ThreadPoolExecutor encodeExecutor = newExecutor(mEncodeThreadCount, "ThumbnailEncode");
+        final ProgressCounter counter = new ProgressCounter(startTime, total, generatedCount, completedCount);
+        int[] bounds = new int[3];
+        try {
+            if (!mOutputFolder.exists() && !mOutputFolder.mkdirs()) {
+                return new BatchResult(total, 0, 0, total, elapsedMillis(startTime), false);
+            }
+            for (File source : sources) {
+                if (mCanceled) {
+                    break;
+                }
+                final String name = getThumbnailName(source);
+                if (getThumbnailFile(source).exists()) {//上次已经生成过
+                    skippedCount++;
+                    counter.onCompleted();
+                    continue;
+                }
+                if (!BitmapUtils.decodeBoundsAndDegree(source.getAbsolutePath(), bounds)) {
+                    failedCount.incrementAndGet();
+                    counter.onCompleted();
+                    continue;
+                }
+                final String imagePath = source.getAbsolutePath();
+                final int sourceWidth = bounds[0];
+                final int sourceHeight = bounds[1];
+                final int degree = bounds[2];
+                bitmapPermits.acquire();//内存中的Bitmap达到上限时等待编码阶段释放
+                decodeExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        Bitmap thumbnail = null;
+                        try {
+                            if (!mCanceled) {
+                                thumbnail = decodeThumbnail(imagePath, sourceWidth, sourceHeight, degree);
+                            }
+                        } catch (Throwable e) {//包括OutOfMemoryError
+                            e.printStackTrace();
+                        }
+                        if (thumbnail == null) {
+                            if (!mCanceled) {
+                                failedCount.incrementAndGet();
+                            }
+                            bitmapPermits.release();
+                            counter.onCompleted();
+                            return;
+                        }
+                        final Bitmap bitmap = thumbnail;
+                        encodeExecutor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    if (!mCanceled) {
+                                        File file = BitmapExporter.export(bitmap, mOutputFolder, name, mFormat, mQuality);
+                                        if (file != null) {
+                                            generatedCount.incrementAndGet();
+                                        } else {
+                                            failedCount.incrementAndGet();
+                                        }
+                                    }
+                                } finally {
+                                    BitmapUtils.recycleBitmap(bitmap);
+                                    bitmapPermits.release();
+                                    counter.onCompleted();
+                                }
+                            }
+                        });
+                    }
+                });
+            }
+            bitmapPermits.acquire(maxBitmaps);//所有Bitmap都释放了，说明已提交的任务全部完成
+            bitmapPermits.release(maxBitmaps);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            mCanceled = true;
+            interrupted = true;
+        } finally {
+            //先停止解码，正在解码的任务还可以提交给编码线程池
+            interrupted |= shutdownAndWait(decodeExecutor);
+            interrupted |= shutdownAndWait(encodeExecutor);
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return new BatchResult(total, generatedCount.get(), skippedCount, failedCount.get(), elapsedMillis(startTime), mCanceled);
+    }
+
+    /**
+     * 解码、缩放并摆正方向，原图宽高使用读取阶段的结果，不再读取文件头
+     */
+    private Bitmap decodeThumbnail(String imagePath, int sourceWidth, int sourceHeight, int degree) {
+        Bitmap bitmap = BitmapUtils.decodeExactBitmapFromFile(imagePath, sourceWidth, sourceHeight, mThumbnailSize, mThumbnailSize, mScaleMode);
+        return BitmapUtils.rotateBitmapByDegree(bitmap, degree);
+    }
+
+    /**
+     * 停止线程池并等待正在执行的任务结束，保证{@link #run(Collection)}返回后不再有任务运行；
+     * 还没有开始的任务在当前线程中执行，取消时它们只会释放Bitmap和许可
+     *
+     * @param executor
+     * @return 等待过程中是否被中断
+     */
+    private static boolean shutdownAndWait(ExecutorService executor) {
+        for (Runnable runnable : executor.shutdownNow()) {
+            runnable.run();
+        }
+        boolean interrupted = false;
+        while (!executor.isTerminated()) {
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        return interrupted;
+    }
+
+    private static long elapsedMillis(long startTime) {
+        return (System.nanoTime() - startTime) / 1000000;
+    }
+
+    private static ThreadPoolExecutor newExecutor(int threadCount, String name) {
+        return new ThreadPoolExecutor(threadCount, threadCount, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new BackgroundThreadFactory(name));
+    }
+
+    /**
+     * 统计完成数并回调进度
+     */
+    private class ProgressCounter {
+
+        private final long mStartTime;
+        private final int mTotal;
+        private final AtomicInteger mGeneratedCount;
+        private final AtomicInteger mCompletedCount;
+
+        ProgressCounter(long startTime, int total, AtomicInteger generatedCount, AtomicInteger completedCount) {
+            this.mStartTime = startTime;
+            this.mTotal = total;
+            this.mGeneratedCount = generatedCount;
+            this.mCompletedCount = completedCount;
+        }
+
+        void onCompleted() {
+            int completed = mCompletedCount.incrementAndGet();
+            OnBatchProgressListener listener = mProgressListener;
+            if (listener != null) {
+                long elapsed = System.nanoTime() - mStartTime;
+                float throughput = elapsed <= 0 ? 0 : mGeneratedCount.get() * 1000000000f / elapsed;
+                listener.onProgress(completed, mTotal, throughput);
+            }
+        }
+    }
+
+    /**
+     * 一个批次的执行结果
+     */
+    public static class BatchResult {
+
+        private final int mTotalCount;
+        private final int mGeneratedCount;
+        private final int mSkippedCount;
+        private final int mFailedCount;
+        private final long mElapsedTime;
+        private final boolean mCanceled;
+
+        BatchResult(int totalCount, int generatedCount, int skippedCount, int failedCount, long elapsedTime, boolean canceled) {
+            this.mTotalCount = totalCount;
+            this.mGeneratedCount = generatedCount;
+            this.mSkippedCount = skippedCount;
+            this.mFailedCount = failedCount;
+            this.mElapsedTime = elapsedTime;
+            this.mCanceled = canceled;
+        }
+
+        public int getTotalCount() {
+            return mTotalCount;
+        }
+
+        /**
+         * @return 本次新生成的缩略图数
+         */
+        public int getGeneratedCount() {
+            return mGeneratedCount;
+        }
+
+        /**
+         * @return 之前已经生成过而跳过的数量
+         */
+        public int getSkippedCount() {
+            return mSkippedCount;
+        }
+
+        public int getFailedCount() {
+            return mFailedCount;
+        }
+
+        /**
+         * @return 耗时，单位毫秒
+         */
+        public long getElapsedTime() {
+            return mElapsedTime;
+        }
+
+        /**
+         * @return 平均每秒生成的缩略图数
+         */
+        public float getThroughput() {
+            return mElapsedTime <= 0 ? 0 : mGeneratedCount * 1000f / mElapsedTime;
+        }
+
+        /**
+         * @return 是否被中断，中断后重新执行同一批图片会从中断处继续
+         */
+        public boolean isCanceled() {
+            return mCanceled;
+        }
+    }
+
+    /**
+     * 批次进度回调
+     */
+    public static interface OnBatchProgressListener {
+
+        /**
+         * @param completed  已经处理完的数量（包括跳过和失败的）
+         * @param total      总数
+         * @param throughput 到目前为止平均每秒生成的缩略图数
+         */
+        public void onProgress(int completed, int total, float throughput);
+    }
+}
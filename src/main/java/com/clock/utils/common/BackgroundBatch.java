@@ -0,0 +1,104 @@
+package com.clock.utils.common;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在后台线程池中执行一批任务并等待全部完成，可以取消，每一批使用一个新的实例
+ * <p/>
+ * 任务中可以继续提交任务（例如遍历子目录），所有任务都结束后{@link #await()}才返回
+ * <p/>
+ * Created by Clock on 2016/3/27.
+ */
+public class BackgroundBatch {
+
+    private final ThreadPoolExecutor mExecutor;
+    private final Object mLock = new Object();
+    private int mPendingCount = 0;
+    private volatile boolean mCanceled = false;
+
+    /**
+     * @param name        线程名称
+     * @param threadCount 线程数
+     */
+    public BackgroundBatch(String name, int threadCount) {
+        int count = Math.max(1, threadCount);
+        this.mExecutor = new ThreadPoolExecutor(count, count, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new BackgroundThreadFactory(name));
+    }
+
+    /**
+     * 提交一个任务，取消之后还没有开始的任务不会执行
+     *
+     * @param task
+     */
+    public void execute(final Runnable task) {
+        synchronized (mLock) {
+            mPendingCount++;
+        }
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (!mCanceled) {
+                            task.run();
+                        }
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    } finally {
+                        onTaskFinished();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {//已经结束等待
+            onTaskFinished();
+        }
+    }
+
+    /**
+     * 等待所有任务结束并关闭线程池，会阻塞当前线程；当前线程被中断时按取消处理，并保留中断状态
+     *
+     * @return 全部完成返回true，被取消返回false
+     */
+    public boolean await() {
+        try {
+            synchronized (mLock) {
+                while (mPendingCount > 0) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        mCanceled = true;
+                        break;
+                    }
+                }
+            }
+        } finally {
+            mExecutor.shutdownNow();
+        }
+        return !mCanceled;
+    }
+
+    /**
+     * 取消这一批任务，正在执行的任务需要自己检查{@link #isCanceled()}
+     */
+    public void cancel() {
+        mCanceled = true;
+    }
+
+    public boolean isCanceled() {
+        return mCanceled;
+    }
+
+    private void onTaskFinished() {
+        synchronized (mLock) {
+            mPendingCount--;
+            if (mPendingCount == 0) {
+                mLock.notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.clock.utils.common;
+
+import android.os.Process;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 库中所有后台线程共用的ThreadFactory，线程名为“名称 #序号”，线程开始执行时设置为THREAD_PRIORITY_BACKGROUND
+ * <p/>
+ * 在JVM单元测试中android.os.Process不可用，这时改用Thread.MIN_PRIORITY
+ * <p/>
+ * Created by Clock on 2016/3/27.
+ */
+public class BackgroundThreadFactory implements ThreadFactory {
+
+    private final String mName;
+    private final AtomicInteger mCount = new AtomicInteger(1);
+
+    /**
+     * @param name 线程名称，会在后面加上序号
+     */
+    public BackgroundThreadFactory(String name) {
+        this.mName = name;
+    }
+
+    @Override
+    public Thread newThread(final Runnable runnable) {
+        return new Thread(new Runnable() {
+            @Override
+            public void run() {
+                setBackgroundPriority();
+                runnable.run();
+            }
+        }, mName + " #" + mCount.getAndIncrement());
+    }
+
+    /**
+     * 把当前线程设置为后台优先级
+     */
+    public static void setBackgroundPriority() {
+        try {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        } catch (RuntimeException e) {//JVM单元测试中的android.jar只有方法签名
+            Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+        } catch (UnsatisfiedLinkError e) {//没有Android的native库
+            Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.clock.utils.common;
+
+import android.annotation.TargetApi;
+import android.content.ComponentCallbacks;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Build;
+import android.util.DisplayMetrics;
+
+/**
+ * 尺寸转换器
+ * <p/>
+ * 缓存density和scaledDensity，转换只是一次乘法，不会分配对象，可以在onMeasure、onDraw中频繁调用；
+ * API 14及以上在配置变化（包括字体大小变化）时自动刷新，API 14以下需要在onConfigurationChanged中调用{@link #invalidate()}
+ * <p/>
+ * 缓存的是Application的DisplayMetrics，Activity通过createConfigurationContext等方式覆盖了屏幕参数时请使用{@link RuleUtils}
+ * <p/>
+ * Created by Clock on 2016/3/17.
+ */
+public class DimensionConverter {
+
+    private static volatile DimensionConverter sInstance;
+
+    private final Context mApplicationContext;
+    private volatile float mDensity;
+    private volatile float mScaledDensity;
+
+    private DimensionConverter(Context context) {
+        this.mApplicationContext = context.getApplicationContext();
+        invalidate();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            registerConfigurationCallback();
+        }
+    }
+
+    public static DimensionConverter getInstance(Context context) {
+        DimensionConverter instance = sInstance;
+        if (instance == null) {
+            synchronized (DimensionConverter.class) {
+                instance = sInstance;
+                if (instance == null) {
+                    instance = new DimensionConverter(context);
+                    sInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 重新读取density和scaledDensity
+     */
+    public void invalidate() {
+        DisplayMetrics displayMetrics = mApplicationContext.getResources().getDisplayMetrics();
+        mDensity = displayMetrics.density;
+        mScaledDensity = displayMetrics.scaledDensity;
+    }
+
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private void registerConfigurationCallback() {
+        mApplicationContext.registerComponentCallbacks(new ComponentCallbacks() {
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+                invalidate();
+            }
+
+            @Override
+            public void onLowMemory() {
+            }
+        });
+    }
+
+    public float getDensity() {
+        return mDensity;
+    }
+
+    public float getScaledDensity() {
+        return mScaledDensity;
+    }
+
+    /**
+     * 将dp转换成对应的像素值
+     *
+     * @param dp
+     * @return
+     */
+    public float dp2px(float dp) {
+        return dp * mDensity;
+    }
+
+    /**
+     * 将dp转换成整数像素值，规则与Resources.getDimensionPixelSize相同：四舍五入，非0值至少为1像素
+     *
+     * @param dp
+     * @return
+     */
+    public int dp2pxInt(int dp) {
+        return toPixelSize(dp * mDensity);
+    }
+
+    /**
+     * 将sp转换成对应的像素值
+     *
+     * @param sp
+     * @return
+     */
+    public float sp2px(float sp) {
+        return sp * mScaledDensity;
+    }
+
+    /**
+     * 将sp转换成整数像素值，规则与Resources.getDimensionPixelSize相同
+     *
+     * @param sp
+     * @return
+     */
+    public int sp2pxInt(int sp) {
+        return toPixelSize(sp * mScaledDensity);
+    }
+
+    /**
+     * 将像素值转换成dp
+     *
+     * @param px
+     * @return
+     */
+    public float px2dp(float px) {
+        return px / mDensity;
+    }
+
+    /**
+     * 将像素值转换成sp
+     *
+     * @param px
+     * @return
+     */
+    public float px2sp(float px) {
+        return px / mScaledDensity;
+    }
+
+    /**
+     * 批量将dp转换成整数像素值
+     *
+     * @param dps
+     * @param out 保存结果，长度不能小于dps，可以与dps是同一个数组
+     */
+    public void dp2pxInt(int[] dps, int[] out) {
+        if (out.length < dps.length) {
+            throw new IllegalArgumentException("out.length < dps.length");
+        }
+        float density = mDensity;
+        for (int i = 0; i < dps.length; i++) {
+            out[i] = toPixelSize(dps[i] * density);
+        }
+    }
+
+    /**
+     * 批量将sp转换成整数像素值
+     *
+     * @param sps
+     * @param out 保存结果，长度不能小于sps，可以与sps是同一个数组
+     */
+    public void sp2pxInt(int[] sps, int[] out) {
+        if (out.length < sps.length) {
+            throw new IllegalArgumentException("out.length < sps.length");
+        }
+        float scaledDensity = mScaledDensity;
+        for (int i = 0; i < sps.length; i++) {
+            out[i] = toPixelSize(sps[i] * scaledDensity);
+        }
+    }
+
+    private static int toPixelSize(float value) {
+        int result = (int) (value >= 0 ? value + 0.5f : value - 0.5f);
+        if (result != 0) {
+            return result;
+        }
+        if (value == 0) {
+            return 0;
+        }
+        return value > 0 ? 1 : -1;
+    }
+}
@@ -0,0 +1,285 @@
+package com.clock.utils.common;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.os.Build;
+import android.util.DisplayMetrics;
+
+/**
+ * 设备和app运行环境的快照，创建后不再改变
+ * <p/>
+ * 设备号、app版本号需要通过Binder调用TelephonyManager和PackageManager获取，
+ * 调用{@link #prepare(Context)}后在后台线程中只获取一次，之后通过{@link #peek()}在任意线程（包括闪退处理）中读取，不会再有IPC调用
+ * <p/>
+ * 没有READ_PHONE_STATE权限时设备号暂时使用ANDROID_ID，不会一直保留：{@link #get(Context)}和{@link SystemUtils#getDeviceIMEI(Context)}
+ * 会重新查询IMEI，获取到之后替换快照
+ * <p/>
+ * 屏幕信息取自创建快照时的DisplayMetrics，横竖屏切换后宽高不会更新，需要实时值时请使用{@link RuleUtils}
+ * <p/>
+ * Created by Clock on 2016/3/15.
+ */
+public class EnvironmentSnapshot {
+
+    /**
+     * 准备好的完整快照
+     */
+    private static volatile EnvironmentSnapshot sSnapshot;
+    /**
+     * 只包含不需要IPC的信息，完整快照准备好之前由{@link #peek()}返回
+     */
+    private static volatile EnvironmentSnapshot sBasicSnapshot;
+    private static boolean sPreparing = false;
+
+    private final String mManufacturer;
+    private final String mModel;
+    private final String mSystemVersion;
+    private final int mSdkInt;
+    private final String mDeviceId;
+    /**
+     * 设备号是否是获取不到IMEI时使用的ANDROID_ID
+     */
+    private final boolean mDeviceIdFallback;
+    private final String mPackageName;
+    private final String mAppVersionName;
+    private final int mAppVersionCode;
+    private final int mScreenWidth;
+    private final int mScreenHeight;
+    private final float mDensity;
+    private final int mDensityDpi;
+    private final boolean mComplete;
+
+    private EnvironmentSnapshot(String deviceId, boolean deviceIdFallback, String packageName, String appVersionName, int appVersionCode,
+                                DisplayMetrics displayMetrics, boolean complete) {
+        this.mManufacturer = Build.MANUFACTURER;
+        this.mModel = Build.MODEL;
+        this.mSystemVersion = Build.VERSION.RELEASE;
+        this.mSdkInt = Build.VERSION.SDK_INT;
+        this.mDeviceId = deviceId;
+        this.mDeviceIdFallback = deviceIdFallback;
+        this.mPackageName = packageName;
+        this.mAppVersionName = appVersionName;
+        this.mAppVersionCode = appVersionCode;
+        this.mScreenWidth = displayMetrics.widthPixels;
+        this.mScreenHeight = displayMetrics.heightPixels;
+        this.mDensity = displayMetrics.density;
+        this.mDensityDpi = displayMetrics.densityDpi;
+        this.mComplete = complete;
+    }
+
+    /**
+     * 复制快照并替换设备号
+     *
+     * @param snapshot
+     * @param deviceId IMEI
+     */
+    private EnvironmentSnapshot(EnvironmentSnapshot snapshot, String deviceId) {
+        this.mManufacturer = snapshot.mManufacturer;
+        this.mModel = snapshot.mModel;
+        this.mSystemVersion = snapshot.mSystemVersion;
+        this.mSdkInt = snapshot.mSdkInt;
+        this.mDeviceId = deviceId;
+        this.mDeviceIdFallback = false;
+        this.mPackageName = snapshot.mPackageName;
+        this.mAppVersionName = snapshot.mAppVersionName;
+        this.mAppVersionCode = snapshot.mAppVersionCode;
+        this.mScreenWidth = snapshot.mScreenWidth;
+        this.mScreenHeight = snapshot.mScreenHeight;
+        this.mDensity = snapshot.mDensity;
+        this.mDensityDpi = snapshot.mDensityDpi;
+        this.mComplete = snapshot.mComplete;
+    }
+
+    /**
+     * 在后台线程中准备完整快照，重复调用只会准备一次，建议在Application.onCreate中调用
+     *
+     * @param context
+     */
+    public static void prepare(Context context) {
+        final Context applicationContext = context.getApplicationContext();
+        synchronized (EnvironmentSnapshot.class) {
+            if (sSnapshot != null || sPreparing) {
+                return;
+            }
+            sPreparing = true;
+        }
+        new BackgroundThreadFactory("EnvironmentSnapshot").newThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    get(applicationContext);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    synchronized (EnvironmentSnapshot.class) {
+                        sPreparing = false;
+                    }
+                }
+            }
+        }).start();
+    }
+
+    /**
+     * 获取完整快照，还没有准备好时在当前线程中同步创建，设备号是ANDROID_ID时重新查询IMEI，
+     * 可能有IPC调用，不要在主线程和闪退处理中调用
+     *
+     * @param context
+     * @return
+     */
+    public static EnvironmentSnapshot get(Context context) {
+        EnvironmentSnapshot snapshot = sSnapshot;
+        if (snapshot != null && snapshot.mDeviceIdFallback) {
+            snapshot = refreshDeviceId(context);
+        }
+        if (snapshot == null) {
+            Context applicationContext = context.getApplicationContext();
+            String deviceId = SystemUtils.queryTelephonyDeviceId(applicationContext);
+            boolean deviceIdFallback = deviceId == null;
+            if (deviceIdFallback) {
+                deviceId = SystemUtils.queryAndroidId(applicationContext);
+            }
+            snapshot = new EnvironmentSnapshot(deviceId, deviceIdFallback, applicationContext.getPackageName(),
+                    SystemUtils.queryAppVersion(applicationContext), SystemUtils.queryAppVersionCode(applicationContext),
+                    applicationContext.getResources().getDisplayMetrics(), true);
+            synchronized (EnvironmentSnapshot.class) {
+                if (sSnapshot == null) {
+                    sSnapshot = snapshot;
+                } else {
+                    snapshot = sSnapshot;
+                }
+                sPreparing = false;
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * 完整快照中的设备号是ANDROID_ID时重新查询IMEI，获取到之后替换快照，可能有IPC调用
+     *
+     * @param context
+     * @return 当前的完整快照，还没有准备好时返回null
+     */
+    static EnvironmentSnapshot refreshDeviceId(Context context) {
+        EnvironmentSnapshot snapshot = sSnapshot;
+        if (snapshot == null || !snapshot.mDeviceIdFallback) {
+            return snapshot;
+        }
+        String deviceId = SystemUtils.queryTelephonyDeviceId(context.getApplicationContext());
+        if (deviceId == null) {
+            return snapshot;
+        }
+        synchronized (EnvironmentSnapshot.class) {
+            if (sSnapshot == snapshot) {
+                sSnapshot = new EnvironmentSnapshot(snapshot, deviceId);
+            }
+            return sSnapshot;
+        }
+    }
+
+    /**
+     * 读取快照，不会有IPC调用，可以在任意线程中调用
+     *
+     * @return 完整快照还没有准备好时，返回只包含设备、系统和屏幕信息的快照，此时{@link #isComplete()}为false
+     */
+    public static EnvironmentSnapshot peek() {
+        EnvironmentSnapshot snapshot = sSnapshot;
+        if (snapshot != null) {
+            return snapshot;
+        }
+        snapshot = sBasicSnapshot;
+        if (snapshot == null) {
+            snapshot = new EnvironmentSnapshot(null, false, null, null, 0, Resources.getSystem().getDisplayMetrics(), false);
+            sBasicSnapshot = snapshot;
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return 已经准备好的完整快照，没有时返回null
+     */
+    static EnvironmentSnapshot peekComplete() {
+        return sSnapshot;
+    }
+
+    /**
+     * @return 是否包含设备号和app版本信息
+     */
+    public boolean isComplete() {
+        return mComplete;
+    }
+
+    public String getManufacturer() {
+        return mManufacturer;
+    }
+
+    public String getModel() {
+        return mModel;
+    }
+
+    public String getSystemVersion() {
+        return mSystemVersion;
+    }
+
+    public int getSdkInt() {
+        return mSdkInt;
+    }
+
+    /**
+     * @return IMEI，获取不到时为ANDROID_ID；快照不完整时为null
+     */
+    public String getDeviceId() {
+        return mDeviceId;
+    }
+
+    /**
+     * @return 设备号是否是获取不到IMEI时暂时使用的ANDROID_ID
+     */
+    public boolean isDeviceIdFallback() {
+        return mDeviceIdFallback;
+    }
+
+    /**
+     * @return 快照不完整时为null
+     */
+    public String getPackageName() {
+        return mPackageName;
+    }
+
+    /**
+     * @return 快照不完整时为null
+     */
+    public String getAppVersionName() {
+        return mAppVersionName;
+    }
+
+    /**
+     * @return 快照不完整时为0
+     */
+    public int getAppVersionCode() {
+        return mAppVersionCode;
+    }
+
+    public int getScreenWidth() {
+        return mScreenWidth;
+    }
+
+    public int getScreenHeight() {
+        return mScreenHeight;
+    }
+
+    public float getDensity() {
+        return mDensity;
+    }
+
+    public int getDensityDpi() {
+        return mDensityDpi;
+    }
+
+    @Override
+    public String toString() {
+        return "Manufacture: " + mManufacturer + "\n"
+                + "DeviceName: " + mModel + "\n"
+                + "SystemVersion: " + mSystemVersion + " (" + mSdkInt + ")\n"
+                + "DeviceIMEI: " + mDeviceId + "\n"
+                + "AppVersion: " + mAppVersionName + " (" + mAppVersionCode + ")\n"
+                + "Screen: " + mScreenWidth + "x" + mScreenHeight + " " + mDensityDpi + "dpi\n";
+    }
+}
@@ -0,0 +1,306 @@
+package com.clock.utils.common;
+
+import android.annotation.TargetApi;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 网络状态监听器
+ * <p/>
+ * 只注册一次网络变化广播，把当前状态保存在volatile字段中，读取状态不需要IPC调用；
+ * 网络状态变化时通知监听者，需要联网的任务可以通过{@link #runWhenConnected(Runnable)}等到网络恢复后再执行，不需要每次轮询
+ * <p/>
+ * 使用此类需要在AndroidManifest.xml配置<bold>android.permission.ACCESS_NETWORK_STATE</bold>权限
+ * <p/>
+ * Created by Clock on 2016/3/16.
+ */
+public class NetworkMonitor {
+
+    private static NetworkMonitor sInstance;
+
+    private final Context mApplicationContext;
+    private final ConnectivityManager mConnectivityManager;
+    private final List<OnNetworkChangeListener> mListeners = new CopyOnWriteArrayList<OnNetworkChangeListener>();
+    /**
+     * 等待网络恢复后执行的任务
+     */
+    private final List<Runnable> mPendingTasks = new ArrayList<Runnable>();
+    private volatile NetworkState mState = NetworkState.DISCONNECTED;
+    private volatile boolean mStarted = false;
+
+    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            updateState();
+        }
+    };
+
+    private NetworkMonitor(Context context) {
+        this.mApplicationContext = context.getApplicationContext();
+        this.mConnectivityManager = (ConnectivityManager) mApplicationContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
+    public static synchronized NetworkMonitor getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new NetworkMonitor(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return 已经调用过{@link #start()}的实例，没有时返回null
+     */
+    static synchronized NetworkMonitor getStartedInstance() {
+        if (sInstance != null && sInstance.mStarted) {
+            return sInstance;
+        }
+        return null;
+    }
+
+    /**
+     * 开始监听网络变化，重复调用无影响，建议在Application.onCreate中调用
+     * <p/>
+     * 停止监听期间留下的等待任务在网络已连接时立即在当前线程中执行
+     */
+    public synchronized void start() {
+        if (mStarted) {
+            return;
+        }
+        NetworkState state = queryState();
+        List<Runnable> tasks = null;
+        synchronized (mPendingTasks) {
+            mState = state;
+            if (state.isConnected() && !mPendingTasks.isEmpty()) {
+                tasks = new ArrayList<Runnable>(mPendingTasks);
+                mPendingTasks.clear();
+            }
+        }
+        mApplicationContext.registerReceiver(mReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        mStarted = true;
+        if (tasks != null) {
+            for (Runnable task : tasks) {
+                task.run();
+            }
+        }
+    }
+
+    /**
+     * 停止监听网络变化，还在等待网络的任务保留到下一次{@link #start()}
+     */
+    public synchronized void stop() {
+        if (!mStarted) {
+            return;
+        }
+        mApplicationContext.unregisterReceiver(mReceiver);
+        mStarted = false;
+    }
+
+    /**
+     * 获取当前网络状态，开始监听后不会有IPC调用；没有调用{@link #start()}或者已经{@link #stop()}时每次都通过ConnectivityManager查询
+     *
+     * @return
+     */
+    public NetworkState getState() {
+        if (!mStarted) {
+            return queryState();
+        }
+        return mState;
+    }
+
+    public boolean isConnected() {
+        return getState().isConnected();
+    }
+
+    public void addOnNetworkChangeListener(OnNetworkChangeListener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeOnNetworkChangeListener(OnNetworkChangeListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * 有网络时在当前线程中立即执行，没有网络时等到网络恢复后在主线程中执行
+     * <p/>
+     * 没有开始监听时无法知道网络何时恢复，只查询一次当前状态，没有网络时抛出异常而不是让任务一直等待
+     *
+     * @param task
+     * @throws IllegalStateException 没有调用{@link #start()}并且当前没有网络
+     */
+    public void runWhenConnected(Runnable task) {
+        if (!mStarted) {
+            if (!queryState().isConnected()) {
+                throw new IllegalStateException("NetworkMonitor is not started, call start() first");
+            }
+            task.run();
+            return;
+        }
+        synchronized (mPendingTasks) {
+            if (!mState.isConnected()) {
+                mPendingTasks.add(task);
+                return;
+            }
+        }
+        task.run();
+    }
+
+    /**
+     * 取消还在等待网络的任务
+     *
+     * @param task
+     * @return 任务还在等待时返回true
+     */
+    public boolean cancel(Runnable task) {
+        synchronized (mPendingTasks) {
+            return mPendingTasks.remove(task);
+        }
+    }
+
+    /**
+     * 在主线程中收到网络变化广播后更新状态
+     */
+    private void updateState() {
+        NetworkState newState = queryState();
+        NetworkState oldState = mState;
+        if (newState.equals(oldState)) {
+            return;
+        }
+        List<Runnable> tasks = null;
+        synchronized (mPendingTasks) {
+            mState = newState;
+            if (newState.isConnected() && !mPendingTasks.isEmpty()) {
+                tasks = new ArrayList<Runnable>(mPendingTasks);
+                mPendingTasks.clear();
+            }
+        }
+        for (OnNetworkChangeListener listener : mListeners) {
+            listener.onNetworkChange(oldState, newState);
+        }
+        if (tasks != null) {
+            for (Runnable task : tasks) {
+                task.run();
+            }
+        }
+    }
+
+    private NetworkState queryState() {
+        if (mConnectivityManager == null) {
+            return NetworkState.DISCONNECTED;
+        }
+        NetworkInfo networkInfo = mConnectivityManager.getActiveNetworkInfo();
+        if (networkInfo == null || !networkInfo.isConnected()) {
+            return NetworkState.DISCONNECTED;
+        }
+        int transport;
+        switch (networkInfo.getType()) {
+            case ConnectivityManager.TYPE_WIFI:
+                transport = NetworkState.TRANSPORT_WIFI;
+                break;
+            case ConnectivityManager.TYPE_MOBILE:
+                transport = NetworkState.TRANSPORT_MOBILE;
+                break;
+            case ConnectivityManager.TYPE_ETHERNET://编译期常量，低版本上同样可用
+                transport = NetworkState.TRANSPORT_ETHERNET;
+                break;
+            default:
+                transport = NetworkState.TRANSPORT_OTHER;
+                break;
+        }
+        boolean metered;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            metered = isActiveNetworkMetered();
+        } else {
+            metered = transport == NetworkState.TRANSPORT_MOBILE;
+        }
+        return new NetworkState(true, metered, transport);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private boolean isActiveNetworkMetered() {
+        return mConnectivityManager.isActiveNetworkMetered();
+    }
+
+    /**
+     * 网络状态，创建后不再改变
+     */
+    public static class NetworkState {
+
+        public final static int TRANSPORT_NONE = 0;
+        public final static int TRANSPORT_WIFI = 1;
+        public final static int TRANSPORT_MOBILE = 2;
+        public final static int TRANSPORT_ETHERNET = 3;
+        public final static int TRANSPORT_OTHER = 4;
+
+        final static NetworkState DISCONNECTED = new NetworkState(false, false, TRANSPORT_NONE);
+
+        private final boolean mConnected;
+        private final boolean mMetered;
+        private final int mTransport;
+
+        NetworkState(boolean connected, boolean metered, int transport) {
+            this.mConnected = connected;
+            this.mMetered = metered;
+            this.mTransport = transport;
+        }
+
+        public boolean isConnected() {
+            return mConnected;
+        }
+
+        /**
+         * @return 是否按流量计费，API 16以下把移动网络视为计费网络
+         */
+        public boolean isMetered() {
+            return mMetered;
+        }
+
+        /**
+         * @return {@link #TRANSPORT_NONE}、{@link #TRANSPORT_WIFI}、{@link #TRANSPORT_MOBILE}、{@link #TRANSPORT_ETHERNET}或{@link #TRANSPORT_OTHER}
+         */
+        public int getTransport() {
+            return mTransport;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof NetworkState)) {
+                return false;
+            }
+            NetworkState that = (NetworkState) o;
+            return mConnected == that.mConnected && mMetered == that.mMetered && mTransport == that.mTransport;
+        }
+
+        @Override
+        public int hashCode() {
+            return (mConnected ? 1 : 0) * 31 * 31 + (mMetered ? 1 : 0) * 31 + mTransport;
+        }
+
+        @Override
+        public String toString() {
+            return "NetworkState{connected=" + mConnected + ", metered=" + mMetered + ", transport=" + mTransport + "}";
+        }
+    }
+
+    /**
+     * 网络状态变化的回调，在主线程中执行
+     */
+    public static interface OnNetworkChangeListener {
+        /**
+         * @param oldState
+         * @param newState
+         */
+        public void onNetworkChange(NetworkState oldState, NetworkState newState);
+    }
+}
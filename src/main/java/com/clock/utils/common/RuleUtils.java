@@ -34,7 +34,7 @@ public class RuleUtils {
     }
 
     /**
-     * 将dp转换成对应的像素值
+     * 将dp转换成对应的像素值，使用context自己的DisplayMetrics；频繁调用并且只需要应用级别的屏幕参数时建议直接持有{@link DimensionConverter}
      *
      * @param context
      * @param dp
@@ -46,7 +46,7 @@ public class RuleUtils {
     }
 
     /**
-     * 将sp转换成对应的像素值
+     * 将sp转换成对应的像素值，使用context自己的DisplayMetrics；频繁调用并且只需要应用级别的屏幕参数时建议直接持有{@link DimensionConverter}
      *
      * @param context
      * @param sp
@@ -46,32 +46,89 @@ public class SystemUtils {
     }
 
     /**
-     * 获取设备号
+     * 获取设备号，{@link EnvironmentSnapshot}准备好并且已经获取到IMEI后直接读取快照，
+     * 快照中是ANDROID_ID时重新查询，授予READ_PHONE_STATE权限后可以获取到IMEI
      *
      * @param context
      * @return
      */
     public static String getDeviceIMEI(Context context) {
-        TelephonyManager telephonyManager = (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
-        if (telephonyManager == null || TextUtils.isEmpty(telephonyManager.getDeviceId())) {
-            return Settings.Secure.getString(context.getContentResolver(), Settings.Secure.ANDROID_ID);
-        } else {
-            return telephonyManager.getDeviceId();
+        EnvironmentSnapshot snapshot = EnvironmentSnapshot.peekComplete();
+        if (snapshot == null) {
+            return queryDeviceId(context);
         }
+        if (snapshot.isDeviceIdFallback()) {
+            snapshot = EnvironmentSnapshot.refreshDeviceId(context);
+        }
+        return snapshot.getDeviceId();
     }
 
     /**
-     * 获取应用的版本号
+     * 获取应用的版本号，{@link EnvironmentSnapshot}准备好后直接读取快照
      *
      * @param context
      * @return
      */
     public static String getAppVersion(Context context) {
+        EnvironmentSnapshot snapshot = EnvironmentSnapshot.peekComplete();
+        if (snapshot != null && snapshot.getPackageName().equals(context.getPackageName())) {
+            return snapshot.getAppVersionName();
+        }
+        return queryAppVersion(context);
+    }
+
+    /**
+     * 通过TelephonyManager获取设备号，没有权限或者获取不到时使用ANDROID_ID
+     *
+     * @param context
+     * @return
+     */
+    static String queryDeviceId(Context context) {
+        String deviceId = queryTelephonyDeviceId(context);
+        if (deviceId == null) {
+            return queryAndroidId(context);
+        } else {
+            return deviceId;
+        }
+    }
+
+    /**
+     * 通过TelephonyManager获取IMEI
+     *
+     * @param context
+     * @return 没有READ_PHONE_STATE权限或者获取不到时返回null
+     */
+    static String queryTelephonyDeviceId(Context context) {
+        TelephonyManager telephonyManager = (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
+        String deviceId = null;
+        if (telephonyManager != null) {
+            try {
+                deviceId = telephonyManager.getDeviceId();
+            } catch (SecurityException e) {
+                e.printStackTrace();
+            }
+        }
+        return TextUtils.isEmpty(deviceId) ? null : deviceId;
+    }
+
+    static String queryAndroidId(Context context) {
+        return Settings.Secure.getString(context.getContentResolver(), Settings.Secure.ANDROID_ID);
+    }
+
+    static String queryAppVersion(Context context) {
+        PackageInfo packageInfo = queryPackageInfo(context);
+        return packageInfo == null ? null : packageInfo.versionName;
+    }
+
+    static int queryAppVersionCode(Context context) {
+        PackageInfo packageInfo = queryPackageInfo(context);
+        return packageInfo == null ? 0 : packageInfo.versionCode;
+    }
+
+    private static PackageInfo queryPackageInfo(Context context) {
         PackageManager packageManager = context.getPackageManager();
-        PackageInfo packageInfo;
         try {
-            packageInfo = packageManager.getPackageInfo(context.getPackageName(), 0);
-            return packageInfo.versionName;
+            return packageManager.getPackageInfo(context.getPackageName(), 0);
         } catch (PackageManager.NameNotFoundException e) {
             e.printStackTrace();
         }
@@ -79,12 +136,16 @@ public class SystemUtils {
     }
 
     /**
-     * 判断当前有没有网络连接
+     * 判断当前有没有网络连接，{@link NetworkMonitor}已经开始监听时直接读取它保存的状态
      *
      * @param context
      * @return
      */
     public static boolean getNetworkState(Context context) {
+        NetworkMonitor networkMonitor = NetworkMonitor.getStartedInstance();
+        if (networkMonitor != null) {
+            return networkMonitor.isConnected();
+        }
         ConnectivityManager manager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
         NetworkInfo networkinfo = manager.getActiveNetworkInfo();
         if (networkinfo == null || !networkinfo.isAvailable()) {
@@ -1,20 +1,25 @@
 package com.clock.utils.crash;
 
 import android.content.Context;
+import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
-import android.widget.Toast;
 
-import com.clock.utils.common.SystemUtils;
+import com.clock.utils.common.BackgroundThreadFactory;
+import com.clock.utils.common.EnvironmentSnapshot;
+import com.clock.utils.metrics.Metrics;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 /**
  * app奔溃异常处理器
@@ -27,19 +32,48 @@ import java.util.Date;
  * <p/>
  * <bold>android.permission.READ_PHONE_STATE</bold>
  * <p/>
+ * 闪退时只把闪退信息写入预分配的{@link CrashJournal}并同步到存储设备，然后立即结束进程
+ * <p/>
+ * 下次启动创建处理器后，会在主线程当前的消息处理完时自动调用{@link #startRestore()}，把上次的闪退记录以UTF-8写成单独的日志文件，
+ * 日志目录通过{@link CrashIndex}按堆栈指纹聚合，重复的闪退只更新计数，不再生成新的日志文件。
+ * 在创建处理器的同一个主线程消息中调用{@link #configRemoteReport(CrashExceptionRemoteReport)}，补报就不会错过上次的闪退
+ * <p/>
  * Created by Clock on 2016/1/24.
  */
 public class CrashExceptionHandler implements Thread.UncaughtExceptionHandler {
 
     private final static String TAG = CrashExceptionHandler.class.getSimpleName();
 
-    private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyyMMddHHmm");
+    private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyyMMddHHmmssSSS");
+
+    private final static String JOURNAL_FILE_NAME = "crash.journal";
+    private final static String CRASH_LOG_SUFFIX = CrashIndex.LOG_SUFFIX;
+    private final static String INFO_SEPARATOR = "------------";
+    private final static String FINGERPRINT_PREFIX = INFO_SEPARATOR + "Fingerprint: ";
+    private final static String ENVIRONMENT_END = INFO_SEPARATOR + "Crash Environment Info" + INFO_SEPARATOR + "\n\n";
+
+    private final static long DEFAULT_MAX_LOG_BYTES = 5 * 1024 * 1024;
+    private final static long DEFAULT_MAX_LOG_AGE = 30L * 24 * 60 * 60 * 1000;
 
     private Context mApplicationContext;
     /**
      * 保存闪退日志的文件目录
      */
     private File mCrashInfoFolder;
+    /**
+     * 安装时就预分配好的闪退日志环形文件，创建失败时为null
+     */
+    private CrashJournal mCrashJournal;
+    /**
+     * 没有CrashJournal时用于区分同一毫秒内的多次闪退
+     */
+    private long mCrashSequence;
+    /**
+     * 日志目录的聚合索引，没有日志目录时为null
+     */
+    private CrashIndex mCrashIndex;
+    private long mMaxLogBytes = DEFAULT_MAX_LOG_BYTES;
+    private long mMaxLogAge = DEFAULT_MAX_LOG_AGE;
     /**
      * 向远程服务器发送错误信息
      */
@@ -50,25 +84,77 @@ public class CrashExceptionHandler implements Thread.UncaughtExceptionHandler {
      * @param crashInfoFolder 保存闪退日志的文件夹目录
      */
     public CrashExceptionHandler(Context context, File crashInfoFolder) {
+        this(context, crashInfoFolder, CrashJournal.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param context
+     * @param crashInfoFolder 保存闪退日志的文件夹目录
+     * @param journalCapacity 闪退日志环形文件的大小（字节），文件位于应用私有目录下
+     */
+    public CrashExceptionHandler(Context context, File crashInfoFolder, int journalCapacity) {
         this.mApplicationContext = context.getApplicationContext();
         this.mCrashInfoFolder = crashInfoFolder;
+        if (crashInfoFolder != null) {
+            mCrashIndex = new CrashIndex(crashInfoFolder);
+        }
+        EnvironmentSnapshot.prepare(mApplicationContext);//闪退时直接读取快照，避免在闪退线程中调用系统服务
+        try {
+            mCrashJournal = new CrashJournal(new File(mApplicationContext.getFilesDir(), JOURNAL_FILE_NAME), journalCapacity);
+        } catch (IOException e) {
+            e.printStackTrace();
+            Log.e(TAG, "crash journal create failure!!!");
+        }
+        if (mCrashJournal != null) {
+            //等调用方配置完远程上报后再恢复上次的闪退记录
+            new Handler(Looper.getMainLooper()).post(new Runnable() {
+                @Override
+                public void run() {
+                    startRestore();
+                }
+            });
+        }
     }
 
     @Override
     public void uncaughtException(Thread thread, Throwable ex) {
         ex.printStackTrace();
         handleException(ex);
-        try {
-            Thread.sleep(3000);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-        //杀死进程
+        //日志已经写入存储设备，杀死进程
         android.os.Process.killProcess(android.os.Process.myPid());
     }
 
     /**
-     * 配置远程传回log到服务器的设置
+     * 获取闪退日志环形文件，可在下次启动时读取之前的闪退记录
+     *
+     * @return 创建失败时返回null
+     */
+    public CrashJournal getCrashJournal() {
+        return mCrashJournal;
+    }
+
+    /**
+     * 获取日志目录的聚合索引，用于统计各类闪退的次数
+     *
+     * @return 没有日志目录时返回null
+     */
+    public CrashIndex getCrashIndex() {
+        return mCrashIndex;
+    }
+
+    /**
+     * 配置日志目录的清理策略，在恢复闪退记录生成新的日志文件时执行
+     *
+     * @param maxBytes 日志文件的总大小上限
+     * @param maxAge   日志的最长保存时间（毫秒）
+     */
+    public synchronized void configRetention(long maxBytes, long maxAge) {
+        this.mMaxLogBytes = maxBytes;
+        this.mMaxLogAge = maxAge;
+    }
+
+    /**
+     * 配置远程传回log到服务器的设置，{@link DeferredRemoteReport}在有闪退日志环形文件时改为下次启动时补报
      *
      * @param crashExceptionRemoteReport
      */
@@ -87,69 +173,217 @@ public class CrashExceptionHandler implements Thread.UncaughtExceptionHandler {
         } else {
             saveCrashInfoToFile(ex);
             sendCrashInfoToServer(ex);
-
-            //使用Toast来显示异常信息
-            new Thread() {
-                @Override
-                public void run() {
-                    Looper.prepare();
-                    try {
-                        Toast.makeText(mApplicationContext, "程序出现异常 , 即将退出....", Toast.LENGTH_LONG).show();
-                    } catch (Exception ex) {
-                        ex.printStackTrace();
-                    }
-                    Looper.loop();
-                }
-            }.start();
         }
     }
 
     /**
-     * 保存闪退信息到本地文件中
+     * 保存闪退信息，多个线程同时闪退时依次写入
+     * <p/>
+     * 闪退线程中只追加一条闪退日志环形文件记录并同步一次，日志文件、索引和上传队列留到下次启动时生成；
+     * 闪退日志环形文件创建失败时才直接写日志目录
+     * <p/>
+     * 写入耗时保存在记录中，进程马上就会被杀死，下次启动恢复记录时再统计到{@link Metrics#CRASH_WRITE_TIME}
      *
      * @param ex
      */
-    private void saveCrashInfoToFile(Throwable ex) {
+    private synchronized void saveCrashInfoToFile(Throwable ex) {
         try {
-            if (mCrashInfoFolder == null) {
+            long startTime = System.nanoTime();
+            long timestamp = System.currentTimeMillis();
+            String crashInfo = buildCrashInfo(ex, CrashFingerprint.of(ex));
+            if (mCrashJournal != null) {
+                long sequence = mCrashJournal.append(timestamp, crashInfo);
+                mCrashJournal.force();
+                mCrashJournal.setWriteTime(sequence, System.nanoTime() - startTime);
                 return;
             }
+            if (mCrashInfoFolder != null) {
+                CrashJournal.Record record = new CrashJournal.Record(mCrashSequence++, timestamp, crashInfo);
+                restoreRecords(Collections.singletonList(record), mCrashInfoFolder, mCrashIndex, null, mMaxLogBytes, mMaxLogAge, timestamp);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
 
-            if (!mCrashInfoFolder.exists()) {//闪退日志目录不存在则先创建闪退日志目录
-                mCrashInfoFolder.mkdirs();
+    /**
+     * 把闪退日志环形文件中上次的闪退记录写入日志目录和{@link DeferredRemoteReport}，完成后清空环形文件；
+     * 写入日志目录失败时保留环形文件，下次启动再重试
+     * <p/>
+     * 创建处理器后会自动执行一次，会阻塞当前线程，不要在主线程中调用
+     *
+     * @return 恢复的闪退记录数
+     */
+    public synchronized int restorePendingCrashes() {
+        if (mCrashJournal == null) {
+            return 0;
+        }
+        List<CrashJournal.Record> records = mCrashJournal.readRecords();
+        if (records.isEmpty()) {
+            return 0;
+        }
+        DeferredRemoteReport deferredRemoteReport = null;
+        if (mCrashExceptionRemoteReport instanceof DeferredRemoteReport) {
+            deferredRemoteReport = (DeferredRemoteReport) mCrashExceptionRemoteReport;
+        }
+        try {
+            restoreRecords(records, mCrashInfoFolder, mCrashIndex, deferredRemoteReport, mMaxLogBytes, mMaxLogAge, System.currentTimeMillis());
+        } catch (IOException e) {
+            e.printStackTrace();
+            Log.e(TAG, "crash info restore failure!!!");
+            if (mCrashInfoFolder != null) {
+                mCrashIndex = new CrashIndex(mCrashInfoFolder);//丢弃没有保存的计数，重试时不会重复统计
             }
+            return 0;
+        }
+        mCrashJournal.clear();
+        mCrashJournal.force();
+        return records.size();
+    }
 
-            if (mCrashInfoFolder.exists()) {
-                String timeStampString = DATE_FORMAT.format(new Date());//当先的时间格式化
-                String crashLogFileName = timeStampString + ".log";
-                File crashLogFile = new File(mCrashInfoFolder, crashLogFileName);
-                crashLogFile.createNewFile();
-
-                //记录闪退环境的信息
-                RandomAccessFile randomAccessFile = new RandomAccessFile(crashLogFile, "rw");
-                randomAccessFile.writeChars("------------Crash Environment Info------------" + "\n");
-                randomAccessFile.writeChars("------------Manufacture: " + SystemUtils.getDeviceManufacture() + "------------" + "\n");
-                randomAccessFile.writeChars("------------DeviceName: " + SystemUtils.getDeviceName() + "------------" + "\n");
-                randomAccessFile.writeChars("------------SystemVersion: " + SystemUtils.getSystemVersion() + "------------" + "\n");
-                randomAccessFile.writeChars("------------DeviceIMEI: " + SystemUtils.getDeviceIMEI(mApplicationContext) + "------------" + "\n");
-                randomAccessFile.writeChars("------------AppVersion: " + SystemUtils.getAppVersion(mApplicationContext) + "------------" + "\n");
-                randomAccessFile.writeChars("------------Crash Environment Info------------" + "\n");
-                randomAccessFile.writeChars("\n");
-                randomAccessFile.close();
-
-                PrintWriter pw = new PrintWriter(new OutputStreamWriter(new FileOutputStream(crashLogFile.getAbsolutePath(), true)), true);
-                ex.printStackTrace(pw);//写入奔溃的日志信息
-                pw.close();
-
-            } else {
-                Log.e(TAG, "crash info folder create failure!!!");
+    /**
+     * 在新线程中执行{@link #restorePendingCrashes()}
+     */
+    public void startRestore() {
+        new BackgroundThreadFactory("CrashRestore").newThread(new Runnable() {
+            @Override
+            public void run() {
+                restorePendingCrashes();
             }
+        }).start();
+    }
 
-        } catch (IOException e) {
-            e.printStackTrace();
-        } catch (Exception e) {
-            e.printStackTrace();
+    /**
+     * 把闪退记录写成日志文件并更新索引，已经有完整日志的指纹只更新计数，最后统一清理和保存一次索引，
+     * 同时把记录中的写入耗时统计到{@link Metrics#CRASH_WRITE_TIME}
+     * <p/>
+     * 日志目录全部写完后才补报，写入失败抛出异常时不会补报，重试时也就不会重复上报
+     *
+     * @param records
+     * @param folder         日志目录，为null时只补报
+     * @param index          日志目录的聚合索引
+     * @param remoteReport   可以为null
+     * @param maxBytes
+     * @param maxAge
+     * @param now
+     * @throws IOException
+     */
+    static void restoreRecords(List<CrashJournal.Record> records, File folder, CrashIndex index, DeferredRemoteReport remoteReport,
+                               long maxBytes, long maxAge, long now) throws IOException {
+        if (folder != null) {
+            writeLogFiles(records, folder, index, maxBytes, maxAge, now);
+        }
+        for (CrashJournal.Record record : records) {
+            if (record.getWriteTime() > 0) {
+                Metrics.record(Metrics.CRASH_WRITE_TIME, record.getWriteTime());
+            }
+        }
+        if (remoteReport != null) {
+            for (CrashJournal.Record record : records) {
+                String fingerprint = parseFingerprint(record.getText());
+                if (fingerprint == null) {
+                    continue;
+                }
+                try {
+                    remoteReport.onCrashRestored(record.getTimestamp(), fingerprint, parseStackTrace(record.getText()));
+                } catch (RuntimeException e) {
+                    e.printStackTrace();//日志已经写完，不能因为补报失败而保留记录
+                }
+            }
+        }
+    }
+
+    private static void writeLogFiles(List<CrashJournal.Record> records, File folder, CrashIndex index,
+                                      long maxBytes, long maxAge, long now) throws IOException {
+        if (!folder.exists()) {//闪退日志目录不存在则先创建闪退日志目录
+            folder.mkdirs();
+        }
+        if (!folder.exists()) {
+            throw new IOException("crash info folder create failure: " + folder);
+        }
+        for (CrashJournal.Record record : records) {
+            String crashInfo = record.getText();
+            String fingerprint = parseFingerprint(crashInfo);
+            if (fingerprint == null) {
+                continue;//记录损坏
+            }
+            String stackTrace = parseStackTrace(crashInfo);
+            int summaryEnd = stackTrace.indexOf('\n');
+            String summary = summaryEnd < 0 ? stackTrace : stackTrace.substring(0, summaryEnd);
+            CrashIndex.Entry entry = index.record(fingerprint, summary, record.getTimestamp());
+            if (entry.hasLogFile()) {//相同的闪退已经有完整日志，只更新计数
+                continue;
+            }
+
+            String timeStampString;
+            synchronized (DATE_FORMAT) {
+                timeStampString = DATE_FORMAT.format(new Date(record.getTimestamp()));
+            }
+            //毫秒精度的时间加上序号，保证每次闪退对应一个文件
+            File crashLogFile = new File(folder, timeStampString + "_" + record.getSequence() + CRASH_LOG_SUFFIX);
+            for (int i = 1; !crashLogFile.createNewFile(); i++) {
+                crashLogFile = new File(folder, timeStampString + "_" + record.getSequence() + "_" + i + CRASH_LOG_SUFFIX);
+            }
+            Writer writer = new OutputStreamWriter(new FileOutputStream(crashLogFile), "UTF-8");
+            try {
+                writer.write(crashInfo);
+            } finally {
+                writer.close();
+            }
+            index.setLogFile(entry, crashLogFile);
+        }
+        index.trim(maxBytes, maxAge, now);
+        index.save();
+    }
+
+    /**
+     * @param crashInfo {@link #buildCrashInfo(Throwable, String)}生成的闪退信息
+     * @return 没有指纹时返回null
+     */
+    static String parseFingerprint(String crashInfo) {
+        int start = crashInfo.indexOf(FINGERPRINT_PREFIX);
+        if (start < 0) {
+            return null;
         }
+        start += FINGERPRINT_PREFIX.length();
+        int end = crashInfo.indexOf(INFO_SEPARATOR, start);
+        return end < 0 ? null : crashInfo.substring(start, end);
+    }
+
+    /**
+     * @param crashInfo {@link #buildCrashInfo(Throwable, String)}生成的闪退信息
+     * @return 去掉环境信息后的异常堆栈
+     */
+    static String parseStackTrace(String crashInfo) {
+        int start = crashInfo.indexOf(ENVIRONMENT_END, crashInfo.indexOf(FINGERPRINT_PREFIX) + 1);
+        return start < 0 ? crashInfo : crashInfo.substring(start + ENVIRONMENT_END.length());
+    }
+
+    /**
+     * 生成闪退环境信息和异常堆栈
+     *
+     * @param ex
+     * @param fingerprint
+     * @return
+     */
+    private String buildCrashInfo(Throwable ex, String fingerprint) {
+        StringWriter stringWriter = new StringWriter(4096);
+        PrintWriter pw = new PrintWriter(stringWriter);
+        //记录闪退环境的信息，快照还没准备好时设备号和版本号为null
+        EnvironmentSnapshot snapshot = EnvironmentSnapshot.peek();
+        pw.print("------------Crash Environment Info------------" + "\n");
+        pw.print("------------Manufacture: " + snapshot.getManufacturer() + "------------" + "\n");
+        pw.print("------------DeviceName: " + snapshot.getModel() + "------------" + "\n");
+        pw.print("------------SystemVersion: " + snapshot.getSystemVersion() + "------------" + "\n");
+        pw.print("------------DeviceIMEI: " + snapshot.getDeviceId() + "------------" + "\n");
+        pw.print("------------AppVersion: " + snapshot.getAppVersionName() + "------------" + "\n");
+        pw.print("------------Screen: " + snapshot.getScreenWidth() + "x" + snapshot.getScreenHeight() + " " + snapshot.getDensityDpi() + "dpi------------" + "\n");
+        pw.print("------------Fingerprint: " + fingerprint + "------------" + "\n");
+        pw.print("------------Crash Environment Info------------" + "\n");
+        pw.print("\n");
+        ex.printStackTrace(pw);//写入奔溃的日志信息
+        pw.flush();
+        return stringWriter.toString();
     }
 
     /**
@@ -158,6 +392,9 @@ public class CrashExceptionHandler implements Thread.UncaughtExceptionHandler {
      * @param ex
      */
     private void sendCrashInfoToServer(Throwable ex) {
+        if (mCrashJournal != null && mCrashExceptionRemoteReport instanceof DeferredRemoteReport) {
+            return;//已经写入闪退日志环形文件，下次启动时补报
+        }
         if (mCrashExceptionRemoteReport != null) {
             mCrashExceptionRemoteReport.onCrash(ex);
         }
@@ -174,4 +411,19 @@ public class CrashExceptionHandler implements Thread.UncaughtExceptionHandler {
          */
         public void onCrash(Throwable ex);
     }
+
+    /**
+     * 需要写文件的远程回传方式，闪退时不回调{@link #onCrash(Throwable)}，
+     * 而是在{@link #restorePendingCrashes()}时按闪退日志环形文件中的记录补报，闪退线程中只写一次文件
+     */
+    public static interface DeferredRemoteReport extends CrashExceptionRemoteReport {
+        /**
+         * 下次启动恢复上次的闪退记录时回调
+         *
+         * @param timestamp   闪退时间
+         * @param fingerprint 堆栈指纹
+         * @param stackTrace  异常堆栈
+         */
+        public void onCrashRestored(long timestamp, String fingerprint, String stackTrace);
+    }
 }
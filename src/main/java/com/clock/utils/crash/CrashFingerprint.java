@@ -0,0 +1,60 @@
+package com.clock.utils.crash;
+
+import com.clock.utils.text.HashUtils;
+
+/**
+ * 闪退堆栈指纹，同一处代码抛出的同类异常得到相同的指纹
+ * <p/>
+ * 只使用异常类名以及栈顶若干帧的类名和方法名（包括cause链），不使用异常消息和行号，
+ * 避免消息中的变量、版本间的行号变化或者不同的调用入口把同一个问题拆成多个指纹
+ * <p/>
+ * Created by Clock on 2016/3/13.
+ */
+public class CrashFingerprint {
+
+    /**
+     * cause链最多参与计算的层数，防止循环引用
+     */
+    private final static int MAX_CAUSE_DEPTH = 16;
+    /**
+     * 每一层异常参与计算的栈顶帧数
+     */
+    private final static int MAX_FRAMES = 10;
+
+    private CrashFingerprint() {
+    }
+
+    /**
+     * 计算异常的指纹
+     *
+     * @param ex
+     * @return 16位小写十六进制字符串
+     */
+    public static String of(Throwable ex) {
+        return HashUtils.xxHash64Hex(normalize(ex));
+    }
+
+    /**
+     * 生成参与指纹计算的规范化文本
+     *
+     * @param ex
+     * @return
+     */
+    static String normalize(Throwable ex) {
+        StringBuilder builder = new StringBuilder(1024);
+        Throwable current = ex;
+        for (int depth = 0; current != null && depth < MAX_CAUSE_DEPTH; depth++) {
+            builder.append(current.getClass().getName()).append('\n');
+            StackTraceElement[] elements = current.getStackTrace();
+            for (int i = 0; i < elements.length && i < MAX_FRAMES; i++) {
+                StackTraceElement element = elements[i];
+                builder.append(element.getClassName()).append('.').append(element.getMethodName()).append('\n');
+            }
+            if (current.getCause() == current) {
+                break;
+            }
+            current = current.getCause();
+        }
+        return builder.toString();
+    }
+}
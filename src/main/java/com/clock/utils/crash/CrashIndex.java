@@ -0,0 +1,351 @@
+package com.clock.utils.crash;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 闪退日志目录的聚合索引
+ * <p/>
+ * 1.按{@link CrashFingerprint}合并闪退，索引文件中只保存每个指纹的次数、首次和最近一次发生的时间以及日志文件名
+ * <p/>
+ * 2.只有第一次出现的指纹才需要写完整的日志文件，重复闪退只更新索引
+ * <p/>
+ * 3.{@link #trim(long, long, long)}按保存时间和总大小清理日志文件
+ * <p/>
+ * 查询和统计只读取索引，与日志文件的数量无关
+ * <p/>
+ * Created by Clock on 2016/3/14.
+ */
+public class CrashIndex {
+
+    public final static String INDEX_FILE_NAME = "crash.index";
+    public final static String LOG_SUFFIX = ".log";
+
+    private final static int INDEX_MAGIC = 0x43494458;//CIDX
+    private final static int INDEX_VERSION = 1;
+    private final static int MAX_SUMMARY_LENGTH = 256;
+
+    private final File mFolder;
+    private final File mIndexFile;
+    private Map<String, Entry> mEntries;
+
+    /**
+     * @param folder 闪退日志目录，索引文件保存在此目录下
+     */
+    public CrashIndex(File folder) {
+        this.mFolder = folder;
+        this.mIndexFile = new File(folder, INDEX_FILE_NAME);
+    }
+
+    /**
+     * 记录一次闪退，只修改内存中的索引，需要调用{@link #save()}写入文件
+     *
+     * @param fingerprint
+     * @param summary     异常摘要，通常是ex.toString()
+     * @param timestamp
+     * @return 对应的索引项，{@link Entry#hasLogFile()}为false时需要写入完整日志并调用{@link #setLogFile(Entry, File)}；
+     * 登记的日志文件已经被删除时（例如被用户或其他清理工具删除）同样返回false
+     */
+    public synchronized Entry record(String fingerprint, String summary, long timestamp) {
+        ensureLoaded();
+        Entry entry = mEntries.get(fingerprint);
+        if (entry == null) {
+            if (summary != null && summary.length() > MAX_SUMMARY_LENGTH) {
+                summary = summary.substring(0, MAX_SUMMARY_LENGTH);
+            }
+            entry = new Entry(fingerprint, summary == null ? "" : summary, 0, timestamp, timestamp, "", 0);
+            mEntries.put(fingerprint, entry);
+        } else if (entry.hasLogFile() && !new File(mFolder, entry.mLogFileName).exists()) {
+            entry.mLogFileName = "";
+            entry.mLogFileSize = 0;
+        }
+        entry.mCount++;
+        entry.mFirstSeen = Math.min(entry.mFirstSeen, timestamp);
+        entry.mLastSeen = Math.max(entry.mLastSeen, timestamp);
+        return entry;
+    }
+
+    /**
+     * 登记索引项对应的完整日志文件
+     *
+     * @param entry
+     * @param logFile 位于闪退日志目录下的文件
+     */
+    public synchronized void setLogFile(Entry entry, File logFile) {
+        entry.mLogFileName = logFile.getName();
+        entry.mLogFileSize = logFile.length();
+    }
+
+    /**
+     * @param fingerprint
+     * @return 不存在时返回null
+     */
+    public synchronized Entry get(String fingerprint) {
+        ensureLoaded();
+        return mEntries.get(fingerprint);
+    }
+
+    /**
+     * 生成统计报告
+     *
+     * @return 按发生次数从多到少排序的索引项
+     */
+    public synchronized List<Entry> getEntries() {
+        ensureLoaded();
+        List<Entry> entries = new ArrayList<Entry>(mEntries.size());
+        for (Entry entry : mEntries.values()) {
+            entries.add(entry.copy());
+        }
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry lhs, Entry rhs) {
+                if (lhs.mCount != rhs.mCount) {
+                    return lhs.mCount > rhs.mCount ? -1 : 1;
+                }
+                return lhs.mLastSeen > rhs.mLastSeen ? -1 : (lhs.mLastSeen == rhs.mLastSeen ? 0 : 1);
+            }
+        });
+        return entries;
+    }
+
+    /**
+     * 按保存时间和总大小清理日志文件，不在索引中的日志文件（例如旧版本生成的）同样参与清理
+     * <p/>
+     * 超过保存时间的指纹连同索引项一起删除；超过总大小时从最久没有发生的指纹开始只删除日志文件，保留计数
+     *
+     * @param maxBytes 日志文件的总大小上限
+     * @param maxAge   日志的最长保存时间（毫秒），以最近一次发生的时间计算
+     * @param now      当前时间
+     * @return 删除的文件数
+     */
+    public synchronized int trim(long maxBytes, long maxAge, long now) {
+        ensureLoaded();
+        int deleted = 0;
+        long expireTime = now - maxAge;
+        Map<String, Entry> entryByLogFile = new HashMap<String, Entry>();
+        for (Entry entry : new ArrayList<Entry>(mEntries.values())) {
+            if (entry.mLastSeen < expireTime) {
+                mEntries.remove(entry.mFingerprint);
+                if (entry.hasLogFile() && new File(mFolder, entry.mLogFileName).delete()) {
+                    deleted++;
+                }
+            } else if (entry.hasLogFile()) {
+                entryByLogFile.put(entry.mLogFileName, entry);
+            }
+        }
+
+        File[] logFiles = mFolder.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String filename) {
+                return filename.endsWith(LOG_SUFFIX);
+            }
+        });
+        List<LogFile> candidates = new ArrayList<LogFile>();
+        long totalBytes = 0;
+        if (logFiles != null) {
+            for (File file : logFiles) {
+                Entry entry = entryByLogFile.get(file.getName());
+                long lastSeen = entry != null ? entry.mLastSeen : file.lastModified();
+                if (entry == null && lastSeen < expireTime) {
+                    if (file.delete()) {
+                        deleted++;
+                    }
+                    continue;
+                }
+                long size = file.length();
+                totalBytes += size;
+                candidates.add(new LogFile(file, entry, lastSeen, size));
+            }
+        }
+        if (totalBytes > maxBytes) {
+            Collections.sort(candidates, new Comparator<LogFile>() {
+                @Override
+                public int compare(LogFile lhs, LogFile rhs) {
+                    return lhs.mLastSeen < rhs.mLastSeen ? -1 : (lhs.mLastSeen == rhs.mLastSeen ? 0 : 1);
+                }
+            });
+            for (int i = 0; i < candidates.size() && totalBytes > maxBytes; i++) {
+                LogFile candidate = candidates.get(i);
+                if (candidate.mFile.delete()) {
+                    deleted++;
+                    totalBytes -= candidate.mSize;
+                    if (candidate.mEntry != null) {
+                        //保留计数，下次再发生时重新写入完整日志
+                        candidate.mEntry.mLogFileName = "";
+                        candidate.mEntry.mLogFileSize = 0;
+                    }
+                }
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * 把索引写入文件，先写临时文件再重命名
+     *
+     * @throws IOException
+     */
+    public synchronized void save() throws IOException {
+        ensureLoaded();
+        if (!mFolder.exists()) {
+            mFolder.mkdirs();
+        }
+        File tempFile = new File(mFolder, INDEX_FILE_NAME + ".tmp");
+        FileOutputStream fileOutputStream = new FileOutputStream(tempFile);
+        try {
+            DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(fileOutputStream));
+            outputStream.writeInt(INDEX_MAGIC);
+            outputStream.writeInt(INDEX_VERSION);
+            outputStream.writeInt(mEntries.size());
+            for (Entry entry : mEntries.values()) {
+                outputStream.writeUTF(entry.mFingerprint);
+                outputStream.writeUTF(entry.mSummary);
+                outputStream.writeInt(entry.mCount);
+                outputStream.writeLong(entry.mFirstSeen);
+                outputStream.writeLong(entry.mLastSeen);
+                outputStream.writeUTF(entry.mLogFileName);
+                outputStream.writeLong(entry.mLogFileSize);
+            }
+            outputStream.flush();
+            fileOutputStream.getFD().sync();
+        } finally {
+            fileOutputStream.close();
+        }
+        if (!tempFile.renameTo(mIndexFile)) {
+            tempFile.delete();
+            throw new IOException("rename failure: " + mIndexFile);
+        }
+    }
+
+    private void ensureLoaded() {
+        if (mEntries != null) {
+            return;
+        }
+        mEntries = new HashMap<String, Entry>();
+        if (!mIndexFile.exists()) {
+            return;
+        }
+        DataInputStream inputStream = null;
+        try {
+            inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(mIndexFile)));
+            if (inputStream.readInt() != INDEX_MAGIC || inputStream.readInt() != INDEX_VERSION) {
+                return;
+            }
+            int size = inputStream.readInt();
+            for (int i = 0; i < size; i++) {
+                Entry entry = new Entry(inputStream.readUTF(), inputStream.readUTF(), inputStream.readInt(),
+                        inputStream.readLong(), inputStream.readLong(), inputStream.readUTF(), inputStream.readLong());
+                mEntries.put(entry.mFingerprint, entry);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();//索引损坏时保留已经读到的部分
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static class LogFile {
+
+        private final File mFile;
+        private final Entry mEntry;
+        private final long mLastSeen;
+        private final long mSize;
+
+        LogFile(File file, Entry entry, long lastSeen, long size) {
+            this.mFile = file;
+            this.mEntry = entry;
+            this.mLastSeen = lastSeen;
+            this.mSize = size;
+        }
+    }
+
+    /**
+     * 一个指纹的聚合信息
+     */
+    public static class Entry {
+
+        private final String mFingerprint;
+        private final String mSummary;
+        private int mCount;
+        private long mFirstSeen;
+        private long mLastSeen;
+        private String mLogFileName;
+        private long mLogFileSize;
+
+        Entry(String fingerprint, String summary, int count, long firstSeen, long lastSeen, String logFileName, long logFileSize) {
+            this.mFingerprint = fingerprint;
+            this.mSummary = summary;
+            this.mCount = count;
+            this.mFirstSeen = firstSeen;
+            this.mLastSeen = lastSeen;
+            this.mLogFileName = logFileName;
+            this.mLogFileSize = logFileSize;
+        }
+
+        Entry copy() {
+            return new Entry(mFingerprint, mSummary, mCount, mFirstSeen, mLastSeen, mLogFileName, mLogFileSize);
+        }
+
+        public String getFingerprint() {
+            return mFingerprint;
+        }
+
+        /**
+         * @return 第一次发生时的异常摘要
+         */
+        public String getSummary() {
+            return mSummary;
+        }
+
+        public int getCount() {
+            return mCount;
+        }
+
+        public long getFirstSeen() {
+            return mFirstSeen;
+        }
+
+        public long getLastSeen() {
+            return mLastSeen;
+        }
+
+        /**
+         * @return 完整日志的文件名，没有时返回空字符串
+         */
+        public String getLogFileName() {
+            return mLogFileName;
+        }
+
+        public long getLogFileSize() {
+            return mLogFileSize;
+        }
+
+        public boolean hasLogFile() {
+            return mLogFileName.length() > 0;
+        }
+
+        @Override
+        public String toString() {
+            return mFingerprint + " x" + mCount + " " + mSummary;
+        }
+    }
+}
@@ -0,0 +1,407 @@
+package com.clock.utils.crash;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 闪退日志环形文件
+ * <p/>
+ * 1.创建时就把文件预分配到固定大小并通过mmap映射到内存，闪退时只需要把UTF-8字节写入映射区域，不需要再创建文件和分配缓冲区
+ * <p/>
+ * 2.写满后从头覆盖最旧的记录，文件大小始终不变
+ * <p/>
+ * 3.每条记录带有递增的序号、时间戳和写入耗时，先写记录再更新文件头，进程在写入过程中被杀掉也不会读到半条记录
+ * <p/>
+ * 4.写入映射区域后即使进程立即退出，数据也会由系统写回文件；{@link #force()}额外保证断电时不丢失
+ * <p/>
+ * Created by Clock on 2016/3/12.
+ */
+public class CrashJournal {
+
+    /**
+     * 默认的文件大小
+     */
+    public final static int DEFAULT_CAPACITY = 256 * 1024;
+
+    private final static int FILE_MAGIC = 0x434A524E;//CJRN
+    private final static int FILE_VERSION = 2;
+    private final static int RECORD_MAGIC = 0x52454344;//RECD
+    private final static int WRAP_MAGIC = 0x57524150;//WRAP
+
+    /**
+     * 文件头：magic、version、capacity、head、tail、count、nextSequence
+     */
+    private final static int HEADER_SIZE = 4 * 6 + 8;
+    private final static int OFFSET_HEAD = 12;
+    private final static int OFFSET_TAIL = 16;
+    private final static int OFFSET_COUNT = 20;
+    private final static int OFFSET_SEQUENCE = 24;
+    /**
+     * 记录头：magic、length、sequence、timestamp、writeTime
+     */
+    private final static int RECORD_HEADER_SIZE = 4 + 4 + 8 + 8 + 8;
+    private final static int OFFSET_RECORD_WRITE_TIME = 24;
+    private final static int MIN_CAPACITY = HEADER_SIZE + RECORD_HEADER_SIZE + 1024;
+
+    private final File mFile;
+    private final int mCapacity;
+    private MappedByteBuffer mBuffer;
+    /**
+     * 最旧记录的位置
+     */
+    private int mHead;
+    /**
+     * 下一条记录的写入位置
+     */
+    private int mTail;
+    private int mCount;
+    private long mNextSequence;
+    /**
+     * 本次进程中最后追加的记录的位置，没有时为-1
+     */
+    private int mLastAppended = -1;
+
+    /**
+     * 打开或创建闪退日志文件，已有文件大小不一致或者格式损坏时会被清空重建
+     *
+     * @param file
+     * @param capacity 文件大小（字节）
+     * @throws IOException
+     */
+    public CrashJournal(File file, int capacity) throws IOException {
+        if (capacity < MIN_CAPACITY) {
+            throw new IllegalArgumentException("capacity must be at least " + MIN_CAPACITY);
+        }
+        this.mFile = file;
+        this.mCapacity = capacity;
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            if (randomAccessFile.length() != capacity) {
+                randomAccessFile.setLength(capacity);
+            }
+            mBuffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        } finally {
+            randomAccessFile.close();//关闭文件不影响已经建立的映射
+        }
+        if (!readHeader()) {
+            reset();
+        }
+    }
+
+    /**
+     * @param file
+     * @throws IOException
+     * @see #DEFAULT_CAPACITY
+     */
+    public CrashJournal(File file) throws IOException {
+        this(file, DEFAULT_CAPACITY);
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * 追加一条记录，内容超过单条上限时会被截断
+     *
+     * @param timestamp
+     * @param text
+     * @return 记录的序号
+     */
+    public synchronized long append(long timestamp, CharSequence text) {
+        int maxPayload = mCapacity - HEADER_SIZE - RECORD_HEADER_SIZE;
+        int textLength = text.length();
+        int end = textLength;
+        int payloadLength = 0;
+        for (int i = 0; i < textLength; i++) {
+            int charLength = utf8Length(text, i);
+            if (payloadLength + charLength > maxPayload) {
+                end = i;
+                break;
+            }
+            payloadLength += charLength;
+            if (charLength == 4) {
+                i++;
+            }
+        }
+
+        int recordSize = RECORD_HEADER_SIZE + payloadLength;
+        makeRoom(recordSize);
+        //先记录淘汰后的状态，接下来覆盖旧数据时即使进程被杀，文件头也不会指向被破坏的记录
+        writeHeader();
+
+        long sequence = mNextSequence;
+        int position = mTail;
+        mBuffer.putInt(position, RECORD_MAGIC);
+        mBuffer.putInt(position + 4, payloadLength);
+        mBuffer.putLong(position + 8, sequence);
+        mBuffer.putLong(position + 16, timestamp);
+        mBuffer.putLong(position + OFFSET_RECORD_WRITE_TIME, 0);
+        encodeUtf8(text, end, position + RECORD_HEADER_SIZE);
+        mLastAppended = position;
+
+        mTail = position + recordSize;
+        if (mCount == 0) {
+            mHead = position;
+        }
+        mCount++;
+        mNextSequence++;
+        writeHeader();
+        return sequence;
+    }
+
+    /**
+     * 记录最后追加的那条记录的写入耗时，下次启动时通过{@link Record#getWriteTime()}读取
+     * <p/>
+     * 只修改映射区域，不会再同步到存储设备：进程退出后仍然由系统写回文件，断电时只丢失耗时，不影响记录本身
+     *
+     * @param sequence {@link #append(long, CharSequence)}返回的序号，已经不是最后一条记录时忽略
+     * @param nanos    纳秒
+     */
+    public synchronized void setWriteTime(long sequence, long nanos) {
+        if (mLastAppended < 0 || mBuffer.getInt(mLastAppended) != RECORD_MAGIC || mBuffer.getLong(mLastAppended + 8) != sequence) {
+            return;
+        }
+        mBuffer.putLong(mLastAppended + OFFSET_RECORD_WRITE_TIME, nanos);
+    }
+
+    /**
+     * 把映射区域的修改同步写入存储设备
+     */
+    public synchronized void force() {
+        mBuffer.force();
+    }
+
+    /**
+     * 按写入顺序读取所有记录，通常在下次启动时调用
+     *
+     * @return
+     */
+    public synchronized List<Record> readRecords() {
+        List<Record> records = new ArrayList<Record>(mCount);
+        int position = mHead;
+        for (int i = 0; i < mCount; i++) {
+            position = skipWrap(position);
+            if (position + RECORD_HEADER_SIZE > mCapacity || mBuffer.getInt(position) != RECORD_MAGIC) {
+                break;//数据已损坏，只返回之前完整的记录
+            }
+            int length = mBuffer.getInt(position + 4);
+            if (length < 0 || position + RECORD_HEADER_SIZE + length > mCapacity) {
+                break;
+            }
+            long sequence = mBuffer.getLong(position + 8);
+            long timestamp = mBuffer.getLong(position + 16);
+            long writeTime = mBuffer.getLong(position + OFFSET_RECORD_WRITE_TIME);
+            String text = decodeUtf8(position + RECORD_HEADER_SIZE, length);
+            records.add(new Record(sequence, timestamp, writeTime, text));
+            position += RECORD_HEADER_SIZE + length;
+        }
+        return records;
+    }
+
+    /**
+     * 清空所有记录，序号继续递增
+     */
+    public synchronized void clear() {
+        mHead = HEADER_SIZE;
+        mTail = HEADER_SIZE;
+        mCount = 0;
+        mLastAppended = -1;
+        writeHeader();
+    }
+
+    /**
+     * @return 当前保存的记录数
+     */
+    public synchronized int getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return 下一条记录将使用的序号
+     */
+    public synchronized long getNextSequence() {
+        return mNextSequence;
+    }
+
+    /**
+     * 淘汰最旧的记录，直到[mTail, mTail + size)可以写入
+     *
+     * @param size
+     */
+    private void makeRoom(int size) {
+        if (mTail + size > mCapacity) {
+            //文件尾部放不下，尾部剩余的旧记录全部淘汰后回到数据区开头
+            while (mCount > 0 && mHead >= mTail) {
+                evictHead();
+            }
+            if (mTail + 4 <= mCapacity) {
+                mBuffer.putInt(mTail, WRAP_MAGIC);
+            }
+            mTail = HEADER_SIZE;
+            if (mCount == 0) {
+                mHead = HEADER_SIZE;
+            }
+        }
+        while (mCount > 0 && mHead >= mTail && mHead < mTail + size) {
+            evictHead();
+        }
+    }
+
+    private void evictHead() {
+        mHead = skipWrap(mHead);
+        int length = mBuffer.getInt(mHead + 4);
+        mHead += RECORD_HEADER_SIZE + length;
+        mCount--;
+        if (mCount == 0) {
+            mHead = mTail;
+        } else {
+            mHead = skipWrap(mHead);
+        }
+    }
+
+    private int skipWrap(int position) {
+        if (position + RECORD_HEADER_SIZE > mCapacity || mBuffer.getInt(position) == WRAP_MAGIC) {
+            return HEADER_SIZE;
+        }
+        return position;
+    }
+
+    private boolean readHeader() {
+        if (mBuffer.getInt(0) != FILE_MAGIC || mBuffer.getInt(4) != FILE_VERSION || mBuffer.getInt(8) != mCapacity) {
+            return false;
+        }
+        mHead = mBuffer.getInt(OFFSET_HEAD);
+        mTail = mBuffer.getInt(OFFSET_TAIL);
+        mCount = mBuffer.getInt(OFFSET_COUNT);
+        mNextSequence = mBuffer.getLong(OFFSET_SEQUENCE);
+        return mHead >= HEADER_SIZE && mHead <= mCapacity && mTail >= HEADER_SIZE && mTail <= mCapacity
+                && mCount >= 0 && mNextSequence >= 0;
+    }
+
+    private void reset() {
+        mBuffer.putInt(0, FILE_MAGIC);
+        mBuffer.putInt(4, FILE_VERSION);
+        mBuffer.putInt(8, mCapacity);
+        mNextSequence = 0;
+        clear();
+        mBuffer.force();
+    }
+
+    private void writeHeader() {
+        mBuffer.putInt(OFFSET_HEAD, mHead);
+        mBuffer.putInt(OFFSET_TAIL, mTail);
+        mBuffer.putInt(OFFSET_COUNT, mCount);
+        mBuffer.putLong(OFFSET_SEQUENCE, mNextSequence);
+    }
+
+    /**
+     * @param text
+     * @param index
+     * @return index处字符编码后的字节数，代理对返回4
+     */
+    private static int utf8Length(CharSequence text, int index) {
+        char c = text.charAt(index);
+        if (c < 0x80) {
+            return 1;
+        } else if (c < 0x800) {
+            return 2;
+        } else if (Character.isHighSurrogate(c) && index + 1 < text.length() && Character.isLowSurrogate(text.charAt(index + 1))) {
+            return 4;
+        } else {
+            return 3;//不成对的代理字符按U+FFFD编码，同样是3个字节
+        }
+    }
+
+    private void encodeUtf8(CharSequence text, int end, int position) {
+        MappedByteBuffer buffer = mBuffer;
+        for (int i = 0; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                buffer.put(position++, (byte) c);
+            } else if (c < 0x800) {
+                buffer.put(position++, (byte) (0xC0 | (c >> 6)));
+                buffer.put(position++, (byte) (0x80 | (c & 0x3F)));
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                    buffer.put(position++, (byte) (0xF0 | (codePoint >> 18)));
+                    buffer.put(position++, (byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                    buffer.put(position++, (byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                    buffer.put(position++, (byte) (0x80 | (codePoint & 0x3F)));
+                } else {
+                    buffer.put(position++, (byte) 0xEF);
+                    buffer.put(position++, (byte) 0xBF);
+                    buffer.put(position++, (byte) 0xBD);
+                }
+            } else {
+                buffer.put(position++, (byte) (0xE0 | (c >> 12)));
+                buffer.put(position++, (byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put(position++, (byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    private String decodeUtf8(int position, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = mBuffer.get(position + i);
+        }
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new String(bytes);
+        }
+    }
+
+    /**
+     * 一条闪退记录
+     */
+    public static class Record {
+
+        private final long mSequence;
+        private final long mTimestamp;
+        private final long mWriteTime;
+        private final String mText;
+
+        Record(long sequence, long timestamp, String text) {
+            this(sequence, timestamp, 0, text);
+        }
+
+        Record(long sequence, long timestamp, long writeTime, String text) {
+            this.mSequence = sequence;
+            this.mTimestamp = timestamp;
+            this.mWriteTime = writeTime;
+            this.mText = text;
+        }
+
+        public long getSequence() {
+            return mSequence;
+        }
+
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        /**
+         * @return 闪退时写入这条记录的耗时（纳秒），没有记录时为0
+         */
+        public long getWriteTime() {
+            return mWriteTime;
+        }
+
+        public String getText() {
+            return mText;
+        }
+    }
+}
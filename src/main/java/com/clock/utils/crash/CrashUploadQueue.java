@@ -0,0 +1,506 @@
+package com.clock.utils.crash;
+
+import com.clock.utils.common.BackgroundThreadFactory;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 闪退信息上传队列
+ * <p/>
+ * 1.闪退时{@link #onCrash(Throwable)}只把异常堆栈写成本地的一个小文件，不做任何网络操作；
+ * 配置给有闪退日志环形文件的CrashExceptionHandler时，闪退线程中不写文件，下次启动恢复闪退记录时才通过{@link #onCrashRestored(long, String, String)}写入队列
+ * <p/>
+ * 2.下次启动后调用{@link #flush()}或{@link #startFlush()}，按堆栈指纹合并相同的闪退，分批gzip压缩后上传
+ * <p/>
+ * 3.上传失败时按指数退避重试，仍然失败则保留文件等待下一次flush，上传成功或者被服务器拒绝后才删除
+ * <p/>
+ * 使用方式：
+ * <pre>
+ * CrashUploadQueue queue = new CrashUploadQueue(folder, new CrashUploadQueue.HttpTransport(url));
+ * crashExceptionHandler.configRemoteReport(queue);
+ * //下次启动后在后台线程中
+ * crashExceptionHandler.restorePendingCrashes();
+ * queue.flush();
+ * </pre>
+ * Created by Clock on 2016/3/13.
+ */
+public class CrashUploadQueue implements CrashExceptionHandler.DeferredRemoteReport {
+
+    private final static String PENDING_SUFFIX = ".crash";
+    private final static String TEMP_SUFFIX = ".tmp";
+    private final static String CHARSET = "UTF-8";
+    private final static char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final static int DEFAULT_BATCH_SIZE = 20;
+    private final static int DEFAULT_MAX_ATTEMPTS = 3;
+    private final static long DEFAULT_INITIAL_BACKOFF = 1000;
+    private final static long MAX_BACKOFF = 60 * 1000;
+
+    private final static int UPLOAD_SUCCESS = 0;
+    private final static int UPLOAD_REJECTED = 1;
+    private final static int UPLOAD_FAILED = 2;
+
+    private final File mQueueFolder;
+    private final Transport mTransport;
+    private final Object mFlushLock = new Object();
+
+    private int mBatchSize = DEFAULT_BATCH_SIZE;
+    private int mMaxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private long mInitialBackoff = DEFAULT_INITIAL_BACKOFF;
+    private int mFileSequence;
+
+    /**
+     * @param queueFolder 保存待上传闪退信息的目录，建议使用应用私有目录
+     * @param transport   上传方式
+     */
+    public CrashUploadQueue(File queueFolder, Transport transport) {
+        this.mQueueFolder = queueFolder;
+        this.mTransport = transport;
+    }
+
+    /**
+     * 配置每批上传的闪退条数（按指纹合并后）
+     *
+     * @param batchSize
+     */
+    public void configBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        this.mBatchSize = batchSize;
+    }
+
+    /**
+     * 配置重试策略
+     *
+     * @param maxAttempts    每批最多尝试的次数
+     * @param initialBackoff 第一次重试前等待的毫秒数，之后每次翻倍
+     */
+    public void configRetry(int maxAttempts, long initialBackoff) {
+        if (maxAttempts <= 0 || initialBackoff < 0) {
+            throw new IllegalArgumentException("maxAttempts must be positive and initialBackoff must not be negative");
+        }
+        this.mMaxAttempts = maxAttempts;
+        this.mInitialBackoff = initialBackoff;
+    }
+
+    /**
+     * 闪退时把异常写入本地队列，在闪退线程中同步执行
+     *
+     * @param ex
+     */
+    @Override
+    public void onCrash(Throwable ex) {
+        try {
+            enqueue(System.currentTimeMillis(), CrashFingerprint.of(ex), getStackTraceString(ex));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 下次启动时把上次的闪退记录写入本地队列
+     *
+     * @param timestamp
+     * @param fingerprint
+     * @param stackTrace
+     */
+    @Override
+    public void onCrashRestored(long timestamp, String fingerprint, String stackTrace) {
+        try {
+            enqueue(timestamp, fingerprint, stackTrace);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 把一条闪退信息写入本地队列，先写临时文件再重命名，不会留下半个文件
+     *
+     * @param timestamp
+     * @param fingerprint
+     * @param stackTrace
+     * @throws IOException
+     */
+    public void enqueue(long timestamp, String fingerprint, String stackTrace) throws IOException {
+        if (!mQueueFolder.exists()) {
+            mQueueFolder.mkdirs();
+        }
+        String fileName;
+        synchronized (this) {
+            fileName = timestamp + "_" + fingerprint + "_" + (mFileSequence++);
+        }
+        File tempFile = new File(mQueueFolder, fileName + TEMP_SUFFIX);
+        FileOutputStream outputStream = new FileOutputStream(tempFile);
+        try {
+            Writer writer = new OutputStreamWriter(outputStream, CHARSET);
+            writer.write(fingerprint);
+            writer.write('\n');
+            writer.write(String.valueOf(timestamp));
+            writer.write('\n');
+            writer.write(stackTrace);
+            writer.flush();
+            outputStream.getFD().sync();
+        } finally {
+            outputStream.close();
+        }
+        if (!tempFile.renameTo(new File(mQueueFolder, fileName + PENDING_SUFFIX))) {
+            tempFile.delete();
+            throw new IOException("rename failure: " + tempFile);
+        }
+    }
+
+    /**
+     * @return 本地队列中还没有上传的闪退条数（未合并）
+     */
+    public int getPendingCount() {
+        return listPendingFiles().length;
+    }
+
+    /**
+     * 在新线程中执行{@link #flush()}
+     */
+    public void startFlush() {
+        new BackgroundThreadFactory("CrashUploadQueue").newThread(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }).start();
+    }
+
+    /**
+     * 上传本地队列中的所有闪退信息，会阻塞当前线程，不要在主线程中调用
+     *
+     * @return 全部上传成功返回true，有批次被服务器拒绝或者上传失败时返回false
+     */
+    public boolean flush() {
+        synchronized (mFlushLock) {
+            List<CrashGroup> groups = readPendingGroups();
+            boolean success = true;
+            for (int start = 0; start < groups.size(); start += mBatchSize) {
+                List<CrashGroup> batch = groups.subList(start, Math.min(start + mBatchSize, groups.size()));
+                int result = uploadWithRetry(batch);
+                if (result == UPLOAD_FAILED) {
+                    success = false;
+                    break;//网络不可用时后面的批次同样会失败，留到下次再传
+                }
+                if (result == UPLOAD_REJECTED) {
+                    success = false;//重试也不会成功，丢弃这一批，继续上传后面的批次
+                }
+                for (CrashGroup group : batch) {
+                    group.deleteFiles();
+                }
+            }
+            return success;
+        }
+    }
+
+    /**
+     * @return {@link #UPLOAD_SUCCESS}、{@link #UPLOAD_REJECTED}或{@link #UPLOAD_FAILED}
+     */
+    private int uploadWithRetry(List<CrashGroup> batch) {
+        byte[] body;
+        try {
+            body = gzip(toJson(batch));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return UPLOAD_FAILED;
+        }
+        long backoff = mInitialBackoff;
+        for (int attempt = 1; attempt <= mMaxAttempts; attempt++) {
+            try {
+                return mTransport.send(body) ? UPLOAD_SUCCESS : UPLOAD_REJECTED;
+            } catch (IOException e) {
+                e.printStackTrace();
+            } catch (RuntimeException e) {//自定义Transport的错误，保留文件等待下一次flush
+                e.printStackTrace();
+                return UPLOAD_FAILED;
+            }
+            if (attempt < mMaxAttempts) {
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return UPLOAD_FAILED;
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF);
+            }
+        }
+        return UPLOAD_FAILED;
+    }
+
+    /**
+     * 读取本地队列，按指纹合并，保持第一次出现的顺序
+     *
+     * @return
+     */
+    private List<CrashGroup> readPendingGroups() {
+        File[] files = listPendingFiles();
+        Map<String, CrashGroup> groups = new LinkedHashMap<String, CrashGroup>();
+        for (File file : files) {
+            try {
+                String content = readFile(file);
+                int firstLineEnd = content.indexOf('\n');
+                int secondLineEnd = firstLineEnd < 0 ? -1 : content.indexOf('\n', firstLineEnd + 1);
+                if (secondLineEnd < 0) {
+                    file.delete();//内容损坏
+                    continue;
+                }
+                String fingerprint = content.substring(0, firstLineEnd);
+                long timestamp = Long.parseLong(content.substring(firstLineEnd + 1, secondLineEnd));
+                CrashGroup group = groups.get(fingerprint);
+                if (group == null) {
+                    group = new CrashGroup(fingerprint, content.substring(secondLineEnd + 1));
+                    groups.put(fingerprint, group);
+                }
+                group.add(file, timestamp);
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+                file.delete();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return new ArrayList<CrashGroup>(groups.values());
+    }
+
+    private File[] listPendingFiles() {
+        File[] files = mQueueFolder.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String filename) {
+                return filename.endsWith(PENDING_SUFFIX);
+            }
+        });
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files);//文件名以时间戳开头，排序后按闪退先后上传
+        return files;
+    }
+
+    private static String readFile(File file) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), CHARSET));
+        try {
+            StringBuilder builder = new StringBuilder((int) file.length());
+            char[] buffer = new char[4096];
+            int count;
+            while ((count = reader.read(buffer)) != -1) {
+                builder.append(buffer, 0, count);
+            }
+            return builder.toString();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static String getStackTraceString(Throwable ex) {
+        StringWriter stringWriter = new StringWriter(4096);
+        PrintWriter printWriter = new PrintWriter(stringWriter);
+        ex.printStackTrace(printWriter);
+        printWriter.flush();
+        return stringWriter.toString();
+    }
+
+    /**
+     * 生成一批闪退信息的JSON：{"crashes":[{"fingerprint":"","count":1,"firstTimestamp":0,"lastTimestamp":0,"stackTrace":""}]}
+     *
+     * @param batch
+     * @return
+     */
+    static String toJson(List<CrashGroup> batch) {
+        StringBuilder builder = new StringBuilder(4096);
+        builder.append("{\"crashes\":[");
+        for (int i = 0; i < batch.size(); i++) {
+            CrashGroup group = batch.get(i);
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"fingerprint\":");
+            appendJsonString(builder, group.mFingerprint);
+            builder.append(",\"count\":").append(group.mFiles.size());
+            builder.append(",\"firstTimestamp\":").append(group.mFirstTimestamp);
+            builder.append(",\"lastTimestamp\":").append(group.mLastTimestamp);
+            builder.append(",\"stackTrace\":");
+            appendJsonString(builder, group.mStackTrace);
+            builder.append('}');
+        }
+        builder.append("]}");
+        return builder.toString();
+    }
+
+    private static void appendJsonString(StringBuilder builder, String value) {
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    builder.append("\\\"");
+                    break;
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        builder.append("\\u00").append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0x0F]);
+                    } else {
+                        builder.append(c);
+                    }
+            }
+        }
+        builder.append('"');
+    }
+
+    private static byte[] gzip(String json) throws IOException {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream(json.length() / 4 + 64);
+        GZIPOutputStream gzipStream = new GZIPOutputStream(byteStream);
+        try {
+            gzipStream.write(json.getBytes(CHARSET));
+        } finally {
+            gzipStream.close();
+        }
+        return byteStream.toByteArray();
+    }
+
+    /**
+     * 同一指纹的多次闪退
+     */
+    static class CrashGroup {
+
+        private final String mFingerprint;
+        private final String mStackTrace;
+        private final List<File> mFiles = new ArrayList<File>();
+        private long mFirstTimestamp = Long.MAX_VALUE;
+        private long mLastTimestamp = Long.MIN_VALUE;
+
+        CrashGroup(String fingerprint, String stackTrace) {
+            this.mFingerprint = fingerprint;
+            this.mStackTrace = stackTrace;
+        }
+
+        void add(File file, long timestamp) {
+            mFiles.add(file);
+            mFirstTimestamp = Math.min(mFirstTimestamp, timestamp);
+            mLastTimestamp = Math.max(mLastTimestamp, timestamp);
+        }
+
+        void deleteFiles() {
+            for (File file : mFiles) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * 上传方式，不同app和服务器的接口不一样，可以自行实现
+     */
+    public static interface Transport {
+        /**
+         * 上传一批闪退信息
+         *
+         * @param gzipBody gzip压缩后的JSON
+         * @return 上传成功返回true；服务器明确拒绝（重试也不会成功）返回false，这一批会被丢弃
+         * @throws IOException 网络错误或服务器暂时不可用，会按退避策略重试
+         */
+        public boolean send(byte[] gzipBody) throws IOException;
+    }
+
+    /**
+     * 通过HTTP POST上传，请求头带有Content-Encoding: gzip
+     * <p/>
+     * 2xx表示成功，4xx表示拒绝，408、429和其他状态码按暂时失败处理
+     */
+    public static class HttpTransport implements Transport {
+
+        private final static int TIMEOUT = 15 * 1000;
+        private final static int HTTP_REQUEST_TIMEOUT = 408;
+        private final static int HTTP_TOO_MANY_REQUESTS = 429;
+
+        private final URL mUrl;
+
+        public HttpTransport(URL url) {
+            this.mUrl = url;
+        }
+
+        @Override
+        public boolean send(byte[] gzipBody) throws IOException {
+            HttpURLConnection connection = (HttpURLConnection) mUrl.openConnection();
+            try {
+                connection.setConnectTimeout(TIMEOUT);
+                connection.setReadTimeout(TIMEOUT);
+                connection.setDoOutput(true);
+                connection.setRequestMethod("POST");
+                connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+                connection.setRequestProperty("Content-Encoding", "gzip");
+                connection.setFixedLengthStreamingMode(gzipBody.length);
+                OutputStream outputStream = connection.getOutputStream();
+                try {
+                    outputStream.write(gzipBody);
+                } finally {
+                    outputStream.close();
+                }
+                int responseCode = connection.getResponseCode();
+                drain(responseCode < 400 ? connection.getInputStream() : connection.getErrorStream());
+                if (responseCode >= 200 && responseCode < 300) {
+                    return true;
+                }
+                if (responseCode >= 400 && responseCode < 500
+                        && responseCode != HTTP_REQUEST_TIMEOUT && responseCode != HTTP_TOO_MANY_REQUESTS) {
+                    return false;
+                }
+                throw new IOException("unexpected response code: " + responseCode);
+            } finally {
+                connection.disconnect();
+            }
+        }
+
+        /**
+         * 读完响应内容，让连接可以被复用
+         *
+         * @param inputStream
+         */
+        private static void drain(InputStream inputStream) {
+            if (inputStream == null) {
+                return;
+            }
+            try {
+                byte[] buffer = new byte[1024];
+                while (inputStream.read(buffer) != -1) {
+                }
+                inputStream.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
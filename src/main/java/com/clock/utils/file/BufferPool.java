@@ -0,0 +1,92 @@
+package com.clock.utils.file;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+
+/**
+ * 可复用的ByteBuffer池，避免大量读写时频繁分配缓冲区
+ * <p/>
+ * 使用直接缓冲区，通过Channel读写时不需要再在Java堆和本地内存之间复制数据
+ * <p/>
+ * Created by Clock on 2016/3/18.
+ */
+public class BufferPool {
+
+    /**
+     * 默认缓冲区大小
+     */
+    public final static int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private final static int DEFAULT_MAX_POOLED = 4;
+
+    private static BufferPool sDefault;
+
+    private final int mBufferSize;
+    private final int mMaxPooled;
+    private final LinkedList<ByteBuffer> mBuffers = new LinkedList<ByteBuffer>();
+
+    /**
+     * @param bufferSize 每个缓冲区的大小
+     * @param maxPooled  池中最多保留的缓冲区个数
+     */
+    public BufferPool(int bufferSize, int maxPooled) {
+        if (bufferSize <= 0 || maxPooled < 0) {
+            throw new IllegalArgumentException("bufferSize must be positive and maxPooled must not be negative");
+        }
+        this.mBufferSize = bufferSize;
+        this.mMaxPooled = maxPooled;
+    }
+
+    /**
+     * @return FileUtils默认使用的缓冲池
+     */
+    public static synchronized BufferPool getDefault() {
+        if (sDefault == null) {
+            sDefault = new BufferPool(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED);
+        }
+        return sDefault;
+    }
+
+    /**
+     * 取出一个已经clear的缓冲区，池为空时新建
+     *
+     * @return
+     */
+    public ByteBuffer acquire() {
+        synchronized (mBuffers) {
+            if (!mBuffers.isEmpty()) {
+                return mBuffers.removeFirst();
+            }
+        }
+        return ByteBuffer.allocateDirect(mBufferSize);
+    }
+
+    /**
+     * 归还缓冲区，归还后不能再使用
+     *
+     * @param buffer
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() != mBufferSize || !buffer.isDirect()) {
+            return;
+        }
+        buffer.clear();
+        synchronized (mBuffers) {
+            if (mBuffers.size() < mMaxPooled) {
+                mBuffers.addFirst(buffer);
+            }
+        }
+    }
+
+    public int getBufferSize() {
+        return mBufferSize;
+    }
+
+    /**
+     * 释放池中所有的缓冲区
+     */
+    public void clear() {
+        synchronized (mBuffers) {
+            mBuffers.clear();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.clock.utils.file;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 以文件路径为键的持久化索引，每一项记录文件的大小和修改时间，用于增量扫描时判断文件是否变化
+ * <p/>
+ * 格式：magic、version、数量，每一项为路径、大小、修改时间和{@link EntryCodec}写入的内容；整个文件原子写入
+ * <p/>
+ * Created by Clock on 2016/3/27.
+ */
+public class FileIndex<T extends FileIndex.Entry> {
+
+    private final File mFile;
+    private final int mMagic;
+    private final int mVersion;
+    private final EntryCodec<T> mEntryCodec;
+
+    /**
+     * @param file       索引文件
+     * @param magic      文件标识
+     * @param version    格式版本，不一致时当作没有索引
+     * @param entryCodec 读写每一项的附加内容
+     */
+    public FileIndex(File file, int magic, int version, EntryCodec<T> entryCodec) {
+        this.mFile = file;
+        this.mMagic = magic;
+        this.mVersion = version;
+        this.mEntryCodec = entryCodec;
+    }
+
+    /**
+     * 读取索引，索引损坏时返回已经读到的部分
+     *
+     * @return 路径到索引项的映射
+     */
+    public Map<String, T> read() {
+        Map<String, T> index = new HashMap<String, T>();
+        if (!mFile.exists()) {
+            return index;
+        }
+        DataInputStream inputStream = null;
+        try {
+            inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile), BufferPool.DEFAULT_BUFFER_SIZE));
+            if (inputStream.readInt() != mMagic || inputStream.readInt() != mVersion) {
+                return index;
+            }
+            int size = inputStream.readInt();
+            for (int i = 0; i < size; i++) {
+                String path = inputStream.readUTF();
+                long length = inputStream.readLong();
+                long lastModified = inputStream.readLong();
+                index.put(path, mEntryCodec.read(inputStream, path, length, lastModified));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();//其余文件重新读取
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * 原子地写入索引
+     *
+     * @param entries
+     * @throws IOException
+     */
+    public void write(final Collection<T> entries) throws IOException {
+        FileUtils.writeAtomically(mFile, new FileUtils.StreamWriter() {
+            @Override
+            public void writeTo(OutputStream outputStream) throws IOException {
+                DataOutputStream dataOutputStream = new DataOutputStream(new BufferedOutputStream(outputStream, BufferPool.DEFAULT_BUFFER_SIZE));
+                dataOutputStream.writeInt(mMagic);
+                dataOutputStream.writeInt(mVersion);
+                dataOutputStream.writeInt(entries.size());
+                for (T entry : entries) {
+                    dataOutputStream.writeUTF(entry.getPath());
+                    dataOutputStream.writeLong(entry.getSize());
+                    dataOutputStream.writeLong(entry.getLastModified());
+                    mEntryCodec.write(dataOutputStream, entry);
+                }
+                dataOutputStream.flush();
+            }
+        });
+    }
+
+    /**
+     * 索引中的一项
+     */
+    public static class Entry {
+
+        private final String mPath;
+        private final long mSize;
+        private final long mLastModified;
+
+        protected Entry(String path, long size, long lastModified) {
+            this.mPath = path;
+            this.mSize = size;
+            this.mLastModified = lastModified;
+        }
+
+        public String getPath() {
+            return mPath;
+        }
+
+        public long getSize() {
+            return mSize;
+        }
+
+        public long getLastModified() {
+            return mLastModified;
+        }
+
+        /**
+         * @param size
+         * @param lastModified
+         * @return 文件的大小和修改时间都没有变化时返回true
+         */
+        public boolean isUnchanged(long size, long lastModified) {
+            return mSize == size && mLastModified == lastModified;
+        }
+    }
+
+    /**
+     * 读写索引项中路径、大小和修改时间之外的内容
+     */
+    public static interface EntryCodec<T extends Entry> {
+
+        public T read(DataInputStream inputStream, String path, long size, long lastModified) throws IOException;
+
+        public void write(DataOutputStream outputStream, T entry) throws IOException;
+    }
+}
@@ -1,8 +1,439 @@
 package com.clock.utils.file;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedList;
+
 /**
  * 文件操作常用工具类
+ * <p/>
+ * 1.文件复制通过FileChannel.transferTo完成，数据不经过Java堆
+ * <p/>
+ * 2.复制、移动、写入都先在同一目录下写一个唯一命名的临时文件再重命名，目标文件要么是旧内容要么是完整的新内容，同时写入也不会互相覆盖
+ * <p/>
+ * 3.耗时操作可以传入{@link OnProgressListener}获取进度，返回false取消操作，此时抛出InterruptedIOException
+ * <p/>
+ * 4.文件流之间的复制使用{@link BufferPool}中复用的直接缓冲区，其他流使用普通的byte数组
+ * <p/>
  * Created by Clock on 2015/12/31.
  */
 public class FileUtils {
+
+    private final static String TEMP_SUFFIX = ".tmp";
+    /**
+     * 每次transferTo的最大字节数，决定了进度回调和检查取消的粒度
+     */
+    private final static long TRANSFER_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    private FileUtils() {
+    }
+
+    /**
+     * 复制文件
+     *
+     * @param srcFile
+     * @param destFile 已经存在时会被覆盖
+     * @throws IOException
+     */
+    public static void copyFile(File srcFile, File destFile) throws IOException {
+        copyFile(srcFile, destFile, null);
+    }
+
+    /**
+     * 复制文件，保留最后修改时间
+     *
+     * @param srcFile
+     * @param destFile 已经存在时会被覆盖
+     * @param listener 可以为null
+     * @throws IOException
+     */
+    public static void copyFile(File srcFile, File destFile, OnProgressListener listener) throws IOException {
+        long total = srcFile.length();
+        copyFile(srcFile, destFile, listener, new long[]{0}, total);
+    }
+
+    private static void copyFile(File srcFile, File destFile, OnProgressListener listener, long[] progress, long total) throws IOException {
+        if (!srcFile.isFile()) {
+            throw new FileNotFoundException(srcFile + " is not a file");
+        }
+        if (srcFile.getCanonicalPath().equals(destFile.getCanonicalPath())) {
+            throw new IOException("source and destination are the same file: " + srcFile);
+        }
+        ensureParent(destFile);
+        FileInputStream inputStream = new FileInputStream(srcFile);
+        File tempFile = null;
+        boolean success = false;
+        try {
+            tempFile = createTempFile(destFile);
+            FileOutputStream outputStream = new FileOutputStream(tempFile);
+            try {
+                FileChannel srcChannel = inputStream.getChannel();
+                FileChannel destChannel = outputStream.getChannel();
+                long size = srcChannel.size();
+                long position = 0;
+                while (position < size) {
+                    long transferred = srcChannel.transferTo(position, Math.min(TRANSFER_CHUNK_SIZE, size - position), destChannel);
+                    if (transferred <= 0) {
+                        break;//文件在复制过程中被截短
+                    }
+                    position += transferred;
+                    progress[0] += transferred;
+                    notifyProgress(listener, progress[0], total);
+                }
+                outputStream.getFD().sync();
+            } finally {
+                outputStream.close();
+            }
+            success = true;
+        } finally {
+            inputStream.close();
+            if (!success && tempFile != null) {
+                tempFile.delete();
+            }
+        }
+        renameTemp(tempFile, destFile);
+        destFile.setLastModified(srcFile.lastModified());
+    }
+
+    /**
+     * 移动文件，同一个分区内直接重命名，否则复制后删除源文件
+     *
+     * @param srcFile
+     * @param destFile 已经存在时会被覆盖
+     * @param listener 可以为null
+     * @throws IOException
+     */
+    public static void moveFile(File srcFile, File destFile, OnProgressListener listener) throws IOException {
+        if (!srcFile.isFile()) {
+            throw new FileNotFoundException(srcFile + " is not a file");
+        }
+        ensureParent(destFile);
+        if (srcFile.renameTo(destFile)) {
+            notifyProgress(listener, destFile.length(), destFile.length());
+            return;
+        }
+        copyFile(srcFile, destFile, listener);
+        if (!srcFile.delete()) {
+            throw new IOException("delete failure: " + srcFile);
+        }
+    }
+
+    /**
+     * 递归复制目录
+     *
+     * @param srcDir
+     * @param destDir  不存在时自动创建，已有的同名文件会被覆盖
+     * @param listener 进度按所有文件的总字节数计算，可以为null
+     * @throws IOException
+     */
+    public static void copyDirectory(File srcDir, File destDir, OnProgressListener listener) throws IOException {
+        if (!srcDir.isDirectory()) {
+            throw new FileNotFoundException(srcDir + " is not a directory");
+        }
+        String srcPath = srcDir.getCanonicalPath() + File.separator;
+        if ((destDir.getCanonicalPath() + File.separator).startsWith(srcPath)) {
+            throw new IOException("cannot copy a directory into itself: " + srcDir);
+        }
+        long total = listener == null ? 0 : getSize(srcDir);
+        copyDirectory(srcDir, destDir, listener, new long[]{0}, total);
+    }
+
+    private static void copyDirectory(File srcDir, File destDir, OnProgressListener listener, long[] progress, long total) throws IOException {
+        if (!destDir.isDirectory() && !destDir.mkdirs()) {
+            throw new IOException("mkdirs failure: " + destDir);
+        }
+        File[] children = srcDir.listFiles();
+        if (children == null) {
+            throw new IOException("list failure: " + srcDir);
+        }
+        for (File child : children) {
+            File destChild = new File(destDir, child.getName());
+            if (child.isDirectory()) {
+                copyDirectory(child, destChild, listener, progress, total);
+            } else {
+                copyFile(child, destChild, listener, progress, total);
+            }
+        }
+        destDir.setLastModified(srcDir.lastModified());
+    }
+
+    /**
+     * 递归删除文件或目录
+     *
+     * @param file
+     * @return 全部删除成功或者文件本来就不存在时返回true
+     */
+    public static boolean delete(File file) {
+        if (!file.exists()) {
+            return true;
+        }
+        boolean success = true;
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    success &= delete(child);
+                }
+            }
+        }
+        return file.delete() && success;
+    }
+
+    /**
+     * 计算文件或目录的总大小
+     *
+     * @param file
+     * @return 字节数
+     */
+    public static long getSize(File file) {
+        long size = 0;
+        LinkedList<File> pending = new LinkedList<File>();
+        pending.add(file);
+        while (!pending.isEmpty()) {
+            File current = pending.removeFirst();
+            if (current.isDirectory()) {
+                File[] children = current.listFiles();
+                if (children != null) {
+                    for (File child : children) {
+                        pending.add(child);
+                    }
+                }
+            } else {
+                size += current.length();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 以只读方式把文件映射到内存，映射在缓冲区被回收前一直有效，文件可以立即关闭
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static MappedByteBuffer map(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * 读取整个文件，直接读入结果数组，不经过额外的缓冲区
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static byte[] readBytes(File file) throws IOException {
+        long length = file.length();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("file too large: " + file);
+        }
+        byte[] bytes = new byte[(int) length];
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < bytes.length) {
+                int count = inputStream.read(bytes, offset, bytes.length - offset);
+                if (count < 0) {
+                    throw new IOException("unexpected end of file: " + file);
+                }
+                offset += count;
+            }
+        } finally {
+            inputStream.close();
+        }
+        return bytes;
+    }
+
+    /**
+     * 读取整个文本文件
+     *
+     * @param file
+     * @param charsetName 例如"UTF-8"
+     * @return
+     * @throws IOException
+     */
+    public static String readText(File file, String charsetName) throws IOException {
+        return new String(readBytes(file), charsetName);
+    }
+
+    /**
+     * 原子地写入文件：先写临时文件并同步到存储设备，再重命名为目标文件
+     *
+     * @param file
+     * @param data
+     * @throws IOException
+     */
+    public static void writeAtomically(File file, final byte[] data) throws IOException {
+        writeAtomically(file, new StreamWriter() {
+            @Override
+            public void writeTo(OutputStream outputStream) throws IOException {
+                outputStream.write(data);
+            }
+        });
+    }
+
+    /**
+     * 原子地写入文本文件
+     *
+     * @param file
+     * @param text
+     * @param charsetName 例如"UTF-8"
+     * @throws IOException
+     */
+    public static void writeAtomically(File file, String text, String charsetName) throws IOException {
+        writeAtomically(file, text.getBytes(charsetName));
+    }
+
+    /**
+     * 原子地写入文件，写入过程中出错时目标文件保持不变
+     *
+     * @param file
+     * @param writer 负责写入内容，不需要关闭输出流
+     * @throws IOException
+     */
+    public static void writeAtomically(File file, StreamWriter writer) throws IOException {
+        ensureParent(file);
+        File tempFile = createTempFile(file);
+        FileOutputStream outputStream;
+        try {
+            outputStream = new FileOutputStream(tempFile);
+        } catch (IOException e) {
+            tempFile.delete();
+            throw e;
+        }
+        boolean success = false;
+        try {
+            writer.writeTo(outputStream);
+            outputStream.flush();
+            outputStream.getFD().sync();
+            success = true;
+        } finally {
+            outputStream.close();
+            if (!success) {
+                tempFile.delete();
+            }
+        }
+        renameTemp(tempFile, file);
+    }
+
+    /**
+     * 复制流的剩余内容，不会关闭流
+     * <p/>
+     * 两端都是文件流时通过FileChannel和{@link BufferPool}中的直接缓冲区复制，
+     * 否则使用普通的byte数组，避免Channels.newChannel包装后在直接缓冲区和byte数组之间多复制一次
+     *
+     * @param inputStream
+     * @param outputStream
+     * @param total        总字节数，只用于进度回调，未知时传-1
+     * @param listener     可以为null
+     * @return 复制的字节数
+     * @throws IOException
+     */
+    public static long copyStream(InputStream inputStream, OutputStream outputStream, long total, OnProgressListener listener) throws IOException {
+        if (!(inputStream instanceof FileInputStream) || !(outputStream instanceof FileOutputStream)) {
+            byte[] buffer = new byte[BufferPool.DEFAULT_BUFFER_SIZE];
+            long copied = 0;
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, count);
+                copied += count;
+                notifyProgress(listener, copied, total);
+            }
+            return copied;
+        }
+        FileChannel readChannel = ((FileInputStream) inputStream).getChannel();
+        FileChannel writeChannel = ((FileOutputStream) outputStream).getChannel();
+        BufferPool bufferPool = BufferPool.getDefault();
+        ByteBuffer buffer = bufferPool.acquire();
+        long copied = 0;
+        try {
+            while (readChannel.read(buffer) != -1) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    copied += writeChannel.write(buffer);
+                }
+                buffer.clear();
+                notifyProgress(listener, copied, total);
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
+        return copied;
+    }
+
+    private static void notifyProgress(OnProgressListener listener, long current, long total) throws InterruptedIOException {
+        if (listener != null && !listener.onProgress(current, total)) {
+            throw new InterruptedIOException("operation canceled");
+        }
+    }
+
+    private static void ensureParent(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("mkdirs failure: " + parent);
+        }
+    }
+
+    /**
+     * 在目标文件所在目录下创建唯一命名的临时文件，不会覆盖已有文件，多个线程同时写同一个目标文件时也互不影响
+     *
+     * @param destFile
+     * @return
+     * @throws IOException
+     */
+    private static File createTempFile(File destFile) throws IOException {
+        File parent = destFile.getAbsoluteFile().getParentFile();
+        return File.createTempFile("." + destFile.getName() + ".", TEMP_SUFFIX, parent);
+    }
+
+    private static void renameTemp(File tempFile, File destFile) throws IOException {
+        if (!tempFile.renameTo(destFile)) {
+            //部分文件系统不允许重命名覆盖已有文件
+            destFile.delete();
+            if (!tempFile.renameTo(destFile)) {
+                tempFile.delete();
+                throw new IOException("rename failure: " + tempFile + " -> " + destFile);
+            }
+        }
+    }
+
+    /**
+     * 进度回调，在执行操作的线程中调用
+     */
+    public static interface OnProgressListener {
+        /**
+         * @param current 已经处理的字节数
+         * @param total   总字节数，未知时为-1
+         * @return 返回false取消操作
+         */
+        public boolean onProgress(long current, long total);
+    }
+
+    /**
+     * 向输出流写入内容
+     */
+    public static interface StreamWriter {
+        /**
+         * @param outputStream
+         * @throws IOException
+         */
+        public void writeTo(OutputStream outputStream) throws IOException;
+    }
 }
@@ -0,0 +1,367 @@
+package com.clock.utils.file;
+
+import com.clock.utils.bitmap.BitmapUtils;
+import com.clock.utils.common.BackgroundBatch;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 多线程图片扫描器，扫描结果保存为持久化索引
+ * <p/>
+ * 1.每个目录是一个任务，子目录作为新任务提交到线程池，多个线程同时遍历目录和读取图片信息
+ * <p/>
+ * 2.索引保存路径、文件大小、修改时间、宽高和旋转角度；再次扫描时只重新读取大小或修改时间变化了的文件
+ * <p/>
+ * 3.跳过隐藏目录和包含.nomedia文件的目录，与系统媒体扫描的规则一致
+ * <p/>
+ * Created by Clock on 2016/3/19.
+ */
+public class ImageScanner {
+
+    private final static int INDEX_MAGIC = 0x494D4758;//IMGX
+    private final static int INDEX_VERSION = 1;
+    private final static String NO_MEDIA = ".nomedia";
+    private final static String[] IMAGE_SUFFIXES = {".jpg", ".jpeg", ".png", ".webp", ".gif", ".bmp"};
+
+    private final FileIndex<ImageInfo> mIndex;
+    private final int mThreadCount;
+    private ImageInfoReader mImageInfoReader = new DefaultImageInfoReader();
+    private volatile BackgroundBatch mBatch;
+
+    /**
+     * @param indexFile 索引文件
+     */
+    public ImageScanner(File indexFile) {
+        this(indexFile, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param indexFile   索引文件
+     * @param threadCount 扫描线程数
+     */
+    public ImageScanner(File indexFile, int threadCount) {
+        this.mIndex = new FileIndex<ImageInfo>(indexFile, INDEX_MAGIC, INDEX_VERSION, new ImageInfoCodec());
+        this.mThreadCount = Math.max(1, threadCount);
+    }
+
+    /**
+     * 配置读取图片宽高和旋转角度的方式，默认使用{@link BitmapUtils#decodeBoundsAndDegree(String, int[])}
+     *
+     * @param imageInfoReader
+     */
+    public void configImageInfoReader(ImageInfoReader imageInfoReader) {
+        this.mImageInfoReader = imageInfoReader;
+    }
+
+    /**
+     * 取消正在进行的扫描，被取消的扫描不会更新索引
+     */
+    public void cancel() {
+        BackgroundBatch batch = mBatch;
+        if (batch != null) {
+            batch.cancel();
+        }
+    }
+
+    /**
+     * 读取上一次扫描保存的索引，不扫描文件
+     *
+     * @return 按修改时间从新到旧排序
+     */
+    public List<ImageInfo> loadIndex() {
+        return sortByLastModified(mIndex.read().values());
+    }
+
+    /**
+     * 扫描目录并更新索引，会阻塞当前线程，不要在主线程中调用
+     *
+     * @param roots 需要扫描的目录
+     * @return 扫描结果，被取消时返回null
+     * @throws IOException 索引写入失败
+     */
+    public ScanResult scan(Collection<File> roots) throws IOException {
+        final Map<String, ImageInfo> previous = mIndex.read();
+        final Map<String, ImageInfo> current = new ConcurrentHashMap<String, ImageInfo>();
+        final AtomicInteger readCount = new AtomicInteger();
+        final AtomicInteger reusedCount = new AtomicInteger();
+        final BackgroundBatch batch = new BackgroundBatch("ImageScanner", mThreadCount);
+        mBatch = batch;
+        long startTime = System.currentTimeMillis();
+        DirectoryTask.Callback callback = new DirectoryTask.Callback() {
+            @Override
+            public void submit(File directory) {
+                batch.execute(new DirectoryTask(directory, this));
+            }
+
+            @Override
+            public void onImageFile(File file) {
+                String path = file.getAbsolutePath();
+                long length = file.length();
+                long lastModified = file.lastModified();
+                ImageInfo info = previous.get(path);
+                if (info == null || !info.isUnchanged(length, lastModified)) {
+                    info = readImageInfo(path, length, lastModified);
+                    readCount.incrementAndGet();
+                } else {
+                    reusedCount.incrementAndGet();
+                }
+                if (info != null) {
+                    current.put(path, info);
+                }
+            }
+
+            @Override
+            public boolean isCanceled() {
+                return batch.isCanceled();
+            }
+        };
+        for (File root : roots) {
+            if (root.isDirectory()) {
+                callback.submit(root);
+            }
+        }
+        if (!batch.await()) {
+            return null;
+        }
+
+        int removedCount = 0;
+        for (String path : previous.keySet()) {
+            if (!current.containsKey(path)) {
+                removedCount++;
+            }
+        }
+        mIndex.write(current.values());
+        List<ImageInfo> images = sortByLastModified(current.values());
+        return new ScanResult(images, readCount.get(), reusedCount.get(), removedCount,
+                System.currentTimeMillis() - startTime);
+    }
+
+    private ImageInfo readImageInfo(String path, long length, long lastModified) {
+        int[] out = new int[3];
+        try {
+            if (!mImageInfoReader.read(path, out)) {
+                return null;
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
+        return new ImageInfo(path, length, lastModified, out[0], out[1], out[2]);
+    }
+
+    private static List<ImageInfo> sortByLastModified(Collection<ImageInfo> infos) {
+        List<ImageInfo> list = new ArrayList<ImageInfo>(infos);
+        Collections.sort(list, new Comparator<ImageInfo>() {
+            @Override
+            public int compare(ImageInfo lhs, ImageInfo rhs) {
+                if (lhs.getLastModified() != rhs.getLastModified()) {
+                    return lhs.getLastModified() > rhs.getLastModified() ? -1 : 1;
+                }
+                return lhs.getPath().compareTo(rhs.getPath());
+            }
+        });
+        return list;
+    }
+
+    static boolean isImageFile(String fileName) {
+        String lowerCaseName = fileName.toLowerCase(Locale.US);
+        for (String suffix : IMAGE_SUFFIXES) {
+            if (lowerCaseName.endsWith(suffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 遍历一个目录的任务
+     */
+    private static class DirectoryTask implements Runnable {
+
+        private final File mDirectory;
+        private final Callback mCallback;
+
+        DirectoryTask(File directory, Callback callback) {
+            this.mDirectory = directory;
+            this.mCallback = callback;
+        }
+
+        @Override
+        public void run() {
+            File[] children = mDirectory.listFiles();
+            if (children == null) {
+                return;
+            }
+            for (File child : children) {
+                if (NO_MEDIA.equals(child.getName())) {
+                    return;
+                }
+            }
+            for (File child : children) {
+                if (mCallback.isCanceled()) {
+                    return;
+                }
+                String name = child.getName();
+                if (name.startsWith(".")) {
+                    continue;
+                }
+                if (child.isDirectory()) {
+                    mCallback.submit(child);
+                } else if (isImageFile(name)) {
+                    mCallback.onImageFile(child);
+                }
+            }
+        }
+
+        interface Callback {
+
+            void submit(File directory);
+
+            void onImageFile(File file);
+
+            boolean isCanceled();
+        }
+    }
+
+    /**
+     * 索引中保存宽高和旋转角度
+     */
+    private static class ImageInfoCodec implements FileIndex.EntryCodec<ImageInfo> {
+
+        @Override
+        public ImageInfo read(DataInputStream inputStream, String path, long size, long lastModified) throws IOException {
+            return new ImageInfo(path, size, lastModified, inputStream.readInt(), inputStream.readInt(), inputStream.readShort());
+        }
+
+        @Override
+        public void write(DataOutputStream outputStream, ImageInfo info) throws IOException {
+            outputStream.writeInt(info.mWidth);
+            outputStream.writeInt(info.mHeight);
+            outputStream.writeShort(info.mDegree);
+        }
+    }
+
+    private static class DefaultImageInfoReader implements ImageInfoReader {
+        @Override
+        public boolean read(String path, int[] out) {
+            return BitmapUtils.decodeBoundsAndDegree(path, out);
+        }
+    }
+
+    /**
+     * 读取图片的宽高和旋转角度，会在多个扫描线程中同时调用
+     */
+    public static interface ImageInfoReader {
+        /**
+         * @param path
+         * @param out  保存结果{宽, 高, 旋转角度}
+         * @return 不是有效的图片时返回false
+         */
+        public boolean read(String path, int[] out);
+    }
+
+    /**
+     * 一张图片的索引信息
+     */
+    public static class ImageInfo extends FileIndex.Entry {
+
+        private final int mWidth;
+        private final int mHeight;
+        private final int mDegree;
+
+        ImageInfo(String path, long size, long lastModified, int width, int height, int degree) {
+            super(path, size, lastModified);
+            this.mWidth = width;
+            this.mHeight = height;
+            this.mDegree = degree;
+        }
+
+        /**
+         * @return 旋转前的宽度
+         */
+        public int getWidth() {
+            return mWidth;
+        }
+
+        /**
+         * @return 旋转前的高度
+         */
+        public int getHeight() {
+            return mHeight;
+        }
+
+        /**
+         * @return 旋转角度：0、90、180或270
+         */
+        public int getDegree() {
+            return mDegree;
+        }
+    }
+
+    /**
+     * 一次扫描的结果
+     */
+    public static class ScanResult {
+
+        private final List<ImageInfo> mImages;
+        private final int mReadCount;
+        private final int mReusedCount;
+        private final int mRemovedCount;
+        private final long mElapsedTime;
+
+        ScanResult(List<ImageInfo> images, int readCount, int reusedCount, int removedCount, long elapsedTime) {
+            this.mImages = images;
+            this.mReadCount = readCount;
+            this.mReusedCount = reusedCount;
+            this.mRemovedCount = removedCount;
+            this.mElapsedTime = elapsedTime;
+        }
+
+        /**
+         * @return 按修改时间从新到旧排序
+         */
+        public List<ImageInfo> getImages() {
+            return mImages;
+        }
+
+        /**
+         * @return 本次重新读取了图片信息的文件数
+         */
+        public int getReadCount() {
+            return mReadCount;
+        }
+
+        /**
+         * @return 直接使用索引中信息的文件数
+         */
+        public int getReusedCount() {
+            return mReusedCount;
+        }
+
+        /**
+         * @return 索引中已经不存在的文件数
+         */
+        public int getRemovedCount() {
+            return mRemovedCount;
+        }
+
+        /**
+         * @return 扫描耗时（毫秒）
+         */
+        public long getElapsedTime() {
+            return mElapsedTime;
+        }
+    }
+}
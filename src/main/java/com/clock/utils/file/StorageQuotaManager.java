@@ -0,0 +1,368 @@
+package com.clock.utils.file;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.StatFs;
+import android.os.SystemClock;
+
+import com.clock.utils.common.BackgroundThreadFactory;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 存储空间配额管理器
+ * <p/>
+ * 1.为库自己使用的目录（例如图片导出目录）设置配额，记录每个目录已经占用的字节数
+ * <p/>
+ * 2.超过配额或者剩余空间低于{@link #configMinFreeSpace(long)}时，在后台线程中按最近使用时间从旧到新删除文件，
+ * 一直删到配额的{@link #TRIM_TARGET_PERCENT}%，避免每写一个文件就清理一次；读取文件时可以调用{@link #touch(File)}标记为最近使用
+ * <p/>
+ * 3.剩余空间通过StatFs获取，并缓存{@link #FREE_SPACE_CACHE_MILLIS}毫秒
+ * <p/>
+ * 使用方式：
+ * <pre>
+ * StorageQuotaManager.getDefault().registerFolder(folder, 50 * 1024 * 1024, null);
+ * </pre>
+ * BitmapExporter保存成功后会自动通知默认实例。闪退日志目录由{@link com.clock.utils.crash.CrashIndex}自己清理，不要登记到这里，
+ * 否则删除的日志文件仍然会被索引引用
+ * <p/>
+ * Created by Clock on 2016/3/20.
+ */
+public class StorageQuotaManager {
+
+    public final static int TRIM_TARGET_PERCENT = 90;
+    public final static long FREE_SPACE_CACHE_MILLIS = 5000;
+
+    private static StorageQuotaManager sDefault;
+
+    private final List<Folder> mFolders = new ArrayList<Folder>();
+    private final ExecutorService mExecutor;
+    private volatile long mMinFreeSpace = 0;
+
+    private final Object mFreeSpaceLock = new Object();
+    private String mFreeSpacePath;
+    private long mFreeSpace;
+    private long mFreeSpaceTime;
+
+    public StorageQuotaManager() {
+        mExecutor = Executors.newSingleThreadExecutor(new BackgroundThreadFactory("StorageQuotaManager"));
+    }
+
+    /**
+     * @return 默认实例，库内部保存文件后会通知这个实例
+     */
+    public static synchronized StorageQuotaManager getDefault() {
+        if (sDefault == null) {
+            sDefault = new StorageQuotaManager();
+        }
+        return sDefault;
+    }
+
+    /**
+     * 配置需要保留的最小剩余空间，剩余空间不足时即使没有超过配额也会清理，默认为0（不检查）
+     *
+     * @param minFreeSpace 字节数
+     */
+    public void configMinFreeSpace(long minFreeSpace) {
+        this.mMinFreeSpace = minFreeSpace;
+    }
+
+    /**
+     * 登记一个需要管理的目录，在后台线程中统计已经占用的空间，超过配额时立即清理
+     *
+     * @param folder
+     * @param quota      配额（字节）
+     * @param trimFilter 返回false的文件不会被清理（例如索引文件），可以为null
+     */
+    public void registerFolder(File folder, long quota, FileFilter trimFilter) {
+        final Folder managedFolder = new Folder(folder.getAbsoluteFile(), quota, trimFilter);
+        synchronized (mFolders) {
+            for (int i = 0; i < mFolders.size(); i++) {
+                if (mFolders.get(i).mPath.equals(managedFolder.mPath)) {
+                    mFolders.remove(i);
+                    break;
+                }
+            }
+            mFolders.add(managedFolder);
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                managedFolder.mUsage.set(FileUtils.getSize(managedFolder.mFolder));
+                managedFolder.mInitialized = true;
+                trimIfNeeded(managedFolder);
+            }
+        });
+    }
+
+    public void unregisterFolder(File folder) {
+        String path = folder.getAbsolutePath();
+        synchronized (mFolders) {
+            for (int i = 0; i < mFolders.size(); i++) {
+                if (mFolders.get(i).mPath.equals(path)) {
+                    mFolders.remove(i);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 通知有新文件写入，文件不在登记的目录中时忽略
+     *
+     * @param file
+     */
+    public void notifyFileAdded(File file) {
+        final Folder folder = findFolder(file);
+        if (folder == null) {
+            return;
+        }
+        long usage = folder.mUsage.addAndGet(file.length());
+        if (folder.mInitialized && needTrim(folder, usage) && !folder.mTrimScheduled) {
+            folder.mTrimScheduled = true;
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    folder.mTrimScheduled = false;
+                    trimIfNeeded(folder);
+                }
+            });
+        }
+    }
+
+    /**
+     * 标记文件最近被使用过，清理时会更晚被删除
+     * <p/>
+     * 很多Android外部存储的文件系统不支持setLastModified（调用无效或者返回false），所以使用时间同时记录在内存中，
+     * 进程重启后只能按照最后修改时间清理
+     *
+     * @param file
+     */
+    public void touch(File file) {
+        long now = System.currentTimeMillis();
+        Folder folder = findFolder(file);
+        if (folder != null) {
+            synchronized (folder.mAccessTimes) {
+                folder.mAccessTimes.put(file.getAbsolutePath(), now);
+            }
+        }
+        file.setLastModified(now);
+    }
+
+    /**
+     * @param folder 登记过的目录
+     * @return 已经占用的字节数，还没统计完或者没有登记时返回-1
+     */
+    public long getUsage(File folder) {
+        Folder managedFolder = findFolder(folder);
+        if (managedFolder == null || !managedFolder.mInitialized) {
+            return -1;
+        }
+        return managedFolder.mUsage.get();
+    }
+
+    /**
+     * 获取path所在分区的可用空间，同一路径在{@link #FREE_SPACE_CACHE_MILLIS}毫秒内直接返回缓存值
+     *
+     * @param path
+     * @return 字节数
+     */
+    public long getFreeSpace(File path) {
+        String absolutePath = path.getAbsolutePath();
+        long now = SystemClock.elapsedRealtime();
+        synchronized (mFreeSpaceLock) {
+            if (absolutePath.equals(mFreeSpacePath) && now - mFreeSpaceTime < FREE_SPACE_CACHE_MILLIS) {
+                return mFreeSpace;
+            }
+        }
+        long freeSpace = queryFreeSpace(absolutePath);
+        synchronized (mFreeSpaceLock) {
+            mFreeSpacePath = absolutePath;
+            mFreeSpace = freeSpace;
+            mFreeSpaceTime = now;
+        }
+        return freeSpace;
+    }
+
+    /**
+     * 立即在后台线程中检查并清理所有登记的目录
+     */
+    public void trimAll() {
+        final List<Folder> folders;
+        synchronized (mFolders) {
+            folders = new ArrayList<Folder>(mFolders);
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (Folder folder : folders) {
+                    trimIfNeeded(folder);
+                }
+            }
+        });
+    }
+
+    private Folder findFolder(File file) {
+        String path = file.getAbsolutePath();
+        synchronized (mFolders) {
+            for (Folder folder : mFolders) {
+                if (path.equals(folder.mPath) || path.startsWith(folder.mPathPrefix)) {
+                    return folder;
+                }
+            }
+        }
+        return null;
+    }
+
+    private boolean needTrim(Folder folder, long usage) {
+        if (usage > folder.mQuota) {
+            return true;
+        }
+        long minFreeSpace = mMinFreeSpace;
+        return minFreeSpace > 0 && folder.mFolder.exists() && getFreeSpace(folder.mFolder) < minFreeSpace;
+    }
+
+    /**
+     * 在后台线程中执行
+     *
+     * @param folder
+     */
+    private void trimIfNeeded(Folder folder) {
+        if (!needTrim(folder, folder.mUsage.get())) {
+            return;
+        }
+        long target = folder.mQuota / 100 * TRIM_TARGET_PERCENT;
+        long minFreeSpace = mMinFreeSpace;
+        if (minFreeSpace > 0) {
+            long deficit = minFreeSpace - queryFreeSpace(folder.mPath);
+            if (deficit > 0) {
+                target = Math.min(target, folder.mUsage.get() - deficit);
+            }
+        }
+        long usage = trim(folder.mFolder, Math.max(0, target), folder.mTrimFilter, folder.mAccessTimes);
+        folder.mUsage.set(usage);
+        synchronized (mFreeSpaceLock) {
+            mFreeSpaceTime = 0;//空间已经变化，缓存失效
+        }
+    }
+
+    /**
+     * 按最近使用时间从旧到新删除文件，直到目录占用不超过targetBytes
+     *
+     * @param folder
+     * @param targetBytes
+     * @param trimFilter  返回false的文件不会被删除，可以为null
+     * @param accessTimes 通过{@link #touch(File)}记录的使用时间，按绝对路径保存，比最后修改时间新时优先使用，删除的文件会被移除
+     * @return 清理后目录占用的字节数
+     */
+    static long trim(File folder, long targetBytes, FileFilter trimFilter, Map<String, Long> accessTimes) {
+        List<File> files = new ArrayList<File>();
+        long usage = 0;
+        LinkedList<File> pending = new LinkedList<File>();
+        pending.add(folder);
+        while (!pending.isEmpty()) {
+            File[] children = pending.removeFirst().listFiles();
+            if (children == null) {
+                continue;
+            }
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    pending.add(child);
+                } else {
+                    usage += child.length();
+                    if (trimFilter == null || trimFilter.accept(child)) {
+                        files.add(child);
+                    }
+                }
+            }
+        }
+        if (usage <= targetBytes) {
+            return usage;
+        }
+        final long[] lastModified = new long[files.size()];
+        List<Integer> order = new ArrayList<Integer>(files.size());
+        synchronized (accessTimes) {
+            for (int i = 0; i < files.size(); i++) {
+                lastModified[i] = files.get(i).lastModified();//只读取一次，排序过程中不再访问文件系统
+                Long accessTime = accessTimes.get(files.get(i).getAbsolutePath());
+                if (accessTime != null && accessTime > lastModified[i]) {
+                    lastModified[i] = accessTime;
+                }
+                order.add(i);
+            }
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                long l = lastModified[lhs];
+                long r = lastModified[rhs];
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < order.size() && usage > targetBytes; i++) {
+            File file = files.get(order.get(i));
+            long length = file.length();
+            if (file.delete()) {
+                usage -= length;
+                synchronized (accessTimes) {
+                    accessTimes.remove(file.getAbsolutePath());
+                }
+            }
+        }
+        return usage;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static long queryFreeSpace(String path) {
+        try {
+            StatFs statFs = new StatFs(path);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                return getAvailableBytes(statFs);
+            }
+            return (long) statFs.getAvailableBlocks() * statFs.getBlockSize();
+        } catch (IllegalArgumentException e) {
+            e.printStackTrace();//路径不存在
+            return 0;
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static long getAvailableBytes(StatFs statFs) {
+        return statFs.getAvailableBytes();
+    }
+
+    private static class Folder {
+
+        private final File mFolder;
+        private final String mPath;
+        private final String mPathPrefix;
+        private final long mQuota;
+        private final FileFilter mTrimFilter;
+        private final AtomicLong mUsage = new AtomicLong();
+        /**
+         * 通过{@link #touch(File)}记录的使用时间
+         */
+        private final Map<String, Long> mAccessTimes = new HashMap<String, Long>();
+        private volatile boolean mInitialized = false;
+        private volatile boolean mTrimScheduled = false;
+
+        Folder(File folder, long quota, FileFilter trimFilter) {
+            this.mFolder = folder;
+            this.mPath = folder.getPath();
+            this.mPathPrefix = mPath + File.separator;
+            this.mQuota = quota;
+            this.mTrimFilter = trimFilter;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.clock.utils.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 低竞争的计数器
+ * <p/>
+ * 按线程把计数分散到多个槽位上，每个槽位相隔一个缓存行，多个线程同时累加时不会争抢同一个变量，读取时再把所有槽位加起来
+ * <p/>
+ * Created by Clock on 2016/3/21.
+ */
+public class Counter {
+
+    /**
+     * 相邻槽位间隔的long个数，8个long正好是64字节的缓存行
+     */
+    private final static int PADDING = 8;
+
+    private final String mName;
+    private final int mStripeMask;
+    private final AtomicLongArray mCells;
+
+    Counter(String name) {
+        this.mName = name;
+        int stripes = 1;
+        int processors = Runtime.getRuntime().availableProcessors();
+        while (stripes < processors && stripes < 64) {
+            stripes <<= 1;
+        }
+        this.mStripeMask = stripes - 1;
+        this.mCells = new AtomicLongArray(stripes * PADDING);
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public void inc() {
+        add(1);
+    }
+
+    public void add(long delta) {
+        int stripe = (int) Thread.currentThread().getId() & mStripeMask;
+        mCells.addAndGet(stripe * PADDING, delta);
+    }
+
+    /**
+     * @return 当前的计数，和正在进行的累加并发时不保证精确
+     */
+    public long get() {
+        long sum = 0;
+        for (int i = 0; i < mCells.length(); i += PADDING) {
+            sum += mCells.get(i);
+        }
+        return sum;
+    }
+
+    /**
+     * 读取当前计数并清零
+     *
+     * @return
+     */
+    public long getAndReset() {
+        long sum = 0;
+        for (int i = 0; i < mCells.length(); i += PADDING) {
+            sum += mCells.getAndSet(i, 0);
+        }
+        return sum;
+    }
+}
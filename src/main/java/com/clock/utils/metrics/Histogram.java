@@ -0,0 +1,184 @@
+package com.clock.utils.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 分布统计（参考HdrHistogram的对数-线性分桶）
+ * <p/>
+ * 每个2的幂区间再均分成{@link #SUB_BUCKET_COUNT}个桶，任何数值的相对误差不超过1/16，
+ * 记录一个值只需要对所在的桶做一次原子自增，再把数值累加到分段的总和计数器上，不需要加锁和CAS重试，也不会随记录的次数增加内存；
+ * 最小值和最大值在取快照时从非空的桶推算，同样只有1/16的误差
+ * <p/>
+ * Created by Clock on 2016/3/21.
+ */
+public class Histogram {
+
+    private final static int SUB_BUCKET_BITS = 4;
+    /**
+     * 每个2的幂区间的桶数
+     */
+    public final static int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private final static int BUCKET_COUNT = SUB_BUCKET_COUNT + (63 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final String mName;
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final Counter mSum;
+
+    Histogram(String name) {
+        this.mName = name;
+        this.mSum = new Counter(name);
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * 记录一个值，负数按0记录
+     *
+     * @param value
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        mBuckets.incrementAndGet(bucketIndex(value));
+        mSum.add(value);
+    }
+
+    /**
+     * @return 当前分布的快照
+     */
+    public Snapshot snapshot() {
+        return snapshot(false);
+    }
+
+    /**
+     * @param reset 是否在取快照的同时清空，用于按固定周期上报
+     * @return 当前分布的快照，和正在进行的记录并发时不保证精确
+     */
+    public Snapshot snapshot(boolean reset) {
+        long[] counts = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = reset ? mBuckets.getAndSet(i, 0) : mBuckets.get(i);
+            count += counts[i];
+        }
+        long sum = reset ? mSum.getAndReset() : mSum.get();
+        if (count == 0) {
+            return new Snapshot(mName, counts, 0, 0, 0, 0);
+        }
+        int first = 0;
+        while (counts[first] == 0) {
+            first++;
+        }
+        int last = BUCKET_COUNT - 1;
+        while (counts[last] == 0) {
+            last--;
+        }
+        return new Snapshot(mName, counts, count, sum, lowestValue(first), highestValue(last));
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKET_COUNT - 1);
+        return SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long lowestValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        int subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+        return (long) (SUB_BUCKET_COUNT | subBucket) << shift;
+    }
+
+    static long highestValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        return lowestValue(index) + (1L << shift) - 1;
+    }
+
+    /**
+     * 不可变的分布快照
+     */
+    public static class Snapshot {
+
+        private final String mName;
+        private final long[] mCounts;
+        private final long mCount;
+        private final long mSum;
+        private final long mMin;
+        private final long mMax;
+
+        private Snapshot(String name, long[] counts, long count, long sum, long min, long max) {
+            this.mName = name;
+            this.mCounts = counts;
+            this.mCount = count;
+            this.mSum = sum;
+            this.mMin = min;
+            this.mMax = max;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getSum() {
+            return mSum;
+        }
+
+        /**
+         * @return 最小值所在桶的下界
+         */
+        public long getMin() {
+            return mMin;
+        }
+
+        /**
+         * @return 最大值所在桶的上界
+         */
+        public long getMax() {
+            return mMax;
+        }
+
+        public double getMean() {
+            return mCount == 0 ? 0 : (double) mSum / mCount;
+        }
+
+        /**
+         * 获取百分位数，返回所在桶的上界
+         *
+         * @param percentile 0-100
+         * @return 没有记录时返回0
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (mCount == 0) {
+                return 0;
+            }
+            if (percentile <= 0) {
+                return mMin;
+            }
+            long rank = (long) Math.ceil(Math.min(percentile, 100) / 100 * mCount);
+            long seen = 0;
+            for (int i = 0; i < mCounts.length; i++) {
+                seen += mCounts[i];
+                if (seen >= rank) {
+                    return highestValue(i);
+                }
+            }
+            return mMax;
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package com.clock.utils.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 库内部的性能统计
+ * <p/>
+ * 默认关闭，关闭时埋点只多一次volatile读；开启后解码、保存、登记图库、写闪退日志的耗时等数据会记录到对应的{@link Counter}和{@link Histogram}中，
+ * 通过{@link #snapshot(boolean)}取出快照上报
+ * <p/>
+ * 使用方式：
+ * <pre>
+ * Metrics.setEnabled(true);
+ * ...
+ * String json = Metrics.snapshot(true).toJson();
+ * </pre>
+ * Created by Clock on 2016/3/21.
+ */
+public class Metrics {
+
+    /**
+     * 解码耗时，单位纳秒
+     */
+    public final static String BITMAP_DECODE_TIME = "bitmap.decode.time_ns";
+    /**
+     * 解码出的Bitmap占用的字节数
+     */
+    public final static String BITMAP_DECODE_BYTES = "bitmap.decode.bytes";
+    /**
+     * 解码时选择的inSampleSize
+     */
+    public final static String BITMAP_DECODE_SAMPLE_SIZE = "bitmap.decode.sample_size";
+    public final static String BITMAP_DECODE_FAILURE = "bitmap.decode.failure";
+    /**
+     * 保存图片耗时，单位纳秒
+     */
+    public final static String BITMAP_SAVE_TIME = "bitmap.save.time_ns";
+    public final static String BITMAP_SAVE_FAILURE = "bitmap.save.failure";
+    /**
+     * 登记到系统图库的耗时（不包括异步的媒体扫描），单位纳秒
+     */
+    public final static String GALLERY_REGISTER_TIME = "gallery.register.time_ns";
+    /**
+     * 闪退时写日志的耗时，单位纳秒，下次启动CrashExceptionHandler恢复闪退记录时才统计
+     */
+    public final static String CRASH_WRITE_TIME = "crash.write.time_ns";
+
+    private static volatile boolean sEnabled = false;
+
+    private final static ConcurrentMap<String, Counter> sCounters = new ConcurrentHashMap<String, Counter>();
+    private final static ConcurrentMap<String, Histogram> sHistograms = new ConcurrentHashMap<String, Histogram>();
+
+    private Metrics() {
+    }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * 获取指定名称的计数器，不存在则创建
+     *
+     * @param name
+     * @return
+     */
+    public static Counter counter(String name) {
+        Counter counter = sCounters.get(name);
+        if (counter == null) {
+            Counter newCounter = new Counter(name);
+            counter = sCounters.putIfAbsent(name, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * 获取指定名称的分布统计，不存在则创建
+     *
+     * @param name
+     * @return
+     */
+    public static Histogram histogram(String name) {
+        Histogram histogram = sHistograms.get(name);
+        if (histogram == null) {
+            Histogram newHistogram = new Histogram(name);
+            histogram = sHistograms.putIfAbsent(name, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * 统计开启时累加计数
+     *
+     * @param name
+     */
+    public static void increment(String name) {
+        if (sEnabled) {
+            counter(name).inc();
+        }
+    }
+
+    /**
+     * 统计开启时记录一个值
+     *
+     * @param name
+     * @param value
+     */
+    public static void record(String name, long value) {
+        if (sEnabled) {
+            histogram(name).record(value);
+        }
+    }
+
+    /**
+     * 开始计时，和{@link #recordDuration(String, long)}配合使用
+     *
+     * @return 统计关闭时返回0
+     */
+    public static long startTimer() {
+        return sEnabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * 记录从{@link #startTimer()}到现在的耗时
+     *
+     * @param name
+     * @param startTime startTimer的返回值，为0时忽略
+     */
+    public static void recordDuration(String name, long startTime) {
+        if (startTime != 0 && sEnabled) {
+            histogram(name).record(System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * 获取所有统计项的快照
+     *
+     * @param reset 是否同时清空，按固定周期上报时传true，每次上报的就是这个周期内的数据
+     * @return
+     */
+    public static Snapshot snapshot(boolean reset) {
+        List<Counter> counters = new ArrayList<Counter>(sCounters.values());
+        List<Histogram> histograms = new ArrayList<Histogram>(sHistograms.values());
+        String[] counterNames = new String[counters.size()];
+        long[] counterValues = new long[counters.size()];
+        Collections.sort(counters, new Comparator<Counter>() {
+            @Override
+            public int compare(Counter lhs, Counter rhs) {
+                return lhs.getName().compareTo(rhs.getName());
+            }
+        });
+        for (int i = 0; i < counters.size(); i++) {
+            Counter counter = counters.get(i);
+            counterNames[i] = counter.getName();
+            counterValues[i] = reset ? counter.getAndReset() : counter.get();
+        }
+        Collections.sort(histograms, new Comparator<Histogram>() {
+            @Override
+            public int compare(Histogram lhs, Histogram rhs) {
+                return lhs.getName().compareTo(rhs.getName());
+            }
+        });
+        List<Histogram.Snapshot> histogramSnapshots = new ArrayList<Histogram.Snapshot>(histograms.size());
+        for (Histogram histogram : histograms) {
+            histogramSnapshots.add(histogram.snapshot(reset));
+        }
+        return new Snapshot(System.currentTimeMillis(), counterNames, counterValues, histogramSnapshots);
+    }
+
+    /**
+     * 移除所有统计项
+     */
+    public static void clear() {
+        sCounters.clear();
+        sHistograms.clear();
+    }
+
+    /**
+     * 所有统计项的快照
+     */
+    public static class Snapshot {
+
+        private final long mTimestamp;
+        private final String[] mCounterNames;
+        private final long[] mCounterValues;
+        private final List<Histogram.Snapshot> mHistograms;
+
+        private Snapshot(long timestamp, String[] counterNames, long[] counterValues, List<Histogram.Snapshot> histograms) {
+            this.mTimestamp = timestamp;
+            this.mCounterNames = counterNames;
+            this.mCounterValues = counterValues;
+            this.mHistograms = Collections.unmodifiableList(histograms);
+        }
+
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        /**
+         * @param name
+         * @return 计数器不存在时返回0
+         */
+        public long getCounter(String name) {
+            for (int i = 0; i < mCounterNames.length; i++) {
+                if (mCounterNames[i].equals(name)) {
+                    return mCounterValues[i];
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * @param name
+         * @return 不存在时返回null
+         */
+        public Histogram.Snapshot getHistogram(String name) {
+            for (Histogram.Snapshot histogram : mHistograms) {
+                if (histogram.getName().equals(name)) {
+                    return histogram;
+                }
+            }
+            return null;
+        }
+
+        public List<Histogram.Snapshot> getHistograms() {
+            return mHistograms;
+        }
+
+        /**
+         * 导出为JSON，分布统计只包含count、min、max、mean和p50/p90/p99/p999
+         *
+         * @return
+         */
+        public String toJson() {
+            StringBuilder builder = new StringBuilder(256 + mHistograms.size() * 160);
+            builder.append("{\"timestamp\":").append(mTimestamp).append(",\"counters\":{");
+            for (int i = 0; i < mCounterNames.length; i++) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                appendJsonString(builder, mCounterNames[i]);
+                builder.append(':').append(mCounterValues[i]);
+            }
+            builder.append("},\"histograms\":{");
+            for (int i = 0; i < mHistograms.size(); i++) {
+                Histogram.Snapshot histogram = mHistograms.get(i);
+                if (i > 0) {
+                    builder.append(',');
+                }
+                appendJsonString(builder, histogram.getName());
+                builder.append(":{\"count\":").append(histogram.getCount())
+                        .append(",\"min\":").append(histogram.getMin())
+                        .append(",\"max\":").append(histogram.getMax())
+                        .append(",\"mean\":").append(Math.round(histogram.getMean()))
+                        .append(",\"p50\":").append(histogram.getValueAtPercentile(50))
+                        .append(",\"p90\":").append(histogram.getValueAtPercentile(90))
+                        .append(",\"p99\":").append(histogram.getValueAtPercentile(99))
+                        .append(",\"p999\":").append(histogram.getValueAtPercentile(99.9))
+                        .append('}');
+            }
+            builder.append("}}");
+            return builder.toString();
+        }
+
+        private static void appendJsonString(StringBuilder builder, String value) {
+            builder.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    builder.append('\\').append(c);
+                } else if (c < 0x20) {
+                    builder.append(String.format("\\u%04x", (int) c));
+                } else {
+                    builder.append(c);
+                }
+            }
+            builder.append('"');
+        }
+    }
+}
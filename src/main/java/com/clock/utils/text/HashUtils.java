@@ -0,0 +1,449 @@
+package com.clock.utils.text;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 哈希计算工具类
+ * <p/>
+ * 1.每个线程复用自己的MessageDigest、UTF-8编码缓冲区和读文件缓冲区，计算过程中不产生临时对象
+ * <p/>
+ * 2.字符串统一按UTF-8编码，结果与平台默认编码无关
+ * <p/>
+ * 3.通过查表把摘要转换为十六进制字符串
+ * <p/>
+ * 4.提供64位xxHash，用于不需要加密强度的缓存key等场景，速度比MD5快很多
+ * <p/>
+ * Created by Clock on 2016/3/10.
+ */
+public class HashUtils {
+
+    public final static Charset UTF_8 = Charset.forName("UTF-8");
+
+    public final static String MD5 = "MD5";
+    public final static String SHA_1 = "SHA-1";
+    public final static String SHA_256 = "SHA-256";
+
+    private final static char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private final static int STREAM_BUFFER_SIZE = 64 * 1024;
+    private final static int INITIAL_BYTES_SIZE = 256;
+
+    private final static long PRIME64_1 = 0x9E3779B185EBCA87L;
+    private final static long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+    private final static long PRIME64_3 = 0x165667B19E3779F9L;
+    private final static long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+    private final static long PRIME64_5 = 0x27D4EB2F165667C5L;
+
+    private final static ThreadLocal<MessageDigest> sMd5 = new DigestThreadLocal(MD5);
+    private final static ThreadLocal<MessageDigest> sSha1 = new DigestThreadLocal(SHA_1);
+    private final static ThreadLocal<MessageDigest> sSha256 = new DigestThreadLocal(SHA_256);
+
+    /**
+     * 每个线程复用的缓冲区
+     */
+    private final static ThreadLocal<Buffers> sBuffers = new ThreadLocal<Buffers>() {
+        @Override
+        protected Buffers initialValue() {
+            return new Buffers();
+        }
+    };
+
+    private HashUtils() {
+    }
+
+    /**
+     * 计算字符串UTF-8编码后的MD5
+     *
+     * @param str
+     * @return 32位小写十六进制字符串
+     */
+    public static String md5(String str) {
+        return digest(sMd5, str);
+    }
+
+    /**
+     * 计算字符串UTF-8编码后的SHA-1
+     *
+     * @param str
+     * @return 40位小写十六进制字符串
+     */
+    public static String sha1(String str) {
+        return digest(sSha1, str);
+    }
+
+    /**
+     * 计算字符串UTF-8编码后的SHA-256
+     *
+     * @param str
+     * @return 64位小写十六进制字符串
+     */
+    public static String sha256(String str) {
+        return digest(sSha256, str);
+    }
+
+    /**
+     * 计算文件的MD5
+     *
+     * @param file
+     * @return 32位小写十六进制字符串
+     * @throws IOException
+     */
+    public static String md5(File file) throws IOException {
+        return digest(MD5, file);
+    }
+
+    /**
+     * 计算输入流剩余内容的MD5，不会关闭输入流
+     *
+     * @param inputStream
+     * @return 32位小写十六进制字符串
+     * @throws IOException
+     */
+    public static String md5(InputStream inputStream) throws IOException {
+        return digest(MD5, inputStream);
+    }
+
+    /**
+     * 计算文件的摘要
+     *
+     * @param algorithm {@link #MD5}、{@link #SHA_1}或{@link #SHA_256}
+     * @param file
+     * @return 小写十六进制字符串
+     * @throws IOException
+     */
+    public static String digest(String algorithm, File file) throws IOException {
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            return digest(getDigest(algorithm), inputStream.getChannel());
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * 计算输入流剩余内容的摘要，不会关闭输入流
+     *
+     * @param algorithm {@link #MD5}、{@link #SHA_1}或{@link #SHA_256}
+     * @param inputStream
+     * @return 小写十六进制字符串
+     * @throws IOException
+     */
+    public static String digest(String algorithm, InputStream inputStream) throws IOException {
+        ReadableByteChannel channel;
+        if (inputStream instanceof FileInputStream) {
+            channel = ((FileInputStream) inputStream).getChannel();
+        } else {
+            channel = Channels.newChannel(inputStream);
+        }
+        return digest(getDigest(algorithm), channel);
+    }
+
+    /**
+     * 计算64位xxHash
+     *
+     * @param str 按UTF-8编码计算
+     * @return
+     */
+    public static long xxHash64(String str) {
+        Buffers buffers = sBuffers.get();
+        int length = encodeUtf8(buffers, str);
+        return xxHash64(buffers.bytes, 0, length, 0);
+    }
+
+    /**
+     * 计算64位xxHash
+     *
+     * @param data
+     * @param offset
+     * @param length
+     * @param seed   种子
+     * @return
+     */
+    public static long xxHash64(byte[] data, int offset, int length, long seed) {
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IndexOutOfBoundsException("offset: " + offset + ", length: " + length + ", size: " + data.length);
+        }
+        int position = offset;
+        int end = offset + length;
+        long hash;
+        if (length >= 32) {
+            long v1 = seed + PRIME64_1 + PRIME64_2;
+            long v2 = seed + PRIME64_2;
+            long v3 = seed;
+            long v4 = seed - PRIME64_1;
+            int limit = end - 32;
+            do {
+                v1 = xxRound(v1, readLongLE(data, position));
+                v2 = xxRound(v2, readLongLE(data, position + 8));
+                v3 = xxRound(v3, readLongLE(data, position + 16));
+                v4 = xxRound(v4, readLongLE(data, position + 24));
+                position += 32;
+            } while (position <= limit);
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            hash = xxMergeRound(hash, v1);
+            hash = xxMergeRound(hash, v2);
+            hash = xxMergeRound(hash, v3);
+            hash = xxMergeRound(hash, v4);
+        } else {
+            hash = seed + PRIME64_5;
+        }
+        hash += length;
+        while (position + 8 <= end) {
+            hash ^= xxRound(0, readLongLE(data, position));
+            hash = Long.rotateLeft(hash, 27) * PRIME64_1 + PRIME64_4;
+            position += 8;
+        }
+        if (position + 4 <= end) {
+            hash ^= (readIntLE(data, position) & 0xFFFFFFFFL) * PRIME64_1;
+            hash = Long.rotateLeft(hash, 23) * PRIME64_2 + PRIME64_3;
+            position += 4;
+        }
+        while (position < end) {
+            hash ^= (data[position] & 0xFF) * PRIME64_5;
+            hash = Long.rotateLeft(hash, 11) * PRIME64_1;
+            position++;
+        }
+        hash ^= hash >>> 33;
+        hash *= PRIME64_2;
+        hash ^= hash >>> 29;
+        hash *= PRIME64_3;
+        hash ^= hash >>> 32;
+        return hash;
+    }
+
+    /**
+     * 计算字符串64位xxHash的十六进制形式，可直接作为缓存文件名
+     *
+     * @param str
+     * @return 16位小写十六进制字符串
+     */
+    public static String xxHash64Hex(String str) {
+        return toHexString(xxHash64(str));
+    }
+
+    /**
+     * 把字节数组转换为十六进制字符串
+     *
+     * @param bytes
+     * @return 小写十六进制字符串
+     */
+    public static String toHexString(byte[] bytes) {
+        Buffers buffers = sBuffers.get();
+        char[] chars = buffers.ensureHexCapacity(bytes.length * 2);
+        for (int i = 0, j = 0; i < bytes.length; i++) {
+            int value = bytes[i] & 0xFF;
+            chars[j++] = HEX_DIGITS[value >>> 4];
+            chars[j++] = HEX_DIGITS[value & 0x0F];
+        }
+        return new String(chars, 0, bytes.length * 2);
+    }
+
+    /**
+     * 把64位整数转换为定长的十六进制字符串
+     *
+     * @param value
+     * @return 16位小写十六进制字符串
+     */
+    public static String toHexString(long value) {
+        char[] chars = sBuffers.get().ensureHexCapacity(16);
+        for (int i = 15; i >= 0; i--) {
+            chars[i] = HEX_DIGITS[(int) (value & 0x0F)];
+            value >>>= 4;
+        }
+        return new String(chars, 0, 16);
+    }
+
+    private static String digest(ThreadLocal<MessageDigest> digestThreadLocal, String str) {
+        MessageDigest digest = digestThreadLocal.get();
+        Buffers buffers = sBuffers.get();
+        int length = encodeUtf8(buffers, str);
+        digest.reset();
+        digest.update(buffers.bytes, 0, length);
+        return toHexString(digest, buffers);
+    }
+
+    private static String digest(MessageDigest digest, ReadableByteChannel channel) throws IOException {
+        Buffers buffers = sBuffers.get();
+        ByteBuffer buffer = buffers.getStreamBuffer();
+        digest.reset();
+        buffer.clear();
+        while (channel.read(buffer) != -1) {
+            buffer.flip();
+            digest.update(buffer);
+            buffer.clear();
+        }
+        return toHexString(digest, buffers);
+    }
+
+    /**
+     * 把摘要写入复用的字节数组后再转换，避免digest()每次新建数组
+     *
+     * @param digest
+     * @param buffers
+     * @return
+     */
+    private static String toHexString(MessageDigest digest, Buffers buffers) {
+        int digestLength = digest.getDigestLength();
+        byte[] output = buffers.ensureDigestCapacity(digestLength);
+        try {
+            digest.digest(output, 0, digestLength);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+        char[] chars = buffers.ensureHexCapacity(digestLength * 2);
+        for (int i = 0, j = 0; i < digestLength; i++) {
+            int value = output[i] & 0xFF;
+            chars[j++] = HEX_DIGITS[value >>> 4];
+            chars[j++] = HEX_DIGITS[value & 0x0F];
+        }
+        return new String(chars, 0, digestLength * 2);
+    }
+
+    private static MessageDigest getDigest(String algorithm) {
+        if (MD5.equals(algorithm)) {
+            return sMd5.get();
+        } else if (SHA_1.equals(algorithm)) {
+            return sSha1.get();
+        } else if (SHA_256.equals(algorithm)) {
+            return sSha256.get();
+        }
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * 把字符串按UTF-8编码到线程复用的字节数组中，不正确配对的代理字符按照'?'处理，与String.getBytes一致
+     *
+     * @param buffers
+     * @param str
+     * @return 编码后的字节数
+     */
+    private static int encodeUtf8(Buffers buffers, String str) {
+        int length = str.length();
+        byte[] bytes = buffers.ensureBytesCapacity(length * 3);//每个char最多编码为3个字节，代理对共4个字节
+        int position = 0;
+        for (int i = 0; i < length; i++) {
+            char c = str.charAt(i);
+            if (c < 0x80) {
+                bytes[position++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[position++] = (byte) (0xC0 | (c >> 6));
+                bytes[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(str.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, str.charAt(++i));
+                bytes[position++] = (byte) (0xF0 | (codePoint >> 18));
+                bytes[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                bytes[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                bytes[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                bytes[position++] = '?';
+            } else {
+                bytes[position++] = (byte) (0xE0 | (c >> 12));
+                bytes[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return position;
+    }
+
+    private static long xxRound(long accumulator, long input) {
+        accumulator += input * PRIME64_2;
+        accumulator = Long.rotateLeft(accumulator, 31);
+        return accumulator * PRIME64_1;
+    }
+
+    private static long xxMergeRound(long accumulator, long value) {
+        accumulator ^= xxRound(0, value);
+        return accumulator * PRIME64_1 + PRIME64_4;
+    }
+
+    private static long readLongLE(byte[] data, int position) {
+        return (data[position] & 0xFFL)
+                | (data[position + 1] & 0xFFL) << 8
+                | (data[position + 2] & 0xFFL) << 16
+                | (data[position + 3] & 0xFFL) << 24
+                | (data[position + 4] & 0xFFL) << 32
+                | (data[position + 5] & 0xFFL) << 40
+                | (data[position + 6] & 0xFFL) << 48
+                | (data[position + 7] & 0xFFL) << 56;
+    }
+
+    private static int readIntLE(byte[] data, int position) {
+        return (data[position] & 0xFF)
+                | (data[position + 1] & 0xFF) << 8
+                | (data[position + 2] & 0xFF) << 16
+                | (data[position + 3] & 0xFF) << 24;
+    }
+
+    /**
+     * 每个线程一个MessageDigest实例，MessageDigest本身不是线程安全的
+     */
+    private static class DigestThreadLocal extends ThreadLocal<MessageDigest> {
+
+        private final String mAlgorithm;
+
+        DigestThreadLocal(String algorithm) {
+            this.mAlgorithm = algorithm;
+        }
+
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance(mAlgorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * 线程复用的缓冲区，只会变大不会变小
+     */
+    private static class Buffers {
+
+        private byte[] bytes = new byte[INITIAL_BYTES_SIZE];
+        private byte[] digest = new byte[32];
+        private char[] hex = new char[64];
+        private ByteBuffer streamBuffer;
+
+        byte[] ensureBytesCapacity(int capacity) {
+            if (bytes.length < capacity) {
+                bytes = new byte[Math.max(capacity, bytes.length * 2)];
+            }
+            return bytes;
+        }
+
+        byte[] ensureDigestCapacity(int capacity) {
+            if (digest.length < capacity) {
+                digest = new byte[capacity];
+            }
+            return digest;
+        }
+
+        char[] ensureHexCapacity(int capacity) {
+            if (hex.length < capacity) {
+                hex = new char[Math.max(capacity, hex.length * 2)];
+            }
+            return hex;
+        }
+
+        ByteBuffer getStreamBuffer() {
+            if (streamBuffer == null) {
+                streamBuffer = ByteBuffer.allocateDirect(STREAM_BUFFER_SIZE);
+            }
+            return streamBuffer;
+        }
+    }
+}
@@ -1,8 +1,5 @@
 package com.clock.utils.text;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-
 /**
  * 字符串通用处理类
  * Created by Clock on 2016/1/17.
@@ -10,32 +7,13 @@ import java.security.NoSuchAlgorithmException;
 public class StringUtils {
 
     /**
-     * 将字符串进行md5转换
+     * 将字符串进行md5转换，字符串按UTF-8编码
      *
      * @param str
      * @return
+     * @see HashUtils
      */
     public static String md5(String str) {
-        String cacheKey;
-        try {
-            final MessageDigest mDigest = MessageDigest.getInstance("MD5");
-            mDigest.update(str.getBytes());
-            cacheKey = bytesToHexString(mDigest.digest());
-        } catch (NoSuchAlgorithmException e) {
-            cacheKey = String.valueOf(str.hashCode());
-        }
-        return cacheKey;
-    }
-
-    private static String bytesToHexString(byte[] bytes) {
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < bytes.length; i++) {
-            String hex = Integer.toHexString(0xFF & bytes[i]);
-            if (hex.length() == 1) {
-                sb.append('0');
-            }
-            sb.append(hex);
-        }
-        return sb.toString();
+        return HashUtils.md5(str);
     }
 }
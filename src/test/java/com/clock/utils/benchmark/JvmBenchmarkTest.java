@@ -0,0 +1,77 @@
+package com.clock.utils.benchmark;
+
+import com.clock.utils.bitmap.BitmapUtils;
+import com.clock.utils.text.HashUtils;
+import com.clock.utils.text.StringUtils;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 在JVM上运行的基准测试，覆盖不依赖Android原生实现的热点方法
+ * <p/>
+ * 默认跳过，运行方式：gradle testDebugUnitTest -Dbenchmark=true
+ */
+public class JvmBenchmarkTest {
+
+    private final static int WARMUP_SAMPLES = 200;
+    private final static int SAMPLES = 1000;
+
+    @Before
+    public void checkEnabled() {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+    }
+
+    @Test
+    public void md5() throws Exception {
+        final String[] keys = new String[256];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "/storage/emulated/0/DCIM/Camera/IMG_20160308_" + i + ".jpg#1457400000000#480x800";
+        }
+        Benchmark.Result result = Benchmark.run("StringUtils.md5", WARMUP_SAMPLES, SAMPLES, 100, new Benchmark.Operation() {
+            @Override
+            public Object run(int iteration) {
+                return StringUtils.md5(keys[iteration & (keys.length - 1)]);
+            }
+        });
+        report(result);
+    }
+
+    @Test
+    public void xxHash64() throws Exception {
+        final String[] keys = new String[256];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "/storage/emulated/0/DCIM/Camera/IMG_20160308_" + i + ".jpg#1457400000000#480x800";
+        }
+        Benchmark.Result result = Benchmark.run("HashUtils.xxHash64", WARMUP_SAMPLES, SAMPLES, 100, new Benchmark.Operation() {
+            @Override
+            public Object run(int iteration) {
+                return HashUtils.xxHash64(keys[iteration & (keys.length - 1)]);
+            }
+        });
+        report(result);
+    }
+
+    @Test
+    public void calculateInSampleSize() throws Exception {
+        for (final int[] requestSize : ImageCorpus.REQUEST_SIZES) {
+            Benchmark.Result result = Benchmark.run("BitmapUtils.calculateInSampleSize " + ImageCorpus.describe(requestSize[0], requestSize[1]),
+                    WARMUP_SAMPLES, SAMPLES, 1000, new Benchmark.Operation() {
+                        @Override
+                        public Object run(int iteration) {
+                            int[] size = ImageCorpus.SIZES[iteration % ImageCorpus.SIZES.length];
+                            return BitmapUtils.calculateInSampleSize(size[0], size[1], requestSize[0], requestSize[1]);
+                        }
+                    });
+            report(result);
+        }
+    }
+
+    private static void report(Benchmark.Result result) {
+        System.out.println(result);
+        assertTrue(result.opsPerSecond > 0);
+    }
+}
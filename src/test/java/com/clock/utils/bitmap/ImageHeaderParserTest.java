@@ -0,0 +1,418 @@
+package com.clock.utils.bitmap;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ImageHeaderParser单元测试
+ */
+public class ImageHeaderParserTest {
+
+    private final static byte[] SOI = {(byte) 0xFF, (byte) 0xD8};
+    private final static byte[] SOS = {(byte) 0xFF, (byte) 0xDA, 0, 2};
+
+    @Rule
+    public final TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mRoot;
+
+    @Before
+    public void setUp() throws Exception {
+        mRoot = mTemporaryFolder.newFolder("image_header");
+    }
+
+    @Test
+    public void parseJpeg() throws Exception {
+        byte[] jpeg = encode(new BufferedImage(320, 240, BufferedImage.TYPE_INT_RGB), "jpg");
+        ImageHeaderParser.ImageHeader header = ImageHeaderParser.parse(ByteBuffer.wrap(jpeg));
+        assertNotNull(header);
+        assertEquals(ImageHeaderParser.FORMAT_JPEG, header.getFormat());
+        assertEquals("image/jpeg", header.getMimeType());
+        assertEquals(320, header.getWidth());
+        assertEquals(240, header.getHeight());
+        assertEquals(0, header.getOrientation());
+        assertEquals(0, header.getDegree());
+        assertFalse(header.hasAlpha());
+    }
+
+    @Test
+    public void parseJpegWithExifOrientation() throws Exception {
+        byte[] jpeg = encode(new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB), "jpg");
+        byte[] withExif = insertAfterSoi(jpeg, exifSegment(6));
+        ImageHeaderParser.ImageHeader header = ImageHeaderParser.parse(ByteBuffer.wrap(withExif));
+        assertNotNull(header);
+        assertEquals(64, header.getWidth());
+        assertEquals(48, header.getHeight());
+        assertEquals(6, header.getOrientation());
+        assertEquals(90, header.getDegree());
+    }
+
+    @Test
+    public void parseJpegFileWithLargeAppSegment() throws Exception {
+        byte[] jpeg = encode(new BufferedImage(100, 50, BufferedImage.TYPE_INT_RGB), "jpg");
+        byte[] padding = new byte[4 + 60000];//APP2段，把SOF推到文件头缓冲区之外
+        padding[0] = (byte) 0xFF;
+        padding[1] = (byte) 0xE2;
+        padding[2] = (byte) ((padding.length - 2) >> 8);
+        padding[3] = (byte) (padding.length - 2);
+        byte[] data = insertAfterSoi(insertAfterSoi(jpeg, padding), exifSegment(3));
+        assertNull(ImageHeaderParser.parse(ByteBuffer.wrap(data, 0, ImageHeaderParser.HEADER_SIZE)));
+
+        ImageHeaderParser.ImageHeader header = ImageHeaderParser.parse(write("large.jpg", data));
+        assertNotNull(header);
+        assertEquals(100, header.getWidth());
+        assertEquals(50, header.getHeight());
+        assertEquals(180, header.getDegree());
+    }
+
+    @Test
+    public void parseJpegFileWithExifAfterHeaderBuffer() throws Exception {
+        byte[] jpeg = encode(new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB), "jpg");
+        byte[] padding = new byte[ImageHeaderParser.HEADER_SIZE - 2 - 10];//APP1段跨过文件头缓冲区的末尾
+        padding[0] = (byte) 0xFF;
+        padding[1] = (byte) 0xE2;
+        padding[2] = (byte) ((padding.length - 2) >> 8);
+        padding[3] = (byte) (padding.length - 2);
+        byte[] data = insertAfterSoi(insertAfterSoi(jpeg, exifSegment(8)), padding);
+
+        FileInputStream inputStream = new FileInputStream(write("straddle.jpg", data));
+        try {
+            FileChannel channel = inputStream.getChannel();
+            channel.position(5);
+            ImageHeaderParser.ImageHeader header = ImageHeaderParser.parse(channel);
+            assertNotNull(header);
+            assertEquals(40, header.getWidth());
+            assertEquals(30, header.getHeight());
+            assertEquals(270, header.getDegree());
+            assertEquals(5, channel.position());//只使用指定位置的读取
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    @Test
+    public void parseExifFromBigEndianTiff() throws Exception {
+        assertEquals(0, parseJpeg(app1Exif(bigEndianTiff(1))).getDegree());
+        assertEquals(90, parseJpeg(app1Exif(bigEndianTiff(6))).getDegree());
+        assertEquals(180, parseJpeg(app1Exif(bigEndianTiff(3))).getDegree());
+        assertEquals(270, parseJpeg(app1Exif(bigEndianTiff(8))).getDegree());
+    }
+
+    @Test
+    public void parseExifFromLittleEndianTiff() throws Exception {
+        ByteBuffer buffer = jpeg(app1Exif(littleEndianTiff(6)));
+        ImageHeaderParser.ImageHeader header = ImageHeaderParser.parse(buffer);
+        assertNotNull(header);
+        assertEquals(ExifOrientationParser.ORIENTATION_ROTATE_90, header.getOrientation());
+        assertEquals(90, header.getDegree());
+        assertEquals(ByteOrder.BIG_ENDIAN, buffer.order());//解析时临时切换的字节序需要还原
+    }
+
+    @Test
+    public void parseExifAfterOtherSegmentsAndFillBytes() throws Exception {
+        byte[] app0 = segment(0xE0, new byte[]{'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0});
+        byte[] xmp = segment(0xE1, "http://ns.adobe.com/xap/1.0/\0<x/>".getBytes("US-ASCII"));
+        byte[] fill = {(byte) 0xFF};
+        assertEquals(270, parseJpeg(app0, fill, xmp, app1Exif(littleEndianTiff(8))).getDegree());
+    }
+
+    @Test
+    public void parseExifRespectsBufferPosition() throws Exception {
+        ByteBuffer jpeg = jpeg(app1Exif(bigEndianTiff(3)));
+        ByteBuffer buffer = ByteBuffer.allocate(jpeg.remaining() + 7);
+        buffer.position(7);
+        buffer.put(jpeg);
+        buffer.position(7);
+        ImageHeaderParser.ImageHeader header = ImageHeaderParser.parse(buffer);
+        assertNotNull(header);
+        assertEquals(180, header.getDegree());
+        assertEquals(7, buffer.position());
+    }
+
+    @Test
+    public void parseMissingOrBrokenExif() throws Exception {
+        assertUndefinedOrientation(jpeg());
+        //不合法的取值
+        assertUndefinedOrientation(jpeg(app1Exif(bigEndianTiff(9))));
+        //IFD偏移超出APP1段
+        byte[] tiff = bigEndianTiff(6);
+        tiff[7] = 100;
+        assertUndefinedOrientation(jpeg(app1Exif(tiff)));
+        //既不是II也不是MM
+        tiff = bigEndianTiff(6);
+        tiff[0] = 'X';
+        assertUndefinedOrientation(jpeg(app1Exif(tiff)));
+        //图像数据之前没有SOF
+        assertNull(ImageHeaderParser.parse(ByteBuffer.wrap(concat(SOI, SOS, app1Exif(bigEndianTiff(6)), sof(16, 8)))));
+        //段长度超出读取到的数据
+        byte[] truncated = concat(SOI, app1Exif(bigEndianTiff(6)), sof(16, 8));
+        assertNull(ImageHeaderParser.parse(ByteBuffer.wrap(truncated, 0, truncated.length - 8)));
+    }
+
+    @Test
+    public void parsePng() throws Exception {
+        ImageHeaderParser.ImageHeader rgba = ImageHeaderParser.parse(write("rgba.png",
+                encode(new BufferedImage(17, 9, BufferedImage.TYPE_INT_ARGB), "png")).getAbsolutePath());
+        assertNotNull(rgba);
+        assertEquals(ImageHeaderParser.FORMAT_PNG, rgba.getFormat());
+        assertEquals(17, rgba.getWidth());
+        assertEquals(9, rgba.getHeight());
+        assertTrue(rgba.hasAlpha());
+
+        ImageHeaderParser.ImageHeader rgb = ImageHeaderParser.parse(ByteBuffer.wrap(
+                encode(new BufferedImage(33, 65, BufferedImage.TYPE_INT_RGB), "png")));
+        assertNotNull(rgb);
+        assertEquals(33, rgb.getWidth());
+        assertEquals(65, rgb.getHeight());
+        assertFalse(rgb.hasAlpha());
+
+        ByteArrayOutputStream palette = new ByteArrayOutputStream();
+        palette.write(new byte[]{(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A});
+        writePngChunk(palette, "IHDR", new byte[]{0, 0, 0, 5, 0, 0, 0, 7, 8, 3, 0, 0, 0});
+        writePngChunk(palette, "PLTE", new byte[]{0, 0, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF});
+        writePngChunk(palette, "tRNS", new byte[]{0});
+        writePngChunk(palette, "IDAT", new byte[]{0});
+        ImageHeaderParser.ImageHeader indexed = ImageHeaderParser.parse(ByteBuffer.wrap(palette.toByteArray()));
+        assertNotNull(indexed);
+        assertEquals(5, indexed.getWidth());
+        assertEquals(7, indexed.getHeight());
+        assertTrue(indexed.hasAlpha());
+    }
+
+    @Test
+    public void parseWebp() throws Exception {
+        byte[] lossy = riff(chunk("VP8 ", new byte[]{0, 0, 0, (byte) 0x9D, 0x01, 0x2A, (byte) 0x80, 0x07, 0x38, 0x04}));
+        ImageHeaderParser.ImageHeader vp8 = ImageHeaderParser.parse(ByteBuffer.wrap(lossy));
+        assertNotNull(vp8);
+        assertEquals(ImageHeaderParser.FORMAT_WEBP, vp8.getFormat());
+        assertEquals("image/webp", vp8.getMimeType());
+        assertEquals(1920, vp8.getWidth());
+        assertEquals(1080, vp8.getHeight());
+        assertFalse(vp8.hasAlpha());
+
+        int bits = (300 - 1) | (200 - 1) << 14 | 1 << 28;
+        byte[] lossless = riff(chunk("VP8L", new byte[]{0x2F, (byte) bits, (byte) (bits >> 8), (byte) (bits >> 16), (byte) (bits >> 24), 0, 0, 0, 0, 0}));
+        ImageHeaderParser.ImageHeader vp8l = ImageHeaderParser.parse(ByteBuffer.wrap(lossless));
+        assertNotNull(vp8l);
+        assertEquals(300, vp8l.getWidth());
+        assertEquals(200, vp8l.getHeight());
+        assertTrue(vp8l.hasAlpha());
+
+        byte[] vp8xData = {0x18, 0, 0, 0, (byte) 0xFF, 0x0F, 0, (byte) 0xFF, 0x0B, 0};//透明+EXIF，4096x3072
+        byte[] tiff = littleEndianTiff(8);
+        byte[] extended = riff(concat(chunk("VP8X", vp8xData), chunk("EXIF", tiff)));
+        ImageHeaderParser.ImageHeader vp8x = ImageHeaderParser.parse(ByteBuffer.wrap(extended));
+        assertNotNull(vp8x);
+        assertEquals(4096, vp8x.getWidth());
+        assertEquals(3072, vp8x.getHeight());
+        assertTrue(vp8x.hasAlpha());
+        assertEquals(270, vp8x.getDegree());
+    }
+
+    @Test
+    public void parseGif() throws Exception {
+        byte[] transparent = {'G', 'I', 'F', '8', '9', 'a', 0x0A, 0, 0x14, 0, (byte) 0x80, 0, 0,
+                0, 0, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                0x21, (byte) 0xF9, 0x04, 0x01, 0, 0, 0, 0,
+                0x2C, 0, 0, 0, 0, 0x0A, 0, 0x14, 0, 0, 0x3B};
+        ImageHeaderParser.ImageHeader header = ImageHeaderParser.parse(ByteBuffer.wrap(transparent));
+        assertNotNull(header);
+        assertEquals(ImageHeaderParser.FORMAT_GIF, header.getFormat());
+        assertEquals(10, header.getWidth());
+        assertEquals(20, header.getHeight());
+        assertTrue(header.hasAlpha());
+
+        byte[] opaque = {'G', 'I', 'F', '8', '7', 'a', 0x03, 0x01, 0x02, 0, 0, 0, 0,
+                0x21, (byte) 0xFE, 0x02, 'h', 'i', 0,
+                0x2C, 0, 0, 0, 0, 0x03, 0x01, 0x02, 0, 0, 0x3B};
+        header = ImageHeaderParser.parse(ByteBuffer.wrap(opaque));
+        assertNotNull(header);
+        assertEquals(259, header.getWidth());
+        assertEquals(2, header.getHeight());
+        assertFalse(header.hasAlpha());
+    }
+
+    @Test
+    public void parseUnknownOrTruncated() throws Exception {
+        assertNull(ImageHeaderParser.parse(ByteBuffer.wrap(new byte[]{'B', 'M', 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0})));
+        assertNull(ImageHeaderParser.parse(ByteBuffer.wrap(new byte[]{(byte) 0xFF, (byte) 0xD8})));
+        byte[] jpeg = encode(new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB), "jpg");
+        assertNull(ImageHeaderParser.parse(ByteBuffer.wrap(jpeg, 0, 20)));
+        assertNull(ImageHeaderParser.parse(new File(mRoot, "missing.jpg")));
+
+        ByteBuffer buffer = ByteBuffer.wrap(jpeg);
+        buffer.position(0).limit(jpeg.length);
+        assertNotNull(ImageHeaderParser.parse(buffer));
+        assertEquals(0, buffer.position());
+        assertEquals(jpeg.length, buffer.limit());
+    }
+
+    private static ImageHeaderParser.ImageHeader parseJpeg(byte[]... segments) {
+        ImageHeaderParser.ImageHeader header = ImageHeaderParser.parse(jpeg(segments));
+        assertNotNull(header);
+        assertEquals(16, header.getWidth());
+        assertEquals(8, header.getHeight());
+        return header;
+    }
+
+    private static void assertUndefinedOrientation(ByteBuffer buffer) {
+        ImageHeaderParser.ImageHeader header = ImageHeaderParser.parse(buffer);
+        assertNotNull(header);
+        assertEquals(ExifOrientationParser.ORIENTATION_UNDEFINED, header.getOrientation());
+        assertEquals(0, header.getDegree());
+    }
+
+    /**
+     * SOI + 指定的段 + 16x8的SOF + SOS
+     */
+    private static ByteBuffer jpeg(byte[]... segments) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        outputStream.write(SOI, 0, SOI.length);
+        for (byte[] segment : segments) {
+            outputStream.write(segment, 0, segment.length);
+        }
+        byte[] sof = sof(16, 8);
+        outputStream.write(sof, 0, sof.length);
+        outputStream.write(SOS, 0, SOS.length);
+        return ByteBuffer.wrap(outputStream.toByteArray());
+    }
+
+    /**
+     * 8位精度、单分量的SOF0段
+     */
+    private static byte[] sof(int width, int height) {
+        return segment(0xC0, new byte[]{8, (byte) (height >> 8), (byte) height, (byte) (width >> 8), (byte) width, 1, 1, 0x11, 0});
+    }
+
+    private static byte[] segment(int marker, byte[] data) {
+        int length = data.length + 2;
+        byte[] result = new byte[4 + data.length];
+        result[0] = (byte) 0xFF;
+        result[1] = (byte) marker;
+        result[2] = (byte) (length >> 8);
+        result[3] = (byte) length;
+        System.arraycopy(data, 0, result, 4, data.length);
+        return result;
+    }
+
+    private static byte[] app1Exif(byte[] tiff) {
+        return segment(0xE1, concat(new byte[]{'E', 'x', 'i', 'f', 0, 0}, tiff));
+    }
+
+    /**
+     * IFD0中放一个无关标签和Orientation标签
+     */
+    private static byte[] bigEndianTiff(int orientation) {
+        return new byte[]{'M', 'M', 0, 42, 0, 0, 0, 8,
+                0, 2,
+                0x01, 0x0F, 0, 2, 0, 0, 0, 4, 'M', 'a', 'k', 0,
+                0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, (byte) orientation, 0, 0,
+                0, 0, 0, 0};
+    }
+
+    private static byte[] encode(BufferedImage image, String format) throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        assertTrue(ImageIO.write(image, format, outputStream));
+        return outputStream.toByteArray();
+    }
+
+    private File write(String name, byte[] data) throws Exception {
+        File file = new File(mRoot, name);
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(data);
+        } finally {
+            outputStream.close();
+        }
+        return file;
+    }
+
+    private static byte[] insertAfterSoi(byte[] jpeg, byte[] segment) {
+        byte[] result = new byte[jpeg.length + segment.length];
+        System.arraycopy(jpeg, 0, result, 0, 2);
+        System.arraycopy(segment, 0, result, 2, segment.length);
+        System.arraycopy(jpeg, 2, result, 2 + segment.length, jpeg.length - 2);
+        return result;
+    }
+
+    /**
+     * 只包含Orientation标签的大端序APP1段
+     */
+    private static byte[] exifSegment(int orientation) {
+        return new byte[]{(byte) 0xFF, (byte) 0xE1, 0, 34,
+                'E', 'x', 'i', 'f', 0, 0,
+                'M', 'M', 0, 42, 0, 0, 0, 8,
+                0, 1,
+                0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, (byte) orientation, 0, 0,
+                0, 0, 0, 0};
+    }
+
+    /**
+     * 只包含Orientation标签的小端序TIFF结构
+     */
+    private static byte[] littleEndianTiff(int orientation) {
+        return new byte[]{'I', 'I', 42, 0, 8, 0, 0, 0,
+                1, 0,
+                0x12, 0x01, 3, 0, 1, 0, 0, 0, (byte) orientation, 0, 0, 0,
+                0, 0, 0, 0};
+    }
+
+    private static void writePngChunk(ByteArrayOutputStream outputStream, String type, byte[] data) throws Exception {
+        outputStream.write(new byte[]{(byte) (data.length >> 24), (byte) (data.length >> 16), (byte) (data.length >> 8), (byte) data.length});
+        outputStream.write(type.getBytes("US-ASCII"));
+        outputStream.write(data);
+        outputStream.write(new byte[4]);//解析时不校验CRC
+    }
+
+    private static byte[] chunk(String fourCc, byte[] data) throws Exception {
+        int padding = data.length & 1;
+        byte[] result = new byte[8 + data.length + padding];
+        System.arraycopy(fourCc.getBytes("US-ASCII"), 0, result, 0, 4);
+        result[4] = (byte) data.length;
+        result[5] = (byte) (data.length >> 8);
+        result[6] = (byte) (data.length >> 16);
+        result[7] = (byte) (data.length >> 24);
+        System.arraycopy(data, 0, result, 8, data.length);
+        return result;
+    }
+
+    private static byte[] riff(byte[] chunks) throws Exception {
+        byte[] result = new byte[12 + chunks.length];
+        System.arraycopy("RIFF".getBytes("US-ASCII"), 0, result, 0, 4);
+        int size = 4 + chunks.length;
+        result[4] = (byte) size;
+        result[5] = (byte) (size >> 8);
+        result[6] = (byte) (size >> 16);
+        result[7] = (byte) (size >> 24);
+        System.arraycopy("WEBP".getBytes("US-ASCII"), 0, result, 8, 4);
+        System.arraycopy(chunks, 0, result, 12, chunks.length);
+        return result;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            outputStream.write(part, 0, part.length);
+        }
+        return outputStream.toByteArray();
+    }
+}
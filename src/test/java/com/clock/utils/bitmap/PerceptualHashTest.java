@@ -0,0 +1,209 @@
+package com.clock.utils.bitmap;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * PerceptualHash、HashBKTree和DuplicatePhotoFinder单元测试
+ */
+public class PerceptualHashTest {
+
+    private final static int SIZE = PerceptualHash.SAMPLE_SIZE;
+
+    @Rule
+    public final TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mRoot;
+
+    @Before
+    public void setUp() throws Exception {
+        mRoot = mTemporaryFolder.newFolder("perceptual_hash");
+    }
+
+    @Test
+    public void similarImagesHaveCloseHashes() {
+        int[] image = pattern(1);
+        long[] hash = PerceptualHash.hash(image);
+
+        int[] brighter = image.clone();
+        for (int i = 0; i < brighter.length; i++) {
+            brighter[i] = Math.min(255, brighter[i] + 20);
+        }
+        assertTrue(PerceptualHash.hammingDistance(hash, PerceptualHash.hash(brighter)) <= 6);
+
+        int[] noisy = image.clone();
+        Random random = new Random(7);
+        for (int i = 0; i < noisy.length; i++) {
+            noisy[i] = Math.max(0, Math.min(255, noisy[i] + random.nextInt(9) - 4));
+        }
+        assertTrue(PerceptualHash.hammingDistance(hash, PerceptualHash.hash(noisy)) <= DuplicatePhotoFinder.DEFAULT_MAX_DISTANCE);
+
+        long[] other = PerceptualHash.hash(pattern(2));
+        assertTrue(PerceptualHash.hammingDistance(hash, other) > 2 * DuplicatePhotoFinder.DEFAULT_MAX_DISTANCE);
+    }
+
+    @Test
+    public void hammingDistance() {
+        assertEquals(0, PerceptualHash.hammingDistance(0x5L, 0x5L));
+        assertEquals(64, PerceptualHash.hammingDistance(0L, -1L));
+        assertEquals(3, PerceptualHash.hammingDistance(new long[]{1L, 6L}, new long[]{0L, 0L}));
+    }
+
+    @Test
+    public void toGrayscale() {
+        int[] pixels = new int[]{0xFFFFFFFF, 0xFF000000, 0xFFFF0000};
+        PerceptualHash.toGrayscale(pixels);
+        assertEquals(255, pixels[0]);
+        assertEquals(0, pixels[1]);
+        assertEquals(76, pixels[2]);
+    }
+
+    @Test
+    public void bkTreeMatchesBruteForce() {
+        Random random = new Random(42);
+        List<long[]> hashes = new ArrayList<long[]>();
+        HashBKTree tree = new HashBKTree();
+        for (int i = 0; i < 2000; i++) {
+            long[] hash = new long[]{random.nextLong(), random.nextLong()};
+            if (i % 10 == 0 && i > 0) {
+                hash = hashes.get(random.nextInt(hashes.size())).clone();
+                hash[0] ^= 1L << random.nextInt(64);
+                hash[1] ^= 1L << random.nextInt(64);
+            }
+            hashes.add(hash);
+            tree.add(hash, i);
+        }
+        tree.add(hashes.get(0), 2000);//完全相同的哈希
+        assertEquals(2001, tree.size());
+
+        for (int q = 0; q < 50; q++) {
+            long[] query = hashes.get(random.nextInt(hashes.size()));
+            List<Integer> expected = new ArrayList<Integer>();
+            for (int i = 0; i < hashes.size(); i++) {
+                if (PerceptualHash.hammingDistance(query, hashes.get(i)) <= 8) {
+                    expected.add(i);
+                }
+            }
+            if (PerceptualHash.hammingDistance(query, hashes.get(0)) <= 8) {
+                expected.add(2000);
+            }
+            List<Integer> actual = new ArrayList<Integer>();
+            tree.search(query, 8, actual);
+            Collections.sort(actual);
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void findDuplicateGroupsAndReuseIndex() throws Exception {
+        final Map<String, int[]> images = new HashMap<String, int[]>();
+        File a = createImage("a.jpg", pattern(1), images);
+        int[] copy = pattern(1);
+        copy[0] = 255;
+        File b = createImage("b.jpg", copy, images);
+        File c = createImage("c.jpg", pattern(2), images);
+        File broken = createImage("broken.jpg", null, images);
+        File indexFile = new File(mRoot, "hash.index");
+
+        DuplicatePhotoFinder finder = new DuplicatePhotoFinder(indexFile, 2);
+        finder.configGrayscaleReader(new MapGrayscaleReader(images));
+        DuplicatePhotoFinder.UpdateResult result = finder.update(Arrays.asList(a, b, c, broken));
+        assertNotNull(result);
+        assertEquals(3, result.getHashedCount());
+        assertEquals(1, result.getFailedCount());
+        assertEquals(0, result.getReusedCount());
+
+        List<List<DuplicatePhotoFinder.PhotoHash>> groups = finder.findDuplicateGroups(DuplicatePhotoFinder.DEFAULT_MAX_DISTANCE);
+        assertEquals(1, groups.size());
+        assertEquals(2, groups.get(0).size());
+        assertEquals(a.getAbsolutePath(), groups.get(0).get(0).getPath());
+        assertEquals(b.getAbsolutePath(), groups.get(0).get(1).getPath());
+
+        List<DuplicatePhotoFinder.PhotoHash> similar = finder.findSimilar(PerceptualHash.hash(pattern(2)), 0);
+        assertEquals(1, similar.size());
+        assertEquals(c.getAbsolutePath(), similar.get(0).getPath());
+
+        DuplicatePhotoFinder reopened = new DuplicatePhotoFinder(indexFile, 2);
+        assertEquals(3, reopened.loadIndex());
+        reopened.configGrayscaleReader(new MapGrayscaleReader(images));
+        result = reopened.update(Arrays.asList(a, c));
+        assertNotNull(result);
+        assertEquals(0, result.getHashedCount());
+        assertEquals(2, result.getReusedCount());
+        assertEquals(1, result.getRemovedCount());
+        assertEquals(2, reopened.size());
+        assertEquals(0, reopened.findDuplicateGroups(DuplicatePhotoFinder.DEFAULT_MAX_DISTANCE).size());
+    }
+
+    private File createImage(String name, int[] gray, Map<String, int[]> images) throws Exception {
+        File file = new File(mRoot, name);
+        FileOutputStream outputStream = new FileOutputStream(file);
+        outputStream.write(name.getBytes("UTF-8"));
+        outputStream.close();
+        if (gray != null) {
+            images.put(file.getAbsolutePath(), gray);
+        }
+        return file;
+    }
+
+    /**
+     * 对5x5的随机亮度做双线性插值，生成接近照片的平滑灰度图，不同的seed得到不同的图案
+     */
+    private static int[] pattern(int seed) {
+        Random random = new Random(seed);
+        int[] knots = new int[25];
+        for (int i = 0; i < knots.length; i++) {
+            knots[i] = random.nextInt(256);
+        }
+        int[] gray = new int[SIZE * SIZE];
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                double fx = x * 4.0 / (SIZE - 1);
+                double fy = y * 4.0 / (SIZE - 1);
+                int x0 = Math.min(3, (int) fx);
+                int y0 = Math.min(3, (int) fy);
+                double tx = fx - x0;
+                double ty = fy - y0;
+                double top = knots[y0 * 5 + x0] * (1 - tx) + knots[y0 * 5 + x0 + 1] * tx;
+                double bottom = knots[(y0 + 1) * 5 + x0] * (1 - tx) + knots[(y0 + 1) * 5 + x0 + 1] * tx;
+                gray[y * SIZE + x] = (int) (top * (1 - ty) + bottom * ty);
+            }
+        }
+        return gray;
+    }
+
+    private static class MapGrayscaleReader implements DuplicatePhotoFinder.GrayscaleReader {
+
+        private final Map<String, int[]> mImages;
+
+        MapGrayscaleReader(Map<String, int[]> images) {
+            this.mImages = images;
+        }
+
+        @Override
+        public boolean read(String path, int[] out) {
+            int[] gray = mImages.get(path);
+            if (gray == null) {
+                return false;
+            }
+            System.arraycopy(gray, 0, out, 0, out.length);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.clock.utils.crash;
+
+import com.clock.utils.metrics.Metrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * CrashExceptionHandler下次启动时恢复闪退记录的单元测试
+ */
+public class CrashExceptionHandlerTest {
+
+    private final static long DAY = 24 * 60 * 60 * 1000L;
+
+    @Rule
+    public final TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mFolder;
+
+    @Before
+    public void setUp() throws Exception {
+        mFolder = new File(mTemporaryFolder.getRoot(), "crash_handler");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Metrics.setEnabled(false);
+        Metrics.clear();
+    }
+
+    @Test
+    public void parseCrashInfo() throws Exception {
+        String crashInfo = crashInfo("aaaa", "java.lang.NullPointerException\n\tat A.a(A.java:1)\n");
+        assertEquals("aaaa", CrashExceptionHandler.parseFingerprint(crashInfo));
+        assertEquals("java.lang.NullPointerException\n\tat A.a(A.java:1)\n", CrashExceptionHandler.parseStackTrace(crashInfo));
+        assertNull(CrashExceptionHandler.parseFingerprint("broken"));
+    }
+
+    @Test
+    public void restoreWritesLogsIndexAndReport() throws Exception {
+        long now = 10 * DAY;
+        List<CrashJournal.Record> records = Arrays.asList(
+                new CrashJournal.Record(0, now - 3000, 5000000, crashInfo("aaaa", "java.lang.NullPointerException\n\tat A.a\n")),
+                new CrashJournal.Record(1, now - 2000, crashInfo("aaaa", "java.lang.NullPointerException: x\n\tat A.a\n")),
+                new CrashJournal.Record(2, now - 1000, crashInfo("bbbb", "java.lang.IllegalStateException\n\tat B.b\n")),
+                new CrashJournal.Record(3, now, "truncated"));
+        CrashIndex index = new CrashIndex(mFolder);
+        RecordingReport report = new RecordingReport();
+        Metrics.setEnabled(true);
+
+        CrashExceptionHandler.restoreRecords(records, mFolder, index, report, Long.MAX_VALUE, 30 * DAY, now);
+
+        CrashIndex reloaded = new CrashIndex(mFolder);
+        assertEquals(2, reloaded.get("aaaa").getCount());
+        assertEquals("java.lang.NullPointerException", reloaded.get("aaaa").getSummary());
+        assertEquals(1, reloaded.get("bbbb").getCount());
+        File logFile = new File(mFolder, reloaded.get("aaaa").getLogFileName());
+        assertTrue(logFile.exists());
+        assertEquals(records.get(0).getText().length(), logFile.length());
+        assertTrue(new File(mFolder, reloaded.get("bbbb").getLogFileName()).exists());
+        assertEquals(Arrays.asList("aaaa@" + (now - 3000), "aaaa@" + (now - 2000), "bbbb@" + (now - 1000)), report.mReported);
+        assertEquals("java.lang.IllegalStateException\n\tat B.b\n", report.mLastStackTrace);
+        assertEquals(1, Metrics.histogram(Metrics.CRASH_WRITE_TIME).snapshot().getCount());//只有第一条记录带有耗时
+    }
+
+    @Test
+    public void failedRestoreDoesNotReport() throws Exception {
+        File notFolder = mTemporaryFolder.newFile("not_a_folder");
+        List<CrashJournal.Record> records = Arrays.asList(
+                new CrashJournal.Record(0, 1000, crashInfo("aaaa", "java.lang.NullPointerException\n\tat A.a\n")));
+        RecordingReport report = new RecordingReport();
+        try {
+            CrashExceptionHandler.restoreRecords(records, notFolder, new CrashIndex(notFolder), report, Long.MAX_VALUE, 30 * DAY, 2000);
+            fail("folder can not be created");
+        } catch (IOException expected) {
+        }
+        assertTrue(report.mReported.isEmpty());//日志没有写成功，重试时再补报
+    }
+
+    /**
+     * 与CrashExceptionHandler.buildCrashInfo生成的格式一致
+     */
+    private static String crashInfo(String fingerprint, String stackTrace) {
+        return "------------Crash Environment Info------------\n"
+                + "------------Manufacture: null------------\n"
+                + "------------Fingerprint: " + fingerprint + "------------\n"
+                + "------------Crash Environment Info------------\n"
+                + "\n"
+                + stackTrace;
+    }
+
+    private static class RecordingReport implements CrashExceptionHandler.DeferredRemoteReport {
+
+        private final List<String> mReported = new ArrayList<String>();
+        private String mLastStackTrace;
+
+        @Override
+        public void onCrash(Throwable ex) {
+            throw new AssertionError("onCrash should not be called when restoring");
+        }
+
+        @Override
+        public void onCrashRestored(long timestamp, String fingerprint, String stackTrace) {
+            mReported.add(fingerprint + "@" + timestamp);
+            mLastStackTrace = stackTrace;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.clock.utils.crash;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * CrashIndex单元测试
+ */
+public class CrashIndexTest {
+
+    @Rule
+    public final TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private final static long DAY = 24 * 60 * 60 * 1000L;
+
+    private File mFolder;
+
+    @Before
+    public void setUp() throws Exception {
+        mFolder = mTemporaryFolder.newFolder("crash_index");
+    }
+
+    @Test
+    public void recordAggregatesAndPersists() throws Exception {
+        CrashIndex index = new CrashIndex(mFolder);
+        CrashIndex.Entry entry = index.record("aaaa", "java.lang.NullPointerException", 100);
+        assertFalse(entry.hasLogFile());
+        index.setLogFile(entry, writeLog("a.log", 10));
+        assertTrue(index.record("aaaa", "ignored", 300).hasLogFile());
+        index.record("aaaa", "ignored", 200);
+        index.record("bbbb", "java.lang.IllegalStateException", 250);
+        index.save();
+
+        List<CrashIndex.Entry> entries = new CrashIndex(mFolder).getEntries();
+        assertEquals(2, entries.size());
+        CrashIndex.Entry first = entries.get(0);
+        assertEquals("aaaa", first.getFingerprint());
+        assertEquals("java.lang.NullPointerException", first.getSummary());
+        assertEquals(3, first.getCount());
+        assertEquals(100, first.getFirstSeen());
+        assertEquals(300, first.getLastSeen());
+        assertEquals("a.log", first.getLogFileName());
+        assertEquals(1, entries.get(1).getCount());
+    }
+
+    @Test
+    public void deletedLogFileIsWrittenAgain() throws Exception {
+        CrashIndex index = new CrashIndex(mFolder);
+        File logFile = writeLog("a.log", 10);
+        index.setLogFile(index.record("aaaa", "java.lang.NullPointerException", 100), logFile);
+        assertTrue(logFile.delete());
+
+        CrashIndex.Entry entry = index.record("aaaa", "ignored", 200);
+        assertFalse(entry.hasLogFile());
+        assertEquals(2, entry.getCount());
+    }
+
+    @Test
+    public void trimByAge() throws Exception {
+        long now = 100 * DAY;
+        CrashIndex index = new CrashIndex(mFolder);
+        index.setLogFile(index.record("old", "old", now - 40 * DAY), writeLog("old.log", 10));
+        index.setLogFile(index.record("new", "new", now - DAY), writeLog("new.log", 10));
+        File legacy = writeLog("legacy.log", 10);
+        legacy.setLastModified(now - 60 * DAY);
+
+        assertEquals(2, index.trim(Long.MAX_VALUE, 30 * DAY, now));
+        assertNull(index.get("old"));
+        assertFalse(new File(mFolder, "old.log").exists());
+        assertFalse(legacy.exists());
+        assertTrue(new File(mFolder, "new.log").exists());
+    }
+
+    @Test
+    public void trimBySizeKeepsCounts() throws Exception {
+        long now = 100 * DAY;
+        CrashIndex index = new CrashIndex(mFolder);
+        index.setLogFile(index.record("a", "a", now - 3 * DAY), writeLog("a.log", 100));
+        index.setLogFile(index.record("b", "b", now - 2 * DAY), writeLog("b.log", 100));
+        index.setLogFile(index.record("c", "c", now - DAY), writeLog("c.log", 100));
+
+        assertEquals(2, index.trim(150, 30 * DAY, now));
+        assertFalse(index.get("a").hasLogFile());
+        assertFalse(index.get("b").hasLogFile());
+        assertTrue(index.get("c").hasLogFile());
+        assertEquals(1, index.get("a").getCount());
+    }
+
+    private File writeLog(String name, int size) throws Exception {
+        File file = new File(mFolder, name);
+        FileOutputStream outputStream = new FileOutputStream(file);
+        outputStream.write(new byte[size]);
+        outputStream.close();
+        return file;
+    }
+}
@@ -0,0 +1,108 @@
+package com.clock.utils.crash;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * CrashJournal单元测试
+ */
+public class CrashJournalTest {
+
+    private final static int CAPACITY = 4096;
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("crash", ".journal");
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mFile.delete();
+    }
+
+    @Test
+    public void appendAndReopen() throws Exception {
+        CrashJournal journal = new CrashJournal(mFile, CAPACITY);
+        assertEquals(CAPACITY, mFile.length());
+        assertEquals(0, journal.append(1000L, "java.lang.NullPointerException"));
+        assertEquals(1, journal.append(2000L, "中文异常信息 😀"));
+        journal.force();
+
+        CrashJournal reopened = new CrashJournal(mFile, CAPACITY);
+        List<CrashJournal.Record> records = reopened.readRecords();
+        assertEquals(2, records.size());
+        assertEquals(0, records.get(0).getSequence());
+        assertEquals(1000L, records.get(0).getTimestamp());
+        assertEquals("java.lang.NullPointerException", records.get(0).getText());
+        assertEquals("中文异常信息 😀", records.get(1).getText());
+        assertEquals(2, reopened.getNextSequence());
+    }
+
+    @Test
+    public void writeTimeIsKeptWithRecord() throws Exception {
+        CrashJournal journal = new CrashJournal(mFile, CAPACITY);
+        long first = journal.append(1000L, "first");
+        long second = journal.append(2000L, "second");
+        journal.setWriteTime(first, 123);//已经不是最后一条，忽略
+        journal.setWriteTime(second, 456789);
+
+        List<CrashJournal.Record> records = new CrashJournal(mFile, CAPACITY).readRecords();
+        assertEquals(0, records.get(0).getWriteTime());
+        assertEquals(456789, records.get(1).getWriteTime());
+        assertEquals("second", records.get(1).getText());
+    }
+
+    @Test
+    public void wrapAroundKeepsNewestRecords() throws Exception {
+        CrashJournal journal = new CrashJournal(mFile, CAPACITY);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            text.append('x');
+        }
+        for (int i = 0; i < 100; i++) {
+            journal.append(i, i + ":" + text);
+        }
+        List<CrashJournal.Record> records = new CrashJournal(mFile, CAPACITY).readRecords();
+        assertTrue(records.size() > 1);
+        assertTrue(records.size() < 100);
+        long expectedSequence = 100 - records.size();
+        for (CrashJournal.Record record : records) {
+            assertEquals(expectedSequence, record.getSequence());
+            assertEquals(expectedSequence + ":" + text, record.getText());
+            expectedSequence++;
+        }
+    }
+
+    @Test
+    public void oversizedRecordIsTruncated() throws Exception {
+        CrashJournal journal = new CrashJournal(mFile, CAPACITY);
+        journal.append(0, "first");
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < CAPACITY; i++) {
+            text.append('中');
+        }
+        journal.append(1, text);
+        List<CrashJournal.Record> records = journal.readRecords();
+        assertEquals(1, records.size());
+        assertTrue(records.get(0).getText().length() > 0);
+        assertTrue(text.toString().startsWith(records.get(0).getText()));
+    }
+
+    @Test
+    public void corruptFileIsReset() throws Exception {
+        new CrashJournal(mFile, CAPACITY).append(0, "old");
+        CrashJournal journal = new CrashJournal(mFile, CAPACITY * 2);
+        assertEquals(0, journal.getCount());
+        assertEquals(CAPACITY * 2, mFile.length());
+    }
+}
@@ -0,0 +1,184 @@
+package com.clock.utils.crash;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * CrashUploadQueue单元测试，使用本地HttpServer模拟上传接口
+ */
+public class CrashUploadQueueTest {
+
+    @Rule
+    public final TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private HttpServer mServer;
+    private File mQueueFolder;
+    private final List<String> mReceivedBodies = Collections.synchronizedList(new ArrayList<String>());
+    /**
+     * 前几次请求返回mFailureCode
+     */
+    private final AtomicInteger mFailuresLeft = new AtomicInteger();
+    private volatile int mFailureCode = 503;
+    private CrashUploadQueue mQueue;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/crash", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = readAll(new GZIPInputStream(exchange.getRequestBody()));
+                int responseCode;
+                if (mFailuresLeft.getAndDecrement() > 0) {
+                    responseCode = mFailureCode;
+                } else {
+                    assertEquals("gzip", exchange.getRequestHeaders().getFirst("Content-Encoding"));
+                    mReceivedBodies.add(new String(body, "UTF-8"));
+                    responseCode = 200;
+                }
+                exchange.sendResponseHeaders(responseCode, -1);
+                exchange.close();
+            }
+        });
+        mServer.start();
+
+        mQueueFolder = new File(mTemporaryFolder.getRoot(), "crash_queue");
+        URL url = new URL("http://127.0.0.1:" + mServer.getAddress().getPort() + "/crash");
+        mQueue = new CrashUploadQueue(mQueueFolder, new CrashUploadQueue.HttpTransport(url));
+        mQueue.configRetry(3, 10);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.stop(0);
+    }
+
+    @Test
+    public void duplicatesAreMergedByFingerprint() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            mQueue.onCrash(createException("index " + i));//消息不同，堆栈相同
+        }
+        mQueue.onCrash(new IllegalStateException("other"));
+        assertEquals(4, mQueue.getPendingCount());
+
+        assertTrue(mQueue.flush());
+        assertEquals(0, mQueue.getPendingCount());
+        assertEquals(1, mReceivedBodies.size());
+        String body = mReceivedBodies.get(0);
+        assertTrue(body, body.contains("\"count\":3"));
+        assertTrue(body, body.contains("\"count\":1"));
+        assertTrue(body, body.contains("java.lang.IllegalStateException: other"));
+    }
+
+    @Test
+    public void batchesAndRetry() throws Exception {
+        mQueue.configBatchSize(1);
+        mQueue.enqueue(1, "aaaa", "trace \"a\"\n\tat A.a");
+        mQueue.enqueue(2, "bbbb", "trace b");
+        mFailuresLeft.set(2);
+
+        assertTrue(mQueue.flush());
+        assertEquals(2, mReceivedBodies.size());
+        assertEquals("{\"crashes\":[{\"fingerprint\":\"aaaa\",\"count\":1,\"firstTimestamp\":1,\"lastTimestamp\":1,"
+                + "\"stackTrace\":\"trace \\\"a\\\"\\n\\tat A.a\"}]}", mReceivedBodies.get(0));
+    }
+
+    @Test
+    public void failedUploadKeepsPendingFiles() throws Exception {
+        mQueue.enqueue(1, "aaaa", "trace");
+        mFailuresLeft.set(100);
+
+        assertFalse(mQueue.flush());
+        assertEquals(1, mQueue.getPendingCount());
+
+        mFailuresLeft.set(0);
+        assertTrue(mQueue.flush());
+        assertEquals(0, mQueue.getPendingCount());
+    }
+
+    @Test
+    public void throttledUploadIsRetried() throws Exception {
+        mQueue.enqueue(1, "aaaa", "trace");
+        mFailureCode = 429;
+        mFailuresLeft.set(1);
+
+        assertTrue(mQueue.flush());
+        assertEquals(1, mReceivedBodies.size());
+        assertEquals(0, mQueue.getPendingCount());
+    }
+
+    @Test
+    public void rejectedBatchIsDropped() throws Exception {
+        mQueue.configBatchSize(1);
+        mQueue.enqueue(1, "aaaa", "trace a");
+        mQueue.enqueue(2, "bbbb", "trace b");
+        mFailureCode = 400;
+        mFailuresLeft.set(1);
+
+        assertFalse(mQueue.flush());
+        assertEquals(1, mReceivedBodies.size());//第一批被拒绝，第二批照常上传
+        assertTrue(mReceivedBodies.get(0), mReceivedBodies.get(0).contains("bbbb"));
+        assertEquals(0, mQueue.getPendingCount());
+    }
+
+    @Test
+    public void transportRuntimeExceptionKeepsPendingFiles() throws Exception {
+        final AtomicInteger sendCount = new AtomicInteger();
+        CrashUploadQueue queue = new CrashUploadQueue(mQueueFolder, new CrashUploadQueue.Transport() {
+            @Override
+            public boolean send(byte[] gzipBody) throws IOException {
+                sendCount.incrementAndGet();
+                throw new IllegalStateException("broken transport");
+            }
+        });
+        queue.enqueue(1, "aaaa", "trace");
+
+        assertFalse(queue.flush());
+        assertEquals(1, sendCount.get());
+        assertEquals(1, queue.getPendingCount());
+    }
+
+    @Test
+    public void fingerprintIgnoresMessage() throws Exception {
+        assertEquals(CrashFingerprint.of(createException("a")), CrashFingerprint.of(createException("b")));
+        assertNotEquals(CrashFingerprint.of(createException("a")), CrashFingerprint.of(new IllegalArgumentException("a")));
+    }
+
+    private static RuntimeException createException(String message) {
+        return new IndexOutOfBoundsException(message);
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, count);
+        }
+        return outputStream.toByteArray();
+    }
+}
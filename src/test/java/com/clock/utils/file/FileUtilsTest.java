@@ -0,0 +1,162 @@
+package com.clock.utils.file;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * FileUtils单元测试
+ */
+public class FileUtilsTest {
+
+    @Rule
+    public final TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mRoot;
+
+    @Before
+    public void setUp() throws Exception {
+        mRoot = mTemporaryFolder.newFolder("file_utils");
+    }
+
+    @Test
+    public void copyAndMoveFile() throws Exception {
+        byte[] data = createData(3 * 1024 * 1024 + 17);
+        File src = new File(mRoot, "src.bin");
+        FileUtils.writeAtomically(src, data);
+
+        File copy = new File(mRoot, "a/b/copy.bin");
+        final long[] lastProgress = new long[1];
+        FileUtils.copyFile(src, copy, new FileUtils.OnProgressListener() {
+            @Override
+            public boolean onProgress(long current, long total) {
+                lastProgress[0] = current;
+                return true;
+            }
+        });
+        assertEquals(data.length, lastProgress[0]);
+        assertArrayEquals(data, FileUtils.readBytes(copy));
+        assertArrayEquals(new String[]{"copy.bin"}, copy.getParentFile().list());
+
+        File moved = new File(mRoot, "moved.bin");
+        FileUtils.moveFile(copy, moved, null);
+        assertFalse(copy.exists());
+        assertArrayEquals(data, FileUtils.readBytes(moved));
+    }
+
+    @Test
+    public void cancelKeepsDestinationUntouched() throws Exception {
+        File src = new File(mRoot, "src.bin");
+        FileUtils.writeAtomically(src, createData(1024));
+        File dest = new File(mRoot, "dest.bin");
+        FileUtils.writeAtomically(dest, "old", "UTF-8");
+        try {
+            FileUtils.copyFile(src, dest, new FileUtils.OnProgressListener() {
+                @Override
+                public boolean onProgress(long current, long total) {
+                    return false;
+                }
+            });
+            fail();
+        } catch (InterruptedIOException e) {
+            //expected
+        }
+        assertEquals("old", FileUtils.readText(dest, "UTF-8"));
+        assertEquals(2, mRoot.list().length);//临时文件已删除
+    }
+
+    @Test
+    public void failedAtomicWriteKeepsOldContent() throws Exception {
+        File file = new File(mRoot, "text.txt");
+        FileUtils.writeAtomically(file, "old", "UTF-8");
+        try {
+            FileUtils.writeAtomically(file, new FileUtils.StreamWriter() {
+                @Override
+                public void writeTo(OutputStream outputStream) throws IOException {
+                    outputStream.write(1);
+                    throw new IOException("disk full");
+                }
+            });
+            fail();
+        } catch (IOException e) {
+            //expected
+        }
+        assertEquals("old", FileUtils.readText(file, "UTF-8"));
+    }
+
+    @Test
+    public void atomicWriteKeepsFileNamedLikeTemp() throws Exception {
+        File file = new File(mRoot, "text.txt");
+        File userFile = new File(mRoot, "text.txt.tmp");
+        FileUtils.writeAtomically(userFile, "user", "UTF-8");
+        FileUtils.writeAtomically(file, "new", "UTF-8");
+        assertEquals("new", FileUtils.readText(file, "UTF-8"));
+        assertEquals("user", FileUtils.readText(userFile, "UTF-8"));
+        assertEquals(2, mRoot.list().length);
+    }
+
+    @Test
+    public void directoryOperations() throws Exception {
+        File srcDir = new File(mRoot, "src");
+        FileUtils.writeAtomically(new File(srcDir, "1.txt"), createData(100));
+        FileUtils.writeAtomically(new File(srcDir, "sub/2.txt"), createData(200));
+        FileUtils.writeAtomically(new File(srcDir, "sub/deeper/3.txt"), createData(300));
+        assertEquals(600, FileUtils.getSize(srcDir));
+
+        File destDir = new File(mRoot, "dest");
+        final long[] lastProgress = new long[2];
+        FileUtils.copyDirectory(srcDir, destDir, new FileUtils.OnProgressListener() {
+            @Override
+            public boolean onProgress(long current, long total) {
+                lastProgress[0] = current;
+                lastProgress[1] = total;
+                return true;
+            }
+        });
+        assertEquals(600, lastProgress[0]);
+        assertEquals(600, lastProgress[1]);
+        assertEquals(600, FileUtils.getSize(destDir));
+        assertArrayEquals(createData(300), FileUtils.readBytes(new File(destDir, "sub/deeper/3.txt")));
+
+        try {
+            FileUtils.copyDirectory(srcDir, new File(srcDir, "sub/inner"), null);
+            fail();
+        } catch (IOException e) {
+            //expected
+        }
+
+        assertTrue(FileUtils.delete(srcDir));
+        assertFalse(srcDir.exists());
+    }
+
+    @Test
+    public void copyStream() throws Exception {
+        byte[] data = createData(200 * 1024 + 3);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        assertEquals(data.length, FileUtils.copyStream(new ByteArrayInputStream(data), outputStream, data.length, null));
+        assertTrue(Arrays.equals(data, outputStream.toByteArray()));
+    }
+
+    private static byte[] createData(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + (i >> 8));
+        }
+        return data;
+    }
+}
@@ -0,0 +1,95 @@
+package com.clock.utils.file;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ImageScanner单元测试，使用假的ImageInfoReader代替真实解码
+ */
+public class ImageScannerTest {
+
+    @Rule
+    public final TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mRoot;
+    private File mIndexFile;
+    private final AtomicInteger mReadCalls = new AtomicInteger();
+    private final ImageScanner.ImageInfoReader mReader = new ImageScanner.ImageInfoReader() {
+        @Override
+        public boolean read(String path, int[] out) {
+            mReadCalls.incrementAndGet();
+            if (path.endsWith("broken.jpg")) {
+                return false;
+            }
+            out[0] = 4000;
+            out[1] = 3000;
+            out[2] = 90;
+            return true;
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        mRoot = new File(mTemporaryFolder.getRoot(), "image_scanner");
+        mIndexFile = new File(mRoot, "index/images.index");
+        for (int i = 0; i < 10; i++) {
+            for (int j = 0; j < 10; j++) {
+                createFile("DCIM/album" + i + "/IMG_" + j + ".jpg");
+            }
+            createFile("DCIM/album" + i + "/nested/deeper/IMG_" + i + ".PNG");
+        }
+        createFile("DCIM/notes.txt");
+        createFile("DCIM/broken.jpg");
+        createFile("DCIM/.thumbnails/thumb.jpg");
+        createFile("Android/data/app/cache/.nomedia");
+        createFile("Android/data/app/cache/cached.jpg");
+    }
+
+    @Test
+    public void incrementalScan() throws Exception {
+        ImageScanner scanner = new ImageScanner(mIndexFile, 4);
+        scanner.configImageInfoReader(mReader);
+
+        ImageScanner.ScanResult result = scanner.scan(Collections.singletonList(mRoot));
+        assertEquals(110, result.getImages().size());
+        assertEquals(111, result.getReadCount());
+        assertEquals(111, mReadCalls.get());
+        ImageScanner.ImageInfo info = result.getImages().get(0);
+        assertEquals(4000, info.getWidth());
+        assertEquals(90, info.getDegree());
+
+        mReadCalls.set(0);
+        result = scanner.scan(Collections.singletonList(mRoot));
+        assertEquals(110, result.getImages().size());
+        assertEquals(110, result.getReusedCount());
+        assertEquals(1, mReadCalls.get());//只有无效的图片会再次读取
+
+        File changed = new File(mRoot, "DCIM/album3/IMG_3.jpg");
+        assertTrue(changed.setLastModified(changed.lastModified() - 60 * 1000));
+        assertTrue(new File(mRoot, "DCIM/album4/IMG_4.jpg").delete());
+        mReadCalls.set(0);
+        ImageScanner another = new ImageScanner(mIndexFile, 2);
+        another.configImageInfoReader(mReader);
+        result = another.scan(Collections.singletonList(mRoot));
+        assertEquals(109, result.getImages().size());
+        assertEquals(1, result.getRemovedCount());
+        assertEquals(2, mReadCalls.get());//修改过的图片和无效的图片
+
+        List<ImageScanner.ImageInfo> loaded = new ImageScanner(mIndexFile).loadIndex();
+        assertEquals(109, loaded.size());
+    }
+
+    private void createFile(String relativePath) throws Exception {
+        FileUtils.writeAtomically(new File(mRoot, relativePath), relativePath, "UTF-8");
+    }
+}
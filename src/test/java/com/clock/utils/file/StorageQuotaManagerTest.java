@@ -0,0 +1,91 @@
+package com.clock.utils.file;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * StorageQuotaManager清理逻辑单元测试
+ */
+public class StorageQuotaManagerTest {
+
+    @Rule
+    public final TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mRoot;
+
+    @Before
+    public void setUp() throws Exception {
+        mRoot = mTemporaryFolder.newFolder("storage_quota");
+    }
+
+    @Test
+    public void trimDeletesLeastRecentlyUsedFirst() throws Exception {
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        File oldest = createFile("a.jpg", 100, now - 40000);
+        File older = createFile("sub/b.jpg", 100, now - 30000);
+        File recent = createFile("c.jpg", 100, now - 20000);
+        File newest = createFile("sub/d.jpg", 100, now - 10000);
+
+        long usage = StorageQuotaManager.trim(mRoot, 250, null, new HashMap<String, Long>());
+        assertEquals(200, usage);
+        assertFalse(oldest.exists());
+        assertFalse(older.exists());
+        assertTrue(recent.exists());
+        assertTrue(newest.exists());
+    }
+
+    @Test
+    public void trimKeepsFilteredFilesAndUnderQuota() throws Exception {
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        File index = createFile("photos.index", 100, now - 50000);
+        File photo = createFile("1.jpg", 100, now - 10000);
+
+        assertEquals(200, StorageQuotaManager.trim(mRoot, 200, null, new HashMap<String, Long>()));
+        assertTrue(index.exists());
+
+        long usage = StorageQuotaManager.trim(mRoot, 50, new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return !"photos.index".equals(file.getName());
+            }
+        }, new HashMap<String, Long>());
+        assertEquals(100, usage);
+        assertTrue(index.exists());
+        assertFalse(photo.exists());
+    }
+
+    @Test
+    public void trimPrefersAccessTimesKeptInMemory() throws Exception {
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        File touched = createFile("a.jpg", 100, now - 40000);
+        File untouched = createFile("b.jpg", 100, now - 30000);
+        Map<String, Long> accessTimes = new HashMap<String, Long>();
+        accessTimes.put(touched.getAbsolutePath(), now);//文件系统不支持setLastModified时只有内存中的使用时间
+
+        assertEquals(100, StorageQuotaManager.trim(mRoot, 150, null, accessTimes));
+        assertTrue(touched.exists());
+        assertFalse(untouched.exists());
+        assertTrue(accessTimes.containsKey(touched.getAbsolutePath()));
+
+        assertEquals(0, StorageQuotaManager.trim(mRoot, 0, null, accessTimes));
+        assertTrue(accessTimes.isEmpty());
+    }
+
+    private File createFile(String name, int length, long lastModified) throws Exception {
+        File file = new File(mRoot, name);
+        FileUtils.writeAtomically(file, new byte[length]);
+        assertTrue(file.setLastModified(lastModified));
+        return file;
+    }
+}
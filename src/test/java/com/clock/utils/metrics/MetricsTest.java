@@ -0,0 +1,124 @@
+package com.clock.utils.metrics;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Metrics、Counter、Histogram单元测试
+ */
+public class MetricsTest {
+
+    @After
+    public void tearDown() throws Exception {
+        Metrics.setEnabled(false);
+        Metrics.clear();
+    }
+
+    @Test
+    public void bucketBoundsCoverAllValues() throws Exception {
+        long[] values = {0, 1, 15, 16, 17, 31, 32, 33, 1000, 123456789L, Long.MAX_VALUE};
+        for (long value : values) {
+            int index = Histogram.bucketIndex(value);
+            assertTrue(Histogram.lowestValue(index) <= value);
+            assertTrue(Histogram.highestValue(index) >= value);
+            long width = Histogram.highestValue(index) - Histogram.lowestValue(index) + 1;
+            assertTrue(width <= Math.max(1, value / Histogram.SUB_BUCKET_COUNT));
+        }
+        for (int index = 1; index < Histogram.bucketIndex(Long.MAX_VALUE); index++) {
+            assertEquals(Histogram.highestValue(index - 1) + 1, Histogram.lowestValue(index));
+        }
+    }
+
+    @Test
+    public void percentilesWithinPrecision() throws Exception {
+        Histogram histogram = Metrics.histogram("test.latency");
+        for (int i = 1; i <= 10000; i++) {
+            histogram.record(i * 1000L);
+        }
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(10000, snapshot.getCount());
+        assertWithin(1000, snapshot.getMin());//最值取自桶的边界
+        assertWithin(10000000, snapshot.getMax());
+        assertTrue(snapshot.getMin() <= 1000);
+        assertTrue(snapshot.getMax() >= 10000000);
+        assertEquals(5000500.0, snapshot.getMean(), 0.001);
+        assertWithin(5000000, snapshot.getValueAtPercentile(50));
+        assertWithin(9900000, snapshot.getValueAtPercentile(99));
+        assertEquals(snapshot.getMax(), snapshot.getValueAtPercentile(100));
+        assertEquals(snapshot.getMin(), snapshot.getValueAtPercentile(0));
+
+        Histogram.Snapshot reset = histogram.snapshot(true);
+        assertEquals(10000, reset.getCount());
+        Histogram.Snapshot empty = histogram.snapshot();
+        assertEquals(0, empty.getCount());
+        assertEquals(0, empty.getValueAtPercentile(50));
+    }
+
+    @Test
+    public void concurrentCounting() throws Exception {
+        final Counter counter = Metrics.counter("test.counter");
+        final Histogram histogram = Metrics.histogram("test.values");
+        final int threads = 8;
+        final int perThread = 20000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        counter.inc();
+                        histogram.record(i);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        assertEquals(threads * perThread, counter.get());
+        assertEquals(threads * perThread, histogram.snapshot().getCount());
+        assertEquals(threads * perThread, counter.getAndReset());
+        assertEquals(0, counter.get());
+    }
+
+    @Test
+    public void disabledRecordsNothing() throws Exception {
+        assertEquals(0, Metrics.startTimer());
+        Metrics.increment(Metrics.BITMAP_DECODE_FAILURE);
+        Metrics.record(Metrics.BITMAP_DECODE_BYTES, 100);
+        Metrics.recordDuration(Metrics.BITMAP_DECODE_TIME, 0);
+        Metrics.Snapshot snapshot = Metrics.snapshot(false);
+        assertEquals(0, snapshot.getCounter(Metrics.BITMAP_DECODE_FAILURE));
+        assertNull(snapshot.getHistogram(Metrics.BITMAP_DECODE_BYTES));
+    }
+
+    @Test
+    public void snapshotToJson() throws Exception {
+        Metrics.setEnabled(true);
+        long startTime = Metrics.startTimer();
+        assertTrue(startTime != 0);
+        Metrics.recordDuration(Metrics.BITMAP_DECODE_TIME, startTime);
+        Metrics.record(Metrics.BITMAP_DECODE_SAMPLE_SIZE, 4);
+        Metrics.increment(Metrics.BITMAP_SAVE_FAILURE);
+
+        Metrics.Snapshot snapshot = Metrics.snapshot(true);
+        assertEquals(1, snapshot.getCounter(Metrics.BITMAP_SAVE_FAILURE));
+        assertNotNull(snapshot.getHistogram(Metrics.BITMAP_DECODE_TIME));
+        String json = snapshot.toJson();
+        assertTrue(json.startsWith("{\"timestamp\":"));
+        assertTrue(json.contains("\"counters\":{\"bitmap.save.failure\":1}"));
+        assertTrue(json.contains("\"bitmap.decode.sample_size\":{\"count\":1,\"min\":4,\"max\":4,\"mean\":4,\"p50\":4,\"p90\":4,\"p99\":4,\"p999\":4}"));
+
+        assertEquals(0, Metrics.snapshot(false).getCounter(Metrics.BITMAP_SAVE_FAILURE));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("expected ~" + expected + " but was " + actual, Math.abs(actual - expected) <= expected / Histogram.SUB_BUCKET_COUNT);
+    }
+}
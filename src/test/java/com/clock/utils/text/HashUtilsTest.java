@@ -0,0 +1,79 @@
+package com.clock.utils.text;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.security.MessageDigest;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * HashUtils单元测试，xxHash64的期望值由xxHash参考实现（XXH64）计算得到
+ */
+public class HashUtilsTest {
+
+    private final static String CACHE_KEY = "/storage/emulated/0/DCIM/Camera/IMG_20160308.jpg#1457400000000#480x800";
+
+    @Test
+    public void md5() throws Exception {
+        assertEquals("d41d8cd98f00b204e9800998ecf8427e", HashUtils.md5(""));
+        assertEquals("900150983cd24fb0d6963f7d28e17f72", HashUtils.md5("abc"));
+        assertEquals("9e107d9d372bb6826bd81d3542a419d6", HashUtils.md5("The quick brown fox jumps over the lazy dog"));
+        assertEquals(HashUtils.md5(CACHE_KEY), StringUtils.md5(CACHE_KEY));
+    }
+
+    @Test
+    public void sha() throws Exception {
+        assertEquals("a9993e364706816aba3e25717850c26c9cd0d89d", HashUtils.sha1("abc"));
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", HashUtils.sha256("abc"));
+    }
+
+    @Test
+    public void utf8MatchesJdkEncoder() throws Exception {
+        String[] values = {"中文图片.jpg", "emoji 😀", "unpaired \uD800 surrogate", "é߿ࠀ￿"};
+        for (String value : values) {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            String expected = HashUtils.toHexString(digest.digest(value.getBytes("UTF-8")));
+            assertEquals(value, expected, HashUtils.md5(value));
+        }
+    }
+
+    @Test
+    public void streamAndFile() throws Exception {
+        byte[] data = new byte[200 * 1024 + 7];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        String expected = HashUtils.toHexString(MessageDigest.getInstance("MD5").digest(data));
+        assertEquals(expected, HashUtils.md5(new ByteArrayInputStream(data)));
+
+        File file = File.createTempFile("hash", ".bin");
+        try {
+            FileOutputStream outputStream = new FileOutputStream(file);
+            outputStream.write(data);
+            outputStream.close();
+            assertEquals(expected, HashUtils.md5(file));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void xxHash64() throws Exception {
+        assertEquals(0xEF46DB3751D8E999L, HashUtils.xxHash64(""));
+        assertEquals(0xD24EC4F1A98C6E5BL, HashUtils.xxHash64("a"));
+        assertEquals(0x44BC2CF5AD770999L, HashUtils.xxHash64("abc"));
+        assertEquals(0x0B242D361FDA71BCL, HashUtils.xxHash64("The quick brown fox jumps over the lazy dog"));
+        assertEquals(0xEB3342EAB7ADAC5DL, HashUtils.xxHash64(CACHE_KEY));
+        assertEquals(0x951C7914EC0FA654L, HashUtils.xxHash64("中文图片.jpg"));
+        assertEquals("ef46db3751d8e999", HashUtils.xxHash64Hex(""));
+
+        byte[] data = new byte[100];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        assertEquals(0x819D2B726001D507L, HashUtils.xxHash64(data, 0, data.length, 42));
+    }
+}